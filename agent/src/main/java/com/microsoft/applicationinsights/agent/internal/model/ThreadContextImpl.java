@@ -123,6 +123,9 @@ public class ThreadContextImpl<T> implements ThreadContextPlus {
 
     @Override
     public void captureLoggerSpan(MessageSupplier messageSupplier, @Nullable Throwable throwable) {
+        if (sdkBinding.isSampledOut(throwable == null ? "Trace" : "Exception")) {
+            return;
+        }
         LoggerSpans.track(sdkBinding.getSdkBridge(), messageSupplier, throwable, System.currentTimeMillis());
     }
 
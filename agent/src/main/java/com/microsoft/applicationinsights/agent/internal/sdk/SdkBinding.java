@@ -62,6 +62,11 @@ public class SdkBinding<T> implements BindingResult {
         }
     }
 
+    // items of operations sampled out when they started do not need to be built
+    public boolean isSampledOut(String telemetryType) {
+        return requestTelemetryContext != null && sdkBridge.isSampledOut(requestTelemetryContext, telemetryType);
+    }
+
     public void addAuxThreadContextHolder(ThreadContextThreadLocal.Holder auxThreadContextHolder) {
         // since other accesses to auxThreadContextHolders are synchronized, may as well make this one synchronized and
         // then don't need to use a concurrent hash set
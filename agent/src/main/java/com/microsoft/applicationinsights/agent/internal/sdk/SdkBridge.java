@@ -34,6 +34,9 @@ public interface SdkBridge<T> {
 
     void setOperationName(T requestTelemetryContext, String operationName);
 
+    // telemetryType is the name used in the sampling configuration, e.g. "Trace" or "Exception"
+    boolean isSampledOut(T requestTelemetryContext, String telemetryType);
+
     String generateChildDependencyTarget(String requestContext, boolean w3c);
 
     <C> String propagate(Setter<C> setter, C carrier, boolean w3c, boolean w3cBackCompat);
@@ -22,6 +22,7 @@
 package com.microsoft.applicationinsights.autoconfigure;
 
 import com.microsoft.applicationinsights.autoconfigure.ApplicationInsightsProperties.HeartBeat;
+import com.microsoft.applicationinsights.autoconfigure.ApplicationInsightsProperties.TelemetryProcessor.Redaction;
 import com.microsoft.applicationinsights.autoconfigure.ApplicationInsightsProperties.TelemetryProcessor.Sampling;
 import com.microsoft.applicationinsights.autoconfigure.HeartBeatProvider.SpringBootHeartBeatProvider;
 import com.microsoft.applicationinsights.autoconfigure.initializer.SpringBootTelemetryInitializer;
@@ -35,6 +36,7 @@ import com.microsoft.applicationinsights.internal.heartbeat.HeartBeatPayloadProv
 import com.microsoft.applicationinsights.internal.heartbeat.HeartbeatDefaultPayload;
 import com.microsoft.applicationinsights.internal.perfcounter.JvmPerformanceCountersModule;
 import com.microsoft.applicationinsights.internal.perfcounter.ProcessPerformanceCountersModule;
+import com.microsoft.applicationinsights.internal.processor.RedactionTelemetryProcessor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -189,4 +191,25 @@ class ApplicationInsightsModuleConfiguration {
         return processor;
     }
 
+    /**
+     * Bean for RedactionTelemetryProcessor. This bean helps in configuring the redaction of trace messages and
+     * custom properties.
+     * @return instance of {@link RedactionTelemetryProcessor}
+     */
+    @Bean
+    @ConditionalOnProperty(value = "azure.application-insights.telemetry-processor.redaction.enabled", havingValue = "true")
+    TelemetryProcessor redactionTelemetryProcessor() {
+        Redaction redaction = applicationInsightsProperties.getTelemetryProcessor().getRedaction();
+        RedactionTelemetryProcessor processor = new RedactionTelemetryProcessor();
+        processor.setReplacement(redaction.getReplacement());
+        processor.setIgnoreCase(String.valueOf(redaction.isIgnoreCase()));
+        for (String literal : redaction.getLiterals()) {
+            processor.setLiteral(literal);
+        }
+        for (String pattern : redaction.getPatterns()) {
+            processor.setPattern(pattern);
+        }
+        return processor;
+    }
+
 }
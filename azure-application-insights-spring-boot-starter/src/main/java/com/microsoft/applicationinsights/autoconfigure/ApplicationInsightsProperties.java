@@ -35,6 +35,7 @@ import com.microsoft.applicationinsights.internal.logger.InternalLogger.LoggerOu
 import com.microsoft.applicationinsights.internal.logger.InternalLogger.LoggingLevel;
 import com.microsoft.applicationinsights.internal.perfcounter.JmxMetricPerformanceCounter;
 import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterContainer;
+import com.microsoft.applicationinsights.internal.processor.RedactionTelemetryProcessor;
 import com.microsoft.applicationinsights.web.extensibility.initializers.WebOperationIdTelemetryInitializer;
 import com.microsoft.applicationinsights.web.extensibility.initializers.WebOperationNameTelemetryInitializer;
 import com.microsoft.applicationinsights.web.extensibility.initializers.WebSessionTelemetryInitializer;
@@ -290,6 +291,9 @@ public class ApplicationInsightsProperties {
     /** Configuration of {@link FixedRateSamplingTelemetryProcessor}. */
     private Sampling sampling = new Sampling();
 
+    /** Configuration of {@link RedactionTelemetryProcessor}. */
+    private Redaction redaction = new Redaction();
+
     public Sampling getSampling() {
       return sampling;
     }
@@ -298,6 +302,14 @@ public class ApplicationInsightsProperties {
       this.sampling = sampling;
     }
 
+    public Redaction getRedaction() {
+      return redaction;
+    }
+
+    public void setRedaction(Redaction redaction) {
+      this.redaction = redaction;
+    }
+
     static class Sampling {
 
       private boolean enabled = false;
@@ -345,6 +357,60 @@ public class ApplicationInsightsProperties {
         this.exclude = exclude;
       }
     }
+
+    static class Redaction {
+
+      private boolean enabled = false;
+
+      /** Strings replaced in trace messages and custom properties. */
+      private List<String> literals = new ArrayList<>();
+      /** Regular expressions replaced in trace messages and custom properties. */
+      private List<String> patterns = new ArrayList<>();
+      /** Replacement of the occurrences of the literals and patterns. */
+      private String replacement = RedactionTelemetryProcessor.DEFAULT_REPLACEMENT;
+      /** Ignore the case of the literals and patterns. */
+      private boolean ignoreCase = false;
+
+      public boolean isEnabled() {
+        return enabled;
+      }
+
+      public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+      }
+
+      public List<String> getLiterals() {
+        return literals;
+      }
+
+      public void setLiterals(List<String> literals) {
+        this.literals = literals;
+      }
+
+      public List<String> getPatterns() {
+        return patterns;
+      }
+
+      public void setPatterns(List<String> patterns) {
+        this.patterns = patterns;
+      }
+
+      public String getReplacement() {
+        return replacement;
+      }
+
+      public void setReplacement(String replacement) {
+        this.replacement = replacement;
+      }
+
+      public boolean isIgnoreCase() {
+        return ignoreCase;
+      }
+
+      public void setIgnoreCase(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+      }
+    }
   }
 
   static class Web {
@@ -38,10 +38,12 @@ import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.perfcounter.JvmPerformanceCountersModule;
 import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter;
 import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterContainer;
+import com.microsoft.applicationinsights.internal.processor.RedactionTelemetryProcessor;
 import com.microsoft.applicationinsights.telemetry.EventTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import com.microsoft.applicationinsights.telemetry.TelemetryContext;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
 import com.microsoft.applicationinsights.web.extensibility.modules.WebUserTrackingTelemetryModule;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -205,6 +207,28 @@ public final class ApplicationInsightsTelemetryAutoConfigurationTests {
         assertThat(fixedRateSamplingTelemetryProcessor.getExcludedTypes()).isEmpty();
     }
 
+    @Test
+    public void shouldBeAbleToConfigureRedactionTelemetryProcessor() {
+        EnvironmentTestUtils.addEnvironment(context,
+                "azure.application-insights.instrumentation-key: 00000000-0000-0000-0000-000000000000",
+                "azure.application-insights.telemetry-processor.redaction.literals=secret-key",
+                "azure.application-insights.telemetry-processor.redaction.patterns[0]=\\d{4,}",
+                "azure.application-insights.telemetry-processor.redaction.replacement=[REDACTED]",
+                "azure.application-insights.telemetry-processor.redaction.enabled=true");
+        context.register(PropertyPlaceholderAutoConfiguration.class,
+                ApplicationInsightsTelemetryAutoConfiguration.class);
+        context.refresh();
+
+        TelemetryConfiguration telemetryConfiguration = context.getBean(TelemetryConfiguration.class);
+        RedactionTelemetryProcessor redactionTelemetryProcessor = context.getBean(RedactionTelemetryProcessor.class);
+
+        assertThat(telemetryConfiguration.getTelemetryProcessors()).extracting("class").contains(RedactionTelemetryProcessor.class);
+
+        TraceTelemetry telemetry = new TraceTelemetry("key secret-key for account 123456");
+        redactionTelemetryProcessor.process(telemetry);
+        assertThat(telemetry.getMessage()).isEqualTo("key [REDACTED] for account [REDACTED]");
+    }
+
     @Test
     public void shouldBeAbleToDisableAllWebModules() {
         EnvironmentTestUtils.addEnvironment(context,
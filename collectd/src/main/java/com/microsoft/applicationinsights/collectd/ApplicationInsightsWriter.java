@@ -21,7 +21,9 @@
 
 package com.microsoft.applicationinsights.collectd;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.naming.ConfigurationException;
 
@@ -186,15 +188,18 @@ public class ApplicationInsightsWriter implements
 
         try {
             String pluginName = valueList.getPlugin();
+            List<MetricTelemetry> metricTelemetries = new ArrayList<MetricTelemetry>(valueList.getValues().size());
             for (int i = 0; i < valueList.getValues().size(); i++) {
                 boolean dataSourceExcluded = isDataSourceExcluded(pluginName, valueList.getDataSet(), i);
                 if (dataSourceExcluded) {
                     continue;
                 }
 
-                MetricTelemetry metricTelemetry = createMetricTelemetry(valueList, i);
-                this.telemetryClient.trackMetric(metricTelemetry);
+                metricTelemetries.add(createMetricTelemetry(valueList, i));
             }
+
+            // all the values of the list in one go, collectd calls this method very frequently
+            this.telemetryClient.trackAll(metricTelemetries);
         } catch (ThreadDeath td) {
             throw td;
         } catch (Throwable t) {
@@ -34,6 +34,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import static org.mockito.Mockito.mock;
@@ -85,12 +86,13 @@ public class ApplicationInsightsWriterTests {
         Mockito.doAnswer(new Answer() {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
-                MetricTelemetry telemetry = (MetricTelemetry) invocation.getArguments()[0];
-                telemetriesSent.add(telemetry);
+                for (Object telemetry : (Collection<?>) invocation.getArguments()[0]) {
+                    telemetriesSent.add((MetricTelemetry) telemetry);
+                }
 
                 return null;
             }
-        }).when(this.telemetryClient).trackMetric(Matchers.any(MetricTelemetry.class));
+        }).when(this.telemetryClient).trackAll(Matchers.<Collection<MetricTelemetry>>any());
 
         defaultConfiguration = initializeConfiguration();
         this.writerUnderTest = new ApplicationInsightsWriter(this.telemetryClient, new ApplicationInsightsWriterLogger(false));
@@ -0,0 +1,421 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.applicationinsights.extensibility.ThreadStateCapture;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
+
+/**
+ * Runs the telemetry pipeline of {@link TelemetryClient#track} on worker threads, so that tracking an item only
+ * costs the tracking thread a hand-off onto a bounded queue.
+ * <p>
+ * Disabled by default, it can be enabled with the system property {@value #ENABLED_PROPERTY}. The tracking thread
+ * still checks whether tracking is disabled, drops the items of the operations sampled out when they started, and
+ * stamps the items; the context initialization, the initializers, the processors, Quick Pulse and the channel then
+ * run on the workers. The state the initializers read from thread locals is carried over by the
+ * {@link ThreadStateCapture} instances registered with {@link #addThreadStateCapture}.
+ * <p>
+ * When the queue is full, the {@link OverflowPolicy} set with {@value #OVERFLOW_POLICY_PROPERTY} applies. The
+ * queue capacity and the number of workers are read from {@value #QUEUE_CAPACITY_PROPERTY} and
+ * {@value #WORKERS_PROPERTY} when the first item is tracked asynchronously. {@link TelemetryClient#flush()} waits
+ * for the queued items, the items still queued when the SDK shuts down are lost.
+ */
+public final class AsyncTrackPipeline {
+
+    /**
+     * What happens to an item tracked while the queue is full
+     */
+    public enum OverflowPolicy {
+        /** The tracking thread waits for room in the queue */
+        BLOCK,
+        /** The item is dropped */
+        DROP,
+        /** The item goes through the pipeline on the tracking thread */
+        RUN_ON_CALLER
+    }
+
+    public static final String ENABLED_PROPERTY = "applicationinsights.track.async.enabled";
+    public static final String QUEUE_CAPACITY_PROPERTY = "applicationinsights.track.async.queueCapacity";
+    public static final String WORKERS_PROPERTY = "applicationinsights.track.async.workers";
+    public static final String OVERFLOW_POLICY_PROPERTY = "applicationinsights.track.async.overflowPolicy";
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    public static final int DEFAULT_WORKERS = 2;
+
+    private static final ThreadStateCapture[] NO_CAPTURES = new ThreadStateCapture[0];
+    private static final Object s_lock = new Object();
+
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private static volatile OverflowPolicy overflowPolicy = parseOverflowPolicy(System.getProperty(OVERFLOW_POLICY_PROPERTY));
+    private static volatile ThreadStateCapture[] captures = NO_CAPTURES;
+    private static volatile AsyncTrackPipeline instance;
+
+    private static final class Entry {
+        final TelemetryClient client;
+        // either a single item or a batch
+        final Telemetry telemetry;
+        final List<Telemetry> batch;
+        final ThreadStateCapture[] captures;
+        final Object[] states;
+
+        Entry(TelemetryClient client, Telemetry telemetry, List<Telemetry> batch, ThreadStateCapture[] captures, Object[] states) {
+            this.client = client;
+            this.telemetry = telemetry;
+            this.batch = batch;
+            this.captures = captures;
+            this.states = states;
+        }
+    }
+
+    private final BlockingQueue<Entry> queue;
+    private final ExecutorService workers;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object idleLock = new Object();
+    private volatile boolean stopped;
+
+    @VisibleForTesting
+    AsyncTrackPipeline(int queueCapacity, int workerCount) {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        workers = Executors.newFixedThreadPool(workerCount, ThreadPoolUtils.createDaemonThreadFactory(AsyncTrackPipeline.class));
+        for (int i = 0; i < workerCount; ++i) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks whether the items are tracked asynchronously.
+     * @return true if the items go through the pipeline on worker threads.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        AsyncTrackPipeline.enabled = enabled;
+    }
+
+    public static OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public static void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("The overflow policy cannot be null");
+        }
+        AsyncTrackPipeline.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Registers the capture of a thread bound state read by initializers or processors.
+     * @param capture The capture.
+     */
+    public static void addThreadStateCapture(ThreadStateCapture capture) {
+        if (capture == null) {
+            throw new IllegalArgumentException("The capture cannot be null");
+        }
+        synchronized (s_lock) {
+            ThreadStateCapture[] updated = new ThreadStateCapture[captures.length + 1];
+            System.arraycopy(captures, 0, updated, 0, captures.length);
+            updated[captures.length] = capture;
+            captures = updated;
+        }
+    }
+
+    public static void removeThreadStateCapture(ThreadStateCapture capture) {
+        synchronized (s_lock) {
+            for (int i = 0; i < captures.length; ++i) {
+                if (captures[i] == capture) {
+                    ThreadStateCapture[] updated = new ThreadStateCapture[captures.length - 1];
+                    System.arraycopy(captures, 0, updated, 0, i);
+                    System.arraycopy(captures, i + 1, updated, i, captures.length - i - 1);
+                    captures = updated;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the pipeline, starting its workers on first use.
+     */
+    static AsyncTrackPipeline get() {
+        if (instance == null) {
+            synchronized (s_lock) {
+                if (instance == null) {
+                    final AsyncTrackPipeline pipeline = new AsyncTrackPipeline(
+                            Math.max(1, Integer.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY)),
+                            Math.max(1, Integer.getInteger(WORKERS_PROPERTY, DEFAULT_WORKERS)));
+                    SDKShutdownActivity.INSTANCE.register(new Stoppable() {
+                        @Override
+                        public void stop(long timeout, TimeUnit timeUnit) {
+                            pipeline.stop();
+                        }
+                    });
+                    instance = pipeline;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the pipeline if an item was already tracked asynchronously.
+     */
+    static AsyncTrackPipeline getIfStarted() {
+        return instance;
+    }
+
+    @VisibleForTesting
+    static void setInstance(AsyncTrackPipeline pipeline) {
+        synchronized (s_lock) {
+            instance = pipeline;
+        }
+    }
+
+    /**
+     * Hands an item over to the workers, capturing the state bound to the tracking thread.
+     * @return false if the caller must run the pipeline itself, because of the overflow policy.
+     */
+    boolean enqueue(TelemetryClient client, Telemetry telemetry) {
+        ThreadStateCapture[] currentCaptures = captures;
+        return enqueue(new Entry(client, telemetry, null, currentCaptures, capture(currentCaptures)));
+    }
+
+    /**
+     * Hands a batch over to the workers, as a single entry processed by one worker.
+     * @return false if the caller must run the pipeline itself, because of the overflow policy.
+     */
+    boolean enqueueAll(TelemetryClient client, List<Telemetry> batch) {
+        ThreadStateCapture[] currentCaptures = captures;
+        return enqueue(new Entry(client, null, batch, currentCaptures, capture(currentCaptures)));
+    }
+
+    private boolean enqueue(Entry entry) {
+        if (stopped) {
+            return false;
+        }
+
+        pending.incrementAndGet();
+        if (queue.offer(entry)) {
+            // stop() may have drained the queue just before the offer
+            if (stopped && queue.remove(entry)) {
+                done();
+                return false;
+            }
+            return true;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(entry);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+
+            case DROP:
+                done();
+                int count = entry.batch == null ? 1 : entry.batch.size();
+                long total = dropped.addAndGet(count);
+                if (total / 1000 != (total - count) / 1000 || total == count) {
+                    InternalLogger.INSTANCE.warn("The async track queue is full, %d items dropped till now", total);
+                }
+                if (entry.batch == null) {
+                    TelemetryPool.recycle(entry.telemetry);
+                } else {
+                    for (Telemetry telemetry : entry.batch) {
+                        TelemetryPool.recycle(telemetry);
+                    }
+                }
+                return true;
+
+            default:
+                break;
+        }
+
+        done();
+        return false;
+    }
+
+    /**
+     * Waits until the workers processed the items queued so far.
+     * @return false if the timeout elapsed first.
+     */
+    boolean awaitIdle(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        synchronized (idleLock) {
+            while (pending.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(idleLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the workers. From then on the callers run the pipeline themselves,
+     * and the items still queued are tracked by the thread stopping the pipeline.
+     */
+    void stop() {
+        stopped = true;
+        workers.shutdownNow();
+
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            try {
+                process(entry);
+            } finally {
+                done();
+            }
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                process(entry);
+            } finally {
+                done();
+            }
+        }
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    private static void process(Entry entry) {
+        restore(entry.captures, entry.states);
+        try {
+            if (entry.batch == null) {
+                entry.client.process(entry.telemetry);
+            } else {
+                entry.client.processAll(entry.batch);
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Exception while tracking telemetry asynchronously: '%s'", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        } finally {
+            // the workers are shared by all the operations, nothing may leak to the next item
+            restore(entry.captures, null);
+        }
+    }
+
+    private static Object[] capture(ThreadStateCapture[] currentCaptures) {
+        if (currentCaptures.length == 0) {
+            return null;
+        }
+        Object[] states = new Object[currentCaptures.length];
+        for (int i = 0; i < currentCaptures.length; ++i) {
+            try {
+                states[i] = currentCaptures[i].capture();
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Failed to capture the thread state of '%s', exception: %s", currentCaptures[i].getClass().getName(), t.toString());
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+        return states;
+    }
+
+    private static void restore(ThreadStateCapture[] currentCaptures, Object[] states) {
+        for (int i = 0; i < currentCaptures.length; ++i) {
+            try {
+                currentCaptures[i].restore(states == null ? null : states[i]);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Failed to restore the thread state of '%s', exception: %s", currentCaptures[i].getClass().getName(), t.toString());
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+    }
+
+    private static OverflowPolicy parseOverflowPolicy(String value) {
+        if (value != null) {
+            for (OverflowPolicy policy : OverflowPolicy.values()) {
+                if (policy.name().replace("_", "").equalsIgnoreCase(value.replace("_", "").trim())) {
+                    return policy;
+                }
+            }
+            InternalLogger.INSTANCE.warn("Unknown async track overflow policy '%s', using %s", value, OverflowPolicy.RUN_ON_CALLER);
+        }
+        return OverflowPolicy.RUN_ON_CALLER;
+    }
+}
@@ -21,8 +21,12 @@
 
 package com.microsoft.applicationinsights;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.microsoft.applicationinsights.common.CommonUtils;
@@ -31,12 +35,17 @@ import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.extensibility.context.CloudContext;
 import com.microsoft.applicationinsights.extensibility.context.InternalContext;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.OperationSampling;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector;
 import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
 import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
 import com.microsoft.applicationinsights.telemetry.*;
 import com.microsoft.applicationinsights.internal.util.MapUtil;
+import com.microsoft.applicationinsights.metrics.Metric;
+import com.microsoft.applicationinsights.metrics.MetricManager;
+import com.microsoft.applicationinsights.metrics.PipelineLatency;
+import com.microsoft.applicationinsights.channel.BatchingTelemetryChannel;
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 
 import com.google.common.base.Strings;
@@ -53,10 +62,14 @@ public class TelemetryClient {
     private final TelemetryConfiguration configuration;
     private volatile TelemetryContext context;
     private TelemetryChannel channel;
+    private volatile MetricManager metricManager;
 
     private static final Object TELEMETRY_STOP_HOOK_LOCK = new Object();
     private static final Object TELEMETRY_CONTEXT_LOCK = new Object();
 
+    private static final long FLUSH_ASYNC_TRACK_TIMEOUT_IN_MILLIS = 5000;
+    private static final String NO_INSTRUMENTATION_KEY_MESSAGE = "Instrumentation key cannot be undefined.";
+
     private static AtomicLong generateCounter = new AtomicLong(0);
     /**
      * Initializes a new instance of the TelemetryClient class. Send telemetry with the specified configuration.
@@ -173,7 +186,9 @@ public class TelemetryClient {
             message = "";
         }
 
-        TraceTelemetry et = new TraceTelemetry(message, severityLevel);
+        TraceTelemetry et = TelemetryPool.TRACES.acquire();
+        et.setMessage(message);
+        et.setSeverityLevel(severityLevel);
 
         MapUtil.copy(properties, et.getContext().getProperties());
 
@@ -238,7 +253,9 @@ public class TelemetryClient {
             return;
         }
 
-        MetricTelemetry mt = new MetricTelemetry(name, value);
+        MetricTelemetry mt = TelemetryPool.METRICS.acquire();
+        mt.setName(name);
+        mt.setValue(value);
         mt.setCount(sampleCount);
         mt.setMin(min);
         mt.setMax(max);
@@ -257,6 +274,18 @@ public class TelemetryClient {
         trackMetric(name, value, null, null, null, null, null);
     }
 
+    /**
+     * Gets a metric that is aggregated locally and sent once per minute, for values tracked too often to send each one.
+     * Appears in customMetrics in Analytics, and under Custom Metrics in Metric Explorer.
+     * @param name The name of the metric. Max length 150.
+     * @param dimensionNames The names of the dimensions the metric values are tracked with.
+     * @return The metric, call {@link Metric#trackValue(double, String...)} on it to track values.
+     * @throws IllegalArgumentException if name is null or empty, or if the metric exists with other dimensions.
+     */
+    public Metric getMetric(String name, String... dimensionNames) {
+        return getMetricManager().getMetric(name, dimensionNames);
+    }
+
     /**
      * Sends a numeric metric to Application Insights. Appears in customMetrics in Analytics, and under Custom Metrics in Metric Explorer.
      * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} instance.
@@ -329,7 +358,11 @@ public class TelemetryClient {
     }
 
     public void trackDependency(String dependencyName, String commandName, Duration duration, boolean success) {
-        RemoteDependencyTelemetry remoteDependencyTelemetry = new RemoteDependencyTelemetry(dependencyName, commandName, duration, success);
+        RemoteDependencyTelemetry remoteDependencyTelemetry = TelemetryPool.DEPENDENCIES.acquire();
+        remoteDependencyTelemetry.setName(dependencyName);
+        remoteDependencyTelemetry.setCommandName(commandName);
+        remoteDependencyTelemetry.setDuration(duration);
+        remoteDependencyTelemetry.setSuccess(success);
 
         trackDependency(remoteDependencyTelemetry);
     }
@@ -394,6 +427,13 @@ public class TelemetryClient {
         }
 
         if (isDisabled()) {
+            TelemetryPool.recycle(telemetry);
+            return;
+        }
+
+        if (OperationSampling.isSampledOut(telemetry)) {
+            // the operation was sampled out when it started, skip the initializers and processors
+            TelemetryPool.recycle(telemetry);
             return;
         }
 
@@ -401,11 +441,198 @@ public class TelemetryClient {
             telemetry.setTimestamp(new Date());
         }
 
+        if (AsyncTrackPipeline.isEnabled()) {
+            boolean timed = PipelineLatency.shouldSample();
+            long start = timed ? System.nanoTime() : 0;
+            boolean enqueued = AsyncTrackPipeline.get().enqueue(this, telemetry);
+            if (timed) {
+                PipelineLatency.TRACK_ENQUEUE.recordSince(start);
+            }
+            if (enqueued) {
+                return;
+            }
+        }
+
+        process(telemetry);
+    }
+
+    /**
+     * Sends a batch of telemetry items, paying the per call costs of {@link #track} once for the batch: the checks,
+     * the context lookup, the dispatch table lookup and the channel buffer acquisition. Intended for producers that
+     * report many items at once, such as performance counters or metrics collectors.
+     *
+     * The items go through the initializers and processors one after the other, in the iteration order of the
+     * collection, and the items approved by the processors are handed over to the channel at once, in that order.
+     * With a {@link com.microsoft.applicationinsights.channel.BatchingTelemetryChannel} they are not interleaved
+     * with items tracked concurrently, unless they fill the channel buffer. When tracking asynchronously, the batch
+     * is processed by a single worker, so the order is kept too.
+     * @param telemetries The items, none of them can be null.
+     */
+    public void trackAll(Collection<? extends Telemetry> telemetries) {
+        if (telemetries == null) {
+            throw new IllegalArgumentException("telemetries cannot be null");
+        }
+        for (Telemetry telemetry : telemetries) {
+            if (telemetry == null) {
+                throw new IllegalArgumentException("telemetry item cannot be null");
+            }
+        }
+        if (telemetries.isEmpty()) {
+            return;
+        }
+
+        long generated = generateCounter.addAndGet(telemetries.size());
+        if (generated / 10000 != (generated - telemetries.size()) / 10000) {
+            InternalLogger.INSTANCE.info("Total events generated till now %d", generated);
+        }
+
+        if (isDisabled()) {
+            for (Telemetry telemetry : telemetries) {
+                TelemetryPool.recycle(telemetry);
+            }
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<Telemetry> batch = new ArrayList<Telemetry>(telemetries.size());
+        for (Telemetry telemetry : telemetries) {
+            if (OperationSampling.isSampledOut(telemetry)) {
+                TelemetryPool.recycle(telemetry);
+                continue;
+            }
+            if (telemetry.getTimestamp() == null) {
+                telemetry.setTimestamp(new Date(now));
+            }
+            batch.add(telemetry);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (AsyncTrackPipeline.isEnabled()) {
+            boolean timed = PipelineLatency.shouldSample();
+            long start = timed ? System.nanoTime() : 0;
+            boolean enqueued = AsyncTrackPipeline.get().enqueueAll(this, batch);
+            if (timed) {
+                PipelineLatency.TRACK_ENQUEUE.recordSince(start);
+            }
+            if (enqueued) {
+                return;
+            }
+        }
+
+        processAll(batch);
+    }
+
+    /**
+     * Runs the part of the pipeline that does not depend on the tracking thread, either on that thread or on a
+     * worker of the {@link AsyncTrackPipeline}.
+     */
+    void process(Telemetry telemetry) {
+        // one flag guards all the System.nanoTime calls, so that the instrumentation costs nothing when disabled
+        boolean timed = PipelineLatency.shouldSample();
+
+        TelemetryDispatchTable.Stages stages = configuration.getDispatchTable().getStages(telemetry.getClass());
+        if (!prepare(telemetry, getContextWithInstrumentationKey(), stages, timed)) {
+            return;
+        }
+
+        long start = timed ? System.nanoTime() : 0;
+        send(getChannel(), telemetry);
+        if (timed) {
+            PipelineLatency.TRACK_CHANNEL_SEND.recordSince(start);
+        }
+    }
+
+    /**
+     * The batch counterpart of {@link #process}, the items approved by the processors are sent at once.
+     */
+    void processAll(List<Telemetry> batch) {
+        boolean timed = PipelineLatency.shouldSample();
+        TelemetryContext ctx = getContextWithInstrumentationKey();
+        TelemetryDispatchTable table = configuration.getDispatchTable();
+
+        List<Telemetry> approved = new ArrayList<Telemetry>(batch.size());
+        Class<?> stagesClass = null;
+        TelemetryDispatchTable.Stages stages = null;
+        int withoutInstrumentationKey = 0;
+        for (Telemetry telemetry : batch) {
+            if (telemetry.getClass() != stagesClass) {
+                stagesClass = telemetry.getClass();
+                stages = table.getStages(telemetry.getClass());
+            }
+            try {
+                if (prepare(telemetry, ctx, stages, timed)) {
+                    approved.add(telemetry);
+                }
+            } catch (IllegalArgumentException e) {
+                // the rest of the batch is still sent, as it would be if the items were tracked one by one
+                ++withoutInstrumentationKey;
+            }
+        }
+        if (withoutInstrumentationKey > 0) {
+            InternalLogger.INSTANCE.error("%d telemetry items of a batch were not sent: %s", withoutInstrumentationKey, NO_INSTRUMENTATION_KEY_MESSAGE);
+        }
+        if (approved.isEmpty()) {
+            return;
+        }
+
+        long start = timed ? System.nanoTime() : 0;
+        TelemetryChannel currentChannel = getChannel();
+        if (currentChannel instanceof BatchingTelemetryChannel) {
+            try {
+                ((BatchingTelemetryChannel) currentChannel).sendAll(approved);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Exception while sending telemetries: '%s'", t.toString());
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        } else {
+            for (Telemetry telemetry : approved) {
+                send(currentChannel, telemetry);
+            }
+        }
+        if (timed) {
+            PipelineLatency.TRACK_CHANNEL_SEND.recordSince(start);
+        }
+    }
+
+    private static void send(TelemetryChannel channel, Telemetry telemetry) {
+        try {
+            channel.send(telemetry);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Exception while sending telemetry: '%s'",t.toString());            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
+    private TelemetryContext getContextWithInstrumentationKey() {
         TelemetryContext ctx = this.getContext();
 
         if (Strings.isNullOrEmpty(ctx.getInstrumentationKey())) {
             ctx.setInstrumentationKey(configuration.getInstrumentationKey());
         }
+        return ctx;
+    }
+
+    /**
+     * Runs an item through the initializers, the processors and Quick Pulse.
+     * @return false if a processor denied the item, which was then recycled.
+     */
+    private boolean prepare(Telemetry telemetry, TelemetryContext ctx, TelemetryDispatchTable.Stages stages, boolean timed) {
+        long start = timed ? System.nanoTime() : 0;
 
         try {
             telemetry.getContext().initialize(ctx);
@@ -420,39 +647,54 @@ public class TelemetryClient {
             }
         }
 
-        activateInitializers(telemetry);
+        if (timed) {
+            start = PipelineLatency.TRACK_CONTEXT_INITIALIZATION.recordSince(start);
+        }
+
+        activateInitializers(telemetry, stages.initializers, timed);
+        if (timed) {
+            start = PipelineLatency.TRACK_INITIALIZERS.recordSince(start);
+        }
 
         if (Strings.isNullOrEmpty(telemetry.getContext().getInstrumentationKey())) {
-            throw new IllegalArgumentException("Instrumentation key cannot be undefined.");
+            throw new IllegalArgumentException(NO_INSTRUMENTATION_KEY_MESSAGE);
         }
 
-        if (!activateProcessors(telemetry)) {
-            return;
+        if (MetricManager.isDurationHistogramsEnabled()) {
+            // before the processors, so the percentiles are not skewed by sampling
+            getMetricManager().trackDuration(telemetry);
+            if (timed) {
+                start = PipelineLatency.TRACK_DURATION_HISTOGRAMS.recordSince(start);
+            }
         }
 
-        try {
-            QuickPulseDataCollector.INSTANCE.add(telemetry);
-        } catch (ThreadDeath td) {
-            throw td;
-        } catch (Throwable t) {
+        boolean approved = activateProcessors(telemetry, stages.processors, timed);
+        if (timed) {
+            start = PipelineLatency.TRACK_PROCESSORS.recordSince(start);
+        }
+        if (!approved) {
+            TelemetryPool.recycle(telemetry);
+            return false;
         }
 
-        try {
-            getChannel().send(telemetry);
-        } catch (ThreadDeath td) {
-            throw td;
-        } catch (Throwable t) {
+        // a single volatile read while no live metrics session is active
+        if (QuickPulseDataCollector.INSTANCE.isCollecting()) {
             try {
-                InternalLogger.INSTANCE.error("Exception while sending telemetry: '%s'",t.toString());            } catch (ThreadDeath td) {
+                QuickPulseDataCollector.INSTANCE.add(telemetry);
+            } catch (ThreadDeath td) {
                 throw td;
-            } catch (Throwable t2) {
-                // chomp
+            } catch (Throwable t) {
+            }
+            if (timed) {
+                PipelineLatency.TRACK_QUICK_PULSE.recordSince(start);
             }
         }
+        return true;
     }
 
-    private void activateInitializers(Telemetry telemetry) {
-        for (TelemetryInitializer initializer : this.configuration.getTelemetryInitializers()) {
+    private void activateInitializers(Telemetry telemetry, TelemetryInitializer[] initializers, boolean timed) {
+        for (TelemetryInitializer initializer : initializers) {
+            long start = timed ? System.nanoTime() : 0;
             try {
                 initializer.initialize(telemetry);
             } catch (ThreadDeath td) {
@@ -465,13 +707,21 @@ public class TelemetryClient {
                     // chomp
                 }
             }
+            if (timed) {
+                PipelineLatency.forInitializer(initializer.getClass()).recordSince(start);
+            }
         }
     }
 
-    private boolean activateProcessors(Telemetry telemetry) {
-        for (TelemetryProcessor processor : configuration.getTelemetryProcessors()) {
+    private boolean activateProcessors(Telemetry telemetry, TelemetryProcessor[] processors, boolean timed) {
+        for (TelemetryProcessor processor : processors) {
+            long start = timed ? System.nanoTime() : 0;
             try {
-                if (!processor.process(telemetry)) {
+                boolean approved = processor.process(telemetry);
+                if (timed) {
+                    PipelineLatency.forProcessor(processor.getClass()).recordSince(start);
+                }
+                if (!approved) {
                     return false;
                 }
             } catch (ThreadDeath td) {
@@ -490,12 +740,37 @@ public class TelemetryClient {
     }
 
     /**
-     * Flushes possible pending Telemetries in the channel. Not required for a continuously-running server application.
+     * Sends the locally aggregated metrics and flushes possible pending Telemetries in the channel. Not required for a continuously-running server application.
      */
     public void flush() {
+        if (metricManager != null) {
+            metricManager.flush();
+        }
+        AsyncTrackPipeline asyncTrackPipeline = AsyncTrackPipeline.getIfStarted();
+        if (asyncTrackPipeline != null) {
+            try {
+                if (!asyncTrackPipeline.awaitIdle(FLUSH_ASYNC_TRACK_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS)) {
+                    InternalLogger.INSTANCE.warn("Flush did not wait for all the items tracked asynchronously");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         getChannel().flush();
     }
 
+    private MetricManager getMetricManager() {
+        if (metricManager == null) {
+            synchronized (this) {
+                if (metricManager == null) {
+                    metricManager = new MetricManager(this);
+                }
+            }
+        }
+
+        return metricManager;
+    }
+
     /**
      * Gets the channel used by the client.
      */
@@ -36,6 +36,7 @@ import com.microsoft.applicationinsights.internal.config.connection.InvalidConne
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Encapsulates the global telemetry configuration typically loaded from the ApplicationInsights.xml file.
@@ -56,9 +57,13 @@ public final class TelemetryConfiguration {
     private final EndpointProvider endpointProvider = new EndpointProvider();
 
     private final List<ContextInitializer> contextInitializers =  new  CopyOnWriteArrayList<ContextInitializer>();
-    private final List<TelemetryInitializer> telemetryInitializers = new CopyOnWriteArrayList<TelemetryInitializer>();
     private final List<TelemetryModule> telemetryModules = new CopyOnWriteArrayList<TelemetryModule>();
-    private final List<TelemetryProcessor> telemetryProcessors = new CopyOnWriteArrayList<TelemetryProcessor>();
+
+    // bumped by the modifications of the initializers and processors, to rebuild the dispatch table
+    private final AtomicInteger pipelineVersion = new AtomicInteger();
+    private final List<TelemetryInitializer> telemetryInitializers = new TelemetryDispatchTable.VersionedList<TelemetryInitializer>(pipelineVersion);
+    private final List<TelemetryProcessor> telemetryProcessors = new TelemetryDispatchTable.VersionedList<TelemetryProcessor>(pipelineVersion);
+    private volatile TelemetryDispatchTable dispatchTable;
 
     private TelemetryChannel channel;
 
@@ -187,6 +192,20 @@ public final class TelemetryConfiguration {
         return telemetryProcessors;
     }
 
+    /**
+     * Gets the telemetry initializers and processors compiled per telemetry class, rebuilt once the lists changed.
+     * @return The dispatch table matching the current lists
+     */
+    TelemetryDispatchTable getDispatchTable() {
+        TelemetryDispatchTable table = dispatchTable;
+        int version = pipelineVersion.get();
+        if (table == null || table.getVersion() != version) {
+            table = new TelemetryDispatchTable(version, telemetryInitializers, telemetryProcessors);
+            dispatchTable = table;
+        }
+        return table;
+    }
+
     /**
      * Gets or sets the default instrumentation key for the application.
      *
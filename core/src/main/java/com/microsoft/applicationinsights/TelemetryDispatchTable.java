@@ -0,0 +1,296 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * The telemetry initializers and processors of a {@link TelemetryConfiguration}, compiled per telemetry class.
+ *
+ * Each item only goes through the initializers and processors that apply to its class, the ones implementing
+ * {@link TelemetryTypeAware} being skipped for the other classes. The stages of a class are computed the first
+ * time an item of that class is tracked. A table is immutable as far as its users are concerned: once the lists
+ * of the configuration are modified, the configuration replaces it with a new table.
+ */
+final class TelemetryDispatchTable {
+
+    /**
+     * The initializers and processors an item of a given class goes through, in the configuration order
+     */
+    static final class Stages {
+        final TelemetryInitializer[] initializers;
+        final TelemetryProcessor[] processors;
+
+        private Stages(TelemetryInitializer[] initializers, TelemetryProcessor[] processors) {
+            this.initializers = initializers;
+            this.processors = processors;
+        }
+    }
+
+    /**
+     * A list whose modifications bump the version shared by the lists of a configuration.
+     *
+     * The elements are kept in a copy on write list, so iterating is safe while the list is modified. The list
+     * does not extend it: the Java 8 bulk methods (removeIf, replaceAll, sort) and the sub lists of an
+     * {@link AbstractList} go through the methods below, so every modification bumps the version.
+     */
+    static final class VersionedList<E> extends AbstractList<E> implements RandomAccess {
+        private final CopyOnWriteArrayList<E> elements = new CopyOnWriteArrayList<E>();
+        private final AtomicInteger version;
+
+        VersionedList(AtomicInteger version) {
+            this.version = version;
+        }
+
+        @Override
+        public E get(int index) {
+            return elements.get(index);
+        }
+
+        @Override
+        public int size() {
+            return elements.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return elements.contains(o);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return elements.indexOf(o);
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return elements.lastIndexOf(o);
+        }
+
+        @Override
+        public Object[] toArray() {
+            return elements.toArray();
+        }
+
+        @Override
+        public <T> T[] toArray(T[] a) {
+            return elements.toArray(a);
+        }
+
+        /**
+         * Iterates over a snapshot of the list, as a copy on write list does, but removes from the list itself.
+         */
+        @Override
+        public Iterator<E> iterator() {
+            final Iterator<E> snapshot = elements.iterator();
+            return new Iterator<E>() {
+                private E last;
+                private boolean removable;
+
+                @Override
+                public boolean hasNext() {
+                    return snapshot.hasNext();
+                }
+
+                @Override
+                public E next() {
+                    last = snapshot.next();
+                    removable = true;
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (!removable) {
+                        throw new IllegalStateException();
+                    }
+                    removable = false;
+                    VersionedList.this.remove(last);
+                }
+            };
+        }
+
+        @Override
+        public boolean add(E e) {
+            try {
+                return elements.add(e);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void add(int index, E element) {
+            try {
+                elements.add(index, element);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            try {
+                return elements.addAll(c);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends E> c) {
+            try {
+                return elements.addAll(index, c);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public E set(int index, E element) {
+            try {
+                return elements.set(index, element);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public E remove(int index) {
+            try {
+                return elements.remove(index);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            try {
+                return elements.remove(o);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            try {
+                return elements.removeAll(c);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            try {
+                return elements.retainAll(c);
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void clear() {
+            try {
+                elements.clear();
+            } finally {
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    private final int version;
+    private final TelemetryInitializer[] initializers;
+    private final TelemetryProcessor[] processors;
+    private final ConcurrentMap<Class<?>, Stages> stagesByClass = new ConcurrentHashMap<>();
+
+    /**
+     * The version must be read before the lists, so that a table built while the lists are modified is
+     * never taken as up to date.
+     */
+    TelemetryDispatchTable(int version, List<TelemetryInitializer> initializers, List<TelemetryProcessor> processors) {
+        this.version = version;
+        this.initializers = initializers.toArray(new TelemetryInitializer[0]);
+        this.processors = processors.toArray(new TelemetryProcessor[0]);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    Stages getStages(Class<? extends Telemetry> telemetryType) {
+        Stages stages = stagesByClass.get(telemetryType);
+        if (stages == null) {
+            // computing the stages twice when racing is harmless, they are the same
+            stages = new Stages(applicable(initializers, telemetryType, new ArrayList<TelemetryInitializer>()).toArray(new TelemetryInitializer[0]),
+                    applicable(processors, telemetryType, new ArrayList<TelemetryProcessor>()).toArray(new TelemetryProcessor[0]));
+            stagesByClass.put(telemetryType, stages);
+        }
+        return stages;
+    }
+
+    private static <T> List<T> applicable(T[] candidates, Class<? extends Telemetry> telemetryType, List<T> result) {
+        for (T candidate : candidates) {
+            if (appliesTo(candidate, telemetryType)) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    private static boolean appliesTo(Object candidate, Class<? extends Telemetry> telemetryType) {
+        if (!(candidate instanceof TelemetryTypeAware)) {
+            return true;
+        }
+        try {
+            return ((TelemetryTypeAware) candidate).appliesTo(telemetryType);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Failed to get the telemetry types of '%s', it will get all of them, exception: %s", candidate.getClass().getName(), t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+            return true;
+        }
+    }
+}
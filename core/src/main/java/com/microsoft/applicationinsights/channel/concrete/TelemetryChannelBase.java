@@ -25,7 +25,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
-import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.channel.BatchingTelemetryChannel;
 import com.microsoft.applicationinsights.channel.TelemetrySampler;
 import com.microsoft.applicationinsights.internal.channel.ConfiguredTransmitterFactory;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
@@ -34,10 +34,15 @@ import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
+import com.microsoft.applicationinsights.metrics.PipelineLatency;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -46,7 +51,7 @@ import java.util.concurrent.atomic.AtomicLong;
  *
  * @param <T> The type of the telemetry being stored in the buffer.
  */
-public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
+public abstract class TelemetryChannelBase<T> implements BatchingTelemetryChannel {
     public static final int DEFAULT_MAX_INSTANT_RETRY = 3;
     public static final int DEFAULT_MAX_TELEMETRY_BUFFER_CAPACITY = 500;
     public static final int DEFAULT_FLUSH_BUFFER_TIMEOUT_IN_SECONDS = 5;
@@ -340,26 +345,81 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
     public void send(Telemetry telemetry) {
         Preconditions.checkNotNull(telemetry, "Telemetry item must be non null");
 
-        if (isDeveloperMode()) {
-            telemetry.getContext().getProperties().put("DeveloperMode", "true");
-        }
+        try {
+            if (isDeveloperMode()) {
+                telemetry.getContext().getProperties().put("DeveloperMode", "true");
+            }
 
-        if (telemetrySampler != null) {
-            if (!telemetrySampler.isSampledIn(telemetry)) {
+            if (telemetrySampler != null) {
+                boolean timed = PipelineLatency.shouldSample();
+                long start = timed ? System.nanoTime() : 0;
+                boolean sampledIn = telemetrySampler.isSampledIn(telemetry);
+                if (timed) {
+                    PipelineLatency.CHANNEL_SAMPLING.recordSince(start);
+                }
+                if (!sampledIn) {
+                    return;
+                }
+            }
+
+            if (!doSend(telemetry)) {
                 return;
             }
-        }
 
-        if (!doSend(telemetry)) {
-            return;
-        }
+            if (itemsSent.incrementAndGet() % LOG_TELEMETRY_ITEMS_MODULUS == 0) {
+                InternalLogger.INSTANCE.info("items sent till now %d", itemsSent.get());
+            }
 
-        if (itemsSent.incrementAndGet() % LOG_TELEMETRY_ITEMS_MODULUS == 0) {
-            InternalLogger.INSTANCE.info("items sent till now %d", itemsSent.get());
+            if (isDeveloperMode()) {
+                writeTelemetryToDebugOutput(telemetry);
+            }
+        } finally {
+            // The item was either serialized or dropped, it is safe to return it to its pool, if it has one
+            TelemetryPool.recycle(telemetry);
         }
+    }
+
+    /**
+     * Sends Telemetry instances through the channel, handing them over to the buffer at once.
+     * The items are kept in the iteration order of the collection, and are not interleaved with items sent
+     * concurrently unless they fill the buffer and are split into several transmissions.
+     */
+    @Override
+    public void sendAll(Collection<? extends Telemetry> telemetries) {
+        Preconditions.checkNotNull(telemetries, "Telemetries must be non null");
 
-        if (isDeveloperMode()) {
-            writeTelemetryToDebugOutput(telemetry);
+        try {
+            boolean developerMode = isDeveloperMode();
+            TelemetrySampler sampler = telemetrySampler;
+            List<Telemetry> sampledIn = new ArrayList<Telemetry>(telemetries.size());
+            for (Telemetry telemetry : telemetries) {
+                Preconditions.checkNotNull(telemetry, "Telemetry item must be non null");
+
+                if (developerMode) {
+                    telemetry.getContext().getProperties().put("DeveloperMode", "true");
+                }
+
+                if (sampler != null && !sampler.isSampledIn(telemetry)) {
+                    continue;
+                }
+                sampledIn.add(telemetry);
+            }
+
+            int sent = doSendAll(sampledIn);
+            long total = itemsSent.addAndGet(sent);
+            if (total / LOG_TELEMETRY_ITEMS_MODULUS != (total - sent) / LOG_TELEMETRY_ITEMS_MODULUS) {
+                InternalLogger.INSTANCE.info("items sent till now %d", total);
+            }
+
+            if (developerMode) {
+                for (Telemetry telemetry : sampledIn) {
+                    writeTelemetryToDebugOutput(telemetry);
+                }
+            }
+        } finally {
+            for (Telemetry telemetry : telemetries) {
+                TelemetryPool.recycle(telemetry);
+            }
         }
     }
 
@@ -370,6 +430,21 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
      */
     protected abstract boolean doSend(Telemetry telemetry);
 
+    /**
+     * Sends a batch of sampled in items, one by one unless overridden.
+     * @param telemetries The items to send.
+     * @return The number of items sent successfully.
+     */
+    protected int doSendAll(List<Telemetry> telemetries) {
+        int sent = 0;
+        for (Telemetry telemetry : telemetries) {
+            if (doSend(telemetry)) {
+                ++sent;
+            }
+        }
+        return sent;
+    }
+
     private void writeTelemetryToDebugOutput(Telemetry telemetry) {
         InternalLogger.INSTANCE.trace("%s sending telemetry: %s", this.getClass().getSimpleName(), telemetry.toString());
     }
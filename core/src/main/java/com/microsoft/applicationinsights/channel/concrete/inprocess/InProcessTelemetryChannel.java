@@ -25,12 +25,15 @@ import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.channel.concrete.TelemetryChannelBase;
 import com.microsoft.applicationinsights.internal.channel.ConfiguredTransmitterFactory;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.metrics.PipelineLatency;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -92,22 +95,60 @@ public final class InProcessTelemetryChannel extends TelemetryChannelBase<String
 
     @Override
     protected boolean doSend(Telemetry telemetry) {
+        boolean timed = PipelineLatency.shouldSample();
+        long start = timed ? System.nanoTime() : 0;
+        String asJson = serialize(telemetry);
+        if (asJson == null) {
+            return false;
+        }
+        if (timed) {
+            start = PipelineLatency.CHANNEL_SERIALIZATION.recordSince(start);
+        }
+        telemetryBuffer.add(asJson);
+        if (timed) {
+            PipelineLatency.CHANNEL_BUFFER_ADD.recordSince(start);
+        }
+        telemetry.reset();
+        return true;
+    }
+
+    @Override
+    protected int doSendAll(List<Telemetry> telemetries) {
+        boolean timed = PipelineLatency.shouldSample();
+        List<String> serialized = new ArrayList<String>(telemetries.size());
+        for (Telemetry telemetry : telemetries) {
+            long start = timed ? System.nanoTime() : 0;
+            String asJson = serialize(telemetry);
+            if (asJson != null) {
+                if (timed) {
+                    PipelineLatency.CHANNEL_SERIALIZATION.recordSince(start);
+                }
+                serialized.add(asJson);
+                telemetry.reset();
+            }
+        }
+
+        long start = timed ? System.nanoTime() : 0;
+        telemetryBuffer.addAll(serialized);
+        if (timed) {
+            PipelineLatency.CHANNEL_BUFFER_ADD.recordSince(start);
+        }
+        return serialized.size();
+    }
+
+    private static String serialize(Telemetry telemetry) {
         StringWriter writer = new StringWriter();
         JsonTelemetryDataSerializer jsonWriter = null;
         try {
             jsonWriter = new JsonTelemetryDataSerializer(writer);
             telemetry.serialize(jsonWriter);
             jsonWriter.close();
-            String asJson = writer.toString();
-            telemetryBuffer.add(asJson);
-            telemetry.reset();
-
+            return writer.toString();
         } catch (IOException e) {
             InternalLogger.INSTANCE.error("Failed to serialize Telemetry");
             InternalLogger.INSTANCE.trace("Stack trace is %s", ExceptionUtils.getStackTrace(e));
-            return false;
+            return null;
         }
-        return true;
     }
 
     @Override
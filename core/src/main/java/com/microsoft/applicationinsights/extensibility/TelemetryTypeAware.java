@@ -0,0 +1,40 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility;
+
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * Implemented by a {@link TelemetryInitializer} or a {@link TelemetryProcessor} that only handles some telemetry types.
+ *
+ * The {@link com.microsoft.applicationinsights.TelemetryClient} then only calls it for the items of those types.
+ * The answer for a given type is computed once and cached until the initializers or processors of the
+ * configuration change, so it must not depend on the state of the instance once it was added to the configuration.
+ */
+public interface TelemetryTypeAware {
+    /**
+     * Tells whether the items of the given type need to go through this instance.
+     * @param telemetryType The concrete class of the items.
+     * @return False if the instance has nothing to do with the items of that type.
+     */
+    boolean appliesTo(Class<? extends Telemetry> telemetryType);
+}
@@ -0,0 +1,46 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.extensibility;
+
+/**
+ * Carries thread bound state read by telemetry initializers or processors from the thread tracking an item to
+ * the thread processing it, when the items are tracked asynchronously.
+ *
+ * The state is captured when the item is tracked and restored on the worker thread for the time the item goes
+ * through the pipeline, so that the initializers see the state of the tracking thread.
+ *
+ * Register the instance with {@link com.microsoft.applicationinsights.AsyncTrackPipeline#addThreadStateCapture}.
+ */
+public interface ThreadStateCapture {
+    /**
+     * Captures the state bound to the current thread. Called for every tracked item, so it should be cheap, but it
+     * must copy what the tracking thread may reuse or change once it moves on, such as the servlet request.
+     * @return The state, or null if there is none.
+     */
+    Object capture();
+
+    /**
+     * Binds a state to the current thread, replacing the state already bound.
+     * @param state A state returned by {@link #capture()}, or null to unbind the state.
+     */
+    void restore(Object state);
+}
@@ -28,6 +28,7 @@ import com.microsoft.applicationinsights.agent.internal.sdk.SdkBridge;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
 
 public abstract class AbstractSdkBridge<T> implements SdkBridge<T> {
 
@@ -41,7 +42,7 @@ public abstract class AbstractSdkBridge<T> implements SdkBridge<T> {
     public void track(RemoteDependencyTelemetry agentTelemetry) {
 
         com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry telemetry =
-                new com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry();
+                TelemetryPool.DEPENDENCIES.acquire();
 
         telemetry.setTimestamp(new Date(agentTelemetry.getTimestamp()));
         telemetry.setDuration(new Duration(agentTelemetry.getDurationMillis()));
@@ -81,8 +82,7 @@ public abstract class AbstractSdkBridge<T> implements SdkBridge<T> {
     @Override
     public void track(TraceTelemetry agentTelemetry) {
 
-        com.microsoft.applicationinsights.telemetry.TraceTelemetry telemetry =
-                new com.microsoft.applicationinsights.telemetry.TraceTelemetry();
+        com.microsoft.applicationinsights.telemetry.TraceTelemetry telemetry = TelemetryPool.TRACES.acquire();
 
         telemetry.setMessage(agentTelemetry.getMessage());
 
@@ -16,6 +16,7 @@ import com.google.gson.GsonBuilder;
 import com.google.common.base.Optional;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandler;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandlerArgs;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.IngestionThrottling;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 
 /**
@@ -70,13 +71,16 @@ public class PartialSuccessHandler implements TransmissionHandler {
 
                 if (backendResponse != null && (backendResponse.itemsAccepted < backendResponse.itemsReceived)) {
                     List<String> newTransmission = new ArrayList<String>();
+                    int itemsThrottled = 0;
                     for (BackendResponse.Error e : backendResponse.errors) {
                         switch (e.statusCode) {
+                        case TransmissionSendResult.THROTTLED:
+                        case TransmissionSendResult.THROTTLED_OVER_EXTENDED_TIME:
+                            ++itemsThrottled;
+                            // fall through, throttled items are also sent again
                         case TransmissionSendResult.REQUEST_TIMEOUT:
                         case TransmissionSendResult.INTERNAL_SERVER_ERROR:
                         case TransmissionSendResult.SERVICE_UNAVAILABLE:
-                        case TransmissionSendResult.THROTTLED:
-                        case TransmissionSendResult.THROTTLED_OVER_EXTENDED_TIME:
                             // Unknown condition where backend response returns an index greater than the
                             // items we're returning
                             if (e.index < originalItems.size()) {
@@ -85,6 +89,8 @@ public class PartialSuccessHandler implements TransmissionHandler {
                             break;
                         }
                     }
+                    IngestionThrottling.INSTANCE.onPartiallyThrottled(System.currentTimeMillis(),
+                            backendResponse.itemsReceived, itemsThrottled);
                     return sendNewTransmission(args, newTransmission);
                 }
                 InternalLogger.INSTANCE
@@ -200,6 +200,43 @@ public class TelemetryBuffer<T> {
         }
     }
 
+    /**
+     * The method will add the incoming instances to its internal container of Telemetries, in their iteration order,
+     * acquiring the lock once for all of them.
+     *
+     * The container is sent every time it reaches the maximum number of instances. A 'pick-up' is scheduled only
+     * for the instances left in the container once all of them are added, if nothing scheduled one before.
+     * @param telemetries The instances to add to the buffer, none of them can be null.
+     */
+    public void addAll(Collection<? extends T> telemetries) {
+        Preconditions.checkNotNull(telemetries, "Telemetries must be non null value");
+        for (T telemetry : telemetries) {
+            Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
+        }
+
+        synchronized (lock) {
+            // a non empty container already has its pick-up scheduled
+            boolean scheduled = !this.telemetries.isEmpty();
+            for (T telemetry : telemetries) {
+                this.telemetries.add(telemetry);
+
+                if (this.telemetries.size() >= maxTelemetriesInBatch) {
+                    if (!sender.sendNow(prepareTelemetriesForSend())) {
+                        InternalLogger.INSTANCE.error("Failed to send buffer data to network");
+                    }
+                    scheduled = false;
+                }
+            }
+
+            if (!scheduled && !this.telemetries.isEmpty()) {
+                if (!sender.scheduleSend(new TelemetryBufferTelemetriesFetcher(generation), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
+                    InternalLogger.INSTANCE.error("Failed to schedule send of the buffer to network");
+                    this.telemetries.clear();
+                }
+            }
+        }
+    }
+
     /**
      * The method will flush the telemetries currently in the buffer to the {@link com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter}
      */
@@ -12,6 +12,7 @@ import org.apache.http.Header;
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandler;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandlerArgs;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.IngestionThrottling;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 
 /**
@@ -58,6 +59,7 @@ public class ThrottlingHandler implements TransmissionHandler {
             switch (args.getResponseCode()) {
             case TransmissionSendResult.THROTTLED:
             case TransmissionSendResult.THROTTLED_OVER_EXTENDED_TIME:
+                IngestionThrottling.INSTANCE.onThrottled(System.currentTimeMillis());
                 suspendTransmissions(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, args.getRetryHeader());
                 args.getTransmissionDispatcher().dispatch(args.getTransmission());
                 return true;
@@ -62,19 +62,23 @@ final class SamplingScoreGenerator {
 
         int hash = 5381;
 
-        if (input.length() < 8) {
-            if (input.length() < 3) { // 1, 2 should repeat 8 or 4 times
-                input = StringUtils.repeat(input, 8/input.length());
-            } else if (input.length() == 3) {
-                input = StringUtils.repeat(input, 4);
+        // the input is hashed as if repeated, without building the repeated string
+        int length = input.length();
+        int repeat = 1;
+        if (length < 8) {
+            if (length < 3) { // 1, 2 should repeat 8 or 4 times
+                repeat = 8 / length;
+            } else if (length == 3) {
+                repeat = 4;
             } else {
-                input = StringUtils.repeat(input, 2);
+                repeat = 2;
             }
         }
 
-        char[] asChars = input.toCharArray();
-        for (int i = 0; i < asChars.length; i++) {
-            hash = ((hash << 5) + hash) + (int)asChars[i];
+        for (int r = 0; r < repeat; r++) {
+            for (int i = 0; i < length; i++) {
+                hash = ((hash << 5) + hash) + (int)input.charAt(i);
+            }
         }
 
         return hash == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(hash);
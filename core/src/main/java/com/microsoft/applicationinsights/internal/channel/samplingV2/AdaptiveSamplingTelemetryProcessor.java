@@ -0,0 +1,362 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This processor adapts the sampling percentage of each telemetry type to keep its rate under a target
+ * <p>
+ * Every evaluation interval the rate of incoming items of each type is folded into an exponentially weighted moving
+ * average, and the sampling percentages are set to keep the sum of the averages of all the sampled types under
+ * MaxTelemetryItemsPerSecond. The types under an even share of that rate keep all their items, and the rest of the
+ * rate is split evenly between the busier types, so a burst of one type does not sample out the others.
+ * A percentage is lowered as soon as the decrease timeout since its last change allows it, and raised back only
+ * after the longer increase timeout, so a burst is absorbed within seconds without flapping.
+ * Percentages are always of the form 100/N, as the portal expects. While the ingestion endpoint throttles the
+ * application, the targeted rate is lowered as reported by {@link IngestionThrottling}.
+ * <p>
+ * Items are sampled with the operation id based score of {@link SamplingScoreGeneratorV2}: since a lower
+ * percentage keeps a subset of the items a higher one keeps, the items of an operation that are kept at
+ * different percentages still belong to the same operations.
+ * <p>
+ * How to use in ApplicationInsights Configuration :
+ * <p>
+ * {@code
+<TelemetryProcessors>
+    <BuiltInProcessors>
+        <Processor type = "AdaptiveSamplingTelemetryProcessor">
+            <Add name = "MaxTelemetryItemsPerSecond" value = "5" />
+            <Add name = "EvaluationIntervalInSeconds" value = "1" />
+            <Add name = "SamplingPercentageDecreaseTimeoutInSeconds" value = "2" />
+            <Add name = "SamplingPercentageIncreaseTimeoutInSeconds" value = "30" />
+            <Add name = "MinSamplingPercentage" value = "0.1" />
+            <Add name = "MaxSamplingPercentage" value = "100" />
+            <Add name = "InitialSamplingPercentage" value = "100" />
+            <Add name = "MovingAverageRatio" value = "0.25" />
+            <ExcludedTypes>
+                <ExcludedType>Request</ExcludedType>
+            </ExcludedTypes>
+        </Processor>
+    </BuiltInProcessors>
+</TelemetryProcessors>
+ }
+ */
+@BuiltInProcessor("AdaptiveSamplingTelemetryProcessor")
+public final class AdaptiveSamplingTelemetryProcessor implements TelemetryProcessor {
+
+    public static final double DEFAULT_MAX_TELEMETRY_ITEMS_PER_SECOND = 5;
+    public static final double DEFAULT_EVALUATION_INTERVAL_IN_SECONDS = 1;
+    public static final double DEFAULT_SAMPLING_PERCENTAGE_DECREASE_TIMEOUT_IN_SECONDS = 2;
+    public static final double DEFAULT_SAMPLING_PERCENTAGE_INCREASE_TIMEOUT_IN_SECONDS = 30;
+    public static final double DEFAULT_MIN_SAMPLING_PERCENTAGE = 0.1;
+    public static final double DEFAULT_MAX_SAMPLING_PERCENTAGE = 100.0;
+    public static final double DEFAULT_INITIAL_SAMPLING_PERCENTAGE = 100.0;
+    public static final double DEFAULT_MOVING_AVERAGE_RATIO = 0.25;
+
+    private volatile double maxTelemetryItemsPerSecond = DEFAULT_MAX_TELEMETRY_ITEMS_PER_SECOND;
+    private volatile double evaluationIntervalInSeconds = DEFAULT_EVALUATION_INTERVAL_IN_SECONDS;
+    private volatile double samplingPercentageDecreaseTimeoutInSeconds = DEFAULT_SAMPLING_PERCENTAGE_DECREASE_TIMEOUT_IN_SECONDS;
+    private volatile double samplingPercentageIncreaseTimeoutInSeconds = DEFAULT_SAMPLING_PERCENTAGE_INCREASE_TIMEOUT_IN_SECONDS;
+    private volatile double minSamplingPercentage = DEFAULT_MIN_SAMPLING_PERCENTAGE;
+    private volatile double maxSamplingPercentage = DEFAULT_MAX_SAMPLING_PERCENTAGE;
+    private volatile double initialSamplingPercentage = DEFAULT_INITIAL_SAMPLING_PERCENTAGE;
+    private volatile double movingAverageRatio = DEFAULT_MOVING_AVERAGE_RATIO;
+
+    private final Set<Class> excludedTypes = new HashSet<>();
+    private final Set<Class> includedTypes = new HashSet<>();
+
+    private final ConcurrentMap<Class, TypeState> states = new ConcurrentHashMap<>();
+    private long lastEvaluation = System.currentTimeMillis();
+
+    private volatile ScheduledExecutorService evaluationService;
+
+    /**
+     * The sampling state of one telemetry type
+     */
+    private static final class TypeState {
+        private final AtomicLong counter = new AtomicLong();
+        private volatile double samplingPercentage;
+
+        // Only used by the evaluation, which is serialized
+        private double average = -1;
+        // the share of MaxTelemetryItemsPerSecond of this type
+        private double maxItemsPerSecond;
+        private long lastChange;
+
+        private TypeState(double samplingPercentage, long now) {
+            this.samplingPercentage = samplingPercentage;
+            this.lastChange = now;
+        }
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        if (!(telemetry instanceof SupportSampling) || !isSamplingApplicable(telemetry.getClass())) {
+            return true;
+        }
+
+        ensureEvaluationScheduled();
+
+        TypeState state = getState(telemetry.getClass());
+        state.counter.incrementAndGet();
+
+        SupportSampling samplingSupportingTelemetry = (SupportSampling) telemetry;
+        double sp;
+        if (samplingSupportingTelemetry.getSamplingPercentage() == null) {
+            sp = state.samplingPercentage;
+            samplingSupportingTelemetry.setSamplingPercentage(sp);
+        } else {
+            // already decided upstream, the decision must be kept for the operation to stay consistent
+            sp = samplingSupportingTelemetry.getSamplingPercentage();
+        }
+
+        if (SamplingScoreGeneratorV2.getSamplingScore(telemetry) >= sp) {
+            InternalLogger.INSTANCE.trace("Item %s sampled out", telemetry.getClass().getSimpleName());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the sampling percentage currently applied to a telemetry type
+     */
+    double getSamplingPercentage(Class type) {
+        TypeState state = states.get(type);
+        return state == null ? initialSamplingPercentage : state.samplingPercentage;
+    }
+
+    /**
+     * Folds the rates observed since the previous evaluation into the averages and adapts the sampling percentages
+     *
+     * @param now The current time in milliseconds
+     */
+    @VisibleForTesting
+    synchronized void evaluate(long now) {
+        double elapsedInSeconds = (now - lastEvaluation) / 1000.0;
+        if (elapsedInSeconds <= 0) {
+            return;
+        }
+        lastEvaluation = now;
+
+        // lowered while the ingestion endpoint throttles the application
+        double maxItemsPerSecond = maxTelemetryItemsPerSecond * IngestionThrottling.INSTANCE.getRateRatio(now);
+
+        List<TypeState> activeStates = new ArrayList<>(states.size());
+        for (TypeState state : states.values()) {
+            double rate = state.counter.getAndSet(0) / elapsedInSeconds;
+            state.average = state.average < 0 ? rate : state.average * (1 - movingAverageRatio) + rate * movingAverageRatio;
+            state.maxItemsPerSecond = maxItemsPerSecond;
+            if (state.average > 0) {
+                activeStates.add(state);
+            }
+        }
+        shareItemsPerSecond(activeStates, maxItemsPerSecond);
+
+        for (Map.Entry<Class, TypeState> entry : states.entrySet()) {
+            TypeState state = entry.getValue();
+            double suggested = getSuggestedSamplingPercentage(state.average, state.maxItemsPerSecond);
+            double current = state.samplingPercentage;
+            if (suggested == current) {
+                continue;
+            }
+
+            double timeoutInSeconds = suggested < current ? samplingPercentageDecreaseTimeoutInSeconds : samplingPercentageIncreaseTimeoutInSeconds;
+            if ((now - state.lastChange) / 1000.0 >= timeoutInSeconds) {
+                InternalLogger.INSTANCE.trace("Sampling percentage of %s changed from %s to %s", entry.getKey().getSimpleName(), current, suggested);
+                state.samplingPercentage = suggested;
+                state.lastChange = now;
+            }
+        }
+    }
+
+    /**
+     * Splits the targeted rate between the active types: the quieter types keep all their items as long as they
+     * stay under an even share, and what they leave is split evenly between the busier ones.
+     */
+    private static void shareItemsPerSecond(List<TypeState> activeStates, double maxItemsPerSecond) {
+        Collections.sort(activeStates, new Comparator<TypeState>() {
+            @Override
+            public int compare(TypeState left, TypeState right) {
+                return Double.compare(left.average, right.average);
+            }
+        });
+        double remaining = maxItemsPerSecond;
+        for (int i = 0; i < activeStates.size(); ++i) {
+            TypeState state = activeStates.get(i);
+            double share = remaining / (activeStates.size() - i);
+            state.maxItemsPerSecond = share;
+            remaining -= Math.min(state.average, share);
+        }
+    }
+
+    private double getSuggestedSamplingPercentage(double itemsPerSecond, double maxItemsPerSecond) {
+        double suggested = itemsPerSecond > maxItemsPerSecond ? 100.0 * maxItemsPerSecond / itemsPerSecond : 100.0;
+        suggested = Math.max(minSamplingPercentage, Math.min(maxSamplingPercentage, suggested));
+        return toWholeRatio(suggested);
+    }
+
+    /**
+     * Rounds a percentage down to the closest 100/N where N is a whole number
+     */
+    static double toWholeRatio(double samplingPercentage) {
+        if (samplingPercentage >= 100.0) {
+            return 100.0;
+        }
+        return 100.0 / Math.ceil(100.0 / samplingPercentage);
+    }
+
+    private TypeState getState(Class type) {
+        TypeState state = states.get(type);
+        if (state == null) {
+            TypeState created = new TypeState(toWholeRatio(initialSamplingPercentage), System.currentTimeMillis());
+            state = states.putIfAbsent(type, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    private void ensureEvaluationScheduled() {
+        if (evaluationService != null) {
+            return;
+        }
+        synchronized (this) {
+            if (evaluationService != null) {
+                return;
+            }
+            ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(
+                    ThreadPoolUtils.createDaemonThreadFactory(AdaptiveSamplingTelemetryProcessor.class));
+            long period = (long) (evaluationIntervalInSeconds * 1000);
+            service.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evaluate(System.currentTimeMillis());
+                    } catch (ThreadDeath td) {
+                        throw td;
+                    } catch (Throwable t) {
+                        try {
+                            InternalLogger.INSTANCE.error("AdaptiveSamplingTelemetryProcessor: failed to evaluate the sampling percentages: %s", t.toString());
+                        } catch (ThreadDeath td) {
+                            throw td;
+                        } catch (Throwable t2) {
+                            // chomp
+                        }
+                    }
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+            SDKShutdownActivity.INSTANCE.register(service);
+            evaluationService = service;
+        }
+    }
+
+    private boolean isSamplingApplicable(Class item) {
+        if (excludedTypes.size() > 0 && excludedTypes.contains(item)) {
+            return false;
+        }
+
+        if (includedTypes.size() > 0 && !includedTypes.contains(item)) {
+            return false;
+        }
+
+        return true;
+    }
+
+    public void setMaxTelemetryItemsPerSecond(String value) {
+        maxTelemetryItemsPerSecond = parse("MaxTelemetryItemsPerSecond", value, DEFAULT_MAX_TELEMETRY_ITEMS_PER_SECOND, Math.ulp(0.0), Double.MAX_VALUE);
+    }
+
+    public void setEvaluationIntervalInSeconds(String value) {
+        evaluationIntervalInSeconds = parse("EvaluationIntervalInSeconds", value, DEFAULT_EVALUATION_INTERVAL_IN_SECONDS, 0.001, Double.MAX_VALUE);
+    }
+
+    public void setSamplingPercentageDecreaseTimeoutInSeconds(String value) {
+        samplingPercentageDecreaseTimeoutInSeconds = parse("SamplingPercentageDecreaseTimeoutInSeconds", value,
+                DEFAULT_SAMPLING_PERCENTAGE_DECREASE_TIMEOUT_IN_SECONDS, 0, Double.MAX_VALUE);
+    }
+
+    public void setSamplingPercentageIncreaseTimeoutInSeconds(String value) {
+        samplingPercentageIncreaseTimeoutInSeconds = parse("SamplingPercentageIncreaseTimeoutInSeconds", value,
+                DEFAULT_SAMPLING_PERCENTAGE_INCREASE_TIMEOUT_IN_SECONDS, 0, Double.MAX_VALUE);
+    }
+
+    public void setMinSamplingPercentage(String value) {
+        minSamplingPercentage = parse("MinSamplingPercentage", value, DEFAULT_MIN_SAMPLING_PERCENTAGE, Math.ulp(0.0), 100.0);
+    }
+
+    public void setMaxSamplingPercentage(String value) {
+        maxSamplingPercentage = parse("MaxSamplingPercentage", value, DEFAULT_MAX_SAMPLING_PERCENTAGE, Math.ulp(0.0), 100.0);
+    }
+
+    public void setInitialSamplingPercentage(String value) {
+        initialSamplingPercentage = parse("InitialSamplingPercentage", value, DEFAULT_INITIAL_SAMPLING_PERCENTAGE, Math.ulp(0.0), 100.0);
+    }
+
+    public void setMovingAverageRatio(String value) {
+        movingAverageRatio = parse("MovingAverageRatio", value, DEFAULT_MOVING_AVERAGE_RATIO, Math.ulp(0.0), 1.0);
+    }
+
+    private static double parse(String name, String value, double defaultValue, double minValue, double maxValue) {
+        try {
+            double result = Double.parseDouble(StringUtils.trimToEmpty(value));
+            if (result >= minValue && result <= maxValue) {
+                InternalLogger.INSTANCE.trace("AdaptiveSamplingTelemetryProcessor: %s set to %s", name, result);
+                return result;
+            }
+            InternalLogger.INSTANCE.error("AdaptiveSamplingTelemetryProcessor: %s %s is out of range, using the default value %s", name, value, defaultValue);
+        } catch (NumberFormatException e) {
+            InternalLogger.INSTANCE.error("AdaptiveSamplingTelemetryProcessor: %s %s is in improper format, using the default value %s", name, value, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * This method is invoked during configuration to add one element to the
+     * excluded types set from the xml array list of excluded types
+     * @param value
+     */
+    public void addToExcludedType(String value) {
+        setIncludedOrExcludedTypes(value, excludedTypes, "exclude");
+    }
+
+    /**
+     * This method is invoked during configuration to add one element to the
+     * included types set from the xml array list of included types
+     * @param value
+     */
+    public void addToIncludedType(String value) {
+        setIncludedOrExcludedTypes(value, includedTypes, "include");
+    }
+
+    private void setIncludedOrExcludedTypes(String value, Set<Class> typeSet, String verb) {
+        Class type = FixedRateSamplingTelemetryProcessor.allowedTypes.get(StringUtils.trimToEmpty(value));
+        if (type != null) {
+            typeSet.add(type);
+        } else {
+            InternalLogger.INSTANCE.error("Error configuring %s: %s is not a valid telemetry type to %s.", AdaptiveSamplingTelemetryProcessor.class.getSimpleName(), value, verb);
+        }
+    }
+}
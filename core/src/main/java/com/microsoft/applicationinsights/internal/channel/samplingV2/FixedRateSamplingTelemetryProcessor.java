@@ -29,6 +29,7 @@ import java.util.Set;
     <BuiltInProcessors>
         <Processor type = "FixedRateSamplingTelemetryProcessor">
             <Add name = "SamplingPercentage" value = "50" />
+            <Add name = "DecideAtOperationStart" value = "true" />
             <ExcludedTypes>
                 <ExcludedType>Request</ExcludedType>
             </ExcludedTypes>
@@ -42,12 +43,16 @@ import java.util.Set;
     </BuiltInProcessors>
 </TelemetryProcessors>
  }
+ * <p>
+ * With DecideAtOperationStart, the decision is also made when a web request starts, and the items of sampled out
+ * operations are dropped before being built and processed, see {@link OperationSampling}.
  */
 @BuiltInProcessor("FixedRateSamplingTelemetryProcessor")
 public final class FixedRateSamplingTelemetryProcessor implements TelemetryProcessor {
 
     public static final double DEFAULT_SAMPLING_PERCENTAGE = 100.0;
-    private static Map<String, Class> allowedTypes = new HashMap<>();
+    // Also used by the other sampling processors of the package
+    static final Map<String, Class> allowedTypes = new HashMap<>();
 
     private static final String dependencyTelemetryName = "Dependency";
     private static final String eventTelemetryName = "Event";
@@ -139,6 +144,17 @@ public final class FixedRateSamplingTelemetryProcessor implements TelemetryProce
         }
     }
 
+    /**
+     * Sets whether the sampling decision of web requests is made when they start
+     *
+     * @param value "true" to decide at the start of the operations
+     */
+    public void setDecideAtOperationStart(String value) {
+        boolean decideAtOperationStart = Boolean.parseBoolean(StringUtils.trimToEmpty(value));
+        OperationSampling.setSampler(decideAtOperationStart ? this : null);
+        InternalLogger.INSTANCE.info("Sampling decision at operation start set to %s", decideAtOperationStart);
+    }
+
     /**
      * This method determines if the telemetry needs to be sampled or not.
      *
@@ -188,7 +204,7 @@ public final class FixedRateSamplingTelemetryProcessor implements TelemetryProce
      * @param item : Denotes the class item to be determined applicable for sampling
      * @return boolean
      */
-    private boolean isSamplingApplicable(Class item) {
+    boolean isSamplingApplicable(Class item) {
 
         if (excludedTypes.size() > 0 && excludedTypes.contains(item)) {
             return false;
@@ -0,0 +1,85 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+/**
+ * Turns the throttling responses of the ingestion endpoint into a ratio applied to the rate targeted by the
+ * {@link AdaptiveSamplingTelemetryProcessor}
+ * <p>
+ * The ratio is halved when a transmission is throttled, and multiplied by the accepted fraction when the endpoint
+ * throttles part of the items of a transmission, which estimates how far above the quota the application is.
+ * Decreases are applied at most once per {@value #DECREASE_INTERVAL_IN_MILLIS} ms, as the responses of the
+ * transmissions sent meanwhile reflect the same rate. Once no throttling was reported for
+ * {@value #RECOVERY_DELAY_IN_MILLIS} ms, the ratio grows back by a quarter every
+ * {@value #RECOVERY_INTERVAL_IN_MILLIS} ms, so that the sampling percentages come back gradually instead of
+ * bursting into the quota again.
+ */
+public enum IngestionThrottling {
+    INSTANCE;
+
+    static final double MIN_RATIO = 0.001;
+    static final long DECREASE_INTERVAL_IN_MILLIS = 5000;
+    static final long RECOVERY_DELAY_IN_MILLIS = 30000;
+    static final long RECOVERY_INTERVAL_IN_MILLIS = 10000;
+    private static final double RECOVERY_FACTOR = 1.25;
+
+    private double ratio = 1.0;
+    private long lastDecrease = Long.MIN_VALUE / 2;
+    private long lastThrottled = Long.MIN_VALUE / 2;
+    private long lastIncrease = Long.MIN_VALUE / 2;
+
+    /**
+     * Called when a whole transmission was throttled
+     *
+     * @param now The current time in milliseconds
+     */
+    public void onThrottled(long now) {
+        decrease(now, 0.5);
+    }
+
+    /**
+     * Called when the endpoint accepted only part of the items of a transmission because of throttling
+     *
+     * @param now The current time in milliseconds
+     * @param itemsReceived The number of items the endpoint received
+     * @param itemsThrottled The number of items the endpoint throttled
+     */
+    public void onPartiallyThrottled(long now, int itemsReceived, int itemsThrottled) {
+        if (itemsReceived <= 0 || itemsThrottled <= 0) {
+            return;
+        }
+        decrease(now, Math.max(0, itemsReceived - itemsThrottled) / (double) itemsReceived);
+    }
+
+    /**
+     * Gets the ratio to apply to the targeted rate, growing it back if throttling stopped
+     *
+     * @param now The current time in milliseconds
+     * @return A ratio in ]0, 1]
+     */
+    public synchronized double getRateRatio(long now) {
+        if (ratio < 1.0 && now - lastThrottled >= RECOVERY_DELAY_IN_MILLIS && now - lastIncrease >= RECOVERY_INTERVAL_IN_MILLIS) {
+            ratio = Math.min(1.0, ratio * RECOVERY_FACTOR);
+            lastIncrease = now;
+            InternalLogger.INSTANCE.trace("Ingestion throttling stopped, rate ratio raised to %s", ratio);
+        }
+        return ratio;
+    }
+
+    synchronized void reset() {
+        ratio = 1.0;
+        lastDecrease = Long.MIN_VALUE / 2;
+        lastThrottled = Long.MIN_VALUE / 2;
+        lastIncrease = Long.MIN_VALUE / 2;
+    }
+
+    private synchronized void decrease(long now, double factor) {
+        lastThrottled = now;
+        if (now - lastDecrease < DECREASE_INTERVAL_IN_MILLIS) {
+            return;
+        }
+        lastDecrease = now;
+        ratio = Math.max(MIN_RATIO, ratio * factor);
+        InternalLogger.INSTANCE.trace("Ingestion throttled, rate ratio lowered to %s", ratio);
+    }
+}
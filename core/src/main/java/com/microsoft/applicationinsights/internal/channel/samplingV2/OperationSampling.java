@@ -0,0 +1,163 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Holds the sampling decision made when an operation starts, so that the items of a sampled out operation are
+ * dropped before they are built and initialized
+ * <p>
+ * The decision is made by the web request handler once the operation id is known, with the percentage of the
+ * {@link FixedRateSamplingTelemetryProcessor} configured with DecideAtOperationStart. It is the decision the
+ * processor would make later for the same operation, as both use the operation id score of
+ * {@link SamplingScoreGeneratorV2}. The types the processor does not sample are never dropped early.
+ * <p>
+ * Requests and dependencies are never dropped early either: the processor drops them, after the duration
+ * histograms and the standard metrics counted them, so that their counts and durations stay exact.
+ * <p>
+ * The decision is bound to the thread handling the operation only. Items tracked from other threads are left to
+ * the processor, which makes the same decision from their operation id.
+ * <p>
+ * A decision is also made when operations are not sampled at their start, to carry the sampling score of the
+ * operation: it is computed once, and the sampling processors read it for the items of the current operation.
+ */
+public final class OperationSampling {
+
+    /**
+     * The sampling decision of an operation
+     */
+    public static final class Decision {
+        private final String operationId;
+        private final double samplingScore;
+        private final boolean sampledIn;
+
+        private Decision(String operationId, double samplingScore, boolean sampledIn) {
+            this.operationId = operationId;
+            this.samplingScore = samplingScore;
+            this.sampledIn = sampledIn;
+        }
+
+        public String getOperationId() {
+            return operationId;
+        }
+
+        public boolean isSampledIn() {
+            return sampledIn;
+        }
+
+        /**
+         * @return The sampling score of the operation, see {@link SamplingScoreGeneratorV2}
+         */
+        public double getSamplingScore() {
+            return samplingScore;
+        }
+
+        boolean isFor(String id) {
+            // items initialized from the operation share its id instance
+            return id == operationId || (id != null && id.equals(operationId));
+        }
+    }
+
+    // not inherited: a thread created during an operation, such as a pool thread, outlives it
+    private static final ThreadLocal<Decision> current = new ThreadLocal<>();
+
+    private static volatile FixedRateSamplingTelemetryProcessor sampler;
+
+    private OperationSampling() {
+    }
+
+    /**
+     * Makes the sampling decision of an operation
+     *
+     * @param operationId The operation id
+     * @return The decision, sampled in when operations are not sampled at their start, or null without operation id
+     */
+    public static Decision decide(String operationId) {
+        if (StringUtils.isEmpty(operationId)) {
+            return null;
+        }
+        double samplingScore = SamplingScoreGeneratorV2.getSamplingScore(operationId);
+        FixedRateSamplingTelemetryProcessor currentSampler = sampler;
+        boolean sampledIn = currentSampler == null || samplingScore < currentSampler.getSamplingPercentage();
+        return new Decision(operationId, samplingScore, sampledIn);
+    }
+
+    /**
+     * Binds the decision of the current operation to the thread
+     *
+     * @param decision The decision, null to unbind it
+     */
+    public static void setCurrent(Decision decision) {
+        if (decision == null) {
+            current.remove();
+        } else {
+            current.set(decision);
+        }
+    }
+
+    public static Decision getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Tells whether an item tracked on this thread belongs to a sampled out operation
+     *
+     * @param telemetry The item, which may not be initialized yet
+     * @return True if the item can be dropped without being processed
+     */
+    public static boolean isSampledOut(Telemetry telemetry) {
+        Decision decision = current.get();
+        if (decision == null || decision.sampledIn || !(telemetry instanceof SupportSampling)
+                || ((SupportSampling) telemetry).getSamplingPercentage() != null) {
+            return false;
+        }
+
+        // an item explicitly tracked for another operation is left to the processors
+        String operationId = telemetry.getContext().getOperation().getId();
+        if (operationId != null && !decision.isFor(operationId)) {
+            return false;
+        }
+        return isDroppable(telemetry.getClass());
+    }
+
+    /**
+     * Tells whether an item of the given type tracked on this thread would belong to a sampled out operation,
+     * so that it does not have to be built
+     *
+     * @param type The type of the item
+     * @return True if the item would be dropped without being processed
+     */
+    public static boolean isSampledOut(Class<? extends Telemetry> type) {
+        Decision decision = current.get();
+        return decision != null && !decision.sampledIn && isDroppable(type);
+    }
+
+    /**
+     * Tells whether an item of the given type would belong to a sampled out operation
+     *
+     * @param decision The decision of the operation, may be null
+     * @param typeName The type of the item, as named in the sampling configuration (Dependency, Trace...)
+     * @return True if the item would be dropped without being processed
+     */
+    public static boolean isSampledOut(Decision decision, String typeName) {
+        if (decision == null || decision.sampledIn) {
+            return false;
+        }
+        Class<?> type = FixedRateSamplingTelemetryProcessor.allowedTypes.get(typeName);
+        return type != null && isDroppable(type);
+    }
+
+    static void setSampler(FixedRateSamplingTelemetryProcessor processor) {
+        sampler = processor;
+    }
+
+    private static boolean isDroppable(Class<?> type) {
+        FixedRateSamplingTelemetryProcessor currentSampler = sampler;
+        return currentSampler != null && !RequestTelemetry.class.isAssignableFrom(type)
+                && !RemoteDependencyTelemetry.class.isAssignableFrom(type)
+                && SupportSampling.class.isAssignableFrom(type) && currentSampler.isSamplingApplicable(type);
+    }
+}
@@ -0,0 +1,307 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This processor bounds the rate of items of each telemetry type and operation name with token buckets
+ * <p>
+ * Each telemetry type and operation name pair has a bucket refilled at MaxItemsPerSecond, holding at most
+ * BurstSize tokens: an item is kept if it can take a token, dropped otherwise. Unlike the sampling percentages,
+ * a bucket bounds the volume as soon as one operation suddenly receives much more traffic than usual.
+ * <p>
+ * A kept item stands for itself and for the items of its bucket dropped since the previous kept item: it carries
+ * 100/N, N being the number of these items, multiplied with any sampling percentage it already has, so that counts
+ * computed by the portal remain right from the first second of a burst on. The items dropped at the end of a burst
+ * are accounted for by the next kept item. Items are dropped regardless of their operation, so this processor is
+ * meant to be a safety bound after the sampling processors rather than a replacement for them.
+ * <p>
+ * At most MaxBuckets buckets are kept: buckets idle for a minute are evicted when the limit is reached, and the items
+ * of operations that still do not get a bucket share one bucket per telemetry type.
+ * <p>
+ * How to use in ApplicationInsights Configuration :
+ * <p>
+ * {@code
+<TelemetryProcessors>
+    <BuiltInProcessors>
+        <Processor type = "RateLimitingTelemetryProcessor">
+            <Add name = "MaxItemsPerSecond" value = "100" />
+            <Add name = "BurstSize" value = "100" />
+            <Add name = "MaxBuckets" value = "1000" />
+            <ExcludedTypes>
+                <ExcludedType>Request</ExcludedType>
+            </ExcludedTypes>
+        </Processor>
+    </BuiltInProcessors>
+</TelemetryProcessors>
+ }
+ */
+@BuiltInProcessor("RateLimitingTelemetryProcessor")
+public final class RateLimitingTelemetryProcessor implements TelemetryProcessor {
+
+    public static final double DEFAULT_MAX_ITEMS_PER_SECOND = 100;
+    public static final int DEFAULT_MAX_BUCKETS = 1000;
+
+    // Tokens are counted in thousandths, so that fractional refills are not lost
+    private static final long TOKEN = 1000;
+    private static final long SECOND_IN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long IDLE_BUCKET_IN_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private volatile double maxItemsPerSecond = DEFAULT_MAX_ITEMS_PER_SECOND;
+    private volatile double burstSize = -1;
+    private volatile int maxBuckets = DEFAULT_MAX_BUCKETS;
+
+    private final Set<Class> excludedTypes = new HashSet<>();
+    private final Set<Class> includedTypes = new HashSet<>();
+
+    private final ConcurrentMap<Class, ConcurrentMap<String, Bucket>> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class, Bucket> overflowBuckets = new ConcurrentHashMap<>();
+    private final AtomicInteger bucketCount = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * A lock free token bucket, which also counts the items it drops between two kept items
+     */
+    private static final class Bucket {
+        private final AtomicLong tokens;
+        private final AtomicLong lastRefill;
+
+        // the items arrived since the last kept item, including the ones arriving now
+        private final AtomicLong unaccounted = new AtomicLong();
+
+        private Bucket(long capacity, long now) {
+            tokens = new AtomicLong(capacity);
+            lastRefill = new AtomicLong(now);
+        }
+
+        /**
+         * Takes a token if one is available
+         *
+         * @return The number of items the kept item stands for, 0 if it is dropped
+         */
+        long tryAcquire(long now, double ratePerSecond, long capacity) {
+            refill(now, ratePerSecond, capacity);
+            unaccounted.incrementAndGet();
+
+            while (true) {
+                long current = tokens.get();
+                if (current < TOKEN) {
+                    return 0;
+                }
+                if (tokens.compareAndSet(current, current - TOKEN)) {
+                    // a concurrent kept item may have taken this arrival already, the total stays right
+                    return Math.max(1, unaccounted.getAndSet(0));
+                }
+            }
+        }
+
+        long getLastRefill() {
+            return lastRefill.get();
+        }
+
+        private void refill(long now, double ratePerSecond, long capacity) {
+            long last = lastRefill.get();
+            long elapsed = now - last;
+            if (elapsed <= 0) {
+                return;
+            }
+            long added = (long) (elapsed * ratePerSecond * TOKEN / SECOND_IN_NANOS);
+            // the time is only consumed once it is worth a part of a token, and by a single thread
+            if (added <= 0 || !lastRefill.compareAndSet(last, now)) {
+                return;
+            }
+            while (true) {
+                long current = tokens.get();
+                long updated = Math.min(capacity, current + added);
+                if (updated == current || tokens.compareAndSet(current, updated)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        return process(telemetry, System.nanoTime());
+    }
+
+    @VisibleForTesting
+    boolean process(Telemetry telemetry, long now) {
+        if (!(telemetry instanceof SupportSampling) || !isSamplingApplicable(telemetry.getClass())) {
+            return true;
+        }
+
+        double ratePerSecond = maxItemsPerSecond;
+        long capacity = (long) ((burstSize < 0 ? ratePerSecond : burstSize) * TOKEN);
+        Bucket bucket = getBucket(telemetry.getClass(), getOperationName(telemetry), now, capacity);
+        long itemCount = bucket.tryAcquire(now, ratePerSecond, capacity);
+        if (itemCount == 0) {
+            InternalLogger.INSTANCE.trace("Item %s dropped by the rate limit", telemetry.getClass().getSimpleName());
+            return false;
+        }
+
+        if (itemCount > 1) {
+            SupportSampling samplingSupportingTelemetry = (SupportSampling) telemetry;
+            Double current = samplingSupportingTelemetry.getSamplingPercentage();
+            samplingSupportingTelemetry.setSamplingPercentage((current == null ? 100.0 : current) / itemCount);
+        }
+        return true;
+    }
+
+    int getBucketCount() {
+        return bucketCount.get();
+    }
+
+    private static String getOperationName(Telemetry telemetry) {
+        String name = telemetry.getContext().getOperation().getName();
+        if (name == null && telemetry instanceof RequestTelemetry) {
+            name = ((RequestTelemetry) telemetry).getName();
+        }
+        return name == null ? "" : name;
+    }
+
+    private Bucket getBucket(Class type, String operationName, long now, long capacity) {
+        ConcurrentMap<String, Bucket> typeBuckets = buckets.get(type);
+        if (typeBuckets == null) {
+            ConcurrentMap<String, Bucket> created = new ConcurrentHashMap<>();
+            typeBuckets = buckets.putIfAbsent(type, created);
+            if (typeBuckets == null) {
+                typeBuckets = created;
+            }
+        }
+
+        Bucket bucket = typeBuckets.get(operationName);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        if (bucketCount.get() >= maxBuckets) {
+            evictIdleBuckets(now);
+        }
+        if (bucketCount.incrementAndGet() > maxBuckets) {
+            bucketCount.decrementAndGet();
+            return getOverflowBucket(type, now, capacity);
+        }
+
+        Bucket created = new Bucket(capacity, now);
+        bucket = typeBuckets.putIfAbsent(operationName, created);
+        if (bucket != null) {
+            bucketCount.decrementAndGet();
+            return bucket;
+        }
+        return created;
+    }
+
+    private Bucket getOverflowBucket(Class type, long now, long capacity) {
+        Bucket bucket = overflowBuckets.get(type);
+        if (bucket == null) {
+            Bucket created = new Bucket(capacity, now);
+            bucket = overflowBuckets.putIfAbsent(type, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private void evictIdleBuckets(long now) {
+        // a single thread sweeps, the others use the overflow bucket meanwhile
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (ConcurrentMap<String, Bucket> typeBuckets : buckets.values()) {
+                for (Iterator<Map.Entry<String, Bucket>> iterator = typeBuckets.entrySet().iterator(); iterator.hasNext(); ) {
+                    if (now - iterator.next().getValue().getLastRefill() >= IDLE_BUCKET_IN_NANOS) {
+                        iterator.remove();
+                        bucketCount.decrementAndGet();
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private boolean isSamplingApplicable(Class item) {
+        if (excludedTypes.size() > 0 && excludedTypes.contains(item)) {
+            return false;
+        }
+
+        if (includedTypes.size() > 0 && !includedTypes.contains(item)) {
+            return false;
+        }
+
+        return true;
+    }
+
+    public void setMaxItemsPerSecond(String value) {
+        maxItemsPerSecond = parse("MaxItemsPerSecond", value, DEFAULT_MAX_ITEMS_PER_SECOND, Math.ulp(0.0), Double.MAX_VALUE);
+    }
+
+    public void setBurstSize(String value) {
+        burstSize = parse("BurstSize", value, -1, 1, Double.MAX_VALUE);
+    }
+
+    public void setMaxBuckets(String value) {
+        maxBuckets = (int) parse("MaxBuckets", value, DEFAULT_MAX_BUCKETS, 0, Integer.MAX_VALUE);
+    }
+
+    private static double parse(String name, String value, double defaultValue, double minValue, double maxValue) {
+        try {
+            double result = Double.parseDouble(StringUtils.trimToEmpty(value));
+            if (result >= minValue && result <= maxValue) {
+                InternalLogger.INSTANCE.trace("RateLimitingTelemetryProcessor: %s set to %s", name, result);
+                return result;
+            }
+            InternalLogger.INSTANCE.error("RateLimitingTelemetryProcessor: %s %s is out of range, using the default value %s", name, value, defaultValue);
+        } catch (NumberFormatException e) {
+            InternalLogger.INSTANCE.error("RateLimitingTelemetryProcessor: %s %s is in improper format, using the default value %s", name, value, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * This method is invoked during configuration to add one element to the
+     * excluded types set from the xml array list of excluded types
+     * @param value
+     */
+    public void addToExcludedType(String value) {
+        setIncludedOrExcludedTypes(value, excludedTypes, "exclude");
+    }
+
+    /**
+     * This method is invoked during configuration to add one element to the
+     * included types set from the xml array list of included types
+     * @param value
+     */
+    public void addToIncludedType(String value) {
+        setIncludedOrExcludedTypes(value, includedTypes, "include");
+    }
+
+    private void setIncludedOrExcludedTypes(String value, Set<Class> typeSet, String verb) {
+        Class type = FixedRateSamplingTelemetryProcessor.allowedTypes.get(StringUtils.trimToEmpty(value));
+        if (type != null) {
+            typeSet.add(type);
+        } else {
+            InternalLogger.INSTANCE.error("Error configuring %s: %s is not a valid telemetry type to %s.", RateLimitingTelemetryProcessor.class.getSimpleName(), value, verb);
+        }
+    }
+}
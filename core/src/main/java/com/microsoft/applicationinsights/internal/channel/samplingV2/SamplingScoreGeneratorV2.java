@@ -17,20 +17,30 @@ public class SamplingScoreGeneratorV2 {
     /**
      * This method takes the telemetry and returns the hash of the operation id if it is present already
      * or uses the random number generator to generate the sampling score.
+     * The score of the operation bound to the thread was computed when it started, and is not computed again.
      * @param telemetry
-     * @return [0.0, 1.0)
+     * @return [0.0, 100.0)
      */
     public static double getSamplingScore(Telemetry telemetry) {
+        String operationId = telemetry.getContext().getOperation().getId();
+        OperationSampling.Decision decision = OperationSampling.getCurrent();
+        if (decision != null && decision.isFor(operationId)) {
+            return decision.getSamplingScore();
+        }
+        return getSamplingScore(operationId);
+    }
 
-        double samplingScore;
-
-        if (!StringUtils.isEmpty(telemetry.getContext().getOperation().getId())) {
-            samplingScore =  ((double) getSamplingHashCode(telemetry.getContext().getOperation().getId()) / Integer.MAX_VALUE);
-        } else {
-            samplingScore =  random.nextDouble(); // [0,1)
+    /**
+     * This method returns the hash of the operation id, or a random score when the operation id is empty.
+     * @param operationId
+     * @return [0.0, 100.0)
+     */
+    public static double getSamplingScore(String operationId) {
+        if (StringUtils.isEmpty(operationId)) {
+            return random.nextDouble() * 100.0; // [0,1)
         }
 
-        return samplingScore * 100.0; // always < 100.0
+        return ((double) getSamplingHashCode(operationId) / Integer.MAX_VALUE) * 100.0; // always < 100.0
     }
 
     /**
@@ -42,15 +52,16 @@ public class SamplingScoreGeneratorV2 {
             return 0;
         }
 
-        StringBuilder inputBuilder = new StringBuilder(input);
-        while (inputBuilder.length() < 8) {
-            inputBuilder.append(input);
-        }
+        // hashes the input repeated until it is at least 8 characters long, without building the repeated string
+        int length = input.length();
+        int repeat = length < 8 ? (8 + length - 1) / length : 1;
 
         int hash = 5381;
 
-        for (int i = 0; i < inputBuilder.length(); ++i) {
-            hash = ((hash << 5) + hash) + (int) inputBuilder.charAt(i);
+        for (int r = 0; r < repeat; ++r) {
+            for (int i = 0; i < length; ++i) {
+                hash = ((hash << 5) + hash) + (int) input.charAt(i);
+            }
         }
 
         if (hash == Integer.MIN_VALUE || hash == Integer.MAX_VALUE) {
@@ -0,0 +1,527 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.metrics.Metric;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This processor samples whole operations once their outcome is known, to keep the failed and slow ones
+ * <p>
+ * The items of an operation are held back until its {@link RequestTelemetry} is tracked, which the web module does
+ * when the request ends (see {@code HttpServerHandler.handleEnd}). The operation is then kept if the request failed,
+ * if it took at least SlowRequestThresholdInMilliseconds, or else at BaseSamplingPercentage using the operation id
+ * score of {@link SamplingScoreGeneratorV2}, and its items are released or dropped together. Items tracked after
+ * the decision follow it.
+ * <p>
+ * Items kept because their operation failed or was slow are sent with a 100% sampling percentage, the others with
+ * the base percentage, so that counts computed by the portal remain right.
+ * <p>
+ * At most MaxBufferedItems items are held back: past that, new items are head sampled at the base percentage.
+ * Operations whose request is not tracked within OperationTimeoutInSeconds are also sampled at the base percentage.
+ * Each decision is counted in the pre-aggregated metric {@value #DECISIONS_METRIC_NAME}.
+ * <p>
+ * The items released once their operation is decided go through the processors configured after this one, then
+ * to the channel of the configuration this processor belongs to.
+ * <p>
+ * How to use in ApplicationInsights Configuration :
+ * <p>
+ * {@code
+<TelemetryProcessors>
+    <BuiltInProcessors>
+        <Processor type = "TailSamplingTelemetryProcessor">
+            <Add name = "BaseSamplingPercentage" value = "10" />
+            <Add name = "SlowRequestThresholdInMilliseconds" value = "1000" />
+            <Add name = "KeepFailedRequests" value = "true" />
+            <Add name = "MaxBufferedItems" value = "10000" />
+            <Add name = "OperationTimeoutInSeconds" value = "30" />
+        </Processor>
+    </BuiltInProcessors>
+</TelemetryProcessors>
+ }
+ */
+@BuiltInProcessor("TailSamplingTelemetryProcessor")
+public final class TailSamplingTelemetryProcessor implements TelemetryProcessor {
+
+    public static final String DECISIONS_METRIC_NAME = "Tail sampling decisions";
+    public static final String DECISION_DIMENSION = "Decision";
+
+    public static final double DEFAULT_BASE_SAMPLING_PERCENTAGE = 10.0;
+    public static final long DEFAULT_SLOW_REQUEST_THRESHOLD_IN_MILLISECONDS = 1000;
+    public static final int DEFAULT_MAX_BUFFERED_ITEMS = 10000;
+    public static final long DEFAULT_OPERATION_TIMEOUT_IN_SECONDS = 30;
+
+    // How many decisions are remembered for the items tracked after their request
+    private static final int MAX_DECISIONS = 10000;
+    private static final long EXPIRATION_PERIOD_IN_MILLISECONDS = 1000;
+
+    /**
+     * The reasons an operation is kept or dropped
+     */
+    enum Decision {
+        KeptFailed,
+        KeptSlow,
+        KeptSampled,
+        Dropped,
+        KeptOrphaned,
+        DroppedOrphaned,
+        KeptOverflow,
+        DroppedOverflow
+    }
+
+    /**
+     * The items of an operation waiting for its request
+     */
+    private static final class Group {
+        private final long created;
+        private final List<Telemetry> items = new ArrayList<>();
+        private boolean decided;
+
+        private Group(long created) {
+            this.created = created;
+        }
+    }
+
+    private volatile double baseSamplingPercentage = DEFAULT_BASE_SAMPLING_PERCENTAGE;
+    private volatile long slowRequestThresholdInMillis = DEFAULT_SLOW_REQUEST_THRESHOLD_IN_MILLISECONDS;
+    private volatile boolean keepFailedRequests = true;
+    private volatile int maxBufferedItems = DEFAULT_MAX_BUFFERED_ITEMS;
+    private volatile long operationTimeoutInMillis = TimeUnit.SECONDS.toMillis(DEFAULT_OPERATION_TIMEOUT_IN_SECONDS);
+
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+    private final AtomicInteger bufferedItems = new AtomicInteger();
+    private final Map<Decision, AtomicLong> decisionCounts = new EnumMap<>(Decision.class);
+
+    // The sampling percentage each recent operation was kept with, null when it was dropped
+    private final LinkedHashMap<String, Double> decisions = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            return size() > MAX_DECISIONS;
+        }
+    };
+
+    private volatile TelemetryConfiguration configuration;
+    private volatile Metric decisionsMetric;
+    private final boolean reportDecisions;
+    private volatile ScheduledExecutorService expirationService;
+
+    public TailSamplingTelemetryProcessor() {
+        this(null, true);
+    }
+
+    /**
+     * @param configuration The configuration this processor belongs to, the active one when null
+     * @param reportDecisions Whether the decisions are reported as a metric
+     */
+    @VisibleForTesting
+    TailSamplingTelemetryProcessor(TelemetryConfiguration configuration, boolean reportDecisions) {
+        this.configuration = configuration;
+        this.reportDecisions = reportDecisions;
+        for (Decision decision : Decision.values()) {
+            decisionCounts.put(decision, new AtomicLong());
+        }
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        if (!(telemetry instanceof SupportSampling) || ((SupportSampling) telemetry).getSamplingPercentage() != null) {
+            return true;
+        }
+
+        String operationId = telemetry.getContext().getOperation().getId();
+        if (StringUtils.isEmpty(operationId)) {
+            return true;
+        }
+
+        ensureExpirationScheduled();
+
+        if (telemetry instanceof RequestTelemetry) {
+            return complete(operationId, (RequestTelemetry) telemetry);
+        }
+
+        Double decided = getDecision(operationId);
+        if (decided != null || hasDecision(operationId)) {
+            return applyDecision(telemetry, decided);
+        }
+
+        return buffer(operationId, telemetry);
+    }
+
+    /**
+     * Decides the operations whose request was not tracked in time
+     *
+     * @param now The current time in milliseconds
+     */
+    @VisibleForTesting
+    void expire(long now) {
+        for (Iterator<Map.Entry<String, Group>> iterator = groups.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Group> entry = iterator.next();
+            if (now - entry.getValue().created < operationTimeoutInMillis) {
+                continue;
+            }
+
+            List<Telemetry> items = takeItems(entry.getKey(), entry.getValue());
+            if (items == null) {
+                continue;
+            }
+            if (hasDecision(entry.getKey())) {
+                // a late group of an operation whose request was tracked meanwhile
+                release(items, getDecision(entry.getKey()));
+                continue;
+            }
+            boolean keep = isSampledIn(items.get(0));
+            decide(entry.getKey(), items, keep ? Decision.KeptOrphaned : Decision.DroppedOrphaned, keep ? baseSamplingPercentage : null);
+        }
+    }
+
+    long getDecisionCount(Decision decision) {
+        return decisionCounts.get(decision).get();
+    }
+
+    int getBufferedItemCount() {
+        return bufferedItems.get();
+    }
+
+    @VisibleForTesting
+    boolean buffer(String operationId, Telemetry telemetry) {
+        if (bufferedItems.incrementAndGet() > maxBufferedItems) {
+            bufferedItems.decrementAndGet();
+            boolean keep = isSampledIn(telemetry);
+            count(keep ? Decision.KeptOverflow : Decision.DroppedOverflow);
+            if (keep) {
+                ((SupportSampling) telemetry).setSamplingPercentage(baseSamplingPercentage);
+            }
+            return keep;
+        }
+
+        while (true) {
+            Group group = groups.get(operationId);
+            if (group == null) {
+                Group created = new Group(System.currentTimeMillis());
+                group = groups.putIfAbsent(operationId, created);
+                if (group == null) {
+                    group = created;
+                    // the request may have been tracked since process() looked for a decision
+                    if (hasDecision(operationId)) {
+                        Double decided = getDecision(operationId);
+                        List<Telemetry> items = takeItems(operationId, created);
+                        if (items != null) {
+                            release(items, decided);
+                        }
+                        bufferedItems.decrementAndGet();
+                        return applyDecision(telemetry, decided);
+                    }
+                }
+            }
+
+            synchronized (group) {
+                if (!group.decided) {
+                    // the pipeline must not recycle the item while it is held back
+                    TelemetryPool.detach(telemetry);
+                    group.items.add(telemetry);
+                    return false;
+                }
+            }
+
+            // decided meanwhile: the item follows the decision once remembered, a late group otherwise
+            Double decided = getDecision(operationId);
+            if (decided != null || hasDecision(operationId)) {
+                bufferedItems.decrementAndGet();
+                return applyDecision(telemetry, decided);
+            }
+        }
+    }
+
+    private boolean complete(String operationId, RequestTelemetry request) {
+        Decision decision;
+        Double samplingPercentage;
+        Duration duration = request.getDuration();
+        if (keepFailedRequests && !request.isSuccess()) {
+            decision = Decision.KeptFailed;
+            samplingPercentage = 100.0;
+        } else if (duration != null && duration.getTotalMilliseconds() >= slowRequestThresholdInMillis) {
+            decision = Decision.KeptSlow;
+            samplingPercentage = 100.0;
+        } else if (isSampledIn(request)) {
+            decision = Decision.KeptSampled;
+            samplingPercentage = baseSamplingPercentage;
+        } else {
+            decision = Decision.Dropped;
+            samplingPercentage = null;
+        }
+
+        Group group = groups.get(operationId);
+        List<Telemetry> items = group == null ? null : takeItems(operationId, group);
+        if (items == null) {
+            items = new ArrayList<>();
+        }
+        decide(operationId, items, decision, samplingPercentage);
+
+        if (samplingPercentage == null) {
+            return false;
+        }
+        request.setSamplingPercentage(samplingPercentage);
+        return true;
+    }
+
+    /**
+     * Removes a group, after which items of its operation are no longer added to it
+     *
+     * @return The items of the group, or null if it was already taken
+     */
+    private List<Telemetry> takeItems(String operationId, Group group) {
+        if (!groups.remove(operationId, group)) {
+            return null;
+        }
+        synchronized (group) {
+            group.decided = true;
+            bufferedItems.addAndGet(-group.items.size());
+            return new ArrayList<>(group.items);
+        }
+    }
+
+    private void remember(String operationId, Double samplingPercentage) {
+        synchronized (decisions) {
+            decisions.put(operationId, samplingPercentage);
+        }
+    }
+
+    private void decide(String operationId, List<Telemetry> items, Decision decision, Double samplingPercentage) {
+        remember(operationId, samplingPercentage);
+        count(decision);
+
+        release(items, samplingPercentage);
+    }
+
+    private void release(List<Telemetry> items, Double samplingPercentage) {
+        if (samplingPercentage == null) {
+            return;
+        }
+        for (Telemetry item : items) {
+            ((SupportSampling) item).setSamplingPercentage(samplingPercentage);
+            release(item);
+        }
+    }
+
+    private boolean applyDecision(Telemetry telemetry, Double samplingPercentage) {
+        if (samplingPercentage == null) {
+            return false;
+        }
+        ((SupportSampling) telemetry).setSamplingPercentage(samplingPercentage);
+        return true;
+    }
+
+    private Double getDecision(String operationId) {
+        synchronized (decisions) {
+            return decisions.get(operationId);
+        }
+    }
+
+    private boolean hasDecision(String operationId) {
+        synchronized (decisions) {
+            return decisions.containsKey(operationId);
+        }
+    }
+
+    private boolean isSampledIn(Telemetry telemetry) {
+        return SamplingScoreGeneratorV2.getSamplingScore(telemetry) < baseSamplingPercentage;
+    }
+
+    private void count(Decision decision) {
+        decisionCounts.get(decision).incrementAndGet();
+        if (!reportDecisions) {
+            return;
+        }
+
+        try {
+            if (decisionsMetric == null) {
+                decisionsMetric = new TelemetryClient().getMetric(DECISIONS_METRIC_NAME, DECISION_DIMENSION);
+            }
+            decisionsMetric.trackValue(1, decision.name());
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            // chomp, the counts are still kept
+        }
+    }
+
+    /**
+     * Sends an item that was held back, the way the telemetry client would have after this processor
+     */
+    private void release(Telemetry telemetry) {
+        TelemetryConfiguration owner = getConfiguration();
+        if (!activateNextProcessors(owner, telemetry)) {
+            return;
+        }
+
+        if (QuickPulseDataCollector.INSTANCE.isCollecting()) {
+            try {
+                QuickPulseDataCollector.INSTANCE.add(telemetry);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                // chomp, live metrics are best effort
+            }
+        }
+
+        try {
+            owner.getChannel().send(telemetry);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("TailSamplingTelemetryProcessor: failed to release telemetry: '%s'", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
+    /**
+     * Runs an item through the processors following this one in the configuration, which it did not go through
+     * while held back
+     *
+     * @return false if one of them denied the item
+     */
+    private boolean activateNextProcessors(TelemetryConfiguration owner, Telemetry telemetry) {
+        boolean next = false;
+        for (TelemetryProcessor processor : owner.getTelemetryProcessors()) {
+            if (!next) {
+                next = processor == this;
+                continue;
+            }
+            try {
+                if (processor instanceof TelemetryTypeAware && !((TelemetryTypeAware) processor).appliesTo(telemetry.getClass())) {
+                    continue;
+                }
+                if (!processor.process(telemetry)) {
+                    return false;
+                }
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("TailSamplingTelemetryProcessor: exception while processing released telemetry: '%s'", t.toString());
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+        return true;
+    }
+
+    private TelemetryConfiguration getConfiguration() {
+        TelemetryConfiguration owner = configuration;
+        return owner == null ? TelemetryConfiguration.getActive() : owner;
+    }
+
+    private void ensureExpirationScheduled() {
+        if (expirationService != null) {
+            return;
+        }
+        synchronized (this) {
+            if (expirationService != null) {
+                return;
+            }
+            ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(
+                    ThreadPoolUtils.createDaemonThreadFactory(TailSamplingTelemetryProcessor.class));
+            service.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        expire(System.currentTimeMillis());
+                    } catch (ThreadDeath td) {
+                        throw td;
+                    } catch (Throwable t) {
+                        try {
+                            InternalLogger.INSTANCE.error("TailSamplingTelemetryProcessor: failed to expire operations: '%s'", t.toString());
+                        } catch (ThreadDeath td) {
+                            throw td;
+                        } catch (Throwable t2) {
+                            // chomp
+                        }
+                    }
+                }
+            }, EXPIRATION_PERIOD_IN_MILLISECONDS, EXPIRATION_PERIOD_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            SDKShutdownActivity.INSTANCE.register(service);
+            expirationService = service;
+        }
+    }
+
+    /**
+     * Sets the configuration this processor was added to, whose next processors and channel the kept items are
+     * released to. The active configuration is used until then.
+     *
+     * @param configuration The configuration holding this processor
+     */
+    public void setTelemetryConfiguration(TelemetryConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    public void setBaseSamplingPercentage(String value) {
+        baseSamplingPercentage = parse("BaseSamplingPercentage", value, DEFAULT_BASE_SAMPLING_PERCENTAGE, 0.0, 100.0);
+    }
+
+    public void setSlowRequestThresholdInMilliseconds(String value) {
+        slowRequestThresholdInMillis = (long) parse("SlowRequestThresholdInMilliseconds", value,
+                DEFAULT_SLOW_REQUEST_THRESHOLD_IN_MILLISECONDS, 0, Long.MAX_VALUE);
+    }
+
+    public void setKeepFailedRequests(String value) {
+        keepFailedRequests = Boolean.parseBoolean(StringUtils.trimToEmpty(value));
+        InternalLogger.INSTANCE.trace("TailSamplingTelemetryProcessor: KeepFailedRequests set to %s", keepFailedRequests);
+    }
+
+    public void setMaxBufferedItems(String value) {
+        maxBufferedItems = (int) parse("MaxBufferedItems", value, DEFAULT_MAX_BUFFERED_ITEMS, 0, Integer.MAX_VALUE);
+    }
+
+    public void setOperationTimeoutInSeconds(String value) {
+        operationTimeoutInMillis = (long) (1000 * parse("OperationTimeoutInSeconds", value, DEFAULT_OPERATION_TIMEOUT_IN_SECONDS, 0, Integer.MAX_VALUE));
+    }
+
+    private static double parse(String name, String value, double defaultValue, double minValue, double maxValue) {
+        try {
+            double result = Double.parseDouble(StringUtils.trimToEmpty(value));
+            if (result >= minValue && result <= maxValue) {
+                InternalLogger.INSTANCE.trace("TailSamplingTelemetryProcessor: %s set to %s", name, result);
+                return result;
+            }
+            InternalLogger.INSTANCE.error("TailSamplingTelemetryProcessor: %s %s is out of range, using the default value %s", name, value, defaultValue);
+        } catch (NumberFormatException e) {
+            InternalLogger.INSTANCE.error("TailSamplingTelemetryProcessor: %s %s is in improper format, using the default value %s", name, value, defaultValue);
+        }
+        return defaultValue;
+    }
+}
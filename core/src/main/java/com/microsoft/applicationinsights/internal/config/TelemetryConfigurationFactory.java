@@ -22,7 +22,10 @@
 package com.microsoft.applicationinsights.internal.config;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.AdaptiveSamplingTelemetryProcessor;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.TailSamplingTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.RateLimitingTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.heartbeat.HeartBeatModule;
 import java.io.InputStream;
 import java.util.HashSet;
@@ -50,8 +53,11 @@ import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter
 
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.perfcounter.ProcessPerformanceCountersModule;
+import com.microsoft.applicationinsights.internal.processor.ExceptionAggregationTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.processor.PageViewTelemetryFilter;
+import com.microsoft.applicationinsights.internal.processor.RedactionTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.processor.RequestTelemetryFilter;
+import com.microsoft.applicationinsights.internal.processor.StandardMetricsTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.processor.SyntheticSourceFilter;
 import com.microsoft.applicationinsights.internal.processor.TelemetryEventFilter;
 import com.microsoft.applicationinsights.internal.processor.TraceTelemetryFilter;
@@ -263,16 +269,47 @@ public enum TelemetryConfigurationFactory {
             }
             ArrayList<TelemetryProcessorXmlElement> customs = configurationProcessors.getCustomTelemetryProcessors();
             loadProcessorComponents(processors, customs);
+            moveStandardMetricsBeforeSampling(processors);
+            for (TelemetryProcessor processor : processors) {
+                if (processor instanceof TailSamplingTelemetryProcessor) {
+                    // the items it holds back are released to the processors after it and to this configuration's channel
+                    ((TailSamplingTelemetryProcessor) processor).setTelemetryConfiguration(configuration);
+                }
+            }
+        }
+    }
+
+    /**
+     * The standard metrics must see every request and dependency, so they are moved before the first sampling processor.
+     */
+    private void moveStandardMetricsBeforeSampling(List<TelemetryProcessor> processors) {
+        String samplingPackage = FixedRateSamplingTelemetryProcessor.class.getPackage().getName();
+        int firstSampling = -1;
+        for (int i = 0; i < processors.size(); ++i) {
+            TelemetryProcessor processor = processors.get(i);
+            if (firstSampling < 0 && processor.getClass().getName().startsWith(samplingPackage + ".")) {
+                firstSampling = i;
+            } else if (firstSampling >= 0 && processor instanceof StandardMetricsTelemetryProcessor) {
+                processors.remove(i);
+                processors.add(firstSampling++, processor);
+                InternalLogger.INSTANCE.trace("StandardMetricsTelemetryProcessor was moved before the sampling processors");
+            }
         }
     }
 
     private void addDefaultBuiltInProcessors(List<String> p) {
         p.add(FixedRateSamplingTelemetryProcessor.class.getCanonicalName());
+        p.add(AdaptiveSamplingTelemetryProcessor.class.getCanonicalName());
+        p.add(TailSamplingTelemetryProcessor.class.getCanonicalName());
+        p.add(RateLimitingTelemetryProcessor.class.getCanonicalName());
         p.add(PageViewTelemetryFilter.class.getCanonicalName());
         p.add(RequestTelemetryFilter.class.getCanonicalName());
         p.add(SyntheticSourceFilter.class.getCanonicalName());
         p.add(TelemetryEventFilter.class.getCanonicalName());
         p.add(TraceTelemetryFilter.class.getCanonicalName());
+        p.add(ExceptionAggregationTelemetryProcessor.class.getCanonicalName());
+        p.add(StandardMetricsTelemetryProcessor.class.getCanonicalName());
+        p.add(RedactionTelemetryProcessor.class.getCanonicalName());
     }
 
 
@@ -0,0 +1,420 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * The class aggregates repeated exceptions, to keep a burst of identical failures from saturating the channel.
+ * <p>
+ * Exceptions are fingerprinted by their type, their message with the variable parts (numbers, ids) masked,
+ * and their top stack frames. Within each window, the first occurrences of a fingerprint are sent in full,
+ * the following ones are dropped and counted. At the end of the window one summary ExceptionTelemetry is sent
+ * per fingerprint that had dropped occurrences, with the count and the first and last occurrence times,
+ * correlated to the operation of one of the dropped occurrences.
+ * <p>
+ * How to use in ApplicationInsights Configuration :
+ * <p>
+ * {@code
+<TelemetryProcessors>
+    <BuiltInProcessors>
+        <Processor type = "ExceptionAggregationTelemetryProcessor">
+            <Add name = "WindowInSeconds" value = "60" />
+            <Add name = "MaxFullOccurrences" value = "10" />
+            <Add name = "StackFrames" value = "5" />
+        </Processor>
+    </BuiltInProcessors>
+</TelemetryProcessors>
+ }
+ */
+@BuiltInProcessor("ExceptionAggregationTelemetryProcessor")
+public final class ExceptionAggregationTelemetryProcessor implements TelemetryProcessor, TelemetryTypeAware {
+
+    public static final String AGGREGATED_COUNT_NAME = "AggregatedCount";
+    public static final String FIRST_OCCURRENCE_PROPERTY = "AggregatedFirstOccurrence";
+    public static final String LAST_OCCURRENCE_PROPERTY = "AggregatedLastOccurrence";
+    public static final String FINGERPRINT_PROPERTY = "ExceptionFingerprint";
+
+    public static final long DEFAULT_WINDOW_IN_SECONDS = 60;
+    public static final int DEFAULT_MAX_FULL_OCCURRENCES = 10;
+    public static final int DEFAULT_STACK_FRAMES = 5;
+
+    // Bounds the memory used by the processor, exceptions with new fingerprints are not aggregated beyond it
+    static final int MAX_FINGERPRINTS = 1000;
+
+    private final ConcurrentMap<String, Occurrences> occurrences = new ConcurrentHashMap<String, Occurrences>();
+    private final Queue<ExceptionTelemetry> pendingSummaries = new ConcurrentLinkedQueue<ExceptionTelemetry>();
+
+    private volatile long windowInMillis = TimeUnit.SECONDS.toMillis(DEFAULT_WINDOW_IN_SECONDS);
+    private volatile int maxFullOccurrences = DEFAULT_MAX_FULL_OCCURRENCES;
+    private volatile int stackFrames = DEFAULT_STACK_FRAMES;
+
+    private volatile ScheduledExecutorService flushService;
+    private TelemetryClient telemetryClient;
+
+    @Override
+    public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+        return ExceptionTelemetry.class.isAssignableFrom(telemetryType);
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        if (!(telemetry instanceof ExceptionTelemetry)) {
+            return true;
+        }
+
+        ExceptionTelemetry exceptionTelemetry = (ExceptionTelemetry) telemetry;
+        if (exceptionTelemetry.getMetrics().containsKey(AGGREGATED_COUNT_NAME)) {
+            // a summary sent by this processor
+            return true;
+        }
+
+        ensureFlushScheduled();
+        return process(exceptionTelemetry, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    boolean process(ExceptionTelemetry telemetry, long now) {
+        Throwable throwable = telemetry.getThrowable();
+        if (throwable == null) {
+            return true;
+        }
+
+        String fingerprint = createFingerprint(throwable, stackFrames);
+        Date timestamp = telemetry.getTimestamp();
+        long time = timestamp == null ? now : timestamp.getTime();
+
+        while (true) {
+            Occurrences current = occurrences.get(fingerprint);
+            if (current == null) {
+                if (occurrences.size() >= MAX_FINGERPRINTS) {
+                    return true;
+                }
+                current = new Occurrences(fingerprint, now);
+                Occurrences previous = occurrences.putIfAbsent(fingerprint, current);
+                if (previous != null) {
+                    current = previous;
+                }
+            }
+
+            synchronized (current) {
+                if (current.removed) {
+                    // removed by a concurrent flush, start over with a new entry
+                    continue;
+                }
+                if (now - current.windowStart >= windowInMillis) {
+                    addSummary(current.close(now));
+                }
+                return current.add(telemetry, time, maxFullOccurrences);
+            }
+        }
+    }
+
+    /**
+     * Closes the windows that ended and returns the summaries waiting to be sent.
+     * @param now The current time in milliseconds.
+     * @return The summaries to send.
+     */
+    @VisibleForTesting
+    List<ExceptionTelemetry> flush(long now) {
+        Iterator<Map.Entry<String, Occurrences>> iterator = occurrences.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Occurrences current = iterator.next().getValue();
+            synchronized (current) {
+                if (now - current.windowStart < windowInMillis) {
+                    continue;
+                }
+                addSummary(current.close(now));
+                current.removed = true;
+                iterator.remove();
+            }
+        }
+
+        List<ExceptionTelemetry> summaries = new ArrayList<ExceptionTelemetry>();
+        for (ExceptionTelemetry summary = pendingSummaries.poll(); summary != null; summary = pendingSummaries.poll()) {
+            summaries.add(summary);
+        }
+        return summaries;
+    }
+
+    private void addSummary(ExceptionTelemetry summary) {
+        if (summary != null) {
+            pendingSummaries.add(summary);
+        }
+    }
+
+    private void ensureFlushScheduled() {
+        if (flushService != null) {
+            return;
+        }
+        synchronized (this) {
+            if (flushService != null) {
+                return;
+            }
+            ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(
+                    ThreadPoolUtils.createDaemonThreadFactory(ExceptionAggregationTelemetryProcessor.class));
+            long period = windowInMillis;
+            service.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    sendSummaries();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+            SDKShutdownActivity.INSTANCE.register(service);
+            flushService = service;
+        }
+    }
+
+    private void sendSummaries() {
+        try {
+            List<ExceptionTelemetry> summaries = flush(System.currentTimeMillis());
+            if (summaries.isEmpty()) {
+                return;
+            }
+            if (telemetryClient == null) {
+                telemetryClient = new TelemetryClient();
+            }
+            for (ExceptionTelemetry summary : summaries) {
+                telemetryClient.track(summary);
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("ExceptionAggregationTelemetryProcessor: failed to send summaries, Exception : %s",
+                        ExceptionUtils.getStackTrace(t));
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
+    /**
+     * Creates the fingerprint of the throwable: its type, its message template and its top stack frames.
+     */
+    @VisibleForTesting
+    static String createFingerprint(Throwable throwable, int stackFrames) {
+        StringBuilder fingerprint = new StringBuilder(256);
+        fingerprint.append(throwable.getClass().getName()).append('|');
+        appendMessageTemplate(fingerprint, throwable.getMessage());
+
+        StackTraceElement[] trace = throwable.getStackTrace();
+        int frames = Math.min(trace.length, stackFrames);
+        for (int i = 0; i < frames; ++i) {
+            StackTraceElement element = trace[i];
+            fingerprint.append('|').append(element.getClassName()).append('.').append(element.getMethodName())
+                    .append(':').append(element.getLineNumber());
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Appends the message with every word that contains a digit, e.g. numbers, ids and guids, replaced by '#'.
+     */
+    private static void appendMessageTemplate(StringBuilder builder, String message) {
+        if (message == null) {
+            return;
+        }
+
+        int wordStart = 0;
+        boolean hasDigit = false;
+        for (int i = 0; i <= message.length(); ++i) {
+            char c = i < message.length() ? message.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                hasDigit |= Character.isDigit(c);
+                continue;
+            }
+
+            if (hasDigit) {
+                builder.append('#');
+            } else {
+                builder.append(message, wordStart, i);
+            }
+            if (i < message.length()) {
+                builder.append(c);
+            }
+            wordStart = i + 1;
+            hasDigit = false;
+        }
+    }
+
+    public void setWindowInSeconds(String windowInSeconds) throws Throwable {
+        try {
+            long value = Long.parseLong(windowInSeconds.trim());
+            if (value <= 0) {
+                throw new IllegalArgumentException("WindowInSeconds must be positive");
+            }
+            this.windowInMillis = TimeUnit.SECONDS.toMillis(value);
+            InternalLogger.INSTANCE.trace("ExceptionAggregationTelemetryProcessor: successfully set WindowInSeconds = %d", value);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            logConfigurationError("WindowInSeconds", windowInSeconds, t);
+            throw t;
+        }
+    }
+
+    public void setMaxFullOccurrences(String maxFullOccurrences) throws Throwable {
+        try {
+            int value = Integer.parseInt(maxFullOccurrences.trim());
+            if (value < 0) {
+                throw new IllegalArgumentException("MaxFullOccurrences cannot be negative");
+            }
+            this.maxFullOccurrences = value;
+            InternalLogger.INSTANCE.trace("ExceptionAggregationTelemetryProcessor: successfully set MaxFullOccurrences = %d", value);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            logConfigurationError("MaxFullOccurrences", maxFullOccurrences, t);
+            throw t;
+        }
+    }
+
+    public void setStackFrames(String stackFrames) throws Throwable {
+        try {
+            int value = Integer.parseInt(stackFrames.trim());
+            if (value < 0) {
+                throw new IllegalArgumentException("StackFrames cannot be negative");
+            }
+            this.stackFrames = value;
+            InternalLogger.INSTANCE.trace("ExceptionAggregationTelemetryProcessor: successfully set StackFrames = %d", value);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            logConfigurationError("StackFrames", stackFrames, t);
+            throw t;
+        }
+    }
+
+    private static void logConfigurationError(String name, String value, Throwable t) {
+        try {
+            InternalLogger.INSTANCE.error("ExceptionAggregationTelemetryProcessor: failed to set %s: %s, Exception : %s", name, value,
+                    ExceptionUtils.getStackTrace(t));
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t2) {
+            // chomp
+        }
+    }
+
+    /**
+     * The occurrences of one fingerprint within the current window. Guarded by its own monitor.
+     */
+    private static final class Occurrences {
+        private final String fingerprint;
+        private long windowStart;
+        private int count;
+        private int dropped;
+        private long firstDropped;
+        private long lastDropped;
+        private ExceptionTelemetry sample;
+        private String sampleOperationId;
+        private boolean removed;
+
+        private Occurrences(String fingerprint, long windowStart) {
+            this.fingerprint = fingerprint;
+            this.windowStart = windowStart;
+        }
+
+        /**
+         * @return true if the occurrence should be sent in full
+         */
+        private boolean add(ExceptionTelemetry telemetry, long time, int maxFullOccurrences) {
+            if (++count <= maxFullOccurrences) {
+                return true;
+            }
+
+            if (dropped++ == 0) {
+                firstDropped = time;
+                sample = telemetry;
+            }
+            lastDropped = time;
+            if (sampleOperationId == null) {
+                sampleOperationId = telemetry.getContext().getOperation().getId();
+            }
+            return false;
+        }
+
+        /**
+         * Ends the current window and starts a new one.
+         * @return The summary of the dropped occurrences, or null if none was dropped.
+         */
+        private ExceptionTelemetry close(long now) {
+            ExceptionTelemetry summary = null;
+            if (dropped > 0) {
+                summary = createSummary();
+            }
+            windowStart = now;
+            count = 0;
+            dropped = 0;
+            sample = null;
+            sampleOperationId = null;
+            return summary;
+        }
+
+        private ExceptionTelemetry createSummary() {
+            ExceptionTelemetry summary = new ExceptionTelemetry(sample.getThrowable());
+            summary.setSeverityLevel(sample.getSeverityLevel());
+            summary.setTimestamp(new Date(lastDropped));
+            // the summary stands for all the dropped items, it must not be sampled out
+            summary.setSamplingPercentage(100.0);
+            summary.getMetrics().put(AGGREGATED_COUNT_NAME, (double) dropped);
+
+            Map<String, String> properties = summary.getProperties();
+            properties.putAll(sample.getProperties());
+            properties.put(FINGERPRINT_PROPERTY, Integer.toHexString(fingerprint.hashCode()));
+            properties.put(FIRST_OCCURRENCE_PROPERTY, LocalStringsUtils.getDateFormatter().format(new Date(firstDropped)));
+            properties.put(LAST_OCCURRENCE_PROPERTY, LocalStringsUtils.getDateFormatter().format(new Date(lastDropped)));
+
+            if (sampleOperationId != null) {
+                summary.getContext().getOperation().setId(sampleOperationId);
+            }
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the occurrences of a set of literals and regular expressions in a string, and replaces them.
+ * <p>
+ * The literals are compiled into an Aho-Corasick automaton whose failure transitions are resolved when it is built,
+ * so that a string is scanned once with one table lookup per character, whatever the number of literals. The regular
+ * expressions are scanned one after the other, so that an occurrence of one does not hide an occurrence of another
+ * starting inside it, each with a matcher reused by the thread. Nothing is allocated unless something has to be
+ * replaced, or the thread redacts for the first time.
+ * <p>
+ * Overlapping or adjacent occurrences are replaced by a single replacement.
+ */
+final class MultiPatternRedactor {
+
+    private final boolean ignoreCase;
+    private final String replacement;
+
+    // The automaton works on classes of characters: 0 for the characters no literal contains,
+    // i + 1 for the i-th character of the sorted alphabet of the literals
+    private final char[] alphabet;
+    private final int[] asciiClasses = new int[128];
+    private final int[][] transitions;
+    // The length of the longest literal ending at each state, 0 if none does
+    private final int[] matchLengths;
+
+    private final Pattern[] patterns;
+    // a plain ThreadLocal holding JDK classes only, so that the threads of a container do not keep the class loader
+    private final ThreadLocal<Matcher[]> matchers;
+
+    /**
+     * @param literals The literals to replace, empty ones are ignored
+     * @param regexes The regular expressions to replace
+     * @param ignoreCase True to ignore the case of both the literals and the regular expressions
+     * @param replacement The replacement of the occurrences
+     * @throws java.util.regex.PatternSyntaxException If one of the regular expressions is not valid
+     */
+    MultiPatternRedactor(Collection<String> literals, Collection<String> regexes, boolean ignoreCase, String replacement) {
+        this.ignoreCase = ignoreCase;
+        this.replacement = replacement;
+
+        List<String> keys = new ArrayList<String>();
+        TreeSet<Character> characters = new TreeSet<Character>();
+        for (String literal : literals) {
+            if (literal == null || literal.isEmpty()) {
+                continue;
+            }
+            char[] key = literal.toCharArray();
+            for (int i = 0; i < key.length; ++i) {
+                key[i] = fold(key[i]);
+                characters.add(key[i]);
+            }
+            keys.add(new String(key));
+        }
+
+        alphabet = new char[characters.size()];
+        int index = 0;
+        for (Character c : characters) {
+            alphabet[index++] = c;
+            if (c < asciiClasses.length) {
+                asciiClasses[c] = index;
+            }
+        }
+
+        if (keys.isEmpty()) {
+            transitions = null;
+            matchLengths = null;
+        } else {
+            List<int[]> trie = new ArrayList<int[]>();
+            List<Integer> lengths = new ArrayList<Integer>();
+            trie.add(newRow());
+            lengths.add(0);
+            for (String key : keys) {
+                int state = 0;
+                for (int i = 0; i < key.length(); ++i) {
+                    int c = classOf(key.charAt(i));
+                    if (trie.get(state)[c] < 0) {
+                        trie.get(state)[c] = trie.size();
+                        trie.add(newRow());
+                        lengths.add(0);
+                    }
+                    state = trie.get(state)[c];
+                }
+                lengths.set(state, key.length());
+            }
+
+            transitions = trie.toArray(new int[trie.size()][]);
+            matchLengths = new int[lengths.size()];
+            for (int i = 0; i < matchLengths.length; ++i) {
+                matchLengths[i] = lengths.get(i);
+            }
+            resolveFailures();
+        }
+
+        if (regexes.isEmpty()) {
+            patterns = null;
+            matchers = null;
+        } else {
+            int flags = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+            patterns = new Pattern[regexes.size()];
+            index = 0;
+            for (String regex : regexes) {
+                patterns[index++] = Pattern.compile(regex, flags);
+            }
+            matchers = new ThreadLocal<Matcher[]>();
+        }
+    }
+
+    /**
+     * @return True if there is nothing to replace
+     */
+    boolean isEmpty() {
+        return transitions == null && patterns == null;
+    }
+
+    /**
+     * Replaces the occurrences of the literals and the regular expressions
+     *
+     * @param value The string to scan, may be null
+     * @return The same instance when nothing was found, a new string otherwise
+     */
+    String redact(String value) {
+        if (value == null || value.isEmpty()) {
+            return value;
+        }
+
+        boolean[] redacted = null;
+        if (transitions != null) {
+            int state = 0;
+            for (int i = 0; i < value.length(); ++i) {
+                state = transitions[state][classOf(fold(value.charAt(i)))];
+                int length = matchLengths[state];
+                if (length > 0) {
+                    if (redacted == null) {
+                        redacted = new boolean[value.length()];
+                    }
+                    Arrays.fill(redacted, i - length + 1, i + 1, true);
+                }
+            }
+        }
+
+        if (patterns != null) {
+            for (Matcher matcher : getMatchers()) {
+                matcher.reset(value);
+                try {
+                    while (matcher.find()) {
+                        if (matcher.end() == matcher.start()) {
+                            continue;
+                        }
+                        if (redacted == null) {
+                            redacted = new boolean[value.length()];
+                        }
+                        Arrays.fill(redacted, matcher.start(), matcher.end(), true);
+                    }
+                } finally {
+                    // the matcher is kept by the thread, it should not keep the value too
+                    matcher.reset("");
+                }
+            }
+        }
+
+        if (redacted == null) {
+            return value;
+        }
+
+        StringBuilder result = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            if (redacted[i]) {
+                result.append(replacement);
+                while (i < value.length() && redacted[i]) {
+                    ++i;
+                }
+            } else {
+                result.append(value.charAt(i++));
+            }
+        }
+        return result.toString();
+    }
+
+    private Matcher[] getMatchers() {
+        Matcher[] result = matchers.get();
+        if (result == null) {
+            result = new Matcher[patterns.length];
+            for (int i = 0; i < patterns.length; ++i) {
+                result[i] = patterns[i].matcher("");
+            }
+            matchers.set(result);
+        }
+        return result;
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabet.length + 1];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    // Turns the trie into a complete automaton: the missing transitions of a state are those of its failure state,
+    // which is the state of the longest proper suffix of its path that is also in the trie
+    private void resolveFailures() {
+        int[] failures = new int[transitions.length];
+        Queue<Integer> queue = new ArrayDeque<Integer>();
+        for (int c = 0; c < transitions[0].length; ++c) {
+            int next = transitions[0][c];
+            if (next < 0) {
+                transitions[0][c] = 0;
+            } else {
+                failures[next] = 0;
+                queue.add(next);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int c = 0; c < transitions[state].length; ++c) {
+                int next = transitions[state][c];
+                if (next < 0) {
+                    transitions[state][c] = transitions[failures[state]][c];
+                } else {
+                    failures[next] = transitions[failures[state]][c];
+                    matchLengths[next] = Math.max(matchLengths[next], matchLengths[failures[next]]);
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private char fold(char c) {
+        return ignoreCase ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+    }
+
+    private int classOf(char c) {
+        if (c < asciiClasses.length) {
+            return asciiClasses[c];
+        }
+        int index = Arrays.binarySearch(alphabet, c);
+        return index < 0 ? 0 : index + 1;
+    }
+}
@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Set;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
@@ -46,7 +47,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * Created by gupele on 7/26/2016.
  */
 @BuiltInProcessor("PageViewTelemetryFilter")
-public final class PageViewTelemetryFilter implements TelemetryProcessor {
+public final class PageViewTelemetryFilter implements TelemetryProcessor, TelemetryTypeAware {
 
     private long durationThresholdInMS = 0l;
     private final Set<String> notNeededUrls = new HashSet<String>();
@@ -55,6 +56,11 @@ public final class PageViewTelemetryFilter implements TelemetryProcessor {
     public PageViewTelemetryFilter() {
     }
 
+    @Override
+    public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+        return PageViewTelemetry.class.isAssignableFrom(telemetryType);
+    }
+
     @Override
     public boolean process(Telemetry telemetry) {
         if (telemetry == null) {
@@ -0,0 +1,156 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The class replaces secrets and personal data found in the trace messages and in the custom properties of all
+ * telemetries before they are sent.
+ * <p>
+ * Each Literal adds a string to replace, each Pattern adds a regular expression to replace. The literals are
+ * compiled together, so that each string is scanned once for all of them, and each regular expression adds a scan,
+ * see {@link MultiPatternRedactor}. The occurrences are replaced by Replacement,
+ * '***' by default. IgnoreCase makes both the literals and the regular expressions case insensitive.
+ * <p>
+ * How to use in ApplicationInsights Configuration :
+ * <p>
+ * {@code
+<TelemetryProcessors>
+    <BuiltInProcessors>
+        <Processor type = "RedactionTelemetryProcessor">
+            <Add name = "Literal" value = "my-storage-account-key" />
+            <Add name = "Pattern" value = "\b\d{4}[ -]?\d{4}[ -]?\d{4}[ -]?\d{4}\b" />
+            <Add name = "Pattern" value = "password=[^&amp;\s]*" />
+            <Add name = "Replacement" value = "[REDACTED]" />
+            <Add name = "IgnoreCase" value = "true" />
+        </Processor>
+    </BuiltInProcessors>
+</TelemetryProcessors>
+ }
+ * <p>
+ * Illegal regular expressions will prevent the processor from being used.
+ */
+@BuiltInProcessor("RedactionTelemetryProcessor")
+public final class RedactionTelemetryProcessor implements TelemetryProcessor {
+
+    public static final String DEFAULT_REPLACEMENT = "***";
+
+    private final List<String> literals = new ArrayList<String>();
+    private final List<String> patterns = new ArrayList<String>();
+    private String replacement = DEFAULT_REPLACEMENT;
+    private boolean ignoreCase;
+
+    private volatile MultiPatternRedactor redactor = compile();
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        MultiPatternRedactor currentRedactor = redactor;
+        if (telemetry == null || currentRedactor.isEmpty()) {
+            return true;
+        }
+
+        if (telemetry instanceof TraceTelemetry) {
+            TraceTelemetry tt = (TraceTelemetry) telemetry;
+            String message = tt.getMessage();
+            String redacted = currentRedactor.redact(message);
+            if (redacted != message) {
+                tt.setMessage(redacted);
+            }
+        }
+
+        Map<String, String> properties = telemetry.getProperties();
+        if (!properties.isEmpty()) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                String value = entry.getValue();
+                String redacted = currentRedactor.redact(value);
+                if (redacted != value) {
+                    entry.setValue(redacted);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds a string to replace
+     *
+     * @param literal The string
+     */
+    public synchronized void setLiteral(String literal) {
+        literals.add(literal);
+        redactor = compile();
+        InternalLogger.INSTANCE.trace("RedactionTelemetryProcessor: added literal of %d characters", literal == null ? 0 : literal.length());
+    }
+
+    /**
+     * Adds a regular expression to replace
+     *
+     * @param pattern The regular expression
+     * @throws java.util.regex.PatternSyntaxException If the expression is not valid
+     */
+    public synchronized void setPattern(String pattern) {
+        patterns.add(pattern);
+        try {
+            redactor = compile();
+            InternalLogger.INSTANCE.trace("RedactionTelemetryProcessor: added pattern %s", pattern);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            patterns.remove(patterns.size() - 1);
+            try {
+                InternalLogger.INSTANCE.error("RedactionTelemetryProcessor: failed to parse pattern: %s, Exception : %s", pattern,
+                        ExceptionUtils.getStackTrace(t));
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+            throw t;
+        }
+    }
+
+    public synchronized void setReplacement(String replacement) {
+        this.replacement = replacement == null ? "" : replacement;
+        redactor = compile();
+    }
+
+    public synchronized void setIgnoreCase(String ignoreCase) {
+        this.ignoreCase = Boolean.parseBoolean(ignoreCase.trim());
+        redactor = compile();
+    }
+
+    private MultiPatternRedactor compile() {
+        return new MultiPatternRedactor(literals, patterns, ignoreCase, replacement);
+    }
+}
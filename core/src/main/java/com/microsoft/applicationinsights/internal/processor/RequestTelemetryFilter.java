@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
@@ -46,7 +47,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * Created by gupele on 7/26/2016.
  */
 @BuiltInProcessor("RequestTelemetryFilter")
-public final class RequestTelemetryFilter implements TelemetryProcessor {
+public final class RequestTelemetryFilter implements TelemetryProcessor, TelemetryTypeAware {
     private static final class FromTo {
         public final int from;
         public final int to;
@@ -65,6 +66,11 @@ public final class RequestTelemetryFilter implements TelemetryProcessor {
     public RequestTelemetryFilter() {
     }
 
+    @Override
+    public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+        return RequestTelemetry.class.isAssignableFrom(telemetryType);
+    }
+
     @Override
     public boolean process(Telemetry telemetry) {
         if (telemetry == null) {
@@ -0,0 +1,168 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.metrics.Metric;
+import com.microsoft.applicationinsights.metrics.MetricManager;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * The class pre-aggregates the counts, failure counts and durations of requests and dependencies,
+ * so that they stay exact whatever the sampling rate.
+ * <p>
+ * Requests are aggregated per operation name and success, dependencies per type, target and success,
+ * and sent once per minute as the aggregated metrics {@value #REQUEST_DURATION_METRIC_NAME} and
+ * {@value #DEPENDENCY_DURATION_METRIC_NAME}, marked with the {@value #METRIC_ID_PROPERTY} and
+ * {@value #IS_AUTOCOLLECTED_PROPERTY} properties. The items themselves are marked with the
+ * {@value #PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY} property, and are otherwise left unchanged.
+ * <p>
+ * The processor is always run before the sampling processors, whatever its place in the configuration.
+ * <p>
+ * The duration histograms of {@link MetricManager#trackDuration} aggregate the same durations by operation name and
+ * result code, to report percentiles. They are opt-in and sent under other metric names, and skip the items this
+ * processor already marked, so an item is never aggregated twice by either of them.
+ * <p>
+ * How to use in ApplicationInsights Configuration :
+ * <p>
+ * {@code
+<TelemetryProcessors>
+    <BuiltInProcessors>
+        <Processor type = "StandardMetricsTelemetryProcessor" />
+    </BuiltInProcessors>
+</TelemetryProcessors>
+ }
+ */
+@BuiltInProcessor("StandardMetricsTelemetryProcessor")
+public final class StandardMetricsTelemetryProcessor implements TelemetryProcessor, TelemetryTypeAware {
+
+    public static final String REQUEST_DURATION_METRIC_NAME = "Server response time";
+    public static final String DEPENDENCY_DURATION_METRIC_NAME = "Dependency duration";
+
+    public static final String METRIC_ID_PROPERTY = "_MS.MetricId";
+    public static final String IS_AUTOCOLLECTED_PROPERTY = "_MS.IsAutocollected";
+    public static final String PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY = "_MS.ProcessedByMetricExtractors";
+
+    static final String REQUEST_METRIC_ID = "requests/duration";
+    static final String DEPENDENCY_METRIC_ID = "dependencies/duration";
+    static final String OPERATION_NAME_DIMENSION = "Request.Name";
+    static final String REQUEST_SUCCESS_DIMENSION = "Request.Success";
+    static final String DEPENDENCY_TYPE_DIMENSION = "Dependency.Type";
+    static final String DEPENDENCY_TARGET_DIMENSION = "dependency/target";
+    static final String DEPENDENCY_SUCCESS_DIMENSION = "Dependency.Success";
+
+    private static final String REQUESTS_EXTRACTOR = "(Name:'Requests', Ver:'1.1')";
+    private static final String DEPENDENCIES_EXTRACTOR = "(Name:'Dependencies', Ver:'1.1')";
+
+    private volatile MetricManager metricManager;
+    private volatile Metric requestDurations;
+    private volatile Metric dependencyDurations;
+
+    public StandardMetricsTelemetryProcessor() {
+    }
+
+    @VisibleForTesting
+    StandardMetricsTelemetryProcessor(MetricManager metricManager) {
+        this.metricManager = metricManager;
+    }
+
+    @Override
+    public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+        return RequestTelemetry.class.isAssignableFrom(telemetryType)
+                || RemoteDependencyTelemetry.class.isAssignableFrom(telemetryType);
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        if (telemetry instanceof RequestTelemetry) {
+            RequestTelemetry request = (RequestTelemetry) telemetry;
+            if (request.getProperties().containsKey(PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY)) {
+                return true;
+            }
+
+            getRequestDurations().trackValue(toMillis(request.getDuration()), request.getName(), toDimensionValue(request.isSuccess()));
+            request.getProperties().put(PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY, REQUESTS_EXTRACTOR);
+        } else if (telemetry instanceof RemoteDependencyTelemetry) {
+            RemoteDependencyTelemetry dependency = (RemoteDependencyTelemetry) telemetry;
+            if (dependency.getProperties().containsKey(PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY)) {
+                return true;
+            }
+
+            getDependencyDurations().trackValue(toMillis(dependency.getDuration()), dependency.getType(), dependency.getTarget(),
+                    toDimensionValue(dependency.getSuccess()));
+            dependency.getProperties().put(PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY, DEPENDENCIES_EXTRACTOR);
+        }
+
+        return true;
+    }
+
+    private Metric getRequestDurations() {
+        if (requestDurations == null) {
+            requestDurations = createMetric(REQUEST_DURATION_METRIC_NAME, REQUEST_METRIC_ID,
+                    OPERATION_NAME_DIMENSION, REQUEST_SUCCESS_DIMENSION);
+        }
+        return requestDurations;
+    }
+
+    private Metric getDependencyDurations() {
+        if (dependencyDurations == null) {
+            dependencyDurations = createMetric(DEPENDENCY_DURATION_METRIC_NAME, DEPENDENCY_METRIC_ID,
+                    DEPENDENCY_TYPE_DIMENSION, DEPENDENCY_TARGET_DIMENSION, DEPENDENCY_SUCCESS_DIMENSION);
+        }
+        return dependencyDurations;
+    }
+
+    private Metric createMetric(String name, String metricId, String... dimensionNames) {
+        // the same metric is returned on concurrent calls
+        Metric metric = getMetricManager().getMetric(name, dimensionNames);
+        metric.getProperties().put(METRIC_ID_PROPERTY, metricId);
+        metric.getProperties().put(IS_AUTOCOLLECTED_PROPERTY, "True");
+        return metric;
+    }
+
+    private MetricManager getMetricManager() {
+        if (metricManager == null) {
+            synchronized (this) {
+                if (metricManager == null) {
+                    // the client is created on first use, once the active configuration is set
+                    metricManager = new MetricManager(new TelemetryClient());
+                }
+            }
+        }
+        return metricManager;
+    }
+
+    private static double toMillis(Duration duration) {
+        return duration == null ? 0 : duration.getTotalMilliseconds();
+    }
+
+    private static String toDimensionValue(boolean value) {
+        return value ? "True" : "False";
+    }
+}
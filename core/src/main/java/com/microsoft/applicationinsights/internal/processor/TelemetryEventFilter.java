@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Set;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
@@ -42,12 +43,17 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * Created by gupele on 7/26/2016.
  */
 @BuiltInProcessor("TelemetryEventFilter")
-public final class TelemetryEventFilter implements TelemetryProcessor {
+public final class TelemetryEventFilter implements TelemetryProcessor, TelemetryTypeAware {
     private final Set<String> notNeededNames = new HashSet<String>();
 
     public TelemetryEventFilter() {
     }
 
+    @Override
+    public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+        return EventTelemetry.class.isAssignableFrom(telemetryType);
+    }
+
     @Override
     public boolean process(Telemetry telemetry) {
         if (telemetry == null) {
@@ -22,6 +22,7 @@
 package com.microsoft.applicationinsights.internal.processor;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
@@ -48,9 +49,14 @@ import java.util.Map;
  * Created by gupele on 7/26/2016.
  */
 @BuiltInProcessor("TraceTelemetryFilter")
-public final class TraceTelemetryFilter implements TelemetryProcessor {
+public final class TraceTelemetryFilter implements TelemetryProcessor, TelemetryTypeAware {
     private SeverityLevel fromSeverityLevel = null;
 
+    @Override
+    public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+        return TraceTelemetry.class.isAssignableFrom(telemetryType);
+    }
+
     @Override
     public boolean process(Telemetry telemetry) {
         if (telemetry == null) {
@@ -27,6 +27,9 @@ import com.microsoft.applicationinsights.internal.logger.InternalLogger;
  * Created by gupele on 12/14/2016.
  */
 final class DefaultQuickPulseCoordinator implements QuickPulseCoordinator, Runnable {
+    // the cadence slows down to at most this many times the configured wait
+    static final long MAX_WAIT_MULTIPLE = 5;
+
     private volatile boolean stopped = false;
     private volatile boolean pingMode = true;
 
@@ -37,6 +40,7 @@ final class DefaultQuickPulseCoordinator implements QuickPulseCoordinator, Runna
     private final long waitBetweenPingsInMS;
     private final long waitBetweenPostsInMS;
     private final long waitOnErrorInMS;
+    private long pingLatencyInMS = 0;
 
     public DefaultQuickPulseCoordinator(QuickPulseCoordinatorInitData initData) {
         dataSender = initData.dataSender;
@@ -75,14 +79,16 @@ final class DefaultQuickPulseCoordinator implements QuickPulseCoordinator, Runna
         switch (currentQPStatus) {
             case ERROR:
                 pingMode = true;
+                QuickPulseDataCollector.INSTANCE.suspend();
                 return waitOnErrorInMS;
 
             case QP_IS_OFF:
                 pingMode = true;
+                QuickPulseDataCollector.INSTANCE.suspend();
                 return waitBetweenPingsInMS;
 
             case QP_IS_ON:
-                return waitBetweenPostsInMS;
+                return adaptWait(waitBetweenPostsInMS, dataSender.getPostLatencyInMS());
 
             default:
                 InternalLogger.INSTANCE.error( "Critical error while sending QP data: unknown status, aborting");
@@ -93,17 +99,21 @@ final class DefaultQuickPulseCoordinator implements QuickPulseCoordinator, Runna
     }
 
     private long ping() {
+        final long pingTime = System.nanoTime();
         QuickPulseStatus pingResult = pingSender.ping();
+        pingLatencyInMS = (3 * pingLatencyInMS + (System.nanoTime() - pingTime) / 1000000) / 4;
         switch (pingResult) {
             case ERROR:
                 return waitOnErrorInMS;
 
             case QP_IS_ON:
                 pingMode = false;
+                // nothing is counted while nobody watches, the first post covers the time since now
+                QuickPulseDataCollector.INSTANCE.resume();
                 dataSender.startSending();
                 return waitBetweenPostsInMS;
             case QP_IS_OFF:
-                return waitBetweenPingsInMS;
+                return adaptWait(waitBetweenPingsInMS, pingLatencyInMS);
 
             default:
                 InternalLogger.INSTANCE.error( "Critical error while ping QP: unknown status, aborting");
@@ -116,4 +126,20 @@ final class DefaultQuickPulseCoordinator implements QuickPulseCoordinator, Runna
     public void stop() {
         stopped = true;
     }
+
+    /**
+     * Stretches the wait to a whole multiple of itself while the service is slower to answer than the cadence, so
+     * that requests do not pile up. Samples then cover whole multiples of the post interval.
+     *
+     * @param waitInMS The configured wait
+     * @param latencyInMS The smoothed duration of the last requests
+     * @return The wait until the next request
+     */
+    static long adaptWait(long waitInMS, long latencyInMS) {
+        if (waitInMS <= 0 || latencyInMS <= waitInMS) {
+            return waitInMS;
+        }
+        final long multiple = (latencyInMS + waitInMS - 1) / waitInMS;
+        return Math.min(multiple, MAX_WAIT_MULTIPLE) * waitInMS;
+    }
 }
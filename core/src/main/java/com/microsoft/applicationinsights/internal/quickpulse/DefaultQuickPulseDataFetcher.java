@@ -21,10 +21,13 @@
 
 package com.microsoft.applicationinsights.internal.quickpulse;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.gson.Gson;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.internal.util.PropertyHelper;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -42,8 +45,9 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
     private final TelemetryConfiguration config;
     private final String ikey;
     private final QuickPulseNetworkHelper networkHelper = new QuickPulseNetworkHelper();
-    private String postPrefix;
+    private String postProperties;
     private final String sdkVersion;
+    private final Gson gson = new Gson();
 
     public DefaultQuickPulseDataFetcher(ArrayBlockingQueue<HttpPost> sendQueue, TelemetryConfiguration config,
                                         String instanceName, String quickPulseId) {
@@ -60,15 +64,14 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         this.config = config;
         this.ikey = ikey;
         sdkVersion = getCurrentSdkVersion();
+        // the documents of each post are written before these properties
         final StringBuilder sb = new StringBuilder();
-        sb.append("[{");
-        formatDocuments(sb);
         sb.append("\"Instance\": \"").append(instanceName).append("\",");
         sb.append("\"InstrumentationKey\": \"").append(ikey).append("\",");
         sb.append("\"InvariantVersion\": 1,");
         sb.append("\"MachineName\": \"").append(instanceName).append("\",");
         sb.append("\"StreamId\": \"").append(quickPulseId).append("\",");
-        postPrefix = sb.toString();
+        postProperties = sb.toString();
         if (InternalLogger.INSTANCE.isTraceEnabled()) {
             InternalLogger.INSTANCE.trace("%s using endpoint %s", DefaultQuickPulseDataFetcher.class.getSimpleName(), getQuickPulseEndpoint());
         }
@@ -85,16 +88,13 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
     @Override
     public void prepareQuickPulseDataForSend() {
         try {
-            QuickPulseDataCollector.FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
-
-            final Date currentDate = new Date();
-            final HttpPost request = networkHelper.buildRequest(currentDate, getEndpointUrl());
-
-            final ByteArrayEntity postEntity = buildPostEntity(counters);
-
-            request.setEntity(postEntity);
+            if (!sendQueue.isEmpty()) {
+                // the sender is behind: the counters keep running, and its sample covers this interval too
+                InternalLogger.INSTANCE.trace("Quick Pulse sample not sent yet, coalescing the next interval");
+                return;
+            }
 
-            if (!sendQueue.offer(request)) {
+            if (!sendQueue.offer(new SamplePost(getEndpointUrl()))) {
                 InternalLogger.INSTANCE.trace("Quick Pulse send queue is full");
             }
         } catch (ThreadDeath td) {
@@ -110,6 +110,41 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         }
     }
 
+    /**
+     * A post whose sample is only taken by the sender, once it is free to send it,
+     * so that the freshest counters go out rather than those of the interval it was queued in.
+     */
+    final class SamplePost extends HttpPost {
+
+        SamplePost(String address) {
+            super(address);
+        }
+
+        /**
+         * Restarts the counters and writes them as the content of this post.
+         * @return false if the sample could not be taken, and the post must not be sent.
+         */
+        boolean takeSample() {
+            try {
+                QuickPulseDataCollector.FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+                networkHelper.prepareRequest(this, new Date());
+                setEntity(buildPostEntity(counters));
+                return true;
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable e) {
+                try {
+                    InternalLogger.INSTANCE.error("Quick Pulse failed to prepare data for send:%n%s", ExceptionUtils.getStackTrace(e));
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+                return false;
+            }
+        }
+    }
+
     @VisibleForTesting
     String getEndpointUrl() {
         return getQuickPulseEndpoint() + "/post?ikey=" + getInstrumentationKey();
@@ -128,7 +163,9 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
     }
 
     private ByteArrayEntity buildPostEntity(QuickPulseDataCollector.FinalCounters counters) {
-        StringBuilder sb = new StringBuilder(postPrefix);
+        StringBuilder sb = new StringBuilder("[{");
+        formatDocuments(sb, counters.documents);
+        sb.append(postProperties);
         formatMetrics(counters, sb);
         sb.append("\"Timestamp\": \"\\/Date(");
         long ms = System.currentTimeMillis();
@@ -137,11 +174,17 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         sb.append("\"Version\": \"");
         sb.append(sdkVersion);
         sb.append("\"}]");
-        return new ByteArrayEntity(sb.toString().getBytes());
+        return new ByteArrayEntity(sb.toString().getBytes(StandardCharsets.UTF_8));
     }
 
-    private void formatDocuments(StringBuilder sb) {
-        sb.append("\"Documents\": [] ,");
+    private void formatDocuments(StringBuilder sb, List<QuickPulseDocument> documents) {
+        sb.append("\"Documents\": ");
+        if (documents.isEmpty()) {
+            sb.append("[]");
+        } else {
+            gson.toJson(documents, sb);
+        }
+        sb.append(" ,");
     }
 
     private void formatSingleMetric(StringBuilder sb, String metricName, double metricValue, int metricWeight, Boolean includeComma) {
@@ -154,17 +197,42 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         sb.append(String.format("{\"Name\": \"%s\",\"Value\": %s,\"Weight\": %s}%s", metricName, metricValue, metricWeight, comma));
     }
 
+    /**
+     * @return The given string, escaped to be written between the quotes of a JSON string
+     */
+    private String escape(String value) {
+        String json = gson.toJson(value);
+        return json.substring(1, json.length() - 1);
+    }
+
+    private static double average(double durationSum, long count) {
+        return count == 0 ? 0 : durationSum / count;
+    }
+
     private void formatMetrics(QuickPulseDataCollector.FinalCounters counters, StringBuilder sb) {
+        // a coalesced sample covers several seconds
+        final double seconds = counters.intervalInSeconds;
         sb.append("\"Metrics\":[");
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests\\/Sec", counters.requests, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration", counters.requestsDuration, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Failed\\/Sec", counters.unsuccessfulRequests, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Succeeded\\/Sec", (counters.requests - counters.unsuccessfulRequests), 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls\\/Sec", counters.rdds, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration", counters.rddsDuration, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Failed\\/Sec", counters.unsuccessfulRdds, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Succeeded\\/Sec", counters.rdds - counters.unsuccessfulRdds, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Exceptions\\/Sec", counters.exceptions, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests\\/Sec", counters.requests / seconds, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration", average(counters.requestsDuration, counters.requests), 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Failed\\/Sec", counters.unsuccessfulRequests / seconds, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Succeeded\\/Sec", (counters.requests - counters.unsuccessfulRequests) / seconds, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls\\/Sec", counters.rdds / seconds, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration", average(counters.rddsDuration, counters.rdds), 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Failed\\/Sec", counters.unsuccessfulRdds / seconds, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Succeeded\\/Sec", (counters.rdds - counters.unsuccessfulRdds) / seconds, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Exceptions\\/Sec", counters.exceptions / seconds, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration P50", counters.requestsDurationP50, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration P95", counters.requestsDurationP95, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration P99", counters.requestsDurationP99, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration P50", counters.rddsDurationP50, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration P95", counters.rddsDurationP95, 1, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration P99", counters.rddsDurationP99, 1, true);
+        for (OperationTable.OperationCounts operation : counters.operations) {
+            String prefix = "\\\\ApplicationInsights\\\\Operation(" + escape(operation.name) + ")\\\\";
+            formatSingleMetric(sb, prefix + "Requests\\/Sec", operation.requests / seconds, 1, true);
+            formatSingleMetric(sb, prefix + "Requests Failed\\/Sec", operation.unsuccessfulRequests / seconds, 1, true);
+        }
         formatSingleMetric(sb, "\\\\Memory\\\\Committed Bytes", counters.memoryCommitted, 1, true);
         formatSingleMetric(sb, "\\\\Processor(_Total)\\\\% Processor Time", counters.cpuUsage, 1, false);
         sb.append("],");
@@ -39,6 +39,7 @@ final class DefaultQuickPulseDataSender implements QuickPulseDataSender {
     private volatile QuickPulseStatus quickPulseStatus;
     private volatile boolean stopped = false;
     private long lastValidTransmission = 0;
+    private volatile long postLatencyInMS = 0;
 
     private final ArrayBlockingQueue<HttpPost> sendQueue;
 
@@ -52,6 +53,10 @@ final class DefaultQuickPulseDataSender implements QuickPulseDataSender {
         try {
             while (!stopped) {
                 HttpPost post = sendQueue.take();
+                if (post instanceof DefaultQuickPulseDataFetcher.SamplePost
+                        && !((DefaultQuickPulseDataFetcher.SamplePost) post).takeSample()) {
+                    continue;
+                }
                 if (quickPulseStatus != QuickPulseStatus.QP_IS_ON) {
                     continue;
                 }
@@ -67,6 +72,7 @@ final class DefaultQuickPulseDataSender implements QuickPulseDataSender {
                             case QP_IS_ON:
                                 lastValidTransmission = sendTime;
                                 quickPulseStatus = quickPulseResultStatus;
+                                networkHelper.updateDocumentStreams(response);
                                 break;
 
                             case ERROR:
@@ -83,6 +89,8 @@ final class DefaultQuickPulseDataSender implements QuickPulseDataSender {
                     if (response != null) {
                         apacheSender.dispose(response);
                     }
+                    final long latencyInMS = (System.nanoTime() - sendTime) / 1000000;
+                    postLatencyInMS = (3 * postLatencyInMS + latencyInMS) / 4;
                 }
             }
         } catch (ThreadDeath td) {
@@ -111,6 +119,11 @@ final class DefaultQuickPulseDataSender implements QuickPulseDataSender {
         return quickPulseStatus;
     }
 
+    @Override
+    public long getPostLatencyInMS() {
+        return postLatencyInMS;
+    }
+
     @Override
     public void stop() {
         stopped = true;
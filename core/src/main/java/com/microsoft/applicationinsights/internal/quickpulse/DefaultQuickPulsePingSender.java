@@ -89,6 +89,7 @@ final class DefaultQuickPulsePingSender implements QuickPulsePingSender {
                     case QP_IS_OFF:
                     case QP_IS_ON:
                         lastValidTransmission = sendTime;
+                        networkHelper.updateDocumentStreams(response);
                         return quickPulseResultStatus;
 
                     default:
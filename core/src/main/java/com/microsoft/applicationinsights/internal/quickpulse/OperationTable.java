@@ -0,0 +1,176 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The request counts of the operations seen during one QuickPulse interval, by operation name.
+ * <p>
+ * The table is open addressed with at most {@value #CAPACITY} operations, and slots are claimed with a
+ * compare-and-set, so recording never locks. Once an operation finds no slot within {@value #MAX_PROBES} probes,
+ * it replaces the probed operation with the fewest requests, and starts from its count so that it is not replaced
+ * in turn before it got more requests, as in the space saving algorithm. A busy operation first seen once the table
+ * is full is thus still reported, with the requests counted since it got its slot; the replaced operations, the
+ * least busy ones, are not.
+ */
+final class OperationTable {
+
+    static final int CAPACITY = 128;
+    static final int MAX_PROBES = 8;
+
+    /**
+     * The counts of one operation, at the end of an interval
+     */
+    static final class OperationCounts {
+        public final String name;
+        public final long requests;
+        public final long unsuccessfulRequests;
+
+        OperationCounts(String name, long requests, long unsuccessfulRequests) {
+            this.name = name;
+            this.requests = requests;
+            this.unsuccessfulRequests = unsuccessfulRequests;
+        }
+
+        double failureRate() {
+            return requests == 0 ? 0 : (double) unsuccessfulRequests / requests;
+        }
+    }
+
+    private static final class Operation {
+        final String name;
+        // the requests of the operation it replaced, which are not reported
+        final long inherited;
+        final AtomicLong requests;
+        final AtomicLong unsuccessfulRequests = new AtomicLong();
+
+        Operation(String name, long inherited) {
+            this.name = name;
+            this.inherited = inherited;
+            requests = new AtomicLong(inherited);
+        }
+    }
+
+    private static final Comparator<OperationCounts> BY_REQUESTS = new Comparator<OperationCounts>() {
+        @Override
+        public int compare(OperationCounts o1, OperationCounts o2) {
+            return Long.compare(o2.requests, o1.requests);
+        }
+    };
+
+    private static final Comparator<OperationCounts> BY_FAILURE_RATE = new Comparator<OperationCounts>() {
+        @Override
+        public int compare(OperationCounts o1, OperationCounts o2) {
+            int result = Double.compare(o2.failureRate(), o1.failureRate());
+            return result != 0 ? result : Long.compare(o2.unsuccessfulRequests, o1.unsuccessfulRequests);
+        }
+    };
+
+    private final AtomicReferenceArray<Operation> operations = new AtomicReferenceArray<Operation>(CAPACITY);
+
+    void add(String name, boolean success) {
+        if (name == null) {
+            return;
+        }
+
+        Operation operation = find(name);
+        if (operation == null) {
+            return;
+        }
+        operation.requests.incrementAndGet();
+        if (!success) {
+            operation.unsuccessfulRequests.incrementAndGet();
+        }
+    }
+
+    private Operation find(String name) {
+        int hash = name.hashCode();
+        hash ^= hash >>> 16;
+        Operation least = null;
+        int leastIndex = 0;
+        for (int probe = 0; probe < MAX_PROBES; ++probe) {
+            int index = (hash + probe) & (CAPACITY - 1);
+            Operation operation = operations.get(index);
+            if (operation == null) {
+                Operation created = new Operation(name, 0);
+                if (operations.compareAndSet(index, null, created)) {
+                    return created;
+                }
+                operation = operations.get(index);
+            }
+            if (operation.name.equals(name)) {
+                return operation;
+            }
+            if (least == null || operation.requests.get() < least.requests.get()) {
+                least = operation;
+                leastIndex = index;
+            }
+        }
+
+        // the requests counted meanwhile by the replaced operation are lost
+        Operation replacement = new Operation(name, least.requests.get());
+        if (operations.compareAndSet(leastIndex, least, replacement)) {
+            return replacement;
+        }
+        Operation operation = operations.get(leastIndex);
+        return operation.name.equals(name) ? operation : null;
+    }
+
+    /**
+     * Selects the operations to report for the interval
+     *
+     * @param count The number of operations to take by request count, and by failure rate
+     * @return The busiest operations, followed by the most failing ones which are not among them
+     */
+    List<OperationCounts> top(int count) {
+        List<OperationCounts> all = new ArrayList<OperationCounts>();
+        for (int i = 0; i < CAPACITY; ++i) {
+            Operation operation = operations.get(i);
+            if (operation != null) {
+                all.add(new OperationCounts(operation.name, operation.requests.get() - operation.inherited,
+                        operation.unsuccessfulRequests.get()));
+            }
+        }
+        if (all.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Collections.sort(all, BY_REQUESTS);
+        List<OperationCounts> result = new ArrayList<OperationCounts>(all.subList(0, Math.min(count, all.size())));
+        if (all.size() > count) {
+            List<OperationCounts> rest = all.subList(count, all.size());
+            Collections.sort(rest, BY_FAILURE_RATE);
+            for (int i = 0; i < rest.size() && i < count && rest.get(i).unsuccessfulRequests > 0; ++i) {
+                result.add(rest.get(i));
+            }
+        }
+        return result;
+    }
+}
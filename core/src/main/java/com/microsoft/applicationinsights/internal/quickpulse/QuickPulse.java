@@ -84,7 +84,8 @@ public enum QuickPulse implements Stoppable {
                     initialized = true;
                     final String quickPulseId = UUID.randomUUID().toString().replace("-", "");
                     ApacheSender apacheSender = ApacheSenderFactory.INSTANCE.create();
-                    ArrayBlockingQueue<HttpPost> sendQueue = new ArrayBlockingQueue<HttpPost>(256, true);
+                    // a single sample waits for the sender, newer data is coalesced into the next one
+                    ArrayBlockingQueue<HttpPost> sendQueue = new ArrayBlockingQueue<HttpPost>(1);
 
                     quickPulseDataSender = new DefaultQuickPulseDataSender(apacheSender, sendQueue);
 
@@ -105,6 +106,10 @@ public enum QuickPulse implements Stoppable {
 
                     coordinator = new DefaultQuickPulseCoordinator(coordinatorInitData);
 
+                    // the coordinator resumes the collection once a live metrics session starts
+                    QuickPulseDataCollector.INSTANCE.enable(configuration);
+                    QuickPulseDataCollector.INSTANCE.suspend();
+
                     senderThread = new Thread(quickPulseDataSender, QuickPulseDataSender.class.getSimpleName());
                     senderThread.setDaemon(true);
                     senderThread.start();
@@ -114,8 +119,6 @@ public enum QuickPulse implements Stoppable {
                     thread.start();
 
                     SDKShutdownActivity.INSTANCE.register(this);
-
-                    QuickPulseDataCollector.INSTANCE.enable(configuration);
                 }
             }
         }
@@ -23,14 +23,13 @@ package com.microsoft.applicationinsights.internal.quickpulse;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
-
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.perfcounter.CpuPerformanceCounterCalculator;
+import com.microsoft.applicationinsights.metrics.LatencyHistogram;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
@@ -43,8 +42,10 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 public enum QuickPulseDataCollector {
     INSTANCE;
 
-    private String ikey;
-    private TelemetryConfiguration config;
+    /**
+     * The number of operations reported by request count, and as many by failure rate
+     */
+    static final int TOP_OPERATIONS = 5;
 
     static class FinalCounters {
         public final double exceptions;
@@ -54,8 +55,20 @@ public enum QuickPulseDataCollector {
         public final long rdds;
         public final double rddsDuration;
         public final long unsuccessfulRdds;
+        public final double requestsDurationP50;
+        public final double requestsDurationP95;
+        public final double requestsDurationP99;
+        public final double rddsDurationP50;
+        public final double rddsDurationP95;
+        public final double rddsDurationP99;
+        public final List<OperationTable.OperationCounts> operations;
+        /**
+         * The time covered by the counters, in whole seconds and at least one
+         */
+        public final double intervalInSeconds;
         public final long memoryCommitted;
         public final double cpuUsage;
+        public final List<QuickPulseDocument> documents;
 
         public FinalCounters(Counters currentCounters, MemoryMXBean memory, CpuPerformanceCounterCalculator cpuPerformanceCounterCalculator) {
             if (memory != null && memory.getHeapMemoryUsage() != null) {
@@ -72,56 +85,83 @@ public enum QuickPulseDataCollector {
             } else {
                 cpuUsage = -1;
             }
-            exceptions = currentCounters.exceptions.get();
+            exceptions = currentCounters.exceptions.sum();
 
-            CountAndDuration countAndDuration = Counters.decodeCountAndDuration(currentCounters.requestsAndDurations.get());
-            requests = countAndDuration.count;
-            this.requestsDuration = countAndDuration.duration;
-            this.unsuccessfulRequests = currentCounters.unsuccessfulRequests.get();
+            this.requests = currentCounters.requests.sum();
+            this.requestsDuration = currentCounters.requestsDuration.sum();
+            this.unsuccessfulRequests = currentCounters.unsuccessfulRequests.sum();
 
-            countAndDuration = Counters.decodeCountAndDuration(currentCounters.rddsAndDuations.get());
-            this.rdds = countAndDuration.count;
-            this.rddsDuration = countAndDuration.duration;
-            this.unsuccessfulRdds = currentCounters.unsuccessfulRdds.get();
-        }
-    }
+            this.rdds = currentCounters.rdds.sum();
+            this.rddsDuration = currentCounters.rddsDuration.sum();
+            this.unsuccessfulRdds = currentCounters.unsuccessfulRdds.sum();
 
-    static class CountAndDuration {
-        public final long count;
-        public final long duration;
+            this.requestsDurationP50 = currentCounters.requestsDurations.getPercentile(50);
+            this.requestsDurationP95 = currentCounters.requestsDurations.getPercentile(95);
+            this.requestsDurationP99 = currentCounters.requestsDurations.getPercentile(99);
+            this.rddsDurationP50 = currentCounters.rddsDurations.getPercentile(50);
+            this.rddsDurationP95 = currentCounters.rddsDurations.getPercentile(95);
+            this.rddsDurationP99 = currentCounters.rddsDurations.getPercentile(99);
+            this.operations = currentCounters.operations.top(TOP_OPERATIONS);
 
-        private CountAndDuration(long count, long duration) {
-            this.count = count;
-            this.duration = duration;
+            final long elapsedInMS = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - currentCounters.startNanos);
+            this.intervalInSeconds = Math.max(1, Math.round(elapsedInMS / 1000.0));
+
+            this.documents = currentCounters.documents.getDocuments();
         }
     }
 
+    /**
+     * The counters of an interval, striped so that the threads reporting requests and dependencies do not contend
+     * on the same cache line. Durations are summed in milliseconds, and recorded in histograms for their percentiles.
+     */
     static class Counters {
-        private static final long MAX_COUNT = 524287L;
-        private static final long MAX_DURATION = 17592186044415L;
+        final long startNanos = System.nanoTime();
+        final QuickPulseDocumentBuffer documents;
 
-        public final AtomicInteger exceptions = new AtomicInteger(0);
+        final StripedCounter exceptions = new StripedCounter();
 
-        final AtomicLong requestsAndDurations = new AtomicLong(0);
-        final AtomicInteger unsuccessfulRequests = new AtomicInteger(0);
+        final StripedCounter requests = new StripedCounter();
+        final StripedCounter requestsDuration = new StripedCounter();
+        final StripedCounter unsuccessfulRequests = new StripedCounter();
+        final LatencyHistogram requestsDurations = new LatencyHistogram();
+        final OperationTable operations = new OperationTable();
 
-        final AtomicLong rddsAndDuations = new AtomicLong(0);
-        final AtomicInteger unsuccessfulRdds = new AtomicInteger(0);
+        final StripedCounter rdds = new StripedCounter();
+        final StripedCounter rddsDuration = new StripedCounter();
+        final StripedCounter unsuccessfulRdds = new StripedCounter();
+        final LatencyHistogram rddsDurations = new LatencyHistogram();
 
-        static long encodeCountAndDuration(long  count, long duration) {
-            if (count > MAX_COUNT || duration > MAX_DURATION) {
-                return 0;
-            }
+        Counters(QuickPulseDocumentStreams streams) {
+            documents = new QuickPulseDocumentBuffer(streams);
+        }
+    }
 
-            return (count << 44) + duration;
+    /**
+     * The collection state, replaced as a whole so that tracking threads get it with a single volatile read.
+     * The counters are null while no live metrics session is active.
+     */
+    private static final class Session {
+        final TelemetryConfiguration config;
+        final String ikey;
+        final Counters counters;
+
+        Session(TelemetryConfiguration config, String ikey, Counters counters) {
+            this.config = config;
+            this.ikey = ikey;
+            this.counters = counters;
         }
 
-        static CountAndDuration decodeCountAndDuration(long countAndDuration) {
-            return new CountAndDuration(countAndDuration >> 44, countAndDuration & MAX_DURATION);
+        String getInstrumentationKey() {
+            return config != null ? config.getInstrumentationKey() : ikey;
+        }
+
+        Session withCounters(Counters counters) {
+            return new Session(config, ikey, counters);
         }
     }
 
-    private AtomicReference<Counters> counters = new AtomicReference<Counters>(null);
+    private volatile Session session;
+    private volatile QuickPulseDocumentStreams documentStreams = QuickPulseDocumentStreams.DEFAULT;
     private final MemoryMXBean memory;
     private final CpuPerformanceCounterCalculator cpuPerformanceCounterCalculator;
 
@@ -146,93 +186,123 @@ public enum QuickPulseDataCollector {
     }
 
     public synchronized void disable() {
-        counters.set(null);
+        session = null;
     }
 
     @Deprecated
     public synchronized void enable(final String ikey) {
-        this.ikey = ikey;
-        this.config = null;
-        counters.set(new Counters());
+        session = new Session(null, ikey, new Counters(documentStreams));
     }
 
     public synchronized void enable(TelemetryConfiguration config) {
-        this.config = config;
-        this.ikey = null;
-        counters.set(new Counters());
+        session = new Session(config, null, new Counters(documentStreams));
+    }
+
+    /**
+     * Stops counting while no live metrics session is active, so that tracking costs a volatile read
+     */
+    public synchronized void suspend() {
+        Session current = session;
+        if (current != null && current.counters != null) {
+            session = current.withCounters(null);
+        }
+    }
+
+    /**
+     * Starts counting again from zero when a live metrics session starts
+     */
+    public synchronized void resume() {
+        Session current = session;
+        if (current != null && current.counters == null) {
+            session = current.withCounters(new Counters(documentStreams));
+        }
+    }
+
+    /**
+     * @return True if tracked items should be {@link #add added}
+     */
+    public boolean isCollecting() {
+        Session current = session;
+        return current != null && current.counters != null;
+    }
+
+    /**
+     * Replaces the document streams, from the next interval on
+     *
+     * @param streams The streams pushed by the service
+     */
+    synchronized void setDocumentStreams(QuickPulseDocumentStreams streams) {
+        documentStreams = streams;
+    }
+
+    /**
+     * @return The ETag of the document streams, null until the service pushes some
+     */
+    String getDocumentStreamsETag() {
+        return documentStreams.getETag();
     }
 
     public synchronized FinalCounters getAndRestart() {
-        final Counters currentCounters = counters.getAndSet(new Counters());
-        if (currentCounters != null) {
-            return new FinalCounters(currentCounters, memory, cpuPerformanceCounterCalculator);
+        final Session current = session;
+        if (current == null || current.counters == null) {
+            return null;
         }
 
-        return null;
+        session = current.withCounters(new Counters(documentStreams));
+        return new FinalCounters(current.counters, memory, cpuPerformanceCounterCalculator);
     }
 
     /*@VisibleForTesting*/
     synchronized FinalCounters peek() {
-        final Counters currentCounters = this.counters.get(); // this should be the only differece
-        if (currentCounters != null) {
-            return new FinalCounters(currentCounters, memory, cpuPerformanceCounterCalculator);
+        final Session current = session;
+        if (current == null || current.counters == null) {
+            return null;
         }
-        return null;
+        return new FinalCounters(current.counters, memory, cpuPerformanceCounterCalculator);
     }
 
     public void add(Telemetry telemetry) {
-        if (!telemetry.getContext().getInstrumentationKey().equals(getInstrumentationKey())) {
+        final Session current = session;
+        if (current == null || current.counters == null) {
+            return;
+        }
+
+        if (!telemetry.getContext().getInstrumentationKey().equals(current.getInstrumentationKey())) {
             return;
         }
 
+        final Counters counters = current.counters;
         if (telemetry instanceof RequestTelemetry) {
-            RequestTelemetry requestTelemetry = (RequestTelemetry)telemetry;
-            addRequest(requestTelemetry);
+            addRequest(counters, (RequestTelemetry) telemetry);
         } else if (telemetry instanceof RemoteDependencyTelemetry) {
-            addDependency((RemoteDependencyTelemetry) telemetry);
+            addDependency(counters, (RemoteDependencyTelemetry) telemetry);
         } else if (telemetry instanceof ExceptionTelemetry) {
-            addException();
-        }
-    }
-
-    private synchronized String getInstrumentationKey() {
-        if (config != null) {
-            return config.getInstrumentationKey();
+            counters.exceptions.increment();
         } else {
-            return ikey;
-        }
-    }
-
-    private void addDependency(RemoteDependencyTelemetry telemetry) {
-        Counters counters = this.counters.get();
-        if (counters == null) {
             return;
         }
-        counters.rddsAndDuations.addAndGet(
-                Counters.encodeCountAndDuration(1, telemetry.getDuration().getTotalMilliseconds()));
-        if (!telemetry.getSuccess()) {
-            counters.unsuccessfulRdds.incrementAndGet();
-        }
+        counters.documents.offer(telemetry);
     }
 
-    private void addException() {
-        Counters counters = this.counters.get();
-        if (counters == null) {
-            return;
+    private static void addDependency(Counters counters, RemoteDependencyTelemetry telemetry) {
+        final long duration = telemetry.getDuration().getTotalMilliseconds();
+        counters.rdds.increment();
+        counters.rddsDuration.add(duration);
+        counters.rddsDurations.record(duration);
+        if (!telemetry.getSuccess()) {
+            counters.unsuccessfulRdds.increment();
         }
-
-        counters.exceptions.incrementAndGet();
     }
 
-    private void addRequest(RequestTelemetry requestTelemetry) {
-        Counters counters = this.counters.get();
-        if (counters == null) {
-            return;
-        }
-
-        counters.requestsAndDurations.addAndGet(Counters.encodeCountAndDuration(1, requestTelemetry.getDuration().getTotalMilliseconds()));
-        if (!requestTelemetry.isSuccess()) {
-            counters.unsuccessfulRequests.incrementAndGet();
+    private static void addRequest(Counters counters, RequestTelemetry requestTelemetry) {
+        final long duration = requestTelemetry.getDuration().getTotalMilliseconds();
+        final boolean success = requestTelemetry.isSuccess();
+        counters.requests.increment();
+        counters.requestsDuration.add(duration);
+        counters.requestsDurations.record(duration);
+        if (!success) {
+            counters.unsuccessfulRequests.increment();
         }
+        counters.operations.add(requestTelemetry.getName(), success);
     }
 }
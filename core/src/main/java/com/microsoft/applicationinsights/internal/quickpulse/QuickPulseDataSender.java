@@ -29,5 +29,10 @@ interface QuickPulseDataSender extends Runnable {
 
     QuickPulseStatus getQuickPulseStatus();
 
+    /**
+     * @return The smoothed duration of the last posts, in milliseconds
+     */
+    long getPostLatencyInMS();
+
     void stop();
 }
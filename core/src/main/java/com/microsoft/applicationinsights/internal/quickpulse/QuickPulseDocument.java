@@ -0,0 +1,166 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.annotations.SerializedName;
+import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDocumentStreams.DocumentType;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * A copy of a streamed item, taken when it is tracked since the item itself may be recycled before the post,
+ * and serialized as the live metrics service expects. Null fields are not serialized.
+ */
+final class QuickPulseDocument {
+    private static final String TYPE_SUFFIX = ":#Microsoft.ManagementServices.RealTimeDataProcessing.QuickPulseService";
+    // the properties of an item are not all copied, to bound the size of a post
+    static final int MAX_PROPERTIES = 10;
+
+    static final class Property {
+        @SerializedName("key")
+        final String key;
+        @SerializedName("value")
+        final String value;
+
+        Property(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    @SerializedName("__type")
+    String type;
+    @SerializedName("DocumentType")
+    String documentType;
+    @SerializedName("Version")
+    final String version = "1.0";
+    @SerializedName("OperationId")
+    String operationId;
+    @SerializedName("DocumentStreamIds")
+    List<String> documentStreamIds;
+    @SerializedName("Properties")
+    List<Property> properties;
+
+    @SerializedName("Name")
+    String name;
+    @SerializedName("Success")
+    Boolean success;
+    @SerializedName("Duration")
+    String duration;
+    @SerializedName("ResponseCode")
+    String responseCode;
+    @SerializedName("Url")
+    String url;
+
+    @SerializedName("Target")
+    String target;
+    @SerializedName("ResultCode")
+    String resultCode;
+    @SerializedName("CommandName")
+    String commandName;
+    @SerializedName("DependencyTypeName")
+    String dependencyTypeName;
+
+    @SerializedName("Exception")
+    String exception;
+    @SerializedName("ExceptionType")
+    String exceptionType;
+    @SerializedName("ExceptionMessage")
+    String exceptionMessage;
+
+    private QuickPulseDocument() {
+    }
+
+    static QuickPulseDocument create(Telemetry telemetry, DocumentType type, List<String> streamIds) {
+        QuickPulseDocument document = new QuickPulseDocument();
+        document.documentStreamIds = streamIds;
+        document.operationId = telemetry.getContext().getOperation().getId();
+        document.properties = copyProperties(telemetry.getProperties());
+
+        switch (type) {
+            case Request:
+                RequestTelemetry request = (RequestTelemetry) telemetry;
+                document.type = "RequestTelemetryDocument" + TYPE_SUFFIX;
+                document.documentType = "Request";
+                document.name = request.getName();
+                document.success = request.isSuccess();
+                document.duration = format(request.getDuration());
+                document.responseCode = request.getResponseCode();
+                document.url = request.getUrlString();
+                break;
+
+            case Dependency:
+                RemoteDependencyTelemetry dependency = (RemoteDependencyTelemetry) telemetry;
+                document.type = "DependencyTelemetryDocument" + TYPE_SUFFIX;
+                document.documentType = "RemoteDependency";
+                document.name = dependency.getName();
+                document.success = dependency.getSuccess();
+                document.duration = format(dependency.getDuration());
+                document.target = dependency.getTarget();
+                document.resultCode = dependency.getResultCode();
+                document.commandName = dependency.getCommandName();
+                document.dependencyTypeName = dependency.getType();
+                break;
+
+            case Exception:
+                Throwable throwable = ((ExceptionTelemetry) telemetry).getThrowable();
+                document.type = "ExceptionTelemetryDocument" + TYPE_SUFFIX;
+                document.documentType = "Exception";
+                if (throwable != null) {
+                    document.exception = throwable.toString();
+                    document.exceptionType = throwable.getClass().getName();
+                    document.exceptionMessage = throwable.getMessage();
+                }
+                break;
+
+            default:
+                break;
+        }
+        return document;
+    }
+
+    private static String format(Duration duration) {
+        return duration == null ? null : duration.toString();
+    }
+
+    private static List<Property> copyProperties(Map<String, String> properties) {
+        if (properties.isEmpty()) {
+            return null;
+        }
+        List<Property> copy = new ArrayList<Property>(Math.min(properties.size(), MAX_PROPERTIES));
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            if (copy.size() == MAX_PROPERTIES) {
+                break;
+            }
+            copy.add(new Property(entry.getKey(), entry.getValue()));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDocumentStreams.DocumentType;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * The documents streamed during one QuickPulse interval.
+ * <p>
+ * Each stream gets at most {@value #MAX_DOCUMENTS_PER_STREAM} documents per interval, and the interval at most
+ * {@value #MAX_DOCUMENTS}, so that the cost on the track path and the size of a post stay bounded whatever the
+ * traffic. Once the interval is full, items are rejected with a single volatile read.
+ */
+final class QuickPulseDocumentBuffer {
+    static final int MAX_DOCUMENTS = 100;
+    static final int MAX_DOCUMENTS_PER_STREAM = 10;
+
+    private final QuickPulseDocumentStreams streams;
+    private final AtomicReferenceArray<QuickPulseDocument> documents = new AtomicReferenceArray<QuickPulseDocument>(MAX_DOCUMENTS);
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicIntegerArray streamCounts = new AtomicIntegerArray(QuickPulseDocumentStreams.MAX_STREAMS);
+
+    QuickPulseDocumentBuffer(QuickPulseDocumentStreams streams) {
+        this.streams = streams;
+    }
+
+    void offer(Telemetry telemetry) {
+        if (count.get() >= MAX_DOCUMENTS) {
+            return;
+        }
+        DocumentType type = DocumentType.of(telemetry);
+        if (type == null) {
+            return;
+        }
+
+        long matched = streams.match(telemetry, type);
+        if (matched == 0) {
+            return;
+        }
+
+        List<String> streamIds = null;
+        for (int i = 0; matched != 0; ++i, matched >>>= 1) {
+            if ((matched & 1) != 0 && streamCounts.incrementAndGet(i) <= MAX_DOCUMENTS_PER_STREAM) {
+                if (streamIds == null) {
+                    streamIds = new ArrayList<String>(1);
+                }
+                streamIds.add(streams.getStreamId(i));
+            }
+        }
+        if (streamIds == null) {
+            return;
+        }
+
+        int slot = count.getAndIncrement();
+        if (slot < MAX_DOCUMENTS) {
+            documents.set(slot, QuickPulseDocument.create(telemetry, type, streamIds));
+        }
+    }
+
+    /**
+     * @return The documents of the interval, once it is over
+     */
+    List<QuickPulseDocument> getDocuments() {
+        int size = Math.min(count.get(), MAX_DOCUMENTS);
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        List<QuickPulseDocument> result = new ArrayList<QuickPulseDocument>(size);
+        for (int i = 0; i < size; ++i) {
+            // a slot may still be empty if its item was being copied when the interval ended
+            QuickPulseDocument document = documents.get(i);
+            if (document != null) {
+                result.add(document);
+            }
+        }
+        return result;
+    }
+}
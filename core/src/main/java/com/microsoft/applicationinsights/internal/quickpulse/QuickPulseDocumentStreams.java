@@ -0,0 +1,507 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The document streams requested by the live metrics service, compiled into predicates evaluated on the track path.
+ * <p>
+ * A stream selects the items matching any of its filter groups, a group selects the items of its telemetry type
+ * matching all of its filters. The service pushes the streams of the sessions watching the application, identified
+ * by an ETag; until it does, the {@link #DEFAULT} stream selects the failed requests and dependencies and all the
+ * exceptions.
+ * <p>
+ * The configuration is a JSON object such as:
+ * <pre>
+ * {"ETag": "...", "DocumentStreams": [{"Id": "...", "DocumentFilterGroups": [{"TelemetryType": "Request",
+ *     "Filters": {"Filters": [{"FieldName": "Duration", "Predicate": "GreaterThan", "Comparand": "00:00:01"}]}}]}]}
+ * </pre>
+ * Filters on fields or with predicates that are not supported drop their group, the other groups are kept.
+ */
+final class QuickPulseDocumentStreams {
+
+    /**
+     * The telemetry types that can be streamed, named as in the configuration
+     */
+    enum DocumentType {
+        Request,
+        Dependency,
+        Exception;
+
+        static DocumentType of(Telemetry telemetry) {
+            if (telemetry instanceof RequestTelemetry) {
+                return Request;
+            }
+            if (telemetry instanceof RemoteDependencyTelemetry) {
+                return Dependency;
+            }
+            if (telemetry instanceof ExceptionTelemetry) {
+                return Exception;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * At most 64 streams are evaluated, so that the streams an item matches fit in a long
+     */
+    static final int MAX_STREAMS = 64;
+
+    static final String DEFAULT_STREAM_ID = "all-types-default";
+
+    static final QuickPulseDocumentStreams DEFAULT = new QuickPulseDocumentStreams(null,
+            new String[] { DEFAULT_STREAM_ID },
+            new FilterGroup[][] { {
+                    new FilterGroup(DocumentType.Request, new Filter[] { new Filter(Field.SUCCESS, null, Predicate.EQUAL, "false") }),
+                    new FilterGroup(DocumentType.Dependency, new Filter[] { new Filter(Field.SUCCESS, null, Predicate.EQUAL, "false") }),
+                    new FilterGroup(DocumentType.Exception, new Filter[0])
+            } });
+
+    private final String etag;
+    private final String[] streamIds;
+    private final FilterGroup[][] groups;
+
+    private QuickPulseDocumentStreams(String etag, String[] streamIds, FilterGroup[][] groups) {
+        this.etag = etag;
+        this.streamIds = streamIds;
+        this.groups = groups;
+    }
+
+    /**
+     * @return The ETag of the configuration, null for the default one
+     */
+    String getETag() {
+        return etag;
+    }
+
+    String getStreamId(int index) {
+        return streamIds[index];
+    }
+
+    /**
+     * Evaluates the filters of all the streams
+     *
+     * @param telemetry The item
+     * @param type The type of the item
+     * @return A mask of the streams the item matches, bit i standing for stream i
+     */
+    long match(Telemetry telemetry, DocumentType type) {
+        long matched = 0;
+        for (int i = 0; i < groups.length; ++i) {
+            for (FilterGroup group : groups[i]) {
+                if (group.matches(telemetry, type)) {
+                    matched |= 1L << i;
+                    break;
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Compiles the configuration pushed by the service
+     *
+     * @param etag The ETag sent with the configuration, used if the configuration does not carry one
+     * @param json The configuration
+     * @return The compiled streams
+     * @throws com.google.gson.JsonParseException If the configuration is not valid JSON
+     */
+    static QuickPulseDocumentStreams parse(String etag, String json) {
+        CollectionConfigurationInfo info = new Gson().fromJson(json, CollectionConfigurationInfo.class);
+        if (info == null) {
+            info = new CollectionConfigurationInfo();
+        }
+        String configurationETag = info.etag != null ? info.etag : etag;
+
+        List<String> ids = new ArrayList<String>();
+        List<FilterGroup[]> compiled = new ArrayList<FilterGroup[]>();
+        if (info.documentStreams != null) {
+            for (DocumentStreamInfo stream : info.documentStreams) {
+                if (stream == null) {
+                    continue;
+                }
+                if (ids.size() == MAX_STREAMS) {
+                    InternalLogger.INSTANCE.warn("Quick Pulse: only the first %d document streams are collected", MAX_STREAMS);
+                    break;
+                }
+                List<FilterGroup> streamGroups = new ArrayList<FilterGroup>();
+                if (stream.documentFilterGroups != null) {
+                    for (DocumentFilterGroupInfo group : stream.documentFilterGroups) {
+                        FilterGroup filterGroup = compile(stream.id, group);
+                        if (filterGroup != null) {
+                            streamGroups.add(filterGroup);
+                        }
+                    }
+                }
+                if (!streamGroups.isEmpty()) {
+                    ids.add(stream.id);
+                    compiled.add(streamGroups.toArray(new FilterGroup[streamGroups.size()]));
+                }
+            }
+        }
+
+        return new QuickPulseDocumentStreams(configurationETag, ids.toArray(new String[ids.size()]),
+                compiled.toArray(new FilterGroup[compiled.size()][]));
+    }
+
+    private static FilterGroup compile(String streamId, DocumentFilterGroupInfo group) {
+        if (group == null || group.telemetryType == null) {
+            return null;
+        }
+
+        DocumentType type;
+        try {
+            type = DocumentType.valueOf(group.telemetryType);
+        } catch (IllegalArgumentException e) {
+            InternalLogger.INSTANCE.trace("Quick Pulse: stream %s, telemetry type %s is not streamed", streamId, group.telemetryType);
+            return null;
+        }
+
+        List<Filter> filters = new ArrayList<Filter>();
+        if (group.filters != null && group.filters.filters != null) {
+            for (FilterInfo info : group.filters.filters) {
+                Filter filter = compile(info);
+                if (filter == null) {
+                    InternalLogger.INSTANCE.warn("Quick Pulse: stream %s, filter %s %s %s is not supported, its group is ignored",
+                            streamId, info == null ? null : info.fieldName, info == null ? null : info.predicate,
+                            info == null ? null : info.comparand);
+                    return null;
+                }
+                filters.add(filter);
+            }
+        }
+        return new FilterGroup(type, filters.toArray(new Filter[filters.size()]));
+    }
+
+    private static Filter compile(FilterInfo info) {
+        if (info == null || info.fieldName == null || info.predicate == null || info.comparand == null) {
+            return null;
+        }
+
+        Field field;
+        String propertyName = null;
+        if (info.fieldName.startsWith(Field.CUSTOM_DIMENSION_PREFIX)) {
+            field = Field.CUSTOM_DIMENSION;
+            propertyName = info.fieldName.substring(Field.CUSTOM_DIMENSION_PREFIX.length());
+        } else {
+            field = Field.of(info.fieldName);
+        }
+        Predicate predicate = Predicate.of(info.predicate);
+        if (field == null || predicate == null) {
+            return null;
+        }
+        if (predicate.numeric && !field.numeric) {
+            return null;
+        }
+        try {
+            return new Filter(field, propertyName, predicate, info.comparand);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static final class FilterGroup {
+        private final DocumentType type;
+        private final Filter[] filters;
+
+        FilterGroup(DocumentType type, Filter[] filters) {
+            this.type = type;
+            this.filters = filters;
+        }
+
+        boolean matches(Telemetry telemetry, DocumentType telemetryType) {
+            if (type != telemetryType) {
+                return false;
+            }
+            for (Filter filter : filters) {
+                if (!filter.matches(telemetry)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class Filter {
+        private final Field field;
+        private final String propertyName;
+        private final Predicate predicate;
+        private final String comparand;
+        // the comparand of the numeric fields, in milliseconds for the durations
+        private final double number;
+
+        Filter(Field field, String propertyName, Predicate predicate, String comparand) {
+            this.field = field;
+            this.propertyName = propertyName;
+            this.predicate = predicate;
+            this.comparand = comparand;
+            this.number = field.numeric ? parseNumber(field, comparand) : Double.NaN;
+        }
+
+        boolean matches(Telemetry telemetry) {
+            if (field.numeric) {
+                double value = field.number(telemetry);
+                if (Double.isNaN(value)) {
+                    return false;
+                }
+                switch (predicate) {
+                    case EQUAL:              return value == number;
+                    case NOT_EQUAL:          return value != number;
+                    case LESS_THAN:          return value < number;
+                    case GREATER_THAN:       return value > number;
+                    case LESS_THAN_OR_EQUAL: return value <= number;
+                    case GREATER_THAN_OR_EQUAL: return value >= number;
+                    default:
+                        break;
+                }
+            }
+
+            String value = field == Field.CUSTOM_DIMENSION ? telemetry.getProperties().get(propertyName) : field.string(telemetry);
+            switch (predicate) {
+                case EQUAL:           return comparand.equalsIgnoreCase(value);
+                case NOT_EQUAL:       return !comparand.equalsIgnoreCase(value);
+                case CONTAINS:        return StringUtils.containsIgnoreCase(value, comparand);
+                case DOES_NOT_CONTAIN: return !StringUtils.containsIgnoreCase(value, comparand);
+                default:              return false;
+            }
+        }
+
+        private static double parseNumber(Field field, String comparand) {
+            if (field == Field.SUCCESS) {
+                if ("true".equalsIgnoreCase(comparand)) {
+                    return 1;
+                }
+                if ("false".equalsIgnoreCase(comparand)) {
+                    return 0;
+                }
+                throw new NumberFormatException(comparand);
+            }
+            if (field == Field.DURATION) {
+                return parseDurationInMillis(comparand);
+            }
+            return Double.parseDouble(comparand.trim());
+        }
+    }
+
+    /**
+     * Parses a duration, either a number of milliseconds or a time span formatted as [d.]hh:mm:ss[.fffffff]
+     */
+    static double parseDurationInMillis(String comparand) {
+        String value = comparand.trim();
+        if (value.indexOf(':') < 0) {
+            return Double.parseDouble(value);
+        }
+
+        String[] parts = value.split(":");
+        if (parts.length != 3) {
+            throw new NumberFormatException(comparand);
+        }
+        long days = 0;
+        String hours = parts[0];
+        int dot = hours.indexOf('.');
+        if (dot >= 0) {
+            days = Long.parseLong(hours.substring(0, dot));
+            hours = hours.substring(dot + 1);
+        }
+        double seconds = Double.parseDouble(parts[2]);
+        return ((days * 24 + Long.parseLong(hours)) * 60 + Long.parseLong(parts[1])) * 60000 + seconds * 1000;
+    }
+
+    enum Field {
+        NAME("Name", false),
+        URL("Url", false),
+        RESPONSE_CODE("ResponseCode", true),
+        RESULT_CODE("ResultCode", false),
+        SUCCESS("Success", true),
+        DURATION("Duration", true),
+        TYPE("Type", false),
+        TARGET("Target", false),
+        DATA("Data", false),
+        EXCEPTION_TYPE("Exception.Type", false),
+        EXCEPTION_MESSAGE("Exception.Message", false),
+        CUSTOM_DIMENSION(null, false);
+
+        static final String CUSTOM_DIMENSION_PREFIX = "CustomDimensions.";
+
+        private final String fieldName;
+        final boolean numeric;
+
+        Field(String fieldName, boolean numeric) {
+            this.fieldName = fieldName;
+            this.numeric = numeric;
+        }
+
+        static Field of(String fieldName) {
+            for (Field field : values()) {
+                if (fieldName.equals(field.fieldName)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+
+        double number(Telemetry telemetry) {
+            switch (this) {
+                case RESPONSE_CODE:
+                    if (telemetry instanceof RequestTelemetry) {
+                        String responseCode = ((RequestTelemetry) telemetry).getResponseCode();
+                        try {
+                            return responseCode == null ? Double.NaN : Double.parseDouble(responseCode);
+                        } catch (NumberFormatException e) {
+                            return Double.NaN;
+                        }
+                    }
+                    return Double.NaN;
+                case SUCCESS:
+                    if (telemetry instanceof RequestTelemetry) {
+                        return ((RequestTelemetry) telemetry).isSuccess() ? 1 : 0;
+                    }
+                    if (telemetry instanceof RemoteDependencyTelemetry) {
+                        return ((RemoteDependencyTelemetry) telemetry).getSuccess() ? 1 : 0;
+                    }
+                    return Double.NaN;
+                case DURATION:
+                    Duration duration = null;
+                    if (telemetry instanceof RequestTelemetry) {
+                        duration = ((RequestTelemetry) telemetry).getDuration();
+                    } else if (telemetry instanceof RemoteDependencyTelemetry) {
+                        duration = ((RemoteDependencyTelemetry) telemetry).getDuration();
+                    }
+                    return duration == null ? Double.NaN : duration.getTotalMilliseconds();
+                default:
+                    return Double.NaN;
+            }
+        }
+
+        String string(Telemetry telemetry) {
+            if (telemetry instanceof RequestTelemetry) {
+                RequestTelemetry request = (RequestTelemetry) telemetry;
+                switch (this) {
+                    case NAME:          return request.getName();
+                    case URL:           return request.getUrlString();
+                    case RESPONSE_CODE: return request.getResponseCode();
+                    case SUCCESS:       return String.valueOf(request.isSuccess());
+                    default:            return null;
+                }
+            }
+            if (telemetry instanceof RemoteDependencyTelemetry) {
+                RemoteDependencyTelemetry dependency = (RemoteDependencyTelemetry) telemetry;
+                switch (this) {
+                    case NAME:        return dependency.getName();
+                    case RESULT_CODE: return dependency.getResultCode();
+                    case SUCCESS:     return String.valueOf(dependency.getSuccess());
+                    case TYPE:        return dependency.getType();
+                    case TARGET:      return dependency.getTarget();
+                    case DATA:        return dependency.getCommandName();
+                    default:          return null;
+                }
+            }
+            if (telemetry instanceof ExceptionTelemetry) {
+                Throwable throwable = ((ExceptionTelemetry) telemetry).getThrowable();
+                switch (this) {
+                    case EXCEPTION_TYPE:    return throwable == null ? null : throwable.getClass().getName();
+                    case EXCEPTION_MESSAGE: return throwable == null ? null : throwable.getMessage();
+                    default:                return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    enum Predicate {
+        EQUAL("Equal", false),
+        NOT_EQUAL("NotEqual", false),
+        LESS_THAN("LessThan", true),
+        GREATER_THAN("GreaterThan", true),
+        LESS_THAN_OR_EQUAL("LessThanOrEqual", true),
+        GREATER_THAN_OR_EQUAL("GreaterThanOrEqual", true),
+        CONTAINS("Contains", false),
+        DOES_NOT_CONTAIN("DoesNotContain", false);
+
+        private final String predicateName;
+        final boolean numeric;
+
+        Predicate(String predicateName, boolean numeric) {
+            this.predicateName = predicateName;
+            this.numeric = numeric;
+        }
+
+        static Predicate of(String predicateName) {
+            for (Predicate predicate : values()) {
+                if (predicate.predicateName.equals(predicateName)) {
+                    return predicate;
+                }
+            }
+            return null;
+        }
+    }
+
+    // The configuration, as sent by the service
+
+    static class CollectionConfigurationInfo {
+        @SerializedName("ETag")
+        String etag;
+        @SerializedName("DocumentStreams")
+        List<DocumentStreamInfo> documentStreams;
+    }
+
+    static class DocumentStreamInfo {
+        @SerializedName("Id")
+        String id;
+        @SerializedName("DocumentFilterGroups")
+        List<DocumentFilterGroupInfo> documentFilterGroups;
+    }
+
+    static class DocumentFilterGroupInfo {
+        @SerializedName("TelemetryType")
+        String telemetryType;
+        @SerializedName("Filters")
+        FilterConjunctionGroupInfo filters;
+    }
+
+    static class FilterConjunctionGroupInfo {
+        @SerializedName("Filters")
+        List<FilterInfo> filters;
+    }
+
+    static class FilterInfo {
+        @SerializedName("FieldName")
+        String fieldName;
+        @SerializedName("Predicate")
+        String predicate;
+        @SerializedName("Comparand")
+        String comparand;
+    }
+}
@@ -21,11 +21,17 @@
 
 package com.microsoft.applicationinsights.internal.quickpulse;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
 
 /**
  * Created by gupele on 12/12/2016.
@@ -34,15 +40,71 @@ final class QuickPulseNetworkHelper {
     private final static long TICKS_AT_EPOCH = 621355968000000000L;
     private static final String HEADER_TRANSMISSION_TIME = "x-ms-qps-transmission-time";
     private final static String QP_STATUS_HEADER = "x-ms-qps-subscribed";
+    private static final String HEADER_CONFIGURATION_ETAG = "x-ms-qps-configuration-etag";
 
-    public HttpPost buildRequest(Date currentDate, String address) {
-        final long ticks = currentDate.getTime() * 10000 + TICKS_AT_EPOCH;
+    // a live view is useless if late, so a slow service fails the request long before the channel's timeout would
+    static final int REQUEST_TIMEOUT_IN_MILLIS = 5000;
+    private static final RequestConfig REQUEST_CONFIG = RequestConfig.custom()
+            .setConnectionRequestTimeout(REQUEST_TIMEOUT_IN_MILLIS)
+            .setConnectTimeout(REQUEST_TIMEOUT_IN_MILLIS)
+            .setSocketTimeout(REQUEST_TIMEOUT_IN_MILLIS)
+            .build();
 
+    public HttpPost buildRequest(Date currentDate, String address) {
         HttpPost request = new HttpPost(address);
-        request.addHeader(HEADER_TRANSMISSION_TIME, String.valueOf(ticks));
+        prepareRequest(request, currentDate);
         return request;
     }
 
+    /**
+     * Sets the configuration and the headers of a request about to be sent.
+     */
+    void prepareRequest(HttpPost request, Date currentDate) {
+        final long ticks = currentDate.getTime() * 10000 + TICKS_AT_EPOCH;
+
+        request.setConfig(REQUEST_CONFIG);
+        request.setHeader(HEADER_TRANSMISSION_TIME, String.valueOf(ticks));
+        final String etag = QuickPulseDataCollector.INSTANCE.getDocumentStreamsETag();
+        if (etag != null) {
+            request.setHeader(HEADER_CONFIGURATION_ETAG, etag);
+        }
+    }
+
+    /**
+     * Applies the document streams sent with a response, when their ETag differs from the current one.
+     * Must be called before the response is disposed.
+     *
+     * @param response A successful response of the service
+     */
+    public void updateDocumentStreams(HttpResponse response) {
+        Header header = response.getFirstHeader(HEADER_CONFIGURATION_ETAG);
+        if (header == null || header.getValue() == null
+                || header.getValue().equals(QuickPulseDataCollector.INSTANCE.getDocumentStreamsETag())) {
+            return;
+        }
+
+        try {
+            HttpEntity entity = response.getEntity();
+            String body = entity == null ? null : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            if (body == null || body.trim().isEmpty()) {
+                return;
+            }
+            QuickPulseDocumentStreams streams = QuickPulseDocumentStreams.parse(header.getValue(), body);
+            QuickPulseDataCollector.INSTANCE.setDocumentStreams(streams);
+            InternalLogger.INSTANCE.trace("Quick Pulse document streams updated, ETag %s", streams.getETag());
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Quick Pulse failed to read the document streams:%n%s", ExceptionUtils.getStackTrace(t));
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
     public boolean isSuccess(HttpResponse response) {
         final int responseCode = response.getStatusLine().getStatusCode();
         return responseCode == 200;
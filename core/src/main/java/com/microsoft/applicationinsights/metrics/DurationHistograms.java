@@ -0,0 +1,145 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+/**
+ * The duration histograms of one telemetry type, grouped by operation name and result code.
+ * <p>
+ * The number of histograms is capped by the owning {@link MetricManager}, the durations of the groups beyond the cap
+ * are recorded in a single histogram whose operation name and result code are {@value Metric#OVERFLOW_DIMENSION_VALUE}.
+ * </p>
+ */
+final class DurationHistograms {
+
+    static final String OPERATION_NAME_PROPERTY = "OperationName";
+    static final String RESULT_CODE_PROPERTY = "ResultCode";
+    static final String PERCENTILE_50_PROPERTY = "Percentile50";
+    static final String PERCENTILE_95_PROPERTY = "Percentile95";
+    static final String PERCENTILE_99_PROPERTY = "Percentile99";
+
+    private final String metricName;
+    private final MetricManager manager;
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms =
+            new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram>>();
+
+    // Set once the cap is reached, from then on new groups skip the lock
+    private volatile boolean full;
+    private LatencyHistogram overflowHistogram;
+
+    // Reused by collect, which the manager serializes
+    private final LatencyHistogram snapshot = new LatencyHistogram();
+
+    DurationHistograms(String metricName, MetricManager manager) {
+        this.metricName = metricName;
+        this.manager = manager;
+    }
+
+    void record(String operationName, String resultCode, long durationInMillis) {
+        String name = operationName == null ? "" : operationName;
+        String code = resultCode == null ? "" : resultCode;
+
+        ConcurrentMap<String, LatencyHistogram> byResultCode = histograms.get(name);
+        LatencyHistogram histogram = byResultCode == null ? null : byResultCode.get(code);
+        if (histogram == null) {
+            histogram = full ? overflowHistogram : addHistogram(name, code);
+        }
+        histogram.record(durationInMillis);
+    }
+
+    /**
+     * Adds one aggregated metric per group that had durations since the previous call.
+     */
+    void collect(Date timestamp, String interval, List<MetricTelemetry> target) {
+        for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> byName : histograms.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> byResultCode : byName.getValue().entrySet()) {
+                collect(byName.getKey(), byResultCode.getKey(), byResultCode.getValue(), timestamp, interval, target);
+            }
+        }
+        if (full) {
+            collect(Metric.OVERFLOW_DIMENSION_VALUE, Metric.OVERFLOW_DIMENSION_VALUE, overflowHistogram, timestamp, interval, target);
+        }
+    }
+
+    private void collect(String operationName, String resultCode, LatencyHistogram histogram, Date timestamp, String interval,
+                         List<MetricTelemetry> target) {
+        histogram.drainTo(snapshot);
+        try {
+            if (snapshot.getCount() == 0) {
+                return;
+            }
+
+            MetricTelemetry telemetry = new MetricTelemetry(metricName, snapshot.getSum());
+            long count = snapshot.getCount();
+            telemetry.setCount(count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count);
+            telemetry.setMin((double) snapshot.getMin());
+            telemetry.setMax((double) snapshot.getMax());
+            telemetry.setTimestamp(timestamp);
+
+            Map<String, String> properties = telemetry.getProperties();
+            properties.put(OPERATION_NAME_PROPERTY, operationName);
+            properties.put(RESULT_CODE_PROPERTY, resultCode);
+            properties.put(PERCENTILE_50_PROPERTY, String.valueOf(snapshot.getPercentile(50)));
+            properties.put(PERCENTILE_95_PROPERTY, String.valueOf(snapshot.getPercentile(95)));
+            properties.put(PERCENTILE_99_PROPERTY, String.valueOf(snapshot.getPercentile(99)));
+            properties.put(MetricManager.AGGREGATION_INTERVAL_PROPERTY, interval);
+            target.add(telemetry);
+        } finally {
+            snapshot.clear();
+        }
+    }
+
+    private synchronized LatencyHistogram addHistogram(String name, String code) {
+        ConcurrentMap<String, LatencyHistogram> byResultCode = histograms.get(name);
+        LatencyHistogram histogram = byResultCode == null ? null : byResultCode.get(code);
+        if (histogram != null) {
+            return histogram;
+        }
+        if (full) {
+            return overflowHistogram;
+        }
+
+        if (manager.tryAddHistogram()) {
+            if (byResultCode == null) {
+                byResultCode = new ConcurrentHashMap<String, LatencyHistogram>();
+                histograms.put(name, byResultCode);
+            }
+            histogram = new LatencyHistogram();
+            byResultCode.put(code, histogram);
+            return histogram;
+        }
+
+        overflowHistogram = new LatencyHistogram();
+        full = true;
+        InternalLogger.INSTANCE.warn("%s reached its histogram limit, new operations are recorded as '%s'",
+                metricName, Metric.OVERFLOW_DIMENSION_VALUE);
+        return overflowHistogram;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A mergeable histogram of durations in milliseconds, to estimate percentiles without keeping the values.
+ * <p>
+ * The buckets are log-linear: values below 64 have a bucket each, larger values are grouped by power of two,
+ * each power of two being split into 32 linear buckets. A percentile is reported as the middle of its bucket,
+ * which is within 1.6% of the actual value. Values are capped to about 24 days, unless another range is given.
+ * Only histograms of the same range can be merged.
+ * </p>
+ * <p>
+ * Recording is lock free and does not allocate. The counts are kept in a primitive array of 864 longs,
+ * so a histogram takes about 7 KB. Two histograms are merged by adding their counts, which is what allows
+ * combining the durations of several sources, or of several intervals, without losing accuracy.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKET_COUNT;
+    private static final int EXACT_LIMIT_EXPONENT = SUB_BUCKET_BITS + 1;
+    static final long MAX_VALUE = Integer.MAX_VALUE;
+    static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private static final AtomicLongFieldUpdater<LatencyHistogram> COUNT =
+            AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "count");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> SUM =
+            AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "sum");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> MIN =
+            AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "min");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> MAX =
+            AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "max");
+
+    private final long maxValue;
+    private final AtomicLongArray buckets;
+    private volatile long count;
+    private volatile long sum;
+    private volatile long min = Long.MAX_VALUE;
+    private volatile long max = Long.MIN_VALUE;
+
+    public LatencyHistogram() {
+        this(MAX_VALUE);
+    }
+
+    /**
+     * Creates a histogram of another range, such as durations in nanoseconds.
+     * @param maxValue The largest value recorded, larger values are capped to it.
+     */
+    LatencyHistogram(long maxValue) {
+        this.maxValue = maxValue;
+        buckets = new AtomicLongArray(bucketIndex(maxValue) + 1);
+    }
+
+    /**
+     * Records a duration.
+     * @param durationInMillis The duration in milliseconds, negative durations are ignored.
+     */
+    public void record(long durationInMillis) {
+        if (durationInMillis < 0) {
+            return;
+        }
+
+        long value = Math.min(durationInMillis, maxValue);
+        buckets.incrementAndGet(bucketIndex(value));
+        COUNT.incrementAndGet(this);
+        SUM.addAndGet(this, value);
+        updateMin(value);
+        updateMax(value);
+    }
+
+    /**
+     * Adds the durations recorded by another histogram to this one.
+     * @param other The histogram to merge, it is left unchanged.
+     */
+    public void merge(LatencyHistogram other) {
+        if (other.maxValue != maxValue) {
+            throw new IllegalArgumentException("Cannot merge histograms of different ranges");
+        }
+        for (int i = 0; i < buckets.length(); ++i) {
+            long bucket = other.buckets.get(i);
+            if (bucket != 0) {
+                buckets.addAndGet(i, bucket);
+            }
+        }
+        COUNT.addAndGet(this, other.count);
+        SUM.addAndGet(this, other.sum);
+        updateMin(other.min);
+        updateMax(other.max);
+    }
+
+    /**
+     * Moves the durations recorded so far to the target histogram and clears them from this one.
+     * Durations recorded meanwhile are either moved or kept for the next call, never lost.
+     * @param target The histogram to add the durations to.
+     */
+    void drainTo(LatencyHistogram target) {
+        if (target.maxValue != maxValue) {
+            throw new IllegalArgumentException("Cannot drain to a histogram of a different range");
+        }
+        for (int i = 0; i < buckets.length(); ++i) {
+            if (buckets.get(i) != 0) {
+                target.buckets.addAndGet(i, buckets.getAndSet(i, 0));
+            }
+        }
+        COUNT.addAndGet(target, COUNT.getAndSet(this, 0));
+        SUM.addAndGet(target, SUM.getAndSet(this, 0));
+        target.updateMin(MIN.getAndSet(this, Long.MAX_VALUE));
+        target.updateMax(MAX.getAndSet(this, Long.MIN_VALUE));
+    }
+
+    /**
+     * Clears the histogram, it must not be recorded to concurrently.
+     */
+    void clear() {
+        for (int i = 0; i < buckets.length(); ++i) {
+            buckets.set(i, 0);
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return The smallest duration recorded, or 0 if none was.
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return The largest duration recorded, or 0 if none was.
+     */
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * Estimates a percentile of the recorded durations.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The estimated duration in milliseconds, or 0 if no duration was recorded.
+     */
+    public double getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); ++i) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        int index = 0;
+        for (; index < buckets.length() - 1; ++index) {
+            seen += buckets.get(index);
+            if (seen >= rank) {
+                break;
+            }
+        }
+
+        // the extreme buckets are bounded by the exact min and max
+        double value = bucketMiddle(index);
+        return Math.max(getMin(), Math.min(getMax(), value));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return EXACT_LIMIT + (exponent - EXACT_LIMIT_EXPONENT) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static double bucketMiddle(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        int exponent = EXACT_LIMIT_EXPONENT + (index - EXACT_LIMIT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - EXACT_LIMIT) % SUB_BUCKET_COUNT;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKET_COUNT + subBucket) * width;
+        return lower + (width - 1) / 2.0;
+    }
+
+    private void updateMin(long value) {
+        long current = min;
+        while (value < current && !MIN.compareAndSet(this, current, value)) {
+            current = min;
+        }
+    }
+
+    private void updateMax(long value) {
+        long current = max;
+        while (value > current && !MAX.compareAndSet(this, current, value)) {
+            current = max;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+/**
+ * A metric that is aggregated locally and sent once per interval, instead of once per tracked value.
+ * <p>
+ * Get an instance with {@link com.microsoft.applicationinsights.TelemetryClient#getMetric(String, String...)}
+ * and call {@link #trackValue(double, String...)} as often as needed: each distinct combination of dimension values
+ * is a series, and every series that had values is sent as one aggregated
+ * {@link com.microsoft.applicationinsights.telemetry.MetricTelemetry} with its count, sum, min, max and
+ * standard deviation.
+ * </p>
+ * <pre>
+ * {@code
+ * Metric latency = telemetryClient.getMetric("CheckoutLatency", "Region", "PaymentMethod");
+ * latency.trackValue(elapsed, "west", "card");
+ * }
+ * </pre>
+ * <p>
+ * The number of series is capped per metric and across all the metrics of a client, see {@link MetricManager}.
+ * Once a cap is reached, the values of new dimension combinations are tracked in a single series with all its
+ * dimension values set to {@value #OVERFLOW_DIMENSION_VALUE}, so an unbounded dimension such as a user id or a raw
+ * URL cannot exhaust the heap. With one dimension, a series takes about 110 bytes on a 64 bit JVM with compressed
+ * references: 24 for the series, 24 for its dimension values array, 56 for its accumulator and up to 16 for its slots
+ * in the index, plus its dimension value strings. A new accumulator is allocated per interval in which it had values.
+ * </p>
+ */
+public final class Metric {
+
+    public static final String OVERFLOW_DIMENSION_VALUE = "Other";
+
+    private final String name;
+    private final List<String> dimensionNames;
+    private final MetricManager manager;
+    private final int maxSeries;
+    private final SeriesIndex index = new SeriesIndex();
+    private final Map<String, String> properties = new ConcurrentHashMap<String, String>();
+
+    // Set once a series cap is reached, from then on new dimension values skip the index lock
+    private volatile boolean full;
+    private MetricSeries overflowSeries;
+    private boolean overflowIndexed;
+
+    Metric(String name, String[] dimensionNames, MetricManager manager, int maxSeries) {
+        this.name = name;
+        this.dimensionNames = Collections.unmodifiableList(Arrays.asList(dimensionNames.clone()));
+        this.manager = manager;
+        this.maxSeries = maxSeries;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getDimensionNames() {
+        return dimensionNames;
+    }
+
+    /**
+     * Gets the properties added to every aggregate of this metric, besides its dimensions.
+     * @return The properties, which can be changed.
+     */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Tracks a value of the series identified by the dimension values.
+     * @param value The value to track, NaN and infinite values are ignored.
+     * @param dimensionValues The values of the metric dimensions, in the order of their names.
+     * @throws IllegalArgumentException if the number of dimension values does not match the number of dimensions.
+     */
+    public void trackValue(double value, String... dimensionValues) {
+        if (dimensionValues.length != dimensionNames.size()) {
+            throw new IllegalArgumentException(String.format("Metric '%s' has %d dimensions, got %d values",
+                    name, dimensionNames.size(), dimensionValues.length));
+        }
+
+        MetricSeries series = index.get(dimensionValues);
+        if (series == null) {
+            series = full ? overflowSeries : addSeries(dimensionValues);
+        }
+        series.trackValue(value);
+    }
+
+    /**
+     * @return The series of the metric, including the overflow series if it was created.
+     */
+    List<MetricSeries> getSeries() {
+        List<MetricSeries> series = new ArrayList<MetricSeries>();
+        index.addAllTo(series);
+        if (full && !overflowIndexed) {
+            series.add(overflowSeries);
+        }
+        return series;
+    }
+
+    private synchronized MetricSeries addSeries(String[] dimensionValues) {
+        MetricSeries series = index.get(dimensionValues);
+        if (series != null) {
+            return series;
+        }
+        if (full) {
+            return overflowSeries;
+        }
+
+        if (index.size() < maxSeries && manager.tryAddSeries()) {
+            // copied, the caller may reuse its array
+            series = new MetricSeries(dimensionValues.clone());
+            index.add(series);
+            return series;
+        }
+
+        String[] overflowValues = new String[dimensionValues.length];
+        Arrays.fill(overflowValues, OVERFLOW_DIMENSION_VALUE);
+        // values tracked as "Other" before the cap was reached already have their series
+        overflowSeries = index.get(overflowValues);
+        overflowIndexed = overflowSeries != null;
+        if (!overflowIndexed) {
+            overflowSeries = new MetricSeries(overflowValues);
+        }
+        full = true;
+        InternalLogger.INSTANCE.warn("Metric '%s' reached its series limit, new dimension values are tracked as '%s'",
+                name, OVERFLOW_DIMENSION_VALUE);
+        return overflowSeries;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.processor.StandardMetricsTelemetryProcessor;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Owns the locally aggregated {@link Metric}s of a {@link TelemetryClient} and sends their aggregates periodically.
+ * <p>
+ * All the managers share a single daemon thread that flushes each of them every interval. A manager that is no longer
+ * referenced is dropped from the schedule, its pending aggregates are lost, call {@link #flush()} to send them before.
+ * </p>
+ * <p>
+ * The number of series is capped per metric by the system property {@value #MAX_SERIES_PER_METRIC_PROPERTY}
+ * and across the metrics of the manager by {@value #MAX_SERIES_PROPERTY}, see {@link Metric} for what happens
+ * once a cap is reached.
+ * </p>
+ */
+public final class MetricManager {
+
+    public static final long DEFAULT_FLUSH_INTERVAL_IN_SECONDS = 60;
+
+    public static final String MAX_SERIES_PER_METRIC_PROPERTY = "applicationinsights.metrics.maxSeriesPerMetric";
+    public static final String MAX_SERIES_PROPERTY = "applicationinsights.metrics.maxSeries";
+    public static final int DEFAULT_MAX_SERIES_PER_METRIC = 1000;
+    public static final int DEFAULT_MAX_SERIES = 10000;
+
+    public static final String DURATION_HISTOGRAMS_ENABLED_PROPERTY = "applicationinsights.metrics.durationHistograms.enabled";
+    public static final String MAX_DURATION_HISTOGRAMS_PROPERTY = "applicationinsights.metrics.maxDurationHistograms";
+    public static final int DEFAULT_MAX_DURATION_HISTOGRAMS = 200;
+    public static final String REQUEST_DURATION_METRIC_NAME = "RequestDuration";
+    public static final String DEPENDENCY_DURATION_METRIC_NAME = "DependencyDuration";
+
+    // The same property the other Application Insights SDKs set on pre-aggregated metrics
+    static final String AGGREGATION_INTERVAL_PROPERTY = "_MS.AggregationIntervalMs";
+
+    private static ScheduledExecutorService flushService;
+
+    private static volatile boolean durationHistogramsEnabled = Boolean.getBoolean(DURATION_HISTOGRAMS_ENABLED_PROPERTY);
+
+    private final TelemetryClient telemetryClient;
+    private final long flushIntervalInMillis;
+    private final int maxSeriesPerMetric;
+    private final int maxSeries;
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+    private final int maxDurationHistograms;
+    private final AtomicInteger durationHistogramCount = new AtomicInteger();
+    private final DurationHistograms requestDurations = new DurationHistograms(REQUEST_DURATION_METRIC_NAME, this);
+    private final DurationHistograms dependencyDurations = new DurationHistograms(DEPENDENCY_DURATION_METRIC_NAME, this);
+
+    private boolean flushScheduled;
+    private long intervalStart = System.currentTimeMillis();
+
+    public MetricManager(TelemetryClient telemetryClient) {
+        this(telemetryClient, TimeUnit.SECONDS.toMillis(DEFAULT_FLUSH_INTERVAL_IN_SECONDS),
+                Integer.getInteger(MAX_SERIES_PER_METRIC_PROPERTY, DEFAULT_MAX_SERIES_PER_METRIC),
+                Integer.getInteger(MAX_SERIES_PROPERTY, DEFAULT_MAX_SERIES),
+                Integer.getInteger(MAX_DURATION_HISTOGRAMS_PROPERTY, DEFAULT_MAX_DURATION_HISTOGRAMS));
+    }
+
+    @VisibleForTesting
+    MetricManager(TelemetryClient telemetryClient, long flushIntervalInMillis, int maxSeriesPerMetric, int maxSeries,
+                  int maxDurationHistograms) {
+        this.telemetryClient = telemetryClient;
+        this.flushIntervalInMillis = flushIntervalInMillis;
+        this.maxSeriesPerMetric = maxSeriesPerMetric;
+        this.maxSeries = maxSeries;
+        this.maxDurationHistograms = maxDurationHistograms;
+    }
+
+    /**
+     * Checks whether the durations of the tracked requests and dependencies are recorded in histograms.
+     * Disabled by default, it can be enabled with the system property {@value #DURATION_HISTOGRAMS_ENABLED_PROPERTY}.
+     * @return true if the duration histograms are enabled.
+     */
+    public static boolean isDurationHistogramsEnabled() {
+        return durationHistogramsEnabled;
+    }
+
+    public static void setDurationHistogramsEnabled(boolean enabled) {
+        durationHistogramsEnabled = enabled;
+    }
+
+    /**
+     * Gets the metric with that name, creating it on first use.
+     * @param name The name of the metric.
+     * @param dimensionNames The names of the dimensions the metric values are tracked with.
+     * @return The metric.
+     * @throws IllegalArgumentException if the name is null or empty, if a dimension name is null, empty or repeated,
+     * or if the metric already exists with other dimensions.
+     */
+    public Metric getMetric(String name, String... dimensionNames) {
+        if (Strings.isNullOrEmpty(name)) {
+            throw new IllegalArgumentException("The metric name cannot be null or empty");
+        }
+
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            validateDimensionNames(dimensionNames);
+
+            Metric created = new Metric(name, dimensionNames, this, maxSeriesPerMetric);
+            metric = metrics.putIfAbsent(name, created);
+            if (metric == null) {
+                metric = created;
+                ensureFlushScheduled();
+            }
+        }
+
+        if (!metric.getDimensionNames().equals(Arrays.asList(dimensionNames))) {
+            throw new IllegalArgumentException(String.format("Metric '%s' already exists with dimensions %s",
+                    name, metric.getDimensionNames()));
+        }
+        return metric;
+    }
+
+    /**
+     * Records the duration of a request or a dependency in the histogram of its name and result code.
+     * The histograms are sent with the metrics, as {@value #REQUEST_DURATION_METRIC_NAME} and
+     * {@value #DEPENDENCY_DURATION_METRIC_NAME} aggregates carrying the 50th, 95th and 99th percentiles.
+     * Called by the {@link TelemetryClient} before the telemetry processors, so sampling does not affect them.
+     * <p>
+     * The {@link StandardMetricsTelemetryProcessor} aggregates the same durations for the portal charts, with their
+     * fixed dimensions and without percentiles, so both are kept when both are enabled. An item the standard metrics
+     * were already extracted from, when tracked again or by another SDK, is skipped by both, so that neither counts
+     * it twice.
+     * </p>
+     * @param telemetry The tracked telemetry, other types are ignored.
+     */
+    public void trackDuration(Telemetry telemetry) {
+        if (telemetry instanceof RequestTelemetry) {
+            RequestTelemetry request = (RequestTelemetry) telemetry;
+            if (request.getDuration() != null && !isAlreadyAggregated(request.getProperties())) {
+                requestDurations.record(request.getName(), request.getResponseCode(), request.getDuration().getTotalMilliseconds());
+            }
+        } else if (telemetry instanceof RemoteDependencyTelemetry) {
+            RemoteDependencyTelemetry dependency = (RemoteDependencyTelemetry) telemetry;
+            if (dependency.getDuration() != null && !isAlreadyAggregated(dependency.getProperties())) {
+                dependencyDurations.record(dependency.getName(), dependency.getResultCode(), dependency.getDuration().getTotalMilliseconds());
+            }
+        }
+    }
+
+    private static boolean isAlreadyAggregated(Map<String, String> properties) {
+        return properties.containsKey(StandardMetricsTelemetryProcessor.PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY);
+    }
+
+    /**
+     * Sends the values aggregated since the previous flush.
+     */
+    public void flush() {
+        for (MetricTelemetry telemetry : collect(System.currentTimeMillis())) {
+            telemetryClient.track(telemetry);
+        }
+    }
+
+    /**
+     * Ends the current aggregation interval.
+     * @param now The current time in milliseconds.
+     * @return One aggregated metric per series that had values during the interval.
+     */
+    @VisibleForTesting
+    synchronized List<MetricTelemetry> collect(long now) {
+        List<MetricTelemetry> aggregates = new ArrayList<MetricTelemetry>();
+        String interval = String.valueOf(now - intervalStart);
+        Date timestamp = new Date(intervalStart);
+        intervalStart = now;
+
+        for (Metric metric : metrics.values()) {
+            for (MetricSeries series : metric.getSeries()) {
+                MetricSeries.Accumulator snapshot = series.takeSnapshot();
+                if (snapshot == null) {
+                    continue;
+                }
+
+                MetricTelemetry telemetry = new MetricTelemetry(metric.getName(), snapshot.getSum());
+                long count = snapshot.getCount();
+                telemetry.setCount(count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count);
+                telemetry.setMin(snapshot.getMin());
+                telemetry.setMax(snapshot.getMax());
+                telemetry.setStandardDeviation(snapshot.getStandardDeviation());
+                telemetry.setTimestamp(timestamp);
+                telemetry.getProperties().putAll(metric.getProperties());
+                String[] dimensionValues = series.getDimensionValues();
+                for (int i = 0; i < dimensionValues.length; ++i) {
+                    telemetry.getProperties().put(metric.getDimensionNames().get(i), dimensionValues[i]);
+                }
+                telemetry.getProperties().put(AGGREGATION_INTERVAL_PROPERTY, interval);
+                aggregates.add(telemetry);
+            }
+        }
+
+        requestDurations.collect(timestamp, interval, aggregates);
+        dependencyDurations.collect(timestamp, interval, aggregates);
+        return aggregates;
+    }
+
+    /**
+     * Reserves room for a new series under the cap shared by all the metrics.
+     * @return false if the cap is reached.
+     */
+    boolean tryAddSeries() {
+        while (true) {
+            int current = seriesCount.get();
+            if (current >= maxSeries) {
+                return false;
+            }
+            if (seriesCount.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserves room for a new duration histogram under the cap shared by requests and dependencies.
+     * @return false if the cap is reached.
+     */
+    boolean tryAddHistogram() {
+        while (true) {
+            int current = durationHistogramCount.get();
+            if (current >= maxDurationHistograms) {
+                return false;
+            }
+            if (durationHistogramCount.compareAndSet(current, current + 1)) {
+                ensureFlushScheduled();
+                return true;
+            }
+        }
+    }
+
+    private static void validateDimensionNames(String[] dimensionNames) {
+        HashSet<String> names = new HashSet<String>();
+        for (String dimensionName : dimensionNames) {
+            if (Strings.isNullOrEmpty(dimensionName)) {
+                throw new IllegalArgumentException("A dimension name cannot be null or empty");
+            }
+            if (!names.add(dimensionName)) {
+                throw new IllegalArgumentException(String.format("Dimension '%s' is repeated", dimensionName));
+            }
+        }
+    }
+
+    private synchronized void ensureFlushScheduled() {
+        if (flushScheduled || flushIntervalInMillis <= 0) {
+            return;
+        }
+
+        FlushTask task = new FlushTask(this);
+        task.future = getFlushService().scheduleAtFixedRate(task, flushIntervalInMillis, flushIntervalInMillis, TimeUnit.MILLISECONDS);
+        flushScheduled = true;
+    }
+
+    private static synchronized ScheduledExecutorService getFlushService() {
+        if (flushService == null) {
+            flushService = Executors.newSingleThreadScheduledExecutor(ThreadPoolUtils.createDaemonThreadFactory(MetricManager.class));
+            SDKShutdownActivity.INSTANCE.register(flushService);
+        }
+        return flushService;
+    }
+
+    /**
+     * Only weakly references its manager, so that the schedule does not keep the telemetry client alive.
+     */
+    private static final class FlushTask implements Runnable {
+        private final WeakReference<MetricManager> manager;
+        private volatile ScheduledFuture<?> future;
+
+        private FlushTask(MetricManager manager) {
+            this.manager = new WeakReference<MetricManager>(manager);
+        }
+
+        @Override
+        public void run() {
+            MetricManager current = manager.get();
+            if (current == null) {
+                ScheduledFuture<?> scheduled = future;
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                }
+                return;
+            }
+
+            try {
+                current.flush();
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("MetricManager: failed to send aggregated metrics, Exception : %s",
+                            ExceptionUtils.getStackTrace(t));
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+    }
+}
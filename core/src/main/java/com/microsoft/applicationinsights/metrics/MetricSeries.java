@@ -0,0 +1,190 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * One series of a {@link Metric}: the values tracked with one set of dimension values.
+ * <p>
+ * Values are added to the current accumulator without locking. A flush swaps the accumulator for a fresh one
+ * and waits for the writers that were already adding to the old one, so every value is reported exactly once.
+ * The atomic fields are updated through field updaters rather than atomic objects, to keep a series small.
+ * </p>
+ */
+final class MetricSeries {
+
+    private static final AtomicReferenceFieldUpdater<MetricSeries, Accumulator> CURRENT =
+            AtomicReferenceFieldUpdater.newUpdater(MetricSeries.class, Accumulator.class, "current");
+
+    private final String[] dimensionValues;
+    private final int hash;
+    private volatile Accumulator current = new Accumulator();
+
+    /**
+     * @param dimensionValues The dimension values, owned by the series from now on.
+     */
+    MetricSeries(String[] dimensionValues) {
+        for (int i = 0; i < dimensionValues.length; ++i) {
+            if (dimensionValues[i] == null) {
+                dimensionValues[i] = "";
+            }
+        }
+        this.dimensionValues = dimensionValues;
+        this.hash = SeriesIndex.hash(dimensionValues);
+    }
+
+    String[] getDimensionValues() {
+        return dimensionValues;
+    }
+
+    int getHash() {
+        return hash;
+    }
+
+    /**
+     * @return true if the series has these dimension values, null values matching empty strings.
+     */
+    boolean matches(String[] values) {
+        if (values.length != dimensionValues.length) {
+            return false;
+        }
+        for (int i = 0; i < values.length; ++i) {
+            String value = values[i] == null ? "" : values[i];
+            if (!value.equals(dimensionValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void trackValue(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+
+        while (true) {
+            Accumulator accumulator = current;
+            Accumulator.WRITERS.incrementAndGet(accumulator);
+            try {
+                if (accumulator != current) {
+                    // swapped by a flush after we read it, add to the new one instead
+                    continue;
+                }
+                accumulator.add(value);
+                return;
+            } finally {
+                Accumulator.WRITERS.decrementAndGet(accumulator);
+            }
+        }
+    }
+
+    /**
+     * Starts a new aggregation and returns the values aggregated since the previous call.
+     * @return The aggregated values, or null if no value was tracked.
+     */
+    Accumulator takeSnapshot() {
+        Accumulator previous = CURRENT.getAndSet(this, new Accumulator());
+        while (previous.writers != 0) {
+            Thread.yield();
+        }
+        return previous.count == 0 ? null : previous;
+    }
+
+    /**
+     * Lock free count, sum, min, max and sum of squares of the tracked values. The doubles are kept as raw long bits.
+     */
+    static final class Accumulator {
+        private static final AtomicIntegerFieldUpdater<Accumulator> WRITERS =
+                AtomicIntegerFieldUpdater.newUpdater(Accumulator.class, "writers");
+        private static final AtomicLongFieldUpdater<Accumulator> COUNT =
+                AtomicLongFieldUpdater.newUpdater(Accumulator.class, "count");
+        private static final AtomicLongFieldUpdater<Accumulator> SUM =
+                AtomicLongFieldUpdater.newUpdater(Accumulator.class, "sum");
+        private static final AtomicLongFieldUpdater<Accumulator> SUM_OF_SQUARES =
+                AtomicLongFieldUpdater.newUpdater(Accumulator.class, "sumOfSquares");
+        private static final AtomicLongFieldUpdater<Accumulator> MIN =
+                AtomicLongFieldUpdater.newUpdater(Accumulator.class, "min");
+        private static final AtomicLongFieldUpdater<Accumulator> MAX =
+                AtomicLongFieldUpdater.newUpdater(Accumulator.class, "max");
+
+        private volatile int writers;
+        private volatile long count;
+        private volatile long sum = Double.doubleToRawLongBits(0.0);
+        private volatile long sumOfSquares = Double.doubleToRawLongBits(0.0);
+        private volatile long min = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+        private volatile long max = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+
+        private void add(double value) {
+            COUNT.incrementAndGet(this);
+            addTo(SUM, value);
+            addTo(SUM_OF_SQUARES, value * value);
+
+            long bits = min;
+            while (value < Double.longBitsToDouble(bits) && !MIN.compareAndSet(this, bits, Double.doubleToRawLongBits(value))) {
+                bits = min;
+            }
+            bits = max;
+            while (value > Double.longBitsToDouble(bits) && !MAX.compareAndSet(this, bits, Double.doubleToRawLongBits(value))) {
+                bits = max;
+            }
+        }
+
+        private void addTo(AtomicLongFieldUpdater<Accumulator> field, double value) {
+            while (true) {
+                long bits = field.get(this);
+                long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + value);
+                if (field.compareAndSet(this, bits, updated)) {
+                    return;
+                }
+            }
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        double getSum() {
+            return Double.longBitsToDouble(sum);
+        }
+
+        double getMin() {
+            return Double.longBitsToDouble(min);
+        }
+
+        double getMax() {
+            return Double.longBitsToDouble(max);
+        }
+
+        /**
+         * @return The population standard deviation of the tracked values.
+         */
+        double getStandardDeviation() {
+            long n = count;
+            double mean = getSum() / n;
+            double variance = Double.longBitsToDouble(sumOfSquares) / n - mean * mean;
+            return variance > 0 ? Math.sqrt(variance) : 0.0;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.management.InstanceNotFoundException;
+import javax.management.ObjectName;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+/**
+ * Measures the time the SDK spends in each stage of {@link TelemetryClient#track} and of the channel, to tell
+ * which of the initializers, processors, Quick Pulse, serialization or the channel buffer costs the most.
+ * <p>
+ * Disabled by default, it can be enabled with the system property {@value #ENABLED_PROPERTY} or
+ * {@link #setEnabled}. When disabled, the only cost is reading a volatile flag once per tracked item. When enabled,
+ * one item out of the sample interval set with {@value #SAMPLE_INTERVAL_PROPERTY} (default
+ * {@value #DEFAULT_SAMPLE_INTERVAL}) is timed with {@link System#nanoTime()}, its stage durations being recorded in
+ * lock free {@link LatencyHistogram}s in nanoseconds, up to an hour. The initializers and processors are also timed
+ * one by one, under their class name.
+ * </p>
+ * <p>
+ * Once enabled, the latencies are exposed by the {@link PipelineLatencyMXBean} registered as {@value #OBJECT_NAME}
+ * with a {@value #LOADER_KEY} key per class loader, until the SDK shuts down, and sent every minute as
+ * {@value #METRIC_NAME} metrics, in microseconds, once {@value #SELF_TELEMETRY_ENABLED_PROPERTY} is set.
+ * </p>
+ */
+public final class PipelineLatency {
+
+    public static final String ENABLED_PROPERTY = "applicationinsights.pipelineLatency.enabled";
+    public static final String SAMPLE_INTERVAL_PROPERTY = "applicationinsights.pipelineLatency.sampleInterval";
+    public static final String SELF_TELEMETRY_ENABLED_PROPERTY = "applicationinsights.pipelineLatency.selfTelemetry.enabled";
+    public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+    public static final long SELF_TELEMETRY_INTERVAL_IN_SECONDS = 60;
+    public static final String METRIC_NAME = "SdkPipelineLatency";
+    public static final String OBJECT_NAME = "com.microsoft.applicationinsights:type=PipelineLatency";
+    public static final String LOADER_KEY = "loader";
+    static final String STAGE_PROPERTY = "Stage";
+    static final long MAX_LATENCY_IN_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private static final ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+    private static final ConcurrentMap<Class<?>, Stage> initializerStages = new ConcurrentHashMap<Class<?>, Stage>();
+    private static final ConcurrentMap<Class<?>, Stage> processorStages = new ConcurrentHashMap<Class<?>, Stage>();
+
+    public static final Stage TRACK_ENQUEUE = stage("Track.Enqueue");
+    public static final Stage TRACK_CONTEXT_INITIALIZATION = stage("Track.ContextInitialization");
+    public static final Stage TRACK_INITIALIZERS = stage("Track.Initializers");
+    public static final Stage TRACK_DURATION_HISTOGRAMS = stage("Track.DurationHistograms");
+    public static final Stage TRACK_PROCESSORS = stage("Track.Processors");
+    public static final Stage TRACK_QUICK_PULSE = stage("Track.QuickPulse");
+    public static final Stage TRACK_CHANNEL_SEND = stage("Track.ChannelSend");
+    public static final Stage CHANNEL_SAMPLING = stage("Channel.Sampling");
+    public static final Stage CHANNEL_SERIALIZATION = stage("Channel.Serialization");
+    public static final Stage CHANNEL_BUFFER_ADD = stage("Channel.BufferAdd");
+
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private static volatile int sampleInterval = Math.max(1, Integer.getInteger(SAMPLE_INTERVAL_PROPERTY, DEFAULT_SAMPLE_INTERVAL));
+    private static volatile boolean selfTelemetryEnabled;
+
+    // Guarded by the class
+    private static ScheduledExecutorService selfTelemetryService;
+    private static TelemetryClient telemetryClient;
+    private static long intervalStart = System.currentTimeMillis();
+    private static LatencyHistogram scratch;
+    private static ObjectName registeredName;
+
+    /**
+     * One stage of the pipeline. Its histograms are only allocated once it records a latency.
+     */
+    public static final class Stage {
+        private final String name;
+        private volatile LatencyHistogram interval;
+        // Guarded by PipelineLatency.class
+        private LatencyHistogram cumulative;
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void record(long durationInNanos) {
+            LatencyHistogram histogram = interval;
+            if (histogram == null) {
+                histogram = createInterval();
+            }
+            histogram.record(durationInNanos);
+        }
+
+        /**
+         * Records the time elapsed since the given start.
+         * @param startInNanos A value returned by {@link System#nanoTime()}.
+         * @return The current {@link System#nanoTime()}, the start of the next stage.
+         */
+        public long recordSince(long startInNanos) {
+            long now = System.nanoTime();
+            record(now - startInNanos);
+            return now;
+        }
+
+        private synchronized LatencyHistogram createInterval() {
+            if (interval == null) {
+                interval = newHistogram();
+            }
+            return interval;
+        }
+    }
+
+    private static final class MXBeanImpl implements PipelineLatencyMXBean {
+        @Override
+        public boolean isEnabled() {
+            return PipelineLatency.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            PipelineLatency.setEnabled(enabled);
+        }
+
+        @Override
+        public int getSampleInterval() {
+            return PipelineLatency.getSampleInterval();
+        }
+
+        @Override
+        public void setSampleInterval(int sampleInterval) {
+            PipelineLatency.setSampleInterval(sampleInterval);
+        }
+
+        @Override
+        public boolean isSelfTelemetryEnabled() {
+            return PipelineLatency.isSelfTelemetryEnabled();
+        }
+
+        @Override
+        public void setSelfTelemetryEnabled(boolean enabled) {
+            PipelineLatency.setSelfTelemetryEnabled(enabled);
+        }
+
+        @Override
+        public List<StageLatency> getStages() {
+            return PipelineLatency.getStages();
+        }
+
+        @Override
+        public void reset() {
+            PipelineLatency.reset();
+        }
+    }
+
+    static {
+        if (enabled) {
+            registerMBean();
+        }
+        if (Boolean.getBoolean(SELF_TELEMETRY_ENABLED_PROPERTY)) {
+            setSelfTelemetryEnabled(true);
+        }
+    }
+
+    private PipelineLatency() {
+    }
+
+    /**
+     * Tells whether the item about to go through the pipeline is timed. Called once per item and stage group,
+     * the result being kept in a local variable that guards the {@link System#nanoTime()} calls.
+     * @return true if the stage durations of the item must be recorded.
+     */
+    public static boolean shouldSample() {
+        if (!enabled) {
+            return false;
+        }
+        int interval = sampleInterval;
+        return interval <= 1 || ThreadLocalRandom.current().nextInt(interval) == 0;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PipelineLatency.enabled = enabled;
+        if (enabled) {
+            registerMBean();
+        }
+    }
+
+    public static int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * @param sampleInterval One item out of this number is timed, 1 to time them all.
+     */
+    public static void setSampleInterval(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("The sample interval must be positive");
+        }
+        PipelineLatency.sampleInterval = sampleInterval;
+    }
+
+    public static boolean isSelfTelemetryEnabled() {
+        return selfTelemetryEnabled;
+    }
+
+    public static synchronized void setSelfTelemetryEnabled(boolean enabled) {
+        selfTelemetryEnabled = enabled;
+        if (enabled && selfTelemetryService == null) {
+            selfTelemetryService = Executors.newSingleThreadScheduledExecutor(ThreadPoolUtils.createDaemonThreadFactory(PipelineLatency.class));
+            selfTelemetryService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    sendSelfTelemetry();
+                }
+            }, SELF_TELEMETRY_INTERVAL_IN_SECONDS, SELF_TELEMETRY_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+            SDKShutdownActivity.INSTANCE.register(selfTelemetryService);
+        }
+    }
+
+    public static Stage forInitializer(Class<?> initializerClass) {
+        return perClass(initializerStages, "Initializer.", initializerClass);
+    }
+
+    public static Stage forProcessor(Class<?> processorClass) {
+        return perClass(processorStages, "Processor.", processorClass);
+    }
+
+    /**
+     * @return The latencies recorded since the start or the last reset, by stage name.
+     */
+    public static synchronized List<StageLatency> getStages() {
+        List<StageLatency> result = new ArrayList<StageLatency>();
+        for (Stage stage : stages.values()) {
+            LatencyHistogram interval = stage.interval;
+            if (interval == null) {
+                continue;
+            }
+            LatencyHistogram total = newHistogram();
+            if (stage.cumulative != null) {
+                total.merge(stage.cumulative);
+            }
+            total.merge(interval);
+            if (total.getCount() > 0) {
+                result.add(new StageLatency(stage.name, total));
+            }
+        }
+        Collections.sort(result, new Comparator<StageLatency>() {
+            @Override
+            public int compare(StageLatency s1, StageLatency s2) {
+                return s1.getName().compareTo(s2.getName());
+            }
+        });
+        return result;
+    }
+
+    public static synchronized void reset() {
+        for (Stage stage : stages.values()) {
+            LatencyHistogram interval = stage.interval;
+            if (interval != null) {
+                interval.drainTo(getScratch());
+                scratch.clear();
+            }
+            stage.cumulative = null;
+        }
+    }
+
+    /**
+     * Adds one metric per stage that recorded latencies since the previous call, and moves them to the
+     * latencies exposed through JMX.
+     */
+    @VisibleForTesting
+    static synchronized void collect(List<MetricTelemetry> target) {
+        long now = System.currentTimeMillis();
+        String intervalInMillis = String.valueOf(now - intervalStart);
+        Date timestamp = new Date(intervalStart);
+        intervalStart = now;
+
+        LatencyHistogram drained = getScratch();
+        for (Stage stage : stages.values()) {
+            LatencyHistogram interval = stage.interval;
+            if (interval == null) {
+                continue;
+            }
+            interval.drainTo(drained);
+            try {
+                if (drained.getCount() == 0) {
+                    continue;
+                }
+                target.add(toMetric(stage.name, drained, timestamp, intervalInMillis));
+                if (stage.cumulative == null) {
+                    stage.cumulative = newHistogram();
+                }
+                stage.cumulative.merge(drained);
+            } finally {
+                drained.clear();
+            }
+        }
+    }
+
+    private static MetricTelemetry toMetric(String stageName, LatencyHistogram histogram, Date timestamp, String intervalInMillis) {
+        MetricTelemetry telemetry = new MetricTelemetry(METRIC_NAME, StageLatency.toMicros(histogram.getSum()));
+        long count = histogram.getCount();
+        telemetry.setCount(count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count);
+        telemetry.setMin(StageLatency.toMicros(histogram.getMin()));
+        telemetry.setMax(StageLatency.toMicros(histogram.getMax()));
+        telemetry.setTimestamp(timestamp);
+
+        Map<String, String> properties = telemetry.getProperties();
+        properties.put(STAGE_PROPERTY, stageName);
+        properties.put(DurationHistograms.PERCENTILE_50_PROPERTY, String.valueOf(StageLatency.toMicros(histogram.getPercentile(50))));
+        properties.put(DurationHistograms.PERCENTILE_95_PROPERTY, String.valueOf(StageLatency.toMicros(histogram.getPercentile(95))));
+        properties.put(DurationHistograms.PERCENTILE_99_PROPERTY, String.valueOf(StageLatency.toMicros(histogram.getPercentile(99))));
+        properties.put(MetricManager.AGGREGATION_INTERVAL_PROPERTY, intervalInMillis);
+        return telemetry;
+    }
+
+    private static void sendSelfTelemetry() {
+        try {
+            if (!selfTelemetryEnabled) {
+                return;
+            }
+            List<MetricTelemetry> metrics = new ArrayList<MetricTelemetry>();
+            collect(metrics);
+            if (metrics.isEmpty()) {
+                return;
+            }
+            TelemetryClient client;
+            synchronized (PipelineLatency.class) {
+                if (telemetryClient == null) {
+                    telemetryClient = new TelemetryClient();
+                }
+                client = telemetryClient;
+            }
+            for (MetricTelemetry metric : metrics) {
+                client.track(metric);
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Failed to send the pipeline latencies: '%s'", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
+    private static LatencyHistogram getScratch() {
+        if (scratch == null) {
+            scratch = newHistogram();
+        }
+        return scratch;
+    }
+
+    private static LatencyHistogram newHistogram() {
+        return new LatencyHistogram(MAX_LATENCY_IN_NANOS);
+    }
+
+    private static Stage stage(String name) {
+        Stage stage = stages.get(name);
+        if (stage == null) {
+            Stage created = new Stage(name);
+            stage = stages.putIfAbsent(name, created);
+            if (stage == null) {
+                stage = created;
+            }
+        }
+        return stage;
+    }
+
+    private static Stage perClass(ConcurrentMap<Class<?>, Stage> byClass, String prefix, Class<?> type) {
+        Stage stage = byClass.get(type);
+        if (stage == null) {
+            stage = stage(prefix + type.getName());
+            byClass.putIfAbsent(type, stage);
+        }
+        return stage;
+    }
+
+    /**
+     * @return The name the MBean is registered with, null if it is not registered.
+     */
+    @VisibleForTesting
+    static synchronized ObjectName getObjectName() {
+        return registeredName;
+    }
+
+    private static synchronized void registerMBean() {
+        if (registeredName != null) {
+            return;
+        }
+        try {
+            // other copies of the SDK, in other class loaders, register their own
+            ClassLoader loader = PipelineLatency.class.getClassLoader();
+            ObjectName name = new ObjectName(OBJECT_NAME + "," + LOADER_KEY + "=" + Integer.toHexString(System.identityHashCode(loader)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBeanImpl(), name);
+            registeredName = name;
+            SDKShutdownActivity.INSTANCE.register(new Stoppable() {
+                @Override
+                public void stop(long timeout, TimeUnit timeUnit) {
+                    unregisterMBean();
+                }
+            });
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Failed to register the pipeline latency MBean: '%s'", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static synchronized void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (InstanceNotFoundException e) {
+            // already unregistered
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Failed to unregister the pipeline latency MBean: '%s'", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+        registeredName = null;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An open addressing hash index of the series of a metric, keyed by their dimension values.
+ * <p>
+ * Lookups are lock free and allocation free: they hash the dimension values in place and probe the table linearly,
+ * comparing with the values array owned by each series. Insertions are serialized by the owning {@link Metric};
+ * the table is kept at most half full, so a probe always ends on an empty slot, and it is replaced by a larger
+ * copy when it grows, lookups racing with the copy simply miss and fall back to the insertion path.
+ * </p>
+ */
+final class SeriesIndex {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private volatile AtomicReferenceArray<MetricSeries> table = new AtomicReferenceArray<MetricSeries>(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * @return The series with these dimension values, or null.
+     */
+    MetricSeries get(String[] dimensionValues) {
+        return get(table, dimensionValues, hash(dimensionValues));
+    }
+
+    /**
+     * Adds a series, the caller must hold the lock of the owning metric and have checked it is not indexed yet.
+     */
+    void add(MetricSeries series) {
+        AtomicReferenceArray<MetricSeries> current = table;
+        if ((size + 1) * 2 > current.length()) {
+            current = resize(current);
+        }
+        insert(current, series);
+        table = current;
+        ++size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return table.length();
+    }
+
+    void addAllTo(List<MetricSeries> target) {
+        AtomicReferenceArray<MetricSeries> current = table;
+        for (int i = 0; i < current.length(); ++i) {
+            MetricSeries series = current.get(i);
+            if (series != null) {
+                target.add(series);
+            }
+        }
+    }
+
+    /**
+     * Hashes the dimension values the way they are stored, with null values as empty strings.
+     */
+    static int hash(String[] dimensionValues) {
+        int hash = 1;
+        for (String value : dimensionValues) {
+            hash = 31 * hash + (value == null ? 0 : value.hashCode());
+        }
+        // spreads the high bits, the table index only uses the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static MetricSeries get(AtomicReferenceArray<MetricSeries> table, String[] dimensionValues, int hash) {
+        int mask = table.length() - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            MetricSeries series = table.get(i);
+            if (series == null) {
+                return null;
+            }
+            if (series.getHash() == hash && series.matches(dimensionValues)) {
+                return series;
+            }
+        }
+    }
+
+    private static void insert(AtomicReferenceArray<MetricSeries> table, MetricSeries series) {
+        int mask = table.length() - 1;
+        int i = series.getHash() & mask;
+        while (table.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        table.set(i, series);
+    }
+
+    private static AtomicReferenceArray<MetricSeries> resize(AtomicReferenceArray<MetricSeries> current) {
+        AtomicReferenceArray<MetricSeries> resized = new AtomicReferenceArray<MetricSeries>(current.length() * 2);
+        for (int i = 0; i < current.length(); ++i) {
+            MetricSeries series = current.get(i);
+            if (series != null) {
+                insert(resized, series);
+            }
+        }
+        return resized;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.metrics;
+
+/**
+ * The latencies of one stage of the telemetry pipeline, as exposed through JMX.
+ * The counts are the sampled counts, not the number of items that went through the stage.
+ */
+public final class StageLatency {
+
+    private final String name;
+    private final long count;
+    private final double meanInMicros;
+    private final double percentile50InMicros;
+    private final double percentile95InMicros;
+    private final double percentile99InMicros;
+    private final double maxInMicros;
+
+    StageLatency(String name, LatencyHistogram histogram) {
+        this.name = name;
+        this.count = histogram.getCount();
+        this.meanInMicros = count == 0 ? 0 : toMicros(histogram.getSum()) / count;
+        this.percentile50InMicros = toMicros(histogram.getPercentile(50));
+        this.percentile95InMicros = toMicros(histogram.getPercentile(95));
+        this.percentile99InMicros = toMicros(histogram.getPercentile(99));
+        this.maxInMicros = toMicros(histogram.getMax());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanInMicros() {
+        return meanInMicros;
+    }
+
+    public double getPercentile50InMicros() {
+        return percentile50InMicros;
+    }
+
+    public double getPercentile95InMicros() {
+        return percentile95InMicros;
+    }
+
+    public double getPercentile99InMicros() {
+        return percentile99InMicros;
+    }
+
+    public double getMaxInMicros() {
+        return maxInMicros;
+    }
+
+    static double toMicros(double nanos) {
+        return nanos / 1000;
+    }
+}
@@ -44,6 +44,9 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
     private Date timestamp;
     private String sequence;
 
+    // The pool this instance was acquired from, and will be returned to once it was sent
+    private TelemetryPool<?> pool;
+
     public static final String TELEMETRY_NAME_PREFIX = "Microsoft.ApplicationInsights.";
 
     protected BaseTelemetry() {
@@ -189,6 +192,31 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
     public void reset() {
     }
 
+    /**
+     * Clears the whole state of this instance so it can be reused, see {@link TelemetryPool}.
+     * Concrete classes that are pooled override this method to also clear their own data.
+     */
+    void resetForReuse() {
+        reset();
+        context.clear();
+        timestamp = null;
+        sequence = null;
+    }
+
+    void setPool(TelemetryPool<?> pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Detaches this instance from the pool it was acquired from.
+     * @return The pool, or null if this instance is not pooled or was already detached.
+     */
+    TelemetryPool<?> takePool() {
+        TelemetryPool<?> result = pool;
+        pool = null;
+        return result;
+    }
+
     /**
      * Concrete classes should implement this method
      */
@@ -1,11 +1,13 @@
 package com.microsoft.applicationinsights.telemetry;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.microsoft.applicationinsights.extensibility.context.ContextTagKeys;
 import org.apache.commons.lang3.StringUtils;
@@ -42,8 +44,86 @@ class ContextTagsMap implements ConcurrentMap<String, String> {
         tagSizeLimits.put(ContextTagKeys.getKeys().getOperationCorrelationVector(), 64);
     }
 
+    /**
+     * An immutable snapshot of a tags map together with its JSON rendering.
+     * The rendering is the comma separated list of members, without the enclosing braces,
+     * so it can be spliced as-is into an envelope's 'tags' object.
+     */
+    static final class SerializedTags {
+        private final int version;
+        private final Map<String, String> entries;
+        private final String json;
+
+        private SerializedTags(int version, Map<String, String> entries, String json) {
+            this.version = version;
+            this.entries = entries;
+            this.json = json;
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        boolean containsKey(String key) {
+            return entries.containsKey(key);
+        }
+
+        String getJson() {
+            return json;
+        }
+
+        /**
+         * @param tags The tags of a telemetry item
+         * @return true if every entry of this snapshot is present, with the same value, in {@code tags}
+         */
+        boolean isContainedIn(Map<String, String> tags) {
+            for (Entry<String, String> entry : entries.entrySet()) {
+                if (!entry.getValue().equals(tags.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     private final ConcurrentMap<String, String> tags = new ConcurrentHashMap<>();
 
+    // Bumped on every modification so a cached SerializedTags can detect it is stale
+    private final AtomicInteger version = new AtomicInteger(0);
+
+    private volatile SerializedTags serializedTags;
+
+    // The tags this map was initialized from, typically the TelemetryClient's context tags
+    private volatile ContextTagsMap shared;
+
+    ContextTagsMap getShared() {
+        return shared;
+    }
+
+    void setShared(ContextTagsMap shared) {
+        this.shared = shared == this ? null : shared;
+    }
+
+    /**
+     * Gets the JSON rendering of the current content, which is only recomputed after this map was modified.
+     * @return The serialized tags, or null if they could not be serialized.
+     */
+    SerializedTags getSerializedTags() {
+        SerializedTags current = serializedTags;
+        int currentVersion = version.get();
+        if (current == null || current.version != currentVersion) {
+            // take the snapshot after reading the version; a concurrent update will bump it and force a rebuild
+            Map<String, String> snapshot = new HashMap<>(tags);
+            try {
+                current = new SerializedTags(currentVersion, snapshot, JsonTelemetryDataSerializer.serializeEntries(snapshot));
+            } catch (IOException e) {
+                return null;
+            }
+            serializedTags = current;
+        }
+        return current;
+    }
+
     private static String sanitizeKey(String key) {
         return key;
     }
@@ -65,22 +145,30 @@ class ContextTagsMap implements ConcurrentMap<String, String> {
 
     @Override
     public String putIfAbsent(String key, String value) {
-        return tags.putIfAbsent(key, sanitizeValue(key, value));
+        String result = tags.putIfAbsent(key, sanitizeValue(key, value));
+        version.incrementAndGet();
+        return result;
     }
 
     @Override
     public boolean remove(Object key, Object value) {
-        return tags.remove(key, value);
+        boolean result = tags.remove(key, value);
+        version.incrementAndGet();
+        return result;
     }
 
     @Override
     public boolean replace(String key, String oldValue, String newValue) {
-        return tags.replace(key, oldValue, sanitizeValue(key, newValue));
+        boolean result = tags.replace(key, oldValue, sanitizeValue(key, newValue));
+        version.incrementAndGet();
+        return result;
     }
 
     @Override
     public String replace(String key, String value) {
-        return tags.replace(key, sanitizeValue(key, value));
+        String result = tags.replace(key, sanitizeValue(key, value));
+        version.incrementAndGet();
+        return result;
     }
 
     @Override
@@ -110,12 +198,16 @@ class ContextTagsMap implements ConcurrentMap<String, String> {
 
     @Override
     public String put(String key, String value) {
-        return tags.put(key, sanitizeValue(key, value));
+        String result = tags.put(key, sanitizeValue(key, value));
+        version.incrementAndGet();
+        return result;
     }
 
     @Override
     public String remove(Object key) {
-        return tags.remove(key);
+        String result = tags.remove(key);
+        version.incrementAndGet();
+        return result;
     }
 
     @Override
@@ -125,11 +217,13 @@ class ContextTagsMap implements ConcurrentMap<String, String> {
             sanitized.put(entry.getKey(), sanitizeValue(entry.getKey(), entry.getValue()));
         }
         tags.putAll(sanitized);
+        version.incrementAndGet();
     }
 
     @Override
     public void clear() {
         tags.clear();
+        version.incrementAndGet();
     }
 
     @Override
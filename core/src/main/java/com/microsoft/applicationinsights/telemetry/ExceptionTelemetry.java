@@ -24,7 +24,6 @@ package com.microsoft.applicationinsights.telemetry;
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.schemav2.ExceptionData;
 import com.microsoft.applicationinsights.internal.schemav2.ExceptionDetails;
-import com.microsoft.applicationinsights.internal.schemav2.StackFrame;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 
 import java.util.ArrayList;
@@ -39,6 +38,10 @@ public final class ExceptionTelemetry extends BaseSampleSourceTelemetry<Exceptio
     private final ExceptionData data;
     private Throwable throwable;
 
+    // The throwable is converted to exception details only when they are needed, usually when serialized
+    private boolean conversionPending;
+    private int stackSize;
+
     /**
      * Envelope Name for this telemetry.
      */
@@ -94,7 +97,8 @@ public final class ExceptionTelemetry extends BaseSampleSourceTelemetry<Exceptio
 
     public void setException(Throwable throwable, int stackSize) {
         this.throwable = throwable;
-        updateException(throwable, stackSize);
+        this.stackSize = stackSize;
+        this.conversionPending = true;
     }
 
     /**
@@ -152,14 +156,21 @@ public final class ExceptionTelemetry extends BaseSampleSourceTelemetry<Exceptio
 
     @Override
     protected ExceptionData getData() {
+        updateExceptionIfPending();
         return data;
     }
 
     public List<ExceptionDetails> getExceptions() {
+        updateExceptionIfPending();
         return data.getExceptions();
     }
 
-    private void updateException(Throwable throwable, int stackSize) {
+    private void updateExceptionIfPending() {
+        if (!conversionPending) {
+            return;
+        }
+        conversionPending = false;
+
         ArrayList<ExceptionDetails> exceptions = new ArrayList<ExceptionDetails>();
         convertExceptionTree(throwable, null, exceptions, stackSize);
 
@@ -205,33 +216,8 @@ public final class ExceptionTelemetry extends BaseSampleSourceTelemetry<Exceptio
         StackTraceElement[] trace = exception.getStackTrace();
 
         if (trace != null && trace.length > 0) {
-            List<StackFrame> stack = exceptionDetails.getParsedStack();
-
-            // We need to present the stack trace in reverse order.
-
-            for (int idx = 0; idx < trace.length; idx++) {
-                StackTraceElement elem = trace[idx];
-
-                if (elem.isNativeMethod()) {
-                    continue;
-                }
-
-                String className = elem.getClassName();
-
-                StackFrame frame = new StackFrame();
-                frame.setLevel(idx);
-                frame.setFileName(elem.getFileName());
-                frame.setLine(elem.getLineNumber());
-
-                if (!Strings.isNullOrEmpty(className)) {
-                    frame.setMethod(elem.getClassName() + "." + elem.getMethodName());
-                }
-                else {
-                    frame.setMethod(elem.getMethodName());
-                }
-
-                stack.add(frame);
-            }
+            // The frames are shared with the other exceptions thrown from the same place
+            exceptionDetails.setParsedStack(StackFrameCache.INSTANCE.get(trace));
 
             exceptionDetails.setHasFullStack(true); // TODO: sanitize and trim exception stack trace.
         }
@@ -29,7 +29,6 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.text.StringCharacterIterator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -50,6 +49,7 @@ public final class JsonTelemetryDataSerializer {
     private final static String JSON_NAME_VALUE_SEPARATOR = ":";
     private final static String JSON_EMPTY_OBJECT = "{}";
     private final static int DELTA = 2;
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     private static final Set<Class<?>> WRAPPER_TYPES = getWrapperTypes();
 
@@ -219,8 +219,7 @@ public final class JsonTelemetryDataSerializer {
 
         writeName(name);
         out.write(JSON_COMMA);
-        String sanitizedValue = sanitizeStringForJSON(value, len);
-        out.write(sanitizedValue);
+        writeEscaped(out, value, len);
         out.write(JSON_COMMA);
         separator = JSON_SEPARATOR;
     }
@@ -247,6 +246,49 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
+        if (map instanceof ContextTagsMap) {
+            writeContextTags(name, (ContextTagsMap) map);
+            return;
+        }
+
+        writeMap(name, map);
+    }
+
+    /**
+     * Writes the tags of a telemetry item. When the item was initialized from a shared context,
+     * e.g. the {@link com.microsoft.applicationinsights.TelemetryClient}'s, and still holds all of its tags unchanged,
+     * the shared tags are written from their cached JSON and only the item's own tags are serialized.
+     */
+    private void writeContextTags(String name, ContextTagsMap tags) throws IOException {
+        ContextTagsMap shared = tags.getShared();
+        ContextTagsMap.SerializedTags sharedTags = shared == null ? null : shared.getSerializedTags();
+        if (sharedTags == null || sharedTags.isEmpty() || !sharedTags.isContainedIn(tags)) {
+            writeMap(name, tags);
+            return;
+        }
+
+        writeName(name);
+        try {
+            out.write(JSON_START_OBJECT);
+            out.write(sharedTags.getJson());
+
+            separator = JSON_SEPARATOR;
+            for (Map.Entry<String, String> entry : tags.entrySet()) {
+                if (sharedTags.containsKey(entry.getKey())) {
+                    continue;
+                }
+                writeName(sanitizeKey(entry.getKey()));
+                write(entry.getValue());
+                separator = JSON_SEPARATOR;
+            }
+
+            out.write(JSON_CLOSE_OBJECT);
+        } finally {
+            separator = JSON_SEPARATOR;
+        }
+    }
+
+    private <T> void writeMap(String name, Map<String, T> map) throws IOException {
         writeName(name);
         try {
             out.write(JSON_START_OBJECT);
@@ -274,22 +316,29 @@ public final class JsonTelemetryDataSerializer {
         try {
             if (list.size() < 1) {
                 out.write("null");
+            } else if (list instanceof StackFrameCache.Frames) {
+                // shared by all the exceptions with the same stack trace, serialized only once
+                out.write(((StackFrameCache.Frames) list).getJson());
             } else {
-                out.write(JSON_START_ARRAY);
-                separator = "";
-                for (T item : list) {
-                    out.write(separator);
-                    write(item);
-                    separator = JSON_SEPARATOR;
-                }
-
-                out.write(JSON_CLOSE_ARRAY);
+                writeElements(list);
             }
         } finally {
             separator = JSON_SEPARATOR;
         }
     }
 
+    private <T> void writeElements(List<T> list) throws IOException {
+        out.write(JSON_START_ARRAY);
+        separator = "";
+        for (T item : list) {
+            out.write(separator);
+            write(item);
+            separator = JSON_SEPARATOR;
+        }
+
+        out.write(JSON_CLOSE_ARRAY);
+    }
+
     private <T> void write(T item) throws IOException {
         if (item instanceof JsonSerializable) {
             String jsonStringToAppend = createJsonFor((JsonSerializable)item);
@@ -303,15 +352,45 @@ public final class JsonTelemetryDataSerializer {
             {
                 out.write(String.valueOf(item));
             } else {
-                String truncatedName = truncate(String.valueOf(item), 8192);
-                String sanitizedItem = sanitizeStringForJSON(truncatedName, 8192);
                 out.write(JSON_COMMA);
-                out.write(sanitizedItem);
+                writeEscaped(out, String.valueOf(item), 8192);
                 out.write(JSON_COMMA);
             }
         }
     }
 
+    /**
+     * Serializes the entries as the members of a JSON object, without the enclosing braces.
+     * @param entries The entries to serialize
+     * @return The JSON members, separated by commas
+     * @throws IOException a possible exception
+     */
+    static String serializeEntries(Map<String, String> entries) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer temp = new JsonTelemetryDataSerializer(stringWriter);
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            temp.writeName(temp.sanitizeKey(entry.getKey()));
+            temp.write(entry.getValue());
+            temp.separator = JSON_SEPARATOR;
+        }
+
+        return stringWriter.getBuffer().substring(JSON_START_OBJECT.length());
+    }
+
+    /**
+     * Serializes the elements as a JSON array.
+     * @param elements The elements to serialize
+     * @return The JSON array
+     * @throws IOException a possible exception
+     */
+    static String serializeElements(List<?> elements) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer temp = new JsonTelemetryDataSerializer(stringWriter);
+        temp.writeElements(elements);
+
+        return stringWriter.getBuffer().substring(JSON_START_OBJECT.length());
+    }
+
     private <T extends JsonSerializable> String createJsonFor(T value) throws IOException {
         StringWriter stringWriter = new StringWriter();
         JsonTelemetryDataSerializer temp = new JsonTelemetryDataSerializer(new BufferedWriter(stringWriter));
@@ -350,49 +429,99 @@ public final class JsonTelemetryDataSerializer {
         return ret;
     }
 
-    private String sanitizeStringForJSON(String text, int maxLength) {
+    private static String sanitizeStringForJSON(String text, int maxLength) throws IOException {
+        if (escapedLength(text, maxLength) == text.length()) {
+            return text;
+        }
 
-        final StringBuilder result = new StringBuilder();
-        StringCharacterIterator iterator = new StringCharacterIterator(text);
-        for (char curr = iterator.current(); curr != iterator.DONE && result.length() < maxLength - DELTA; curr = iterator.next()) {
-            if( curr == '\"' ){
-                result.append("\\\"");
-            }
-            else if(curr == '\\'){
-                result.append("\\\\");
-            }
-            else if(curr == '\b'){
-                result.append("\\b");
-            }
-            else if(curr == '\f'){
-                result.append("\\f");
-            }
-            else if(curr == '\n'){
-                result.append("\\n");
-            }
-            else if(curr == '\r'){
-                result.append("\\r");
-            }
-            else if(curr == '\t'){
-                result.append("\\t");
-            }
-            else if (!Character.isISOControl(curr)){
-                result.append(curr);
+        StringWriter writer = new StringWriter(Math.min(text.length() + 16, maxLength));
+        writeEscaped(writer, text, maxLength);
+        return writer.toString();
+    }
+
+    /**
+     * Writes the text escaped for a JSON string, limited to maxLength - DELTA characters.
+     * Runs of characters that need no escaping are written in one call, without intermediate Strings.
+     */
+    private static void writeEscaped(Writer writer, String text, int maxLength) throws IOException {
+        int limit = maxLength - DELTA;
+        int safeLength = escapedLength(text, maxLength);
+        if (safeLength == text.length() || safeLength == limit) {
+            // nothing to escape within the limit, which is the common case for urls, ids and names
+            writer.write(text, 0, safeLength);
+            return;
+        }
+
+        int written = safeLength;
+        int runStart = 0;
+        int i = safeLength;
+        for (; i < text.length() && written < limit; ++i) {
+            char curr = text.charAt(i);
+            if (!needsEscaping(curr)) {
+                ++written;
+                continue;
             }
-            else {
-                if (result.length() + 7 < maxLength) { // needs 7 more character space to be appended
-                    result.append("\\u");
-                    result.append((String.format( "%04x", Integer.valueOf(curr))));
-                }
-                else {
-                    break;
+
+            writer.write(text, runStart, i - runStart);
+            runStart = i + 1;
+            String escaped = shortEscape(curr);
+            if (escaped != null) {
+                writer.write(escaped);
+                written += escaped.length();
+            } else if (written + 7 < maxLength) { // needs 7 more character space to be appended
+                writer.write("\\u");
+                for (int shift = 12; shift >= 0; shift -= 4) {
+                    writer.write(HEX_DIGITS[(curr >> shift) & 0xF]);
                 }
+                written += 6;
+            } else {
+                return;
             }
         }
-        return result.toString();
+        writer.write(text, runStart, i - runStart);
     }
 
-    private String sanitizeKey(String key) {
+    /**
+     * Scans the text for the first character that needs escaping.
+     * @return The length of the prefix that can be written as is, at most maxLength - DELTA.
+     */
+    private static int escapedLength(String text, int maxLength) {
+        int end = Math.min(text.length(), Math.max(maxLength - DELTA, 0));
+        for (int i = 0; i < end; ++i) {
+            if (needsEscaping(text.charAt(i))) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean needsEscaping(char c) {
+        // '"' and '\\' are the only printable characters to escape, everything else is an ISO control character
+        return c == '"' || c == '\\' || Character.isISOControl(c);
+    }
+
+    private static String shortEscape(char c) {
+        switch (c) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '\b':
+                return "\\b";
+            case '\f':
+                return "\\f";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\t':
+                return "\\t";
+            default:
+                return null;
+        }
+    }
+
+    private String sanitizeKey(String key) throws IOException {
         String sanitizedKey = trimAndTruncate(key, 150);
         sanitizedKey = sanitizeStringForJSON(sanitizedKey, 150);
         sanitizedKey = MakeKeyNonEmpty(sanitizedKey);
@@ -416,11 +545,4 @@ public final class JsonTelemetryDataSerializer {
         return Strings.isNullOrEmpty(key) ? "(required property name is empty)" : key;
     }
 
-    private String truncate(String value, int len) {
-        if (value.length() > len) {
-            return value.substring(0, len);
-        }
-        return value;
-    }
-
 }
@@ -188,6 +188,18 @@ public final class MetricTelemetry extends BaseTelemetry<MetricData> {
         metric.setStdDev(value); updateKind();
     }
 
+    @Override
+    void resetForReuse() {
+        super.resetForReuse();
+        metric.setName(null);
+        metric.setValue(0);
+        metric.setCount(null);
+        metric.setMin(null);
+        metric.setMax(null);
+        metric.setStdDev(null);
+        metric.setKind(DataPointType.Measurement);
+    }
+
     @Deprecated
     @Override
     protected void additionalSanitize() {
@@ -370,6 +370,21 @@ public final class RemoteDependencyTelemetry extends BaseSampleSourceTelemetry<R
         this.samplingPercentage = samplingPercentage;
     }
 
+    @Override
+    void resetForReuse() {
+        super.resetForReuse();
+        data.setName(null);
+        data.setId(null);
+        data.setResultCode(null);
+        data.setDuration(new Duration(0));
+        data.setSuccess(true);
+        data.setData(null);
+        data.setType(null);
+        data.setTarget(null);
+        data.getMeasurements().clear();
+        samplingPercentage = null;
+    }
+
     @Override
     @Deprecated
     protected void additionalSanitize() {
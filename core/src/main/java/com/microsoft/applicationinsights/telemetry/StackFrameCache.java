@@ -0,0 +1,175 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.microsoft.applicationinsights.internal.schemav2.StackFrame;
+
+/**
+ * A bounded LRU cache of converted stack traces.
+ * Applications tend to throw the same few exceptions over and over again, this cache lets them share
+ * the {@link StackFrame} objects, and their serialized form, instead of converting every stack trace again.
+ */
+final class StackFrameCache {
+
+    static final int DEFAULT_MAX_SIZE = 256;
+
+    static final StackFrameCache INSTANCE = new StackFrameCache(DEFAULT_MAX_SIZE);
+
+    private final Map<TraceKey, Frames> cache;
+
+    StackFrameCache(final int maxSize) {
+        cache = new LinkedHashMap<TraceKey, Frames>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TraceKey, Frames> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the frames of the stack trace, converting them if they are not in the cache yet.
+     * @param trace The stack trace, must not be empty.
+     * @return The immutable list of frames.
+     */
+    Frames get(StackTraceElement[] trace) {
+        TraceKey key = new TraceKey(trace);
+        Frames frames;
+        synchronized (cache) {
+            frames = cache.get(key);
+        }
+        if (frames != null) {
+            return frames;
+        }
+
+        // Converted outside of the lock, two threads might convert the same trace, which is harmless
+        frames = new Frames(convert(trace));
+        synchronized (cache) {
+            cache.put(key, frames);
+        }
+        return frames;
+    }
+
+    @VisibleForTesting
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static StackFrame[] convert(StackTraceElement[] trace) {
+        StackFrame[] frames = new StackFrame[trace.length];
+        int count = 0;
+        for (int idx = 0; idx < trace.length; idx++) {
+            StackTraceElement elem = trace[idx];
+
+            if (elem.isNativeMethod()) {
+                continue;
+            }
+
+            String className = elem.getClassName();
+
+            StackFrame frame = new StackFrame();
+            frame.setLevel(idx);
+            frame.setFileName(elem.getFileName());
+            frame.setLine(elem.getLineNumber());
+
+            if (!Strings.isNullOrEmpty(className)) {
+                frame.setMethod(elem.getClassName() + "." + elem.getMethodName());
+            }
+            else {
+                frame.setMethod(elem.getMethodName());
+            }
+
+            frames[count++] = frame;
+        }
+        return count == frames.length ? frames : Arrays.copyOf(frames, count);
+    }
+
+    /**
+     * An immutable list of frames shared by all the exceptions with the same stack trace, which also keeps its serialized form.
+     */
+    static final class Frames extends AbstractList<StackFrame> {
+        private final StackFrame[] frames;
+        private volatile String json;
+
+        private Frames(StackFrame[] frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public StackFrame get(int index) {
+            return frames[index];
+        }
+
+        @Override
+        public int size() {
+            return frames.length;
+        }
+
+        /**
+         * @return The serialized JSON array of the frames, computed on first use.
+         */
+        String getJson() throws IOException {
+            String result = json;
+            if (result == null) {
+                result = JsonTelemetryDataSerializer.serializeElements(this);
+                json = result;
+            }
+            return result;
+        }
+    }
+
+    private static final class TraceKey {
+        private final StackTraceElement[] trace;
+        private final int hash;
+
+        private TraceKey(StackTraceElement[] trace) {
+            this.trace = trace;
+            this.hash = Arrays.hashCode(trace);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof TraceKey)) {
+                return false;
+            }
+            TraceKey that = (TraceKey) other;
+            return hash == that.hash && Arrays.equals(trace, that.trace);
+        }
+    }
+}
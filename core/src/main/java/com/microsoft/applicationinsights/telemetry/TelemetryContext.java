@@ -202,6 +202,19 @@ public final class TelemetryContext {
 
         MapUtil.copy(source.tags, this.tags);
         MapUtil.copy(source.properties, this.properties);
+
+        // lets the serializer reuse the pre-serialized form of the source tags
+        this.tags.setShared(source.tags);
+    }
+
+    /**
+     * Removes all properties, tags and the instrumentation key, used when a telemetry item is reset for reuse.
+     */
+    void clear() {
+        instrumentationKey = null;
+        properties.clear();
+        tags.clear();
+        tags.setShared(null);
     }
 
     public InternalContext getInternal() {
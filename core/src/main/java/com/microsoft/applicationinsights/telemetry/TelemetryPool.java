@@ -0,0 +1,188 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A bounded, lock free pool of telemetry instances for high frequency producers.
+ * <p>
+ * An instance taken with {@link #acquire()} is owned by the caller until it is handed to
+ * {@link com.microsoft.applicationinsights.TelemetryClient#track(Telemetry)}; from that point the pipeline owns it,
+ * and returns it to the pool once it was serialized or dropped, so callers must not touch it after tracking it.
+ * </p>
+ * <p>
+ * Pooling is disabled by default, in which case {@link #acquire()} simply creates a new instance.
+ * It can be enabled with the system property {@value #POOLING_ENABLED_PROPERTY} or with {@link #setEnabled(boolean)}.
+ * </p>
+ * @param <T> The type of the pooled telemetry.
+ */
+public abstract class TelemetryPool<T extends BaseTelemetry<?>> {
+
+    public static final String POOLING_ENABLED_PROPERTY = "applicationinsights.telemetry.pooling.enabled";
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // How many slots are inspected before giving up, keeps acquire and offer bounded under contention
+    private static final int MAX_PROBES = 8;
+
+    private static volatile boolean enabled = Boolean.getBoolean(POOLING_ENABLED_PROPERTY);
+
+    public static final TelemetryPool<TraceTelemetry> TRACES = new TelemetryPool<TraceTelemetry>(DEFAULT_CAPACITY) {
+        @Override
+        protected TraceTelemetry create() {
+            return new TraceTelemetry();
+        }
+    };
+
+    public static final TelemetryPool<MetricTelemetry> METRICS = new TelemetryPool<MetricTelemetry>(DEFAULT_CAPACITY) {
+        @Override
+        protected MetricTelemetry create() {
+            return new MetricTelemetry();
+        }
+    };
+
+    public static final TelemetryPool<RemoteDependencyTelemetry> DEPENDENCIES = new TelemetryPool<RemoteDependencyTelemetry>(DEFAULT_CAPACITY) {
+        @Override
+        protected RemoteDependencyTelemetry create() {
+            return new RemoteDependencyTelemetry();
+        }
+    };
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+
+    /**
+     * @param capacity The maximum number of idle instances kept by the pool, rounded up to a power of two.
+     */
+    protected TelemetryPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pool capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        TelemetryPool.enabled = enabled;
+    }
+
+    /**
+     * Creates a new, empty instance, used when the pool has no idle instance.
+     * @return The new instance.
+     */
+    protected abstract T create();
+
+    /**
+     * Takes an idle instance from the pool, or creates a new one when there is none or pooling is disabled.
+     * @return An empty telemetry instance owned by the caller.
+     */
+    public T acquire() {
+        if (!enabled) {
+            return create();
+        }
+
+        T item = null;
+        int start = startIndex();
+        for (int i = 0; i < MAX_PROBES && i <= mask; ++i) {
+            int index = (start + i) & mask;
+            T candidate = slots.get(index);
+            if (candidate != null && slots.compareAndSet(index, candidate, null)) {
+                item = candidate;
+                break;
+            }
+        }
+        if (item == null) {
+            item = create();
+        }
+        item.setPool(this);
+        return item;
+    }
+
+    /**
+     * Returns the telemetry to the pool it was acquired from. Does nothing for instances that were not pooled.
+     * The instance is reset, and must not be used by the caller afterwards.
+     * @param telemetry The telemetry that is no longer in use.
+     */
+    public static void recycle(Telemetry telemetry) {
+        if (!(telemetry instanceof BaseTelemetry)) {
+            return;
+        }
+        TelemetryPool<?> pool = ((BaseTelemetry<?>) telemetry).takePool();
+        if (pool != null) {
+            pool.offer(telemetry);
+        }
+    }
+
+    /**
+     * Takes the ownership of a telemetry away from the pipeline, so it is not returned to its pool once it is sent or
+     * dropped. Used by processors that keep items after returning from {@link
+     * com.microsoft.applicationinsights.extensibility.TelemetryProcessor#process(Telemetry)}.
+     * @param telemetry The telemetry to keep.
+     */
+    public static void detach(Telemetry telemetry) {
+        if (telemetry instanceof BaseTelemetry) {
+            ((BaseTelemetry<?>) telemetry).takePool();
+        }
+    }
+
+    @VisibleForTesting
+    int idleCount() {
+        int count = 0;
+        for (int i = 0; i < slots.length(); ++i) {
+            if (slots.get(i) != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void offer(Telemetry telemetry) {
+        T item = (T) telemetry;
+        item.resetForReuse();
+
+        int start = startIndex();
+        for (int i = 0; i < MAX_PROBES && i <= mask; ++i) {
+            int index = (start + i) & mask;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, item)) {
+                return;
+            }
+        }
+        // The pool is full, the instance is left to the garbage collector
+    }
+
+    private int startIndex() {
+        // Spreads threads over the slots to reduce contention
+        return (int) Thread.currentThread().getId() & mask;
+    }
+}
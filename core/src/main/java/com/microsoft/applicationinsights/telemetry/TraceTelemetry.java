@@ -90,6 +90,14 @@ public final class TraceTelemetry extends BaseSampleSourceTelemetry<MessageData>
         data.setMessage(message);
     }
 
+    @Override
+    void resetForReuse() {
+        super.resetForReuse();
+        data.setMessage("");
+        data.setSeverityLevel(null);
+        samplingPercentage = null;
+    }
+
     @Override
     @Deprecated
     protected void additionalSanitize() {
@@ -0,0 +1,233 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TestFramework.StubTelemetryChannel;
+import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.ThreadStateCapture;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class AsyncTrackPipelineTest {
+
+    private static final ThreadLocal<String> threadState = new ThreadLocal<>();
+
+    private static final ThreadStateCapture capture = new ThreadStateCapture() {
+        @Override
+        public Object capture() {
+            return threadState.get();
+        }
+
+        @Override
+        public void restore(Object state) {
+            if (state == null) {
+                threadState.remove();
+            } else {
+                threadState.set((String) state);
+            }
+        }
+    };
+
+    private final List<Telemetry> sent = new CopyOnWriteArrayList<>();
+    private final List<Thread> sendingThreads = new CopyOnWriteArrayList<>();
+    private TelemetryConfiguration configuration;
+    private TelemetryClient client;
+    private AsyncTrackPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        configuration.setChannel(new StubTelemetryChannel() {
+            @Override
+            public void send(Telemetry item) {
+                sent.add(item);
+                sendingThreads.add(Thread.currentThread());
+            }
+        });
+        client = new TelemetryClient(configuration);
+        AsyncTrackPipeline.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        AsyncTrackPipeline.setEnabled(false);
+        AsyncTrackPipeline.setOverflowPolicy(AsyncTrackPipeline.OverflowPolicy.RUN_ON_CALLER);
+        AsyncTrackPipeline.removeThreadStateCapture(capture);
+        AsyncTrackPipeline.setInstance(null);
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        threadState.remove();
+    }
+
+    @Test
+    public void itemsAreSentByTheWorkers() throws InterruptedException {
+        usePipeline(100, 2);
+
+        for (int i = 0; i < 50; ++i) {
+            client.track(new TraceTelemetry("message" + i));
+        }
+        client.flush();
+
+        Assert.assertEquals(50, sent.size());
+        for (Thread thread : sendingThreads) {
+            Assert.assertNotSame(Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void initializersSeeTheStateOfTheTrackingThread() throws InterruptedException {
+        usePipeline(100, 1);
+        AsyncTrackPipeline.addThreadStateCapture(capture);
+        final List<String> seen = new CopyOnWriteArrayList<>();
+        configuration.getTelemetryInitializers().add(new TelemetryInitializer() {
+            @Override
+            public void initialize(Telemetry telemetry) {
+                seen.add(String.valueOf(threadState.get()));
+            }
+        });
+
+        threadState.set("first");
+        client.track(new TraceTelemetry("first"));
+        threadState.set("second");
+        client.track(new TraceTelemetry("second"));
+        threadState.remove();
+        client.track(new TraceTelemetry("none"));
+        client.flush();
+
+        Assert.assertEquals(3, seen.size());
+        Assert.assertEquals("first", seen.get(0));
+        Assert.assertEquals("second", seen.get(1));
+        Assert.assertEquals("null", seen.get(2));
+    }
+
+    @Test
+    public void overflowIsDroppedWithDropPolicy() throws InterruptedException {
+        AsyncTrackPipeline.setOverflowPolicy(AsyncTrackPipeline.OverflowPolicy.DROP);
+        usePipeline(1, 1);
+        CountDownLatch release = blockWorker();
+
+        client.track(new TraceTelemetry("queued"));
+        client.track(new TraceTelemetry("dropped"));
+        release.countDown();
+        client.flush();
+
+        Assert.assertEquals(1, pipeline.getDroppedCount());
+        Assert.assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void overflowRunsOnCallerWithRunOnCallerPolicy() throws InterruptedException {
+        usePipeline(1, 1);
+        CountDownLatch release = blockWorker();
+
+        client.track(new TraceTelemetry("queued"));
+        client.track(new TraceTelemetry("on caller"));
+
+        Assert.assertEquals(1, sent.size());
+        Assert.assertSame(Thread.currentThread(), sendingThreads.get(0));
+
+        release.countDown();
+        client.flush();
+        Assert.assertEquals(3, sent.size());
+        Assert.assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void batchIsSentInOrderByOneWorker() throws InterruptedException {
+        usePipeline(100, 2);
+
+        List<Telemetry> batch = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            batch.add(new TraceTelemetry("message" + i));
+        }
+        client.trackAll(batch);
+        client.flush();
+
+        Assert.assertEquals(batch, sent);
+        Assert.assertEquals(1, new HashSet<>(sendingThreads).size());
+        Assert.assertNotSame(Thread.currentThread(), sendingThreads.get(0));
+    }
+
+    @Test
+    public void itemsAreTrackedOnCallerOnceStopped() throws InterruptedException {
+        usePipeline(100, 1);
+        CountDownLatch release = blockWorker();
+        TraceTelemetry queued = new TraceTelemetry("queued");
+        client.track(queued);
+
+        pipeline.stop();
+        Assert.assertTrue(sent.contains(queued));
+        Assert.assertSame(Thread.currentThread(), sendingThreads.get(sent.indexOf(queued)));
+        release.countDown();
+
+        TraceTelemetry afterStop = new TraceTelemetry("after stop");
+        client.track(afterStop);
+        Assert.assertTrue(sent.contains(afterStop));
+        Assert.assertSame(Thread.currentThread(), sendingThreads.get(sent.indexOf(afterStop)));
+
+        long start = System.nanoTime();
+        client.flush();
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 1);
+    }
+
+    private void usePipeline(int queueCapacity, int workerCount) {
+        pipeline = new AsyncTrackPipeline(queueCapacity, workerCount);
+        AsyncTrackPipeline.setInstance(pipeline);
+    }
+
+    // tracks an item that holds the only worker until the latch is released
+    private CountDownLatch blockWorker() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        configuration.getTelemetryProcessors().add(new TelemetryProcessor() {
+            @Override
+            public boolean process(Telemetry telemetry) {
+                if ("blocking".equals(((TraceTelemetry) telemetry).getMessage())) {
+                    entered.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return true;
+            }
+        });
+        client.track(new TraceTelemetry("blocking"));
+        Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+}
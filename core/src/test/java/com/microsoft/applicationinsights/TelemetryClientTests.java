@@ -22,6 +22,8 @@
 package com.microsoft.applicationinsights;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -29,6 +31,7 @@ import java.util.Date;
 import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
 
+import com.microsoft.applicationinsights.channel.BatchingTelemetryChannel;
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
@@ -506,6 +509,80 @@ public final class TelemetryClientTests {
         Mockito.verify(channel, Mockito.times(1)).send(rt);
     }
 
+    @Test
+    public void testTrackAllKeepsOrder() {
+        List<Telemetry> telemetries = new ArrayList<Telemetry>();
+        for (int i = 0; i < 5; ++i) {
+            telemetries.add(new EventTelemetry("Event" + i));
+        }
+
+        client.trackAll(telemetries);
+
+        assertEquals(telemetries, eventsSent);
+        for (Telemetry telemetry : eventsSent) {
+            assertEquals("00000000-0000-0000-0000-000000000000", telemetry.getContext().getInstrumentationKey());
+            assertNotNull(telemetry.getTimestamp());
+        }
+    }
+
+    @Test
+    public void testTrackAllFilterOutTelemetry() throws Throwable {
+        RequestTelemetryFilter filter = new RequestTelemetryFilter();
+        filter.setNotNeededResponseCodes("200-400");
+        configuration.getTelemetryProcessors().add(filter);
+
+        RequestTelemetry filtered = new RequestTelemetry();
+        filtered.setUrl(new URL("http:///www.microsoft.com/"));
+        EventTelemetry event = new EventTelemetry("Event");
+
+        client.trackAll(Arrays.<Telemetry>asList(filtered, event));
+
+        assertEquals(1, eventsSent.size());
+        assertEquals(event, eventsSent.get(0));
+    }
+
+    @Test
+    public void testTrackAllSendsTheRestOfTheBatchWhenAnItemHasNoInstrumentationKey() {
+        configuration.getTelemetryInitializers().add(new TelemetryInitializer() {
+            @Override
+            public void initialize(Telemetry telemetry) {
+                if ("No key".equals(((EventTelemetry) telemetry).getName())) {
+                    telemetry.getContext().setInstrumentationKey("");
+                }
+            }
+        });
+        EventTelemetry first = new EventTelemetry("Event1");
+        EventTelemetry last = new EventTelemetry("Event2");
+
+        client.trackAll(Arrays.<Telemetry>asList(first, new EventTelemetry("No key"), last));
+
+        assertEquals(Arrays.<Telemetry>asList(first, last), eventsSent);
+    }
+
+    @Test
+    public void testTrackAllUsesBatchingChannel() {
+        BatchingTelemetryChannel batchingChannel = mock(BatchingTelemetryChannel.class);
+        configuration.setChannel(batchingChannel);
+        List<Telemetry> telemetries = Arrays.<Telemetry>asList(new EventTelemetry("Event1"), new EventTelemetry("Event2"));
+
+        new TelemetryClient(configuration).trackAll(telemetries);
+
+        verify(batchingChannel, times(1)).sendAll(telemetries);
+        verify(batchingChannel, Mockito.never()).send(any(Telemetry.class));
+    }
+
+    @Test
+    public void testTrackAllWithEmptyCollection() {
+        client.trackAll(new ArrayList<Telemetry>());
+
+        verify(channel, Mockito.never()).send(any(Telemetry.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrackAllWithNullTelemetry() {
+        client.trackAll(Arrays.<Telemetry>asList(new EventTelemetry("Event"), null));
+    }
+
     // endregion Track tests
 
     // region Private methods
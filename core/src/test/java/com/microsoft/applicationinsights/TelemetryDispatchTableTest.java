@@ -0,0 +1,226 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import com.microsoft.applicationinsights.TestFramework.StubTelemetryChannel;
+import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.extensibility.TelemetryTypeAware;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class TelemetryDispatchTableTest {
+
+    private static class RecordingProcessor implements TelemetryProcessor {
+        final List<Telemetry> processed = new ArrayList<>();
+        boolean result = true;
+
+        @Override
+        public boolean process(Telemetry telemetry) {
+            processed.add(telemetry);
+            return result;
+        }
+    }
+
+    private static final class TraceOnlyProcessor extends RecordingProcessor implements TelemetryTypeAware {
+        @Override
+        public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+            return TraceTelemetry.class.isAssignableFrom(telemetryType);
+        }
+    }
+
+    private static final class TraceOnlyInitializer implements TelemetryInitializer, TelemetryTypeAware {
+        final List<Telemetry> initialized = new ArrayList<>();
+
+        @Override
+        public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+            return TraceTelemetry.class.isAssignableFrom(telemetryType);
+        }
+
+        @Override
+        public void initialize(Telemetry telemetry) {
+            initialized.add(telemetry);
+        }
+    }
+
+    private final List<Telemetry> sent = new ArrayList<>();
+    private TelemetryConfiguration configuration;
+    private TelemetryClient client;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        configuration.setChannel(new StubTelemetryChannel() {
+            @Override
+            public void send(Telemetry item) {
+                sent.add(item);
+            }
+        });
+        client = new TelemetryClient(configuration);
+    }
+
+    @Test
+    public void typeAwareStagesOnlySeeTheirTypes() {
+        TraceOnlyInitializer initializer = new TraceOnlyInitializer();
+        TraceOnlyProcessor traceProcessor = new TraceOnlyProcessor();
+        RecordingProcessor allProcessor = new RecordingProcessor();
+        configuration.getTelemetryInitializers().add(initializer);
+        configuration.getTelemetryProcessors().add(traceProcessor);
+        configuration.getTelemetryProcessors().add(allProcessor);
+
+        TraceTelemetry trace = new TraceTelemetry("message");
+        EventTelemetry event = new EventTelemetry("event");
+        client.track(trace);
+        client.track(event);
+
+        Assert.assertEquals(1, initializer.initialized.size());
+        Assert.assertSame(trace, initializer.initialized.get(0));
+        Assert.assertEquals(1, traceProcessor.processed.size());
+        Assert.assertSame(trace, traceProcessor.processed.get(0));
+        Assert.assertEquals(2, allProcessor.processed.size());
+        Assert.assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void processorsKeepTheConfigurationOrder() {
+        TraceOnlyProcessor first = new TraceOnlyProcessor();
+        first.result = false;
+        RecordingProcessor second = new RecordingProcessor();
+        configuration.getTelemetryProcessors().add(first);
+        configuration.getTelemetryProcessors().add(second);
+
+        client.track(new TraceTelemetry("message"));
+        client.track(new EventTelemetry("event"));
+
+        Assert.assertEquals(1, first.processed.size());
+        Assert.assertEquals(1, second.processed.size());
+        Assert.assertTrue(second.processed.get(0) instanceof EventTelemetry);
+        Assert.assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void tableIsRebuiltWhenTheListsChange() {
+        client.track(new TraceTelemetry("before"));
+        TelemetryDispatchTable before = configuration.getDispatchTable();
+
+        RecordingProcessor processor = new RecordingProcessor();
+        configuration.getTelemetryProcessors().add(processor);
+        client.track(new TraceTelemetry("added"));
+        Assert.assertNotSame(before, configuration.getDispatchTable());
+        Assert.assertEquals(1, processor.processed.size());
+
+        TelemetryDispatchTable added = configuration.getDispatchTable();
+        Assert.assertSame(added, configuration.getDispatchTable());
+
+        configuration.getTelemetryProcessors().remove(processor);
+        client.track(new TraceTelemetry("removed"));
+        Assert.assertEquals(1, processor.processed.size());
+
+        configuration.getTelemetryProcessors().add(processor);
+        configuration.getTelemetryProcessors().clear();
+        client.track(new TraceTelemetry("cleared"));
+        Assert.assertEquals(1, processor.processed.size());
+        Assert.assertEquals(4, sent.size());
+    }
+
+    @Test
+    public void tableIsRebuiltAfterBulkAndSubListModifications() {
+        RecordingProcessor first = new RecordingProcessor();
+        RecordingProcessor second = new RecordingProcessor();
+        final List<TelemetryProcessor> processors = configuration.getTelemetryProcessors();
+        processors.add(first);
+        processors.add(second);
+
+        TelemetryDispatchTable table = configuration.getDispatchTable();
+        Collections.sort(processors, new Comparator<TelemetryProcessor>() {
+            @Override
+            public int compare(TelemetryProcessor left, TelemetryProcessor right) {
+                return processors.indexOf(right) - processors.indexOf(left);
+            }
+        });
+        Assert.assertSame(second, processors.get(0));
+        Assert.assertNotSame(table, configuration.getDispatchTable());
+
+        table = configuration.getDispatchTable();
+        processors.subList(0, 1).clear();
+        Assert.assertNotSame(table, configuration.getDispatchTable());
+
+        table = configuration.getDispatchTable();
+        Iterator<TelemetryProcessor> iterator = processors.iterator();
+        iterator.next();
+        iterator.remove();
+        Assert.assertTrue(processors.isEmpty());
+        Assert.assertNotSame(table, configuration.getDispatchTable());
+
+        client.track(new TraceTelemetry("removed"));
+        Assert.assertTrue(first.processed.isEmpty());
+        Assert.assertTrue(second.processed.isEmpty());
+    }
+
+    @Test
+    public void listsCanBeModifiedWhileIterated() {
+        List<TelemetryProcessor> processors = configuration.getTelemetryProcessors();
+        processors.add(new RecordingProcessor());
+        processors.add(new RecordingProcessor());
+
+        int iterated = 0;
+        for (TelemetryProcessor processor : processors) {
+            processors.add(new RecordingProcessor());
+            ++iterated;
+        }
+        Assert.assertEquals(2, iterated);
+        Assert.assertEquals(4, processors.size());
+    }
+
+    @Test
+    public void failingTypeCheckAppliesToAllTypes() {
+        TelemetryProcessor processor = new ThrowingTypeCheckProcessor();
+        configuration.getTelemetryProcessors().add(processor);
+
+        client.track(new EventTelemetry("event"));
+
+        Assert.assertTrue(sent.isEmpty());
+    }
+
+    private static final class ThrowingTypeCheckProcessor implements TelemetryProcessor, TelemetryTypeAware {
+        @Override
+        public boolean appliesTo(Class<? extends Telemetry> telemetryType) {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public boolean process(Telemetry telemetry) {
+            return false;
+        }
+    }
+}
@@ -272,6 +272,53 @@ public final class TelemetryBufferTest {
         Mockito.verify(mockSender, Mockito.times(1)).sendNow(anyCollectionOf(String.class));
     }
 
+    @Test
+    public void testAddAllSchedulesSendOnce() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, createDefaultBatchSizeEnforcer(), createDefaultSenderTimeoutEnforcer());
+
+        List<String> telemetries = new ArrayList<String>();
+        for (int i = 0; i < 5; ++i) {
+            telemetries.add("mockTelemetry");
+        }
+        testedBuffer.addAll(telemetries);
+        testedBuffer.addAll(telemetries);
+
+        Mockito.verify(mockSender, Mockito.times(1)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
+        Mockito.verify(mockSender, Mockito.never()).sendNow(anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void testAddAllSendsEveryFullBuffer() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).sendNow(anyCollection());
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, createEnforcerWithCurrentValue(2), createDefaultSenderTimeoutEnforcer());
+
+        List<String> telemetries = new ArrayList<String>();
+        for (int i = 0; i < 5; ++i) {
+            telemetries.add("mockTelemetry");
+        }
+        testedBuffer.addAll(telemetries);
+
+        Mockito.verify(mockSender, Mockito.times(2)).sendNow(anyCollectionOf(String.class));
+        Mockito.verify(mockSender, Mockito.times(1)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testAddAllWithNullTelemetry() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, createDefaultBatchSizeEnforcer(), createDefaultSenderTimeoutEnforcer());
+
+        List<String> telemetries = new ArrayList<String>();
+        telemetries.add("mockTelemetry");
+        telemetries.add(null);
+        testedBuffer.addAll(telemetries);
+    }
+
 
     @Test
     public void testSendReturnsFalseOnScheduleSend() throws Exception {
@@ -0,0 +1,194 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * This class performs tests for AdaptiveSamplingTelemetryProcessor
+ */
+public class AdaptiveSamplingTelemetryProcessorTest {
+
+    @Test
+    public void allTelemetrySentUnderTheTargetRate() {
+        AdaptiveSamplingTelemetryProcessor processor = new AdaptiveSamplingTelemetryProcessor();
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertTrue(processor.process(createRequest(i)));
+        }
+        processor.evaluate(System.currentTimeMillis() + 1000);
+
+        Assert.assertEquals(100.0, processor.getSamplingPercentage(RequestTelemetry.class), 0.0);
+    }
+
+    @Test
+    public void samplingPercentageDropsWithinOneEvaluationOfABurst() {
+        AdaptiveSamplingTelemetryProcessor processor = createProcessor();
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 1000; ++i) {
+            processor.process(createRequest(i));
+        }
+        processor.evaluate(now + 1000);
+
+        // 5 items per second out of 1000
+        Assert.assertEquals(0.5, processor.getSamplingPercentage(RequestTelemetry.class), 0.0);
+
+        int sent = 0;
+        for (int i = 0; i < 10000; ++i) {
+            Telemetry request = createRequest(i);
+            if (processor.process(request)) {
+                ++sent;
+            }
+            Assert.assertEquals(0.5, ((SupportSampling) request).getSamplingPercentage(), 0.0);
+        }
+        Assert.assertTrue("Sent " + sent, sent > 20 && sent < 100);
+    }
+
+    @Test
+    public void samplingPercentageIsKeptPerType() {
+        AdaptiveSamplingTelemetryProcessor processor = createProcessor();
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 1000; ++i) {
+            processor.process(createRequest(i));
+        }
+        processor.process(new TraceTelemetry("mock"));
+        processor.evaluate(now + 1000);
+
+        // 4 items per second out of 1000, the trace keeps the rest of the 5 items per second
+        Assert.assertEquals(0.4, processor.getSamplingPercentage(RequestTelemetry.class), 0.0);
+        Assert.assertEquals(100.0, processor.getSamplingPercentage(TraceTelemetry.class), 0.0);
+    }
+
+    @Test
+    public void targetRateIsSharedBetweenTheTypes() {
+        AdaptiveSamplingTelemetryProcessor processor = createProcessor();
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 1000; ++i) {
+            processor.process(createRequest(i));
+            processor.process(createDependency(i));
+        }
+        for (int i = 0; i < 500; ++i) {
+            processor.process(new TraceTelemetry("mock"));
+        }
+        processor.evaluate(now + 1000);
+
+        // 5 items per second in total, 5/3 per type
+        double sum = 1000 * processor.getSamplingPercentage(RequestTelemetry.class)
+                + 1000 * processor.getSamplingPercentage(RemoteDependencyTelemetry.class)
+                + 500 * processor.getSamplingPercentage(TraceTelemetry.class);
+        Assert.assertTrue("Sent " + sum / 100, sum / 100 <= 5.0);
+        Assert.assertTrue("Sent " + sum / 100, sum / 100 > 4.0);
+    }
+
+    @Test
+    public void samplingPercentageIncreasesOnlyAfterTheTimeout() {
+        AdaptiveSamplingTelemetryProcessor processor = createProcessor();
+        processor.setSamplingPercentageIncreaseTimeoutInSeconds("30");
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 1000; ++i) {
+            processor.process(createRequest(i));
+        }
+        processor.evaluate(now + 1000);
+        Assert.assertEquals(0.5, processor.getSamplingPercentage(RequestTelemetry.class), 0.0);
+
+        for (int second = 2; second < 30; ++second) {
+            processor.evaluate(now + second * 1000);
+            Assert.assertEquals(0.5, processor.getSamplingPercentage(RequestTelemetry.class), 0.0);
+        }
+
+        processor.evaluate(now + 31000);
+        Assert.assertTrue(processor.getSamplingPercentage(RequestTelemetry.class) > 0.5);
+    }
+
+    @Test
+    public void operationsStayTogetherAcrossTypes() {
+        AdaptiveSamplingTelemetryProcessor processor = createProcessor();
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 1000; ++i) {
+            processor.process(createRequest(i));
+        }
+        for (int i = 0; i < 50; ++i) {
+            processor.process(createDependency(i));
+        }
+        processor.evaluate(now + 1000);
+        Assert.assertTrue(processor.getSamplingPercentage(RequestTelemetry.class)
+                < processor.getSamplingPercentage(RemoteDependencyTelemetry.class));
+
+        for (int i = 0; i < 10000; ++i) {
+            if (processor.process(createRequest(i))) {
+                Assert.assertTrue(processor.process(createDependency(i)));
+            }
+        }
+    }
+
+    @Test
+    public void userSetSamplingPercentageIsRespected() {
+        AdaptiveSamplingTelemetryProcessor processor = createProcessor();
+        RequestTelemetry request = createRequest(0);
+        request.setSamplingPercentage(0.0);
+
+        Assert.assertFalse(processor.process(request));
+    }
+
+    @Test
+    public void excludedTypesAreNotSampled() {
+        AdaptiveSamplingTelemetryProcessor processor = createProcessor();
+        processor.addToExcludedType("Request");
+        processor.setInitialSamplingPercentage("1");
+
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertTrue(processor.process(createRequest(i)));
+        }
+    }
+
+    @Test
+    public void invalidValueKeepsTheDefault() {
+        AdaptiveSamplingTelemetryProcessor processor = new AdaptiveSamplingTelemetryProcessor();
+        processor.setInitialSamplingPercentage("200");
+
+        Assert.assertEquals(AdaptiveSamplingTelemetryProcessor.DEFAULT_INITIAL_SAMPLING_PERCENTAGE,
+                processor.getSamplingPercentage(RequestTelemetry.class), 0.0);
+    }
+
+    @Test
+    public void percentagesAreRoundedToWholeRatios() {
+        Assert.assertEquals(100.0, AdaptiveSamplingTelemetryProcessor.toWholeRatio(100.0), 0.0);
+        Assert.assertEquals(50.0, AdaptiveSamplingTelemetryProcessor.toWholeRatio(60.0), 0.0);
+        Assert.assertEquals(100.0 / 3, AdaptiveSamplingTelemetryProcessor.toWholeRatio(40.0), 0.0);
+        Assert.assertEquals(0.5, AdaptiveSamplingTelemetryProcessor.toWholeRatio(0.5), 0.0);
+    }
+
+    private static AdaptiveSamplingTelemetryProcessor createProcessor() {
+        AdaptiveSamplingTelemetryProcessor processor = new AdaptiveSamplingTelemetryProcessor();
+        processor.setSamplingPercentageDecreaseTimeoutInSeconds("0");
+        return processor;
+    }
+
+    private static String createOperationId(int operation) {
+        // operation ids are random in practice, which the sampling score relies on
+        return new UUID(new Random(operation).nextLong(), operation).toString();
+    }
+
+    private static RequestTelemetry createRequest(int operation) {
+        RequestTelemetry request = new RequestTelemetry();
+        request.getContext().getOperation().setId(createOperationId(operation));
+        return request;
+    }
+
+    private static RemoteDependencyTelemetry createDependency(int operation) {
+        RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("mock");
+        dependency.getContext().getOperation().setId(createOperationId(operation));
+        return dependency;
+    }
+}
@@ -0,0 +1,89 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class performs tests for IngestionThrottling
+ */
+public class IngestionThrottlingTest {
+
+    private final IngestionThrottling throttling = IngestionThrottling.INSTANCE;
+
+    @Before
+    @After
+    public void reset() {
+        throttling.reset();
+    }
+
+    @Test
+    public void ratioIsHalvedWhenThrottled() {
+        throttling.onThrottled(1000);
+
+        Assert.assertEquals(0.5, throttling.getRateRatio(1000), 0.0);
+    }
+
+    @Test
+    public void throttlingWithinTheDecreaseIntervalIsCountedOnce() {
+        throttling.onThrottled(1000);
+        throttling.onThrottled(2000);
+        Assert.assertEquals(0.5, throttling.getRateRatio(2000), 0.0);
+
+        throttling.onThrottled(1000 + IngestionThrottling.DECREASE_INTERVAL_IN_MILLIS);
+        Assert.assertEquals(0.25, throttling.getRateRatio(1000 + IngestionThrottling.DECREASE_INTERVAL_IN_MILLIS), 0.0);
+    }
+
+    @Test
+    public void ratioFollowsTheAcceptedFraction() {
+        throttling.onPartiallyThrottled(1000, 100, 80);
+
+        Assert.assertEquals(0.2, throttling.getRateRatio(1000), 1e-9);
+    }
+
+    @Test
+    public void ratioIsBounded() {
+        throttling.onPartiallyThrottled(1000, 100, 100);
+
+        Assert.assertEquals(IngestionThrottling.MIN_RATIO, throttling.getRateRatio(1000), 0.0);
+    }
+
+    @Test
+    public void ratioRecoversGraduallyOnceThrottlingStops() {
+        throttling.onThrottled(0);
+
+        Assert.assertEquals(0.5, throttling.getRateRatio(IngestionThrottling.RECOVERY_DELAY_IN_MILLIS - 1), 0.0);
+
+        long now = IngestionThrottling.RECOVERY_DELAY_IN_MILLIS;
+        Assert.assertEquals(0.625, throttling.getRateRatio(now), 1e-9);
+        Assert.assertEquals(0.625, throttling.getRateRatio(now + 1), 1e-9);
+
+        now += IngestionThrottling.RECOVERY_INTERVAL_IN_MILLIS;
+        Assert.assertEquals(0.78125, throttling.getRateRatio(now), 1e-9);
+
+        for (int i = 0; i < 10; ++i) {
+            now += IngestionThrottling.RECOVERY_INTERVAL_IN_MILLIS;
+            throttling.getRateRatio(now);
+        }
+        Assert.assertEquals(1.0, throttling.getRateRatio(now), 0.0);
+    }
+
+    @Test
+    public void adaptiveSamplingTargetsTheThrottledRate() {
+        AdaptiveSamplingTelemetryProcessor processor = new AdaptiveSamplingTelemetryProcessor();
+        processor.setMaxTelemetryItemsPerSecond("10");
+        processor.setSamplingPercentageDecreaseTimeoutInSeconds("0");
+        long now = System.currentTimeMillis();
+
+        throttling.onThrottled(now);
+        for (int i = 0; i < 10; ++i) {
+            processor.process(new TraceTelemetry("message"));
+        }
+        processor.evaluate(now + 1000);
+
+        // 10 items per second, while 5 are targeted
+        Assert.assertEquals(50.0, processor.getSamplingPercentage(TraceTelemetry.class), 0.0);
+    }
+}
@@ -0,0 +1,198 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.TestFramework.StubTelemetryChannel;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This class performs tests for OperationSampling
+ */
+public class OperationSamplingTest {
+
+    private final List<Telemetry> processed = new ArrayList<>();
+    private final List<Telemetry> sent = new ArrayList<>();
+    private FixedRateSamplingTelemetryProcessor processor;
+    private TelemetryClient client;
+
+    @Before
+    public void setUp() {
+        processor = new FixedRateSamplingTelemetryProcessor();
+        processor.setSamplingPercentage("50");
+        processor.setDecideAtOperationStart("true");
+
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        configuration.setChannel(new StubTelemetryChannel() {
+            @Override
+            public void send(Telemetry item) {
+                sent.add(item);
+            }
+        });
+        // stands for the standard metrics processor, which runs before sampling
+        configuration.getTelemetryProcessors().add(new TelemetryProcessor() {
+            @Override
+            public boolean process(Telemetry telemetry) {
+                processed.add(telemetry);
+                return true;
+            }
+        });
+        configuration.getTelemetryProcessors().add(processor);
+        client = new TelemetryClient(configuration);
+    }
+
+    @After
+    public void tearDown() {
+        processor.setDecideAtOperationStart("false");
+        OperationSampling.setCurrent(null);
+    }
+
+    @Test
+    public void decisionMatchesTheProcessorDecision() {
+        for (int i = 0; i < 1000; ++i) {
+            String operationId = "operation" + i;
+            OperationSampling.Decision decision = OperationSampling.decide(operationId);
+
+            TraceTelemetry trace = new TraceTelemetry("message");
+            trace.getContext().getOperation().setId(operationId);
+            Assert.assertEquals(processor.process(trace), decision.isSampledIn());
+        }
+    }
+
+    @Test
+    public void everythingIsKeptWhenNotEnabled() {
+        processor.setDecideAtOperationStart("false");
+
+        OperationSampling.Decision decision = OperationSampling.decide("operation");
+        Assert.assertTrue(decision.isSampledIn());
+        Assert.assertEquals(SamplingScoreGeneratorV2.getSamplingScore("operation"), decision.getSamplingScore(), 0.0);
+        Assert.assertNull(OperationSampling.decide(""));
+    }
+
+    @Test
+    public void itemsOfSampledOutOperationsAreNotTracked() {
+        OperationSampling.setCurrent(sampledOutDecision());
+
+        client.trackTrace("message");
+
+        Assert.assertTrue(sent.isEmpty());
+        Assert.assertTrue(processed.isEmpty());
+        Assert.assertTrue(OperationSampling.isSampledOut(TraceTelemetry.class));
+        Assert.assertTrue(OperationSampling.isSampledOut(OperationSampling.getCurrent(), "Trace"));
+    }
+
+    @Test
+    public void requestsAndDependenciesOfSampledOutOperationsAreCountedBeforeBeingDropped() {
+        OperationSampling.Decision decision = sampledOutDecision();
+        OperationSampling.setCurrent(decision);
+
+        List<Telemetry> items = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            items.add(new RemoteDependencyTelemetry("SQL", "query", new Duration(1), true));
+        }
+        items.add(new RequestTelemetry("request", new Date(), 1, "200", true));
+        for (Telemetry item : items) {
+            // as set by the web operation id initializer
+            item.getContext().getOperation().setId(decision.getOperationId());
+        }
+        client.track(items.get(0));
+        client.trackAll(items.subList(1, items.size()));
+
+        Assert.assertEquals(items.size(), processed.size());
+        Assert.assertTrue(sent.isEmpty());
+        Assert.assertFalse(OperationSampling.isSampledOut(OperationSampling.getCurrent(), "Dependency"));
+    }
+
+    @Test
+    public void requestsAndTypesNotSampledAreNotDroppedEarly() {
+        processor.addToExcludedType("Exception");
+        OperationSampling.setCurrent(sampledOutDecision());
+
+        Assert.assertFalse(OperationSampling.isSampledOut(RequestTelemetry.class));
+        Assert.assertFalse(OperationSampling.isSampledOut(RemoteDependencyTelemetry.class));
+        Assert.assertFalse(OperationSampling.isSampledOut(ExceptionTelemetry.class));
+        Assert.assertFalse(OperationSampling.isSampledOut(new MetricTelemetry("metric", 1)));
+
+        client.trackException(new Exception());
+        Assert.assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void threadsStartedDuringASampledOutOperationDoNotInheritItsDecision() throws Exception {
+        OperationSampling.setCurrent(sampledOutDecision());
+
+        final List<Boolean> sampledOut = new ArrayList<>();
+        // as a pool thread created lazily while handling the operation, and reused for later work
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sampledOut.add(OperationSampling.getCurrent() != null);
+                sampledOut.add(OperationSampling.isSampledOut(TraceTelemetry.class));
+                sampledOut.add(OperationSampling.isSampledOut(new TraceTelemetry("later work")));
+                client.trackTrace("later work");
+            }
+        });
+        thread.start();
+        thread.join();
+
+        Assert.assertEquals(3, sampledOut.size());
+        Assert.assertFalse(sampledOut.contains(true));
+        Assert.assertEquals(1, processed.size());
+    }
+
+    @Test
+    public void itemsOfOtherOperationsAreLeftToTheProcessors() {
+        OperationSampling.Decision decision = sampledOutDecision();
+        OperationSampling.setCurrent(decision);
+
+        TraceTelemetry trace = new TraceTelemetry("message");
+        trace.getContext().getOperation().setId(decision.getOperationId() + "-other");
+        Assert.assertFalse(OperationSampling.isSampledOut(trace));
+    }
+
+    @Test
+    public void itemsOfSampledInOperationsAreTracked() {
+        OperationSampling.Decision decision = sampledInDecision();
+        OperationSampling.setCurrent(decision);
+
+        // as set by the web operation id initializer
+        TraceTelemetry trace = new TraceTelemetry("message");
+        trace.getContext().getOperation().setId(decision.getOperationId());
+        client.track(trace);
+
+        Assert.assertEquals(1, sent.size());
+    }
+
+    private static OperationSampling.Decision sampledOutDecision() {
+        for (int i = 0; ; ++i) {
+            OperationSampling.Decision decision = OperationSampling.decide("operation" + i);
+            if (!decision.isSampledIn()) {
+                return decision;
+            }
+        }
+    }
+
+    private static OperationSampling.Decision sampledInDecision() {
+        for (int i = 0; ; ++i) {
+            OperationSampling.Decision decision = OperationSampling.decide("operation" + i);
+            if (decision.isSampledIn()) {
+                return decision;
+            }
+        }
+    }
+}
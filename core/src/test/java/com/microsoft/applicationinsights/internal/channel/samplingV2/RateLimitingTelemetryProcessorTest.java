@@ -0,0 +1,177 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class performs tests for RateLimitingTelemetryProcessor
+ */
+public class RateLimitingTelemetryProcessorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void itemsAboveTheBurstAreDropped() {
+        RateLimitingTelemetryProcessor processor = createProcessor("10");
+
+        int kept = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (processor.process(createTrace("GET /a"), 0)) {
+                ++kept;
+            }
+        }
+
+        Assert.assertEquals(10, kept);
+    }
+
+    @Test
+    public void tokensAreRefilledAtTheRate() {
+        RateLimitingTelemetryProcessor processor = createProcessor("10");
+
+        int kept = 0;
+        // 1000 items per second for 10 seconds
+        for (int i = 0; i < 10000; ++i) {
+            if (processor.process(createTrace("GET /a"), i * SECOND / 1000)) {
+                ++kept;
+            }
+        }
+
+        Assert.assertTrue("Kept " + kept, kept >= 100 && kept <= 110);
+    }
+
+    @Test
+    public void keptItemsCarryTheEffectiveRate() {
+        RateLimitingTelemetryProcessor processor = createProcessor("10");
+
+        // first second, 200 items, the burst and the refill are kept
+        int kept = 0;
+        for (int i = 0; i < 200; ++i) {
+            if (processor.process(createTrace("GET /a"), i * SECOND / 200)) {
+                ++kept;
+            }
+        }
+        Assert.assertEquals(19, kept);
+
+        // one item of 20 is kept at that rate
+        TraceTelemetry trace = createTrace("GET /a");
+        Assert.assertTrue(processor.process(trace, SECOND));
+        Assert.assertEquals(100.0 / 20, trace.getSamplingPercentage(), 0.0);
+
+        for (int i = 201; i < 220; ++i) {
+            Assert.assertFalse(processor.process(createTrace("GET /a"), i * SECOND / 200));
+        }
+        TraceTelemetry sampled = createTrace("GET /a");
+        sampled.setSamplingPercentage(50.0);
+        Assert.assertTrue(processor.process(sampled, 220 * SECOND / 200));
+        Assert.assertEquals(50.0 / 20, sampled.getSamplingPercentage(), 1e-9);
+    }
+
+    @Test
+    public void burstFromIdleIsAccountedForByTheKeptItems() {
+        RateLimitingTelemetryProcessor processor = createProcessor("10");
+
+        // 200 items during the first second after being idle
+        double itemCount = 0;
+        int lastKept = -1;
+        for (int i = 0; i < 200; ++i) {
+            TraceTelemetry trace = createTrace("GET /a");
+            if (processor.process(trace, i * SECOND / 200)) {
+                itemCount += trace.getSamplingPercentage() == null ? 1 : 100.0 / trace.getSamplingPercentage();
+                lastKept = i;
+                if (i > 10) {
+                    Assert.assertTrue(trace.getSamplingPercentage() < 100.0);
+                }
+            }
+        }
+        Assert.assertEquals(lastKept + 1, itemCount, 1e-6);
+
+        // a burst shorter than a second is accounted for by the next kept item
+        processor = createProcessor("10");
+        for (int i = 0; i < 100; ++i) {
+            processor.process(createTrace("GET /a"), 0);
+        }
+        TraceTelemetry next = createTrace("GET /a");
+        Assert.assertTrue(processor.process(next, SECOND));
+        Assert.assertEquals(100.0 / 91, next.getSamplingPercentage(), 1e-9);
+    }
+
+    @Test
+    public void itemsUnderTheRateAreNotMarked() {
+        RateLimitingTelemetryProcessor processor = createProcessor("10");
+
+        for (int i = 0; i < 20; ++i) {
+            TraceTelemetry trace = createTrace("GET /a");
+            Assert.assertTrue(processor.process(trace, i * SECOND / 5));
+            Assert.assertNull(trace.getSamplingPercentage());
+        }
+    }
+
+    @Test
+    public void bucketsArePerTypeAndOperation() {
+        RateLimitingTelemetryProcessor processor = createProcessor("1");
+
+        Assert.assertTrue(processor.process(createTrace("GET /a"), 0));
+        Assert.assertFalse(processor.process(createTrace("GET /a"), 0));
+        Assert.assertTrue(processor.process(createTrace("GET /b"), 0));
+
+        RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("SQL");
+        dependency.getContext().getOperation().setName("GET /a");
+        Assert.assertTrue(processor.process(dependency, 0));
+
+        Assert.assertTrue(processor.process(new RequestTelemetry(), 0));
+        Assert.assertEquals(4, processor.getBucketCount());
+    }
+
+    @Test
+    public void operationsPastTheLimitShareABucket() {
+        RateLimitingTelemetryProcessor processor = createProcessor("1");
+        processor.setMaxBuckets("2");
+
+        Assert.assertTrue(processor.process(createTrace("GET /a"), 0));
+        Assert.assertTrue(processor.process(createTrace("GET /b"), 0));
+        Assert.assertTrue(processor.process(createTrace("GET /c"), 0));
+        Assert.assertFalse(processor.process(createTrace("GET /d"), 0));
+        Assert.assertEquals(2, processor.getBucketCount());
+    }
+
+    @Test
+    public void idleBucketsAreEvicted() {
+        RateLimitingTelemetryProcessor processor = createProcessor("1");
+        processor.setMaxBuckets("1");
+
+        Assert.assertTrue(processor.process(createTrace("GET /a"), 0));
+        Assert.assertTrue(processor.process(createTrace("GET /b"), 120 * SECOND));
+        Assert.assertEquals(1, processor.getBucketCount());
+        Assert.assertFalse(processor.process(createTrace("GET /b"), 120 * SECOND));
+    }
+
+    @Test
+    public void excludedTypesAndMetricsAreNotLimited() {
+        RateLimitingTelemetryProcessor processor = createProcessor("1");
+        processor.addToExcludedType("Trace");
+
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertTrue(processor.process(createTrace("GET /a"), 0));
+            Assert.assertTrue(processor.process(new MetricTelemetry("metric", i), 0));
+        }
+        Assert.assertEquals(0, processor.getBucketCount());
+    }
+
+    private static RateLimitingTelemetryProcessor createProcessor(String maxItemsPerSecond) {
+        RateLimitingTelemetryProcessor processor = new RateLimitingTelemetryProcessor();
+        processor.setMaxItemsPerSecond(maxItemsPerSecond);
+        return processor;
+    }
+
+    private static TraceTelemetry createTrace(String operationName) {
+        TraceTelemetry trace = new TraceTelemetry("message");
+        trace.getContext().getOperation().setName(operationName);
+        return trace;
+    }
+}
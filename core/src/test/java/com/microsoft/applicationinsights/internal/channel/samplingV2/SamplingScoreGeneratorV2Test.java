@@ -136,6 +136,28 @@ public class SamplingScoreGeneratorV2Test {
 
     }
 
+    @Test
+    public void samplingScoreOfTheCurrentOperationIsTakenFromItsDecision() {
+
+        String operationId1 = generateRandomOperationId();
+        String operationId2 = operationId1 + "0";
+
+        OperationSampling.Decision decision = OperationSampling.decide(operationId1);
+        OperationSampling.setCurrent(decision);
+        try {
+            Telemetry sameOperation = new EventTelemetry();
+            sameOperation.getContext().getOperation().setId(new String(operationId1));
+            Telemetry otherOperation = new EventTelemetry();
+            otherOperation.getContext().getOperation().setId(operationId2);
+
+            Assert.assertEquals((double) SamplingScoreGeneratorV2.getSamplingHashCode(operationId1) / Integer.MAX_VALUE * 100.0, decision.getSamplingScore(), 0.0);
+            Assert.assertEquals(decision.getSamplingScore(), SamplingScoreGeneratorV2.getSamplingScore(sameOperation), 0.0);
+            Assert.assertEquals(SamplingScoreGeneratorV2.getSamplingScore(operationId2), SamplingScoreGeneratorV2.getSamplingScore(otherOperation), 0.0);
+        } finally {
+            OperationSampling.setCurrent(null);
+        }
+    }
+
     private static String generateRandomUserId() {
         int max = 12;
         int min = 3;
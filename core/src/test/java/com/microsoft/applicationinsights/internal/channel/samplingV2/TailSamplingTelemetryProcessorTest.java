@@ -0,0 +1,258 @@
+package com.microsoft.applicationinsights.internal.channel.samplingV2;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.TestFramework.StubTelemetryChannel;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.TailSamplingTelemetryProcessor.Decision;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SupportSampling;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class performs tests for TailSamplingTelemetryProcessor
+ */
+public class TailSamplingTelemetryProcessorTest {
+
+    private static final class RecordingChannel extends StubTelemetryChannel {
+        private final List<Telemetry> sent = new ArrayList<>();
+
+        @Override
+        public void send(Telemetry item) {
+            sent.add(item);
+        }
+    }
+
+    private static final class RecordingProcessor implements TelemetryProcessor {
+        private final List<Telemetry> processed = new ArrayList<>();
+        private final Class<? extends Telemetry> denied;
+
+        private RecordingProcessor(Class<? extends Telemetry> denied) {
+            this.denied = denied;
+        }
+
+        @Override
+        public boolean process(Telemetry telemetry) {
+            processed.add(telemetry);
+            return !denied.isInstance(telemetry);
+        }
+    }
+
+    private final RecordingChannel channel = new RecordingChannel();
+    private final TelemetryConfiguration configuration = new TelemetryConfiguration();
+
+    @Test
+    public void childrenAreHeldUntilTheRequest() {
+        TailSamplingTelemetryProcessor processor = createProcessor("0");
+        String operationId = operationId(0);
+
+        Assert.assertFalse(processor.process(createTrace(operationId)));
+        Assert.assertFalse(processor.process(createDependency(operationId)));
+        Assert.assertEquals(2, processor.getBufferedItemCount());
+        Assert.assertTrue(channel.sent.isEmpty());
+
+        Assert.assertTrue(processor.process(createRequest(operationId, false, 10)));
+
+        Assert.assertEquals(0, processor.getBufferedItemCount());
+        Assert.assertEquals(2, channel.sent.size());
+        for (Telemetry telemetry : channel.sent) {
+            Assert.assertEquals(100.0, ((SupportSampling) telemetry).getSamplingPercentage(), 0.0);
+        }
+        Assert.assertEquals(1, processor.getDecisionCount(Decision.KeptFailed));
+    }
+
+    @Test
+    public void releasedItemsGoThroughTheProcessorsConfiguredAfterIt() {
+        TailSamplingTelemetryProcessor processor = createProcessor("0");
+        RecordingProcessor before = new RecordingProcessor(RequestTelemetry.class);
+        RecordingProcessor after = new RecordingProcessor(RemoteDependencyTelemetry.class);
+        configuration.getTelemetryProcessors().add(before);
+        configuration.getTelemetryProcessors().add(processor);
+        configuration.getTelemetryProcessors().add(after);
+        String operationId = operationId(0);
+
+        TraceTelemetry trace = createTrace(operationId);
+        Assert.assertFalse(processor.process(trace));
+        Assert.assertFalse(processor.process(createDependency(operationId)));
+        Assert.assertTrue(after.processed.isEmpty());
+
+        Assert.assertTrue(processor.process(createRequest(operationId, false, 10)));
+
+        Assert.assertTrue(before.processed.isEmpty());
+        Assert.assertEquals(2, after.processed.size());
+        Assert.assertEquals(1, channel.sent.size());
+        Assert.assertSame(trace, channel.sent.get(0));
+    }
+
+    @Test
+    public void slowOperationsAreKept() {
+        TailSamplingTelemetryProcessor processor = createProcessor("0");
+        String operationId = operationId(0);
+
+        processor.process(createTrace(operationId));
+        RequestTelemetry request = createRequest(operationId, true, 1000);
+        Assert.assertTrue(processor.process(request));
+
+        Assert.assertEquals(1, channel.sent.size());
+        Assert.assertEquals(100.0, request.getSamplingPercentage(), 0.0);
+        Assert.assertEquals(1, processor.getDecisionCount(Decision.KeptSlow));
+    }
+
+    @Test
+    public void fastSuccessfulOperationsAreDroppedWithTheirChildren() {
+        TailSamplingTelemetryProcessor processor = createProcessor("0");
+        String operationId = operationId(0);
+
+        processor.process(createTrace(operationId));
+        Assert.assertFalse(processor.process(createRequest(operationId, true, 10)));
+
+        Assert.assertTrue(channel.sent.isEmpty());
+        Assert.assertEquals(0, processor.getBufferedItemCount());
+        Assert.assertEquals(1, processor.getDecisionCount(Decision.Dropped));
+    }
+
+    @Test
+    public void failedOperationsAreNotKeptWhenDisabled() {
+        TailSamplingTelemetryProcessor processor = createProcessor("0");
+        processor.setKeepFailedRequests("false");
+
+        Assert.assertFalse(processor.process(createRequest(operationId(0), false, 10)));
+    }
+
+    @Test
+    public void itemsAfterTheDecisionFollowIt() {
+        TailSamplingTelemetryProcessor processor = createProcessor("0");
+        String kept = operationId(0);
+        String dropped = operationId(1);
+
+        processor.process(createRequest(kept, false, 10));
+        processor.process(createRequest(dropped, true, 10));
+
+        TraceTelemetry trace = createTrace(kept);
+        Assert.assertTrue(processor.process(trace));
+        Assert.assertEquals(100.0, trace.getSamplingPercentage(), 0.0);
+        Assert.assertFalse(processor.process(createTrace(dropped)));
+        Assert.assertEquals(0, processor.getBufferedItemCount());
+    }
+
+    @Test
+    public void itemRacingWithTheRequestFollowsItsDecision() {
+        TailSamplingTelemetryProcessor processor = createProcessor("0");
+        String operationId = operationId(0);
+        processor.process(createRequest(operationId, false, 10));
+
+        // as if process() had looked for a decision just before the request was tracked
+        TraceTelemetry trace = createTrace(operationId);
+        Assert.assertTrue(processor.buffer(operationId, trace));
+        Assert.assertEquals(100.0, trace.getSamplingPercentage(), 0.0);
+        Assert.assertEquals(0, processor.getBufferedItemCount());
+
+        processor.expire(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        Assert.assertEquals(0, processor.getDecisionCount(Decision.KeptOrphaned));
+        Assert.assertEquals(0, processor.getDecisionCount(Decision.DroppedOrphaned));
+        TraceTelemetry later = createTrace(operationId);
+        Assert.assertTrue(processor.process(later));
+        Assert.assertEquals(100.0, later.getSamplingPercentage(), 0.0);
+    }
+
+    @Test
+    public void baseRateKeepsWholeOperations() {
+        TailSamplingTelemetryProcessor processor = createProcessor("10");
+
+        int keptRequests = 0;
+        for (int i = 0; i < 10000; ++i) {
+            String operationId = operationId(i);
+            processor.process(createTrace(operationId));
+            RequestTelemetry request = createRequest(operationId, true, 10);
+            if (processor.process(request)) {
+                ++keptRequests;
+                Assert.assertEquals(10.0, request.getSamplingPercentage(), 0.0);
+            }
+        }
+
+        Assert.assertTrue("Kept " + keptRequests, keptRequests > 800 && keptRequests < 1200);
+        Assert.assertEquals(keptRequests, channel.sent.size());
+        Assert.assertEquals(0, processor.getBufferedItemCount());
+    }
+
+    @Test
+    public void orphanedOperationsAreSampledAtTheBaseRate() {
+        TailSamplingTelemetryProcessor processor = createProcessor("100");
+        processor.setOperationTimeoutInSeconds("30");
+
+        processor.process(createTrace(operationId(0)));
+        processor.expire(System.currentTimeMillis());
+        Assert.assertEquals(1, processor.getBufferedItemCount());
+
+        processor.expire(System.currentTimeMillis() + 30000);
+
+        Assert.assertEquals(0, processor.getBufferedItemCount());
+        Assert.assertEquals(1, channel.sent.size());
+        Assert.assertEquals(1, processor.getDecisionCount(Decision.KeptOrphaned));
+    }
+
+    @Test
+    public void itemsPastTheBufferLimitAreHeadSampled() {
+        TailSamplingTelemetryProcessor processor = createProcessor("100");
+        processor.setMaxBufferedItems("1");
+
+        Assert.assertFalse(processor.process(createTrace(operationId(0))));
+        TraceTelemetry trace = createTrace(operationId(1));
+        Assert.assertTrue(processor.process(trace));
+
+        Assert.assertEquals(100.0, trace.getSamplingPercentage(), 0.0);
+        Assert.assertEquals(1, processor.getBufferedItemCount());
+        Assert.assertEquals(1, processor.getDecisionCount(Decision.KeptOverflow));
+    }
+
+    @Test
+    public void itemsWithoutOperationOrAlreadySampledPassThrough() {
+        TailSamplingTelemetryProcessor processor = createProcessor("0");
+
+        Assert.assertTrue(processor.process(new TraceTelemetry("no operation")));
+
+        TraceTelemetry sampled = createTrace(operationId(0));
+        sampled.setSamplingPercentage(50.0);
+        Assert.assertTrue(processor.process(sampled));
+        Assert.assertEquals(0, processor.getBufferedItemCount());
+    }
+
+    private TailSamplingTelemetryProcessor createProcessor(String baseSamplingPercentage) {
+        configuration.setChannel(channel);
+        TailSamplingTelemetryProcessor processor = new TailSamplingTelemetryProcessor(configuration, false);
+        processor.setBaseSamplingPercentage(baseSamplingPercentage);
+        return processor;
+    }
+
+    private static String operationId(int i) {
+        return new UUID(new Random(i).nextLong(), i).toString();
+    }
+
+    private static RequestTelemetry createRequest(String operationId, boolean success, long durationMillis) {
+        RequestTelemetry request = new RequestTelemetry("GET /", new Date(), durationMillis, success ? "200" : "500", success);
+        request.getContext().getOperation().setId(operationId);
+        return request;
+    }
+
+    private static TraceTelemetry createTrace(String operationId) {
+        TraceTelemetry trace = new TraceTelemetry("message");
+        trace.getContext().getOperation().setId(operationId);
+        return trace;
+    }
+
+    private static RemoteDependencyTelemetry createDependency(String operationId) {
+        RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("SQL");
+        dependency.getContext().getOperation().setId(operationId);
+        return dependency;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.Date;
+import java.util.List;
+
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExceptionAggregationTelemetryProcessorTest {
+
+    @Test
+    public void testNoExceptionTelemetry() {
+        ExceptionAggregationTelemetryProcessor tested = new ExceptionAggregationTelemetryProcessor();
+
+        assertTrue(tested.process(new TraceTelemetry("mock")));
+    }
+
+    @Test
+    public void testFirstOccurrencesAreSentAndTheRestAreSummarized() throws Throwable {
+        ExceptionAggregationTelemetryProcessor tested = new ExceptionAggregationTelemetryProcessor();
+        tested.setMaxFullOccurrences("2");
+        tested.setWindowInSeconds("60");
+
+        long start = 1000000L;
+        for (int i = 0; i < 5; ++i) {
+            ExceptionTelemetry telemetry = createTelemetry("order " + i + " failed", start + i);
+            telemetry.getContext().getOperation().setId("operation" + i);
+            assertEquals(i < 2, tested.process(telemetry, start + i));
+        }
+
+        assertTrue(tested.flush(start + 1000).isEmpty());
+
+        List<ExceptionTelemetry> summaries = tested.flush(start + 60000);
+        assertEquals(1, summaries.size());
+        ExceptionTelemetry summary = summaries.get(0);
+        assertEquals(3.0, summary.getMetrics().get(ExceptionAggregationTelemetryProcessor.AGGREGATED_COUNT_NAME), 0.0);
+        assertEquals("operation2", summary.getContext().getOperation().getId());
+        assertEquals(new Date(start + 4), summary.getTimestamp());
+        assertNotNull(summary.getProperties().get(ExceptionAggregationTelemetryProcessor.FIRST_OCCURRENCE_PROPERTY));
+        assertNotNull(summary.getProperties().get(ExceptionAggregationTelemetryProcessor.LAST_OCCURRENCE_PROPERTY));
+        assertNotNull(summary.getProperties().get(ExceptionAggregationTelemetryProcessor.FINGERPRINT_PROPERTY));
+        assertEquals(IllegalStateException.class.getName(), summary.getExceptions().get(0).getTypeName());
+
+        // the summary itself goes through
+        assertTrue(tested.process(summary));
+    }
+
+    @Test
+    public void testNewWindowSendsOccurrencesAgain() throws Throwable {
+        ExceptionAggregationTelemetryProcessor tested = new ExceptionAggregationTelemetryProcessor();
+        tested.setMaxFullOccurrences("1");
+        tested.setWindowInSeconds("10");
+
+        long start = 1000000L;
+        long[] times = {start, start + 1, start + 10000};
+        boolean[] sent = new boolean[times.length];
+        for (int i = 0; i < times.length; ++i) {
+            sent[i] = tested.process(createTelemetry("mock", times[i]), times[i]);
+        }
+
+        assertTrue(sent[0]);
+        assertFalse(sent[1]);
+        assertTrue(sent[2]);
+
+        assertEquals(1, tested.flush(start + 10001).size());
+    }
+
+    @Test
+    public void testDifferentFingerprintsAreCountedSeparately() throws Throwable {
+        ExceptionAggregationTelemetryProcessor tested = new ExceptionAggregationTelemetryProcessor();
+        tested.setMaxFullOccurrences("1");
+
+        long start = 1000000L;
+        assertTrue(tested.process(createTelemetry("mock", start), start));
+        assertTrue(tested.process(new ExceptionTelemetry(new IllegalArgumentException("mock")), start));
+    }
+
+    @Test
+    public void testMessageTemplateMasksVariableWords() {
+        String first = ExceptionAggregationTelemetryProcessor.createFingerprint(new IllegalStateException("user 42 not found, id=3f2a9c1e"), 0);
+        String second = ExceptionAggregationTelemetryProcessor.createFingerprint(new IllegalStateException("user 7 not found, id=99aa00bb"), 0);
+        String third = ExceptionAggregationTelemetryProcessor.createFingerprint(new IllegalStateException("user name not found"), 0);
+
+        assertEquals(IllegalStateException.class.getName() + "|user # not found, id=#", first);
+        assertEquals(first, second);
+        assertNotEquals(first, third);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testIllegalWindow() throws Throwable {
+        new ExceptionAggregationTelemetryProcessor().setWindowInSeconds("abc");
+    }
+
+    private static ExceptionTelemetry createTelemetry(String message, long time) {
+        ExceptionTelemetry telemetry = new ExceptionTelemetry(createException(message));
+        telemetry.setTimestamp(new Date(time));
+        return telemetry;
+    }
+
+    private static Exception createException(String message) {
+        return new IllegalStateException(message);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RedactionTelemetryProcessorTest {
+    @Test
+    public void testNothingConfigured() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        TraceTelemetry telemetry = new TraceTelemetry("password=1234");
+
+        assertTrue(tested.process(telemetry));
+        assertEquals("password=1234", telemetry.getMessage());
+    }
+
+    @Test
+    public void testLiteralsInTraceMessage() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        tested.setLiteral("he");
+        tested.setLiteral("she");
+        tested.setLiteral("his");
+        tested.setLiteral("hers");
+        TraceTelemetry telemetry = new TraceTelemetry("ushers say this");
+
+        assertTrue(tested.process(telemetry));
+        assertEquals("u*** say t***", telemetry.getMessage());
+    }
+
+    @Test
+    public void testUnmatchedValueIsKept() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        tested.setLiteral("secret");
+        tested.setPattern("\\d{16}");
+        String message = "nothing to hide";
+        TraceTelemetry telemetry = new TraceTelemetry(message);
+
+        tested.process(telemetry);
+
+        assertSame(message, telemetry.getMessage());
+    }
+
+    @Test
+    public void testPatternsAndLiteralsInProperties() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        tested.setLiteral("my-key");
+        tested.setPattern("\\d{4}-\\d{4}-\\d{4}-\\d{4}");
+        tested.setPattern("password=[^&]*");
+        tested.setReplacement("[REDACTED]");
+        EventTelemetry telemetry = new EventTelemetry("Event");
+        telemetry.getProperties().put("card", "paid with 1234-5678-9012-3456 today");
+        telemetry.getProperties().put("query", "user=bob&password=hunter2&key=my-key");
+        telemetry.getProperties().put("other", "untouched");
+
+        assertTrue(tested.process(telemetry));
+        assertEquals("paid with [REDACTED] today", telemetry.getProperties().get("card"));
+        assertEquals("user=bob&[REDACTED]&key=[REDACTED]", telemetry.getProperties().get("query"));
+        assertEquals("untouched", telemetry.getProperties().get("other"));
+    }
+
+    @Test
+    public void testOverlappingMatchesAreReplacedOnce() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        tested.setLiteral("abc");
+        tested.setLiteral("cde");
+        tested.setPattern("e+f");
+        TraceTelemetry telemetry = new TraceTelemetry("xabcdeeefx");
+
+        tested.process(telemetry);
+
+        assertEquals("x***x", telemetry.getMessage());
+    }
+
+    @Test
+    public void testOverlappingPatternsAreAllReplaced() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        tested.setPattern("ab");
+        tested.setPattern("bcdef");
+        tested.setPattern("a");
+        tested.setPattern("ax\\d+");
+        TraceTelemetry telemetry = new TraceTelemetry("abcdefg ax123 y");
+
+        tested.process(telemetry);
+
+        assertEquals("***g *** y", telemetry.getMessage());
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        tested.setLiteral("Secret");
+        tested.setPattern("token:\\w+");
+        tested.setIgnoreCase("true");
+        TraceTelemetry telemetry = new TraceTelemetry("SECRET and TOKEN:abc and sEcReT");
+
+        tested.process(telemetry);
+
+        assertEquals("*** and *** and ***", telemetry.getMessage());
+    }
+
+    @Test
+    public void testNonAsciiLiteral() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        tested.setLiteral("m\u00fcller");
+        TraceTelemetry telemetry = new TraceTelemetry("user m\u00fcller logged in");
+
+        tested.process(telemetry);
+
+        assertEquals("user *** logged in", telemetry.getMessage());
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void testIllegalPattern() {
+        RedactionTelemetryProcessor tested = new RedactionTelemetryProcessor();
+        tested.setPattern("[unclosed");
+    }
+}
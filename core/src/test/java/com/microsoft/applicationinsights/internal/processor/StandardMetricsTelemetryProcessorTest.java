@@ -0,0 +1,156 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.channel.TelemetrySampler;
+import com.microsoft.applicationinsights.metrics.MetricManager;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public final class StandardMetricsTelemetryProcessorTest {
+
+    private final List<Telemetry> sent = new ArrayList<Telemetry>();
+    private MetricManager metricManager;
+    private StandardMetricsTelemetryProcessor tested;
+
+    @Before
+    public void setUp() {
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        configuration.setChannel(new TelemetryChannel() {
+            @Override
+            public boolean isDeveloperMode() {
+                return false;
+            }
+
+            @Override
+            public void setDeveloperMode(boolean value) {
+            }
+
+            @Override
+            public void send(Telemetry item) {
+                sent.add(item);
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void setSampler(TelemetrySampler telemetrySampler) {
+            }
+        });
+
+        metricManager = new MetricManager(new TelemetryClient(configuration));
+        tested = new StandardMetricsTelemetryProcessor(metricManager);
+    }
+
+    @Test
+    public void testRequestsAreCountedPerNameAndSuccess() {
+        assertTrue(tested.process(new RequestTelemetry("GET /orders", new Date(), 10, "200", true)));
+        assertTrue(tested.process(new RequestTelemetry("GET /orders", new Date(), 30, "200", true)));
+        assertTrue(tested.process(new RequestTelemetry("GET /orders", new Date(), 500, "500", false)));
+
+        metricManager.flush();
+
+        assertEquals(2, sent.size());
+        MetricTelemetry succeeded = find(StandardMetricsTelemetryProcessor.REQUEST_SUCCESS_DIMENSION, "True");
+        assertEquals(StandardMetricsTelemetryProcessor.REQUEST_DURATION_METRIC_NAME, succeeded.getName());
+        assertEquals("GET /orders", succeeded.getProperties().get(StandardMetricsTelemetryProcessor.OPERATION_NAME_DIMENSION));
+        assertEquals(Integer.valueOf(2), succeeded.getCount());
+        assertEquals(40.0, succeeded.getValue(), 0.0);
+        assertEquals(StandardMetricsTelemetryProcessor.REQUEST_METRIC_ID,
+                succeeded.getProperties().get(StandardMetricsTelemetryProcessor.METRIC_ID_PROPERTY));
+        assertEquals("True", succeeded.getProperties().get(StandardMetricsTelemetryProcessor.IS_AUTOCOLLECTED_PROPERTY));
+
+        MetricTelemetry failed = find(StandardMetricsTelemetryProcessor.REQUEST_SUCCESS_DIMENSION, "False");
+        assertEquals(Integer.valueOf(1), failed.getCount());
+    }
+
+    @Test
+    public void testDependenciesAreCountedPerTypeTargetAndSuccess() {
+        RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("orders-db", "SELECT", new Duration(5), false);
+        dependency.setType("SQL");
+        dependency.setTarget("db.local");
+
+        assertTrue(tested.process(dependency));
+        metricManager.flush();
+
+        assertEquals(1, sent.size());
+        MetricTelemetry failed = find(StandardMetricsTelemetryProcessor.DEPENDENCY_TARGET_DIMENSION, "db.local");
+        assertEquals(StandardMetricsTelemetryProcessor.DEPENDENCY_DURATION_METRIC_NAME, failed.getName());
+        assertEquals("SQL", failed.getProperties().get(StandardMetricsTelemetryProcessor.DEPENDENCY_TYPE_DIMENSION));
+        assertEquals("False", failed.getProperties().get(StandardMetricsTelemetryProcessor.DEPENDENCY_SUCCESS_DIMENSION));
+        assertEquals(5.0, failed.getValue(), 0.0);
+    }
+
+    @Test
+    public void testItemsAreMarkedAndCountedOnce() {
+        RequestTelemetry request = new RequestTelemetry("GET /orders", new Date(), 10, "200", true);
+
+        assertTrue(tested.process(request));
+        assertTrue(tested.process(request));
+        metricManager.flush();
+
+        assertNotNull(request.getProperties().get(StandardMetricsTelemetryProcessor.PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY));
+        assertEquals(Integer.valueOf(1), ((MetricTelemetry) sent.get(0)).getCount());
+    }
+
+    @Test
+    public void testOtherTelemetryIsIgnored() {
+        assertTrue(tested.process(new TraceTelemetry("mock")));
+        metricManager.flush();
+
+        assertTrue(sent.isEmpty());
+    }
+
+    private MetricTelemetry find(String property, String value) {
+        for (Telemetry telemetry : sent) {
+            if (value.equals(telemetry.getProperties().get(property))) {
+                return (MetricTelemetry) telemetry;
+            }
+        }
+        throw new AssertionError("No metric with " + property + "=" + value);
+    }
+}
@@ -24,6 +24,7 @@ package com.microsoft.applicationinsights.internal.quickpulse;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 
 /**
@@ -99,4 +100,13 @@ public class DefaultQuickPulseCoordinatorTest {
 
         Mockito.verify(mockPingSender, Mockito.atLeast(1)).ping();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void waitIsStretchedWhileTheServiceIsSlow() {
+        assertEquals(1000L, DefaultQuickPulseCoordinator.adaptWait(1000L, 0L));
+        assertEquals(1000L, DefaultQuickPulseCoordinator.adaptWait(1000L, 1000L));
+        assertEquals(2000L, DefaultQuickPulseCoordinator.adaptWait(1000L, 1001L));
+        assertEquals(3000L, DefaultQuickPulseCoordinator.adaptWait(1000L, 2500L));
+        assertEquals(1000L * DefaultQuickPulseCoordinator.MAX_WAIT_MULTIPLE, DefaultQuickPulseCoordinator.adaptWait(1000L, 60000L));
+    }
+}
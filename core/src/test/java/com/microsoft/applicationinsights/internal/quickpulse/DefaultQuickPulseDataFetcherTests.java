@@ -1,12 +1,17 @@
 package com.microsoft.applicationinsights.internal.quickpulse;
 
 import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import static org.junit.Assert.*;
 
@@ -22,6 +27,91 @@ public class DefaultQuickPulseDataFetcherTests {
         Assert.assertNotEquals("java:unknown", sdkVersion);
     }
 
+    @Test
+    public void unsentSampleIsNotQueuedBehind() {
+        final String ikey = "fake-instrumentation-key";
+        final ArrayBlockingQueue<HttpPost> sendQueue = new ArrayBlockingQueue<HttpPost>(1);
+        final DefaultQuickPulseDataFetcher dataFetcher = new DefaultQuickPulseDataFetcher(sendQueue, ikey, "instance", "stream");
+        final RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), 1L, "200", true);
+        rt.getContext().setInstrumentationKey(ikey);
+        QuickPulseDataCollector.INSTANCE.enable(ikey);
+        try {
+            QuickPulseDataCollector.INSTANCE.add(rt);
+            dataFetcher.prepareQuickPulseDataForSend();
+            final HttpPost first = sendQueue.peek();
+            assertNotNull(first);
+
+            // the sender has not taken the first post: the interval is coalesced into it
+            QuickPulseDataCollector.INSTANCE.add(rt);
+            dataFetcher.prepareQuickPulseDataForSend();
+            assertSame(first, sendQueue.peek());
+            assertEquals(2, QuickPulseDataCollector.INSTANCE.peek().requests);
+
+            sendQueue.poll();
+            QuickPulseDataCollector.INSTANCE.add(rt);
+            dataFetcher.prepareQuickPulseDataForSend();
+            assertEquals(1, sendQueue.size());
+            assertNotSame(first, sendQueue.peek());
+            assertEquals(3, QuickPulseDataCollector.INSTANCE.peek().requests);
+        } finally {
+            QuickPulseDataCollector.INSTANCE.disable();
+        }
+    }
+
+    @Test
+    public void sampleIsTakenWhenTheSenderTakesThePost() throws Exception {
+        final String ikey = "fake-instrumentation-key";
+        final ArrayBlockingQueue<HttpPost> sendQueue = new ArrayBlockingQueue<HttpPost>(1);
+        final DefaultQuickPulseDataFetcher dataFetcher = new DefaultQuickPulseDataFetcher(sendQueue, ikey, "instance", "stream");
+        final RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), 1L, "200", true);
+        rt.getContext().setInstrumentationKey(ikey);
+        QuickPulseDataCollector.INSTANCE.enable(ikey);
+        try {
+            dataFetcher.prepareQuickPulseDataForSend();
+            // tracked while the post waits for the sender
+            QuickPulseDataCollector.INSTANCE.add(rt);
+
+            DefaultQuickPulseDataFetcher.SamplePost post = (DefaultQuickPulseDataFetcher.SamplePost) sendQueue.poll();
+            assertNull(post.getEntity());
+            assertTrue(post.takeSample());
+
+            assertEquals(0, QuickPulseDataCollector.INSTANCE.peek().requests);
+            assertNotNull(post.getFirstHeader("x-ms-qps-transmission-time"));
+            String body = EntityUtils.toString(post.getEntity());
+            assertTrue(body, body.contains("\"Instance\": \"instance\""));
+            assertTrue(body, body.contains("Requests\\/Sec\",\"Value\": "));
+            assertFalse(body, body.contains("Requests\\/Sec\",\"Value\": 0.0,"));
+        } finally {
+            QuickPulseDataCollector.INSTANCE.disable();
+        }
+    }
+
+    @Test
+    public void durationsAreAveragedOverTheItems() throws Exception {
+        final String ikey = "fake-instrumentation-key";
+        final ArrayBlockingQueue<HttpPost> sendQueue = new ArrayBlockingQueue<HttpPost>(1);
+        final DefaultQuickPulseDataFetcher dataFetcher = new DefaultQuickPulseDataFetcher(sendQueue, ikey, "instance", "stream");
+        QuickPulseDataCollector.INSTANCE.enable(ikey);
+        try {
+            for (long duration : new long[] {10, 30}) {
+                final RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), duration, "200", true);
+                rt.getContext().setInstrumentationKey(ikey);
+                QuickPulseDataCollector.INSTANCE.add(rt);
+            }
+
+            dataFetcher.prepareQuickPulseDataForSend();
+            DefaultQuickPulseDataFetcher.SamplePost post = (DefaultQuickPulseDataFetcher.SamplePost) sendQueue.poll();
+            assertTrue(post.takeSample());
+
+            String body = EntityUtils.toString(post.getEntity());
+            assertTrue(body, body.contains("Request Duration\",\"Value\": 20.0,"));
+            // no dependency call in the interval
+            assertTrue(body, body.contains("Dependency Call Duration\",\"Value\": 0.0,"));
+        } finally {
+            QuickPulseDataCollector.INSTANCE.disable();
+        }
+    }
+
     @Test
     public void endpointIsFormattedCorrectlyWhenUsingConfig() {
         final TelemetryConfiguration config = new TelemetryConfiguration();
@@ -1,7 +1,5 @@
 package com.microsoft.applicationinsights.internal.quickpulse;
 
-import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.CountAndDuration;
-import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.Counters;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.FinalCounters;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
@@ -9,7 +7,9 @@ import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import org.junit.*;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -20,11 +20,13 @@ public class QuickPulseDataCollectorTests {
     @Before
     public void setup() {
         QuickPulseDataCollector.INSTANCE.disable();
+        QuickPulseDataCollector.INSTANCE.setDocumentStreams(QuickPulseDocumentStreams.DEFAULT);
     }
 
     @After
     public void tearDown() {
         QuickPulseDataCollector.INSTANCE.disable();
+        QuickPulseDataCollector.INSTANCE.setDocumentStreams(QuickPulseDocumentStreams.DEFAULT);
     }
 
     @Test
@@ -46,6 +48,43 @@ public class QuickPulseDataCollectorTests {
         assertNull(QuickPulseDataCollector.INSTANCE.peek());
     }
 
+    @Test
+    public void nothingIsCountedWhileSuspended() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+        assertTrue(QuickPulseDataCollector.INSTANCE.isCollecting());
+
+        QuickPulseDataCollector.INSTANCE.suspend();
+        assertFalse(QuickPulseDataCollector.INSTANCE.isCollecting());
+        ExceptionTelemetry et = new ExceptionTelemetry(new Exception());
+        et.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(et);
+        assertNull(QuickPulseDataCollector.INSTANCE.getAndRestart());
+
+        QuickPulseDataCollector.INSTANCE.resume();
+        assertTrue(QuickPulseDataCollector.INSTANCE.isCollecting());
+        assertCountersReset(QuickPulseDataCollector.INSTANCE.peek());
+        QuickPulseDataCollector.INSTANCE.add(et);
+        assertEquals(1, QuickPulseDataCollector.INSTANCE.getAndRestart().exceptions, Math.ulp(1.0));
+    }
+
+    @Test
+    public void resumeDoesNotEnable() {
+        QuickPulseDataCollector.INSTANCE.resume();
+        assertFalse(QuickPulseDataCollector.INSTANCE.isCollecting());
+        assertNull(QuickPulseDataCollector.INSTANCE.peek());
+    }
+
+    @Test
+    public void otherInstrumentationKeyIsNotCounted() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        ExceptionTelemetry et = new ExceptionTelemetry(new Exception());
+        et.getContext().setInstrumentationKey("other-instrumentation-key");
+        QuickPulseDataCollector.INSTANCE.add(et);
+
+        assertCountersReset(QuickPulseDataCollector.INSTANCE.peek());
+    }
+
     @Test
     public void requestTelemetryIsCounted_DurationIsSum() {
         QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
@@ -144,13 +183,200 @@ public class QuickPulseDataCollectorTests {
     }
 
     @Test
-    public void encodeDecodeIsIdentity() {
-        final long count = 456L;
-        final long duration = 112233L;
-        final long encoded = Counters.encodeCountAndDuration(count, duration);
-        final CountAndDuration inputs = Counters.decodeCountAndDuration(encoded);
-        assertEquals(count, inputs.count);
-        assertEquals(duration, inputs.duration);
+    public void countsAreExactBeyondFormerEncodingLimits() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        final int count = 600000;
+        final long duration = 1L << 26;
+        RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), duration, "200", true);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        for (int i = 0; i < count; ++i) {
+            QuickPulseDataCollector.INSTANCE.add(rt);
+        }
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(count, counters.requests);
+        assertEquals((double) count * duration, counters.requestsDuration, Math.ulp((double) count * duration));
+    }
+
+    @Test
+    public void concurrentAddsAreAllCounted() throws InterruptedException {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        final int threadCount = 8;
+        final int perThread = 10000;
+        final RemoteDependencyTelemetry rdt = new RemoteDependencyTelemetry("dep-test", "dep-test-cmd", new Duration(3L), false);
+        rdt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; ++j) {
+                        QuickPulseDataCollector.INSTANCE.add(rdt);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(threadCount * perThread, counters.rdds);
+        assertEquals(threadCount * perThread, counters.unsuccessfulRdds);
+        assertEquals(3.0 * threadCount * perThread, counters.rddsDuration, Math.ulp(3.0 * threadCount * perThread));
+    }
+
+    @Test
+    public void failuresAreStreamedAsDocuments() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        RequestTelemetry succeeded = new RequestTelemetry("request-ok", new Date(), 10L, "200", true);
+        succeeded.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        RequestTelemetry failed = new RequestTelemetry("request-failed", new Date(), 20L, "500", false);
+        failed.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(succeeded);
+        QuickPulseDataCollector.INSTANCE.add(failed);
+
+        List<QuickPulseDocument> documents = QuickPulseDataCollector.INSTANCE.getAndRestart().documents;
+        assertEquals(1, documents.size());
+        assertEquals("request-failed", documents.get(0).name);
+        assertEquals("Request", documents.get(0).documentType);
+        assertEquals(Collections.singletonList(QuickPulseDocumentStreams.DEFAULT_STREAM_ID), documents.get(0).documentStreamIds);
+
+        assertTrue(QuickPulseDataCollector.INSTANCE.peek().documents.isEmpty());
+    }
+
+    @Test
+    public void documentsAreLimitedPerStream() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        ExceptionTelemetry et = new ExceptionTelemetry(new Exception());
+        et.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        for (int i = 0; i < 3 * QuickPulseDocumentBuffer.MAX_DOCUMENTS_PER_STREAM; ++i) {
+            QuickPulseDataCollector.INSTANCE.add(et);
+        }
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(3 * QuickPulseDocumentBuffer.MAX_DOCUMENTS_PER_STREAM, counters.exceptions, Math.ulp(30.0));
+        assertEquals(QuickPulseDocumentBuffer.MAX_DOCUMENTS_PER_STREAM, counters.documents.size());
+    }
+
+    @Test
+    public void documentStreamsApplyFromTheNextInterval() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.setDocumentStreams(QuickPulseDocumentStreams.parse("etag-1",
+                "{\"DocumentStreams\":[{\"Id\":\"home\",\"DocumentFilterGroups\":[{\"TelemetryType\":\"Request\",\"Filters\":{\"Filters\":["
+                        + "{\"FieldName\":\"Name\",\"Predicate\":\"Equal\",\"Comparand\":\"GET /home\"}]}}]}]}"));
+        assertEquals("etag-1", QuickPulseDataCollector.INSTANCE.getDocumentStreamsETag());
+
+        RequestTelemetry rt = new RequestTelemetry("GET /home", new Date(), 10L, "200", true);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rt);
+        assertTrue(QuickPulseDataCollector.INSTANCE.getAndRestart().documents.isEmpty());
+
+        QuickPulseDataCollector.INSTANCE.add(rt);
+        List<QuickPulseDocument> documents = QuickPulseDataCollector.INSTANCE.getAndRestart().documents;
+        assertEquals(1, documents.size());
+        assertEquals(Collections.singletonList("home"), documents.get(0).documentStreamIds);
+    }
+
+    @Test
+    public void requestDurationPercentilesAreReported() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        for (int i = 1; i <= 100; ++i) {
+            RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), i * 10L, "200", true);
+            rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+            QuickPulseDataCollector.INSTANCE.add(rt);
+        }
+        RemoteDependencyTelemetry rdt = new RemoteDependencyTelemetry("dep-test", "dep-test-cmd", new Duration(5L), true);
+        rdt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rdt);
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(500.0, counters.requestsDurationP50, 500.0 * 0.016);
+        assertEquals(950.0, counters.requestsDurationP95, 950.0 * 0.016);
+        assertEquals(990.0, counters.requestsDurationP99, 990.0 * 0.016);
+        assertEquals(5.0, counters.rddsDurationP50, 0.0);
+        assertEquals(5.0, counters.rddsDurationP99, 0.0);
+
+        counters = QuickPulseDataCollector.INSTANCE.peek();
+        assertEquals(0.0, counters.requestsDurationP99, 0.0);
+        assertEquals(0.0, counters.rddsDurationP99, 0.0);
+    }
+
+    @Test
+    public void busiestAndMostFailingOperationsAreReported() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        for (int i = 0; i < QuickPulseDataCollector.TOP_OPERATIONS + 3; ++i) {
+            // operation i gets 100 - i requests, all successful
+            for (int j = 0; j < 100 - i; ++j) {
+                addRequest("GET /busy/" + i, true);
+            }
+        }
+        addRequest("GET /failing", false);
+        addRequest("GET /failing", false);
+        addRequest("GET /flaky", true);
+        addRequest("GET /flaky", false);
+
+        List<OperationTable.OperationCounts> operations = QuickPulseDataCollector.INSTANCE.getAndRestart().operations;
+        assertEquals(QuickPulseDataCollector.TOP_OPERATIONS + 2, operations.size());
+        for (int i = 0; i < QuickPulseDataCollector.TOP_OPERATIONS; ++i) {
+            assertEquals("GET /busy/" + i, operations.get(i).name);
+            assertEquals(100 - i, operations.get(i).requests);
+        }
+        OperationTable.OperationCounts failing = operations.get(QuickPulseDataCollector.TOP_OPERATIONS);
+        assertEquals("GET /failing", failing.name);
+        assertEquals(2, failing.requests);
+        assertEquals(2, failing.unsuccessfulRequests);
+        assertEquals("GET /flaky", operations.get(QuickPulseDataCollector.TOP_OPERATIONS + 1).name);
+
+        assertTrue(QuickPulseDataCollector.INSTANCE.peek().operations.isEmpty());
+    }
+
+    @Test
+    public void operationTableIsBounded() {
+        OperationTable table = new OperationTable();
+        for (int i = 0; i < 10 * OperationTable.CAPACITY; ++i) {
+            table.add("operation-" + i, true);
+        }
+        List<OperationTable.OperationCounts> operations = table.top(OperationTable.CAPACITY);
+        assertTrue(operations.size() <= OperationTable.CAPACITY);
+        assertFalse(operations.isEmpty());
+    }
+
+    @Test
+    public void busyOperationSeenOnceTheTableIsFullIsReported() {
+        OperationTable table = new OperationTable();
+        for (int i = 0; i < 10 * OperationTable.CAPACITY; ++i) {
+            table.add("operation-" + i, true);
+        }
+        for (int i = 0; i < 100; ++i) {
+            table.add("GET /busy", i % 10 != 0);
+        }
+
+        OperationTable.OperationCounts busiest = table.top(1).get(0);
+        assertEquals("GET /busy", busiest.name);
+        assertEquals(100, busiest.requests);
+        assertEquals(10, busiest.unsuccessfulRequests);
+    }
+
+    @Test
+    public void stripesArePowersOfTwo() {
+        assertEquals(1, StripedCounter.stripes(1));
+        assertEquals(4, StripedCounter.stripes(3));
+        assertEquals(8, StripedCounter.stripes(8));
+        assertEquals(32, StripedCounter.stripes(1000));
+    }
+
+    private static void addRequest(String name, boolean success) {
+        RequestTelemetry rt = new RequestTelemetry(name, new Date(), 1L, success ? "200" : "500", success);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rt);
     }
 
     private void assertCountersReset(FinalCounters counters) {
@@ -0,0 +1,120 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDocumentStreams.DocumentType;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class QuickPulseDocumentStreamsTest {
+
+    private static final String CONFIGURATION = "{\"ETag\":\"etag-1\",\"Metrics\":[],\"DocumentStreams\":["
+            + "{\"Id\":\"slow-checkout\",\"DocumentFilterGroups\":[{\"TelemetryType\":\"Request\",\"Filters\":{\"Filters\":["
+            + "{\"FieldName\":\"Name\",\"Predicate\":\"Contains\",\"Comparand\":\"checkout\"},"
+            + "{\"FieldName\":\"Duration\",\"Predicate\":\"GreaterThan\",\"Comparand\":\"00:00:01\"}]}}]},"
+            + "{\"Id\":\"sql\",\"DocumentFilterGroups\":[{\"TelemetryType\":\"Dependency\",\"Filters\":{\"Filters\":["
+            + "{\"FieldName\":\"Type\",\"Predicate\":\"Equal\",\"Comparand\":\"SQL\"}]}},"
+            + "{\"TelemetryType\":\"Exception\",\"Filters\":{\"Filters\":["
+            + "{\"FieldName\":\"CustomDimensions.db\",\"Predicate\":\"Equal\",\"Comparand\":\"orders\"}]}}]}"
+            + "]}";
+
+    @Test
+    public void defaultStreamMatchesFailuresAndExceptions() {
+        QuickPulseDocumentStreams streams = QuickPulseDocumentStreams.DEFAULT;
+        assertNull(streams.getETag());
+
+        RequestTelemetry failed = new RequestTelemetry("GET /", new Date(), 10L, "500", false);
+        RequestTelemetry succeeded = new RequestTelemetry("GET /", new Date(), 10L, "200", true);
+        RemoteDependencyTelemetry failedDependency = new RemoteDependencyTelemetry("dep", "cmd", new Duration(10), false);
+
+        assertEquals(1L, streams.match(failed, DocumentType.Request));
+        assertEquals(0L, streams.match(succeeded, DocumentType.Request));
+        assertEquals(1L, streams.match(failedDependency, DocumentType.Dependency));
+        assertEquals(1L, streams.match(new ExceptionTelemetry(new Exception()), DocumentType.Exception));
+    }
+
+    @Test
+    public void parsedFiltersAreAllRequired() {
+        QuickPulseDocumentStreams streams = QuickPulseDocumentStreams.parse("etag-1", CONFIGURATION);
+        assertEquals("etag-1", streams.getETag());
+        assertEquals("slow-checkout", streams.getStreamId(0));
+        assertEquals("sql", streams.getStreamId(1));
+
+        RequestTelemetry slow = new RequestTelemetry("POST /checkout", new Date(), 1500L, "200", true);
+        RequestTelemetry fast = new RequestTelemetry("POST /checkout", new Date(), 500L, "200", true);
+        RequestTelemetry other = new RequestTelemetry("GET /home", new Date(), 1500L, "200", true);
+        assertEquals(1L, streams.match(slow, DocumentType.Request));
+        assertEquals(0L, streams.match(fast, DocumentType.Request));
+        assertEquals(0L, streams.match(other, DocumentType.Request));
+    }
+
+    @Test
+    public void anyGroupOfAStreamMatches() {
+        QuickPulseDocumentStreams streams = QuickPulseDocumentStreams.parse("etag-1", CONFIGURATION);
+
+        RemoteDependencyTelemetry sql = new RemoteDependencyTelemetry("dep", "select 1", new Duration(10), true);
+        sql.setType("SQL");
+        RemoteDependencyTelemetry http = new RemoteDependencyTelemetry("dep", "GET /", new Duration(10), true);
+        http.setType("Http");
+        assertEquals(2L, streams.match(sql, DocumentType.Dependency));
+        assertEquals(0L, streams.match(http, DocumentType.Dependency));
+
+        ExceptionTelemetry exception = new ExceptionTelemetry(new Exception());
+        exception.getProperties().put("db", "orders");
+        assertEquals(2L, streams.match(exception, DocumentType.Exception));
+        assertEquals(0L, streams.match(new ExceptionTelemetry(new Exception()), DocumentType.Exception));
+    }
+
+    @Test
+    public void groupsWithUnsupportedFiltersAreDropped() {
+        String configuration = "{\"DocumentStreams\":[{\"Id\":\"s\",\"DocumentFilterGroups\":["
+                + "{\"TelemetryType\":\"Request\",\"Filters\":{\"Filters\":[{\"FieldName\":\"Unknown\",\"Predicate\":\"Equal\",\"Comparand\":\"x\"}]}},"
+                + "{\"TelemetryType\":\"Request\",\"Filters\":{\"Filters\":[{\"FieldName\":\"Name\",\"Predicate\":\"LessThan\",\"Comparand\":\"x\"}]}},"
+                + "{\"TelemetryType\":\"Event\",\"Filters\":{\"Filters\":[]}}]}]}";
+        QuickPulseDocumentStreams streams = QuickPulseDocumentStreams.parse("etag-2", configuration);
+
+        RequestTelemetry request = new RequestTelemetry("x", new Date(), 10L, "500", false);
+        assertEquals(0L, streams.match(request, DocumentType.Request));
+        assertEquals("etag-2", streams.getETag());
+    }
+
+    @Test
+    public void durationsAreParsedAsMillisecondsOrTimeSpans() {
+        assertEquals(250.0, QuickPulseDocumentStreams.parseDurationInMillis("250"), 0.0);
+        assertEquals(1500.0, QuickPulseDocumentStreams.parseDurationInMillis("00:00:01.5"), 1e-9);
+        assertEquals(3723000.0, QuickPulseDocumentStreams.parseDurationInMillis("01:02:03"), 0.0);
+        assertEquals(86400000.0 + 60000.0, QuickPulseDocumentStreams.parseDurationInMillis("1.00:01:00"), 0.0);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void malformedDurationIsRejected() {
+        QuickPulseDocumentStreams.parseDurationInMillis("01:02");
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getPercentile(99), 0.0);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; ++i) {
+            histogram.record(i);
+        }
+
+        assertEquals(5.0, histogram.getPercentile(50), 0.0);
+        assertEquals(10.0, histogram.getPercentile(100), 0.0);
+        assertEquals(1.0, histogram.getPercentile(0), 0.0);
+        assertEquals(55, histogram.getSum());
+    }
+
+    @Test
+    public void testPercentilesAreWithinTheRelativeError() {
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; ++i) {
+            // log-normal like spread from a few milliseconds to minutes
+            values[i] = (long) Math.exp(3 + 2 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] {50, 90, 95, 99, 99.9}) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            double actual = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + expected + " vs " + actual, Math.abs(actual - expected) <= expected * 0.016 + 0.5);
+        }
+    }
+
+    @Test
+    public void testBucketsCoverTheRange() {
+        int previous = -1;
+        for (long value = 0; value <= LatencyHistogram.MAX_VALUE; value = value * 2 + 1) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index > previous || value == 0);
+            assertTrue(index < LatencyHistogram.BUCKET_COUNT);
+            double middle = LatencyHistogram.bucketMiddle(index);
+            assertTrue(value + " vs " + middle, Math.abs(middle - value) <= value / 64.0 + 0.5);
+            previous = index;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    public void testLargeAndNegativeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void testLargerRange() {
+        long hourInNanos = TimeUnit.HOURS.toNanos(1);
+        LatencyHistogram histogram = new LatencyHistogram(hourInNanos);
+        histogram.record(TimeUnit.SECONDS.toNanos(5));
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(TimeUnit.SECONDS.toNanos(5), histogram.getPercentile(50), TimeUnit.SECONDS.toNanos(5) * 0.016);
+        assertEquals(hourInNanos, histogram.getMax());
+
+        LatencyHistogram other = new LatencyHistogram(hourInNanos);
+        histogram.drainTo(other);
+        assertEquals(2, other.getCount());
+        try {
+            new LatencyHistogram().merge(other);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 1; i <= 50; ++i) {
+            first.record(i);
+            second.record(50 + i);
+        }
+
+        first.merge(second);
+
+        assertEquals(100, first.getCount());
+        assertEquals(1, first.getMin());
+        assertEquals(100, first.getMax());
+        assertEquals(50.0, first.getPercentile(50), 1.0);
+        assertEquals(50, second.getCount());
+    }
+
+    @Test
+    public void testDrainMovesTheValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram target = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(20);
+
+        histogram.drainTo(target);
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getPercentile(50), 0.0);
+        assertEquals(2, target.getCount());
+        assertEquals(10, target.getMin());
+        assertEquals(20, target.getMax());
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.microsoft.applicationinsights.internal.processor.StandardMetricsTelemetryProcessor;
+import com.microsoft.applicationinsights.internal.schemav2.DataPointType;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class MetricManagerTest {
+
+    @Test
+    public void testValuesAreAggregatedPerSeries() {
+        MetricManager manager = createManager();
+        Metric metric = manager.getMetric("latency", "region");
+
+        metric.trackValue(1, "west");
+        metric.trackValue(2, "west");
+        metric.trackValue(3, "west");
+        metric.trackValue(10, "east");
+
+        List<MetricTelemetry> aggregates = manager.collect(System.currentTimeMillis());
+        assertEquals(2, aggregates.size());
+
+        MetricTelemetry west = findByDimension(aggregates, "region", "west");
+        assertEquals("latency", west.getName());
+        assertEquals(DataPointType.Aggregation, west.getKind());
+        assertEquals(6.0, west.getValue(), 0.0);
+        assertEquals(Integer.valueOf(3), west.getCount());
+        assertEquals(1.0, west.getMin(), 0.0);
+        assertEquals(3.0, west.getMax(), 0.0);
+        assertEquals(Math.sqrt(2.0 / 3.0), west.getStandardDeviation(), 1e-9);
+        assertTrue(west.getProperties().containsKey(MetricManager.AGGREGATION_INTERVAL_PROPERTY));
+
+        MetricTelemetry east = findByDimension(aggregates, "region", "east");
+        assertEquals(Integer.valueOf(1), east.getCount());
+        assertEquals(0.0, east.getStandardDeviation(), 0.0);
+    }
+
+    @Test
+    public void testCollectStartsANewInterval() {
+        MetricManager manager = createManager();
+        Metric metric = manager.getMetric("requests");
+
+        metric.trackValue(1);
+        assertEquals(1, manager.collect(System.currentTimeMillis()).size());
+        assertTrue(manager.collect(System.currentTimeMillis()).isEmpty());
+
+        metric.trackValue(5);
+        List<MetricTelemetry> aggregates = manager.collect(System.currentTimeMillis());
+        assertEquals(1, aggregates.size());
+        assertEquals(5.0, aggregates.get(0).getValue(), 0.0);
+    }
+
+    @Test
+    public void testNonFiniteValuesAreIgnored() {
+        MetricManager manager = createManager();
+        Metric metric = manager.getMetric("requests");
+
+        metric.trackValue(Double.NaN);
+        metric.trackValue(Double.POSITIVE_INFINITY);
+
+        assertTrue(manager.collect(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void testSameMetricIsReturned() {
+        MetricManager manager = createManager();
+
+        assertSame(manager.getMetric("requests", "region"), manager.getMetric("requests", "region"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMetricWithOtherDimensionsThrows() {
+        MetricManager manager = createManager();
+        manager.getMetric("requests", "region");
+
+        manager.getMetric("requests", "host");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongNumberOfDimensionValuesThrows() {
+        MetricManager manager = createManager();
+
+        manager.getMetric("requests", "region").trackValue(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRepeatedDimensionNameThrows() {
+        createManager().getMetric("requests", "region", "region");
+    }
+
+    @Test
+    public void testConcurrentValuesAreAllCounted() throws InterruptedException {
+        final MetricManager manager = createManager();
+        final Metric metric = manager.getMetric("requests");
+        final int threadCount = 4;
+        final int valuesPerThread = 100000;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < valuesPerThread; ++j) {
+                        metric.trackValue(1);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        // collecting while the values are tracked must not lose any of them
+        long total = 0;
+        while (done.getCount() > 0) {
+            total += sumOfCounts(manager.collect(System.currentTimeMillis()));
+        }
+        done.await();
+        total += sumOfCounts(manager.collect(System.currentTimeMillis()));
+
+        assertEquals((long) threadCount * valuesPerThread, total);
+    }
+
+    @Test
+    public void testSeriesBeyondTheMetricCapAreTrackedAsOther() {
+        MetricManager manager = new MetricManager(null, 0, 2, 100, 100);
+        Metric metric = manager.getMetric("requests", "user", "region");
+
+        for (int i = 0; i < 10; ++i) {
+            metric.trackValue(1, "user" + i, "west");
+        }
+
+        List<MetricTelemetry> aggregates = manager.collect(System.currentTimeMillis());
+        assertEquals(3, aggregates.size());
+        MetricTelemetry overflow = findByDimension(aggregates, "user", Metric.OVERFLOW_DIMENSION_VALUE);
+        assertEquals(Metric.OVERFLOW_DIMENSION_VALUE, overflow.getProperties().get("region"));
+        assertEquals(Integer.valueOf(8), overflow.getCount());
+        assertEquals(10, sumOfCounts(aggregates));
+
+        // the existing series keep their own values
+        metric.trackValue(1, "user0", "west");
+        assertEquals(Integer.valueOf(1), findByDimension(manager.collect(System.currentTimeMillis()), "user", "user0").getCount());
+    }
+
+    @Test
+    public void testSeriesBeyondTheGlobalCapAreTrackedAsOther() {
+        MetricManager manager = new MetricManager(null, 0, 100, 3, 100);
+        Metric first = manager.getMetric("first", "user");
+        Metric second = manager.getMetric("second", "user");
+
+        for (int i = 0; i < 3; ++i) {
+            first.trackValue(1, "user" + i);
+        }
+        second.trackValue(1, "user0");
+
+        List<MetricTelemetry> aggregates = manager.collect(System.currentTimeMillis());
+        assertEquals(4, aggregates.size());
+        MetricTelemetry overflow = findByDimension(aggregates, "user", Metric.OVERFLOW_DIMENSION_VALUE);
+        assertEquals("second", overflow.getName());
+    }
+
+    @Test
+    public void testOverflowMergesWithTrackedOtherValue() {
+        MetricManager manager = new MetricManager(null, 0, 2, 100, 100);
+        Metric metric = manager.getMetric("requests", "user");
+
+        metric.trackValue(1, Metric.OVERFLOW_DIMENSION_VALUE);
+        metric.trackValue(1, "user0");
+        metric.trackValue(1, "user1");
+
+        List<MetricTelemetry> aggregates = manager.collect(System.currentTimeMillis());
+        assertEquals(2, aggregates.size());
+        assertEquals(Integer.valueOf(2), findByDimension(aggregates, "user", Metric.OVERFLOW_DIMENSION_VALUE).getCount());
+    }
+
+    @Test
+    public void testNullDimensionValueIsTrackedAsEmpty() {
+        MetricManager manager = createManager();
+        Metric metric = manager.getMetric("requests", "user");
+
+        metric.trackValue(1, (String) null);
+        metric.trackValue(1, "");
+
+        List<MetricTelemetry> aggregates = manager.collect(System.currentTimeMillis());
+        assertEquals(1, aggregates.size());
+        assertEquals(Integer.valueOf(2), aggregates.get(0).getCount());
+    }
+
+    @Test
+    public void testSeriesIndexStaysAtMostHalfFull() {
+        final int seriesCount = 50000;
+        MetricManager manager = new MetricManager(null, 0, seriesCount, seriesCount, 100);
+        Metric metric = manager.getMetric("requests", "user");
+        for (int i = 0; i < seriesCount; ++i) {
+            metric.trackValue(1, "user" + i);
+        }
+        assertEquals(seriesCount, manager.collect(System.currentTimeMillis()).size());
+
+        SeriesIndex index = new SeriesIndex();
+        for (int i = 0; i < seriesCount; ++i) {
+            index.add(new MetricSeries(new String[] { "user" + i }));
+        }
+        assertEquals(seriesCount, index.size());
+        // the smallest power of two keeping the table at most half full, one reference per slot
+        assertEquals(131072, index.capacity());
+        for (int i = 0; i < seriesCount; ++i) {
+            assertNotNull(index.get(new String[] { "user" + i }));
+        }
+        assertNull(index.get(new String[] { "user" + seriesCount }));
+    }
+
+    @Test
+    public void testMemoryPerSeries() {
+        final int seriesCount = 50000;
+        SeriesIndex index = new SeriesIndex();
+        for (int i = 0; i < seriesCount; ++i) {
+            index.add(new MetricSeries(new String[] { "user" + i }));
+        }
+
+        // computed from the fields rather than measured on the heap, as laid out by a 64 bit JVM with compressed references
+        long series = shallowSize(MetricSeries.class);
+        long dimensionValues = align(16 + 4);
+        long accumulator = shallowSize(MetricSeries.Accumulator.class);
+        long slots = 4L * index.capacity() / seriesCount;
+        assertEquals(24, series);
+        assertEquals(56, accumulator);
+
+        // documented as about 110 bytes per series with one dimension, and about 60 bytes per accumulator
+        long perSeries = series + dimensionValues + accumulator + slots;
+        assertTrue("Bytes per series: " + perSeries, perSeries >= 100 && perSeries <= 120);
+    }
+
+    @Test
+    public void testDurationsAreAggregatedPerNameAndResultCode() {
+        MetricManager manager = createManager();
+        for (int i = 1; i <= 100; ++i) {
+            manager.trackDuration(createRequest("GET /orders", "200", i));
+        }
+        manager.trackDuration(createRequest("GET /orders", "500", 1000));
+        manager.trackDuration(createDependency("orders-db", "0", 5));
+        manager.trackDuration(new TraceTelemetry("ignored"));
+
+        List<MetricTelemetry> aggregates = manager.collect(System.currentTimeMillis());
+        assertEquals(3, aggregates.size());
+
+        MetricTelemetry ok = findByDimension(aggregates, DurationHistograms.RESULT_CODE_PROPERTY, "200");
+        assertEquals(MetricManager.REQUEST_DURATION_METRIC_NAME, ok.getName());
+        assertEquals("GET /orders", ok.getProperties().get(DurationHistograms.OPERATION_NAME_PROPERTY));
+        assertEquals(Integer.valueOf(100), ok.getCount());
+        assertEquals(5050.0, ok.getValue(), 0.0);
+        assertEquals(1.0, ok.getMin(), 0.0);
+        assertEquals(100.0, ok.getMax(), 0.0);
+        assertEquals(50.0, Double.parseDouble(ok.getProperties().get(DurationHistograms.PERCENTILE_50_PROPERTY)), 1.0);
+        assertEquals(95.0, Double.parseDouble(ok.getProperties().get(DurationHistograms.PERCENTILE_95_PROPERTY)), 1.0);
+        assertEquals(99.0, Double.parseDouble(ok.getProperties().get(DurationHistograms.PERCENTILE_99_PROPERTY)), 1.0);
+
+        MetricTelemetry dependency = findByDimension(aggregates, DurationHistograms.OPERATION_NAME_PROPERTY, "orders-db");
+        assertEquals(MetricManager.DEPENDENCY_DURATION_METRIC_NAME, dependency.getName());
+
+        assertTrue(manager.collect(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void testDurationsOfItemsWithExtractedStandardMetricsAreNotRecordedAgain() {
+        MetricManager manager = createManager();
+        RequestTelemetry request = createRequest("GET /orders", "200", 10);
+        manager.trackDuration(request);
+        // as marked by the standard metrics processor, which runs after
+        request.getProperties().put(StandardMetricsTelemetryProcessor.PROCESSED_BY_METRIC_EXTRACTORS_PROPERTY, "(Name:'Requests', Ver:'1.1')");
+        // tracked again
+        manager.trackDuration(request);
+
+        MetricTelemetry histogram = findByDimension(manager.collect(System.currentTimeMillis()),
+                DurationHistograms.RESULT_CODE_PROPERTY, "200");
+        assertEquals(Integer.valueOf(1), histogram.getCount());
+    }
+
+    @Test
+    public void testDurationsBeyondTheHistogramCapAreRecordedAsOther() {
+        MetricManager manager = new MetricManager(null, 0, 100, 100, 2);
+        for (int i = 0; i < 5; ++i) {
+            manager.trackDuration(createRequest("GET /users/" + i, "200", 10));
+        }
+
+        List<MetricTelemetry> aggregates = manager.collect(System.currentTimeMillis());
+        assertEquals(3, aggregates.size());
+        MetricTelemetry overflow = findByDimension(aggregates, DurationHistograms.OPERATION_NAME_PROPERTY, Metric.OVERFLOW_DIMENSION_VALUE);
+        assertEquals(Integer.valueOf(3), overflow.getCount());
+    }
+
+    private static RequestTelemetry createRequest(String name, String responseCode, long durationInMillis) {
+        return new RequestTelemetry(name, new Date(), durationInMillis, responseCode, true);
+    }
+
+    private static RemoteDependencyTelemetry createDependency(String name, String resultCode, long durationInMillis) {
+        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(name);
+        telemetry.setResultCode(resultCode);
+        telemetry.setDuration(new Duration(durationInMillis));
+        return telemetry;
+    }
+
+    private static long shallowSize(Class<?> type) {
+        long size = 12;
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Class<?> fieldType = field.getType();
+            if (fieldType == long.class || fieldType == double.class) {
+                size += 8;
+            } else if (fieldType == short.class || fieldType == char.class) {
+                size += 2;
+            } else if (fieldType == byte.class || fieldType == boolean.class) {
+                size += 1;
+            } else {
+                // int, float and compressed references
+                size += 4;
+            }
+        }
+        return align(size);
+    }
+
+    private static long align(long size) {
+        return (size + 7) / 8 * 8;
+    }
+
+    private static MetricManager createManager() {
+        return new MetricManager(null, 0, MetricManager.DEFAULT_MAX_SERIES_PER_METRIC, MetricManager.DEFAULT_MAX_SERIES,
+                MetricManager.DEFAULT_MAX_DURATION_HISTOGRAMS);
+    }
+
+    private static long sumOfCounts(List<MetricTelemetry> aggregates) {
+        long sum = 0;
+        for (MetricTelemetry aggregate : aggregates) {
+            sum += aggregate.getCount();
+        }
+        return sum;
+    }
+
+    private static MetricTelemetry findByDimension(List<MetricTelemetry> aggregates, String name, String value) {
+        List<MetricTelemetry> found = new ArrayList<MetricTelemetry>();
+        for (MetricTelemetry aggregate : aggregates) {
+            if (value.equals(aggregate.getProperties().get(name))) {
+                found.add(aggregate);
+            }
+        }
+        assertEquals(1, found.size());
+        return found.get(0);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.management.Attribute;
+import javax.management.ObjectName;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.TestFramework.StubTelemetryChannel;
+import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class PipelineLatencyTest {
+
+    private static final class NoopInitializer implements TelemetryInitializer {
+        @Override
+        public void initialize(Telemetry telemetry) {
+        }
+    }
+
+    private static final class NoopProcessor implements TelemetryProcessor {
+        @Override
+        public boolean process(Telemetry telemetry) {
+            return true;
+        }
+    }
+
+    private TelemetryClient client;
+
+    @Before
+    public void setUp() {
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        configuration.setChannel(new StubTelemetryChannel());
+        configuration.getTelemetryInitializers().add(new NoopInitializer());
+        configuration.getTelemetryProcessors().add(new NoopProcessor());
+        client = new TelemetryClient(configuration);
+        PipelineLatency.reset();
+    }
+
+    @After
+    public void tearDown() {
+        PipelineLatency.setEnabled(false);
+        PipelineLatency.setSampleInterval(PipelineLatency.DEFAULT_SAMPLE_INTERVAL);
+        PipelineLatency.reset();
+    }
+
+    @Test
+    public void nothingIsRecordedWhenDisabled() {
+        for (int i = 0; i < 100; ++i) {
+            client.track(new TraceTelemetry("message"));
+        }
+
+        assertTrue(PipelineLatency.getStages().isEmpty());
+    }
+
+    @Test
+    public void stagesInitializersAndProcessorsAreRecorded() {
+        PipelineLatency.setEnabled(true);
+        PipelineLatency.setSampleInterval(1);
+
+        for (int i = 0; i < 10; ++i) {
+            client.track(new TraceTelemetry("message"));
+        }
+
+        List<StageLatency> stages = PipelineLatency.getStages();
+        assertEquals(10, find(stages, "Track.ContextInitialization").getCount());
+        assertEquals(10, find(stages, "Track.Initializers").getCount());
+        assertEquals(10, find(stages, "Track.Processors").getCount());
+        assertEquals(10, find(stages, "Track.ChannelSend").getCount());
+        assertEquals(10, find(stages, "Initializer." + NoopInitializer.class.getName()).getCount());
+        assertEquals(10, find(stages, "Processor." + NoopProcessor.class.getName()).getCount());
+        assertNull(find(stages, "Track.Enqueue"));
+        // Quick Pulse is skipped while no live metrics session is active
+        assertNull(find(stages, "Track.QuickPulse"));
+    }
+
+    @Test
+    public void onlySampledItemsAreTimed() {
+        PipelineLatency.setEnabled(true);
+        PipelineLatency.setSampleInterval(10);
+
+        int sampled = 0;
+        for (int i = 0; i < 10000; ++i) {
+            if (PipelineLatency.shouldSample()) {
+                ++sampled;
+            }
+        }
+
+        assertTrue(String.valueOf(sampled), sampled > 800 && sampled < 1200);
+    }
+
+    @Test
+    public void collectSendsTheIntervalAndKeepsTheTotals() {
+        PipelineLatency.setEnabled(true);
+        PipelineLatency.setSampleInterval(1);
+        client.track(new TraceTelemetry("message"));
+
+        List<MetricTelemetry> metrics = new ArrayList<MetricTelemetry>();
+        PipelineLatency.collect(metrics);
+
+        MetricTelemetry processors = null;
+        for (MetricTelemetry metric : metrics) {
+            assertEquals(PipelineLatency.METRIC_NAME, metric.getName());
+            if ("Track.Processors".equals(metric.getProperties().get(PipelineLatency.STAGE_PROPERTY))) {
+                processors = metric;
+            }
+        }
+        assertNotNull(processors);
+        assertEquals(Integer.valueOf(1), processors.getCount());
+        assertNotNull(processors.getProperties().get(DurationHistograms.PERCENTILE_99_PROPERTY));
+
+        List<MetricTelemetry> next = new ArrayList<MetricTelemetry>();
+        PipelineLatency.collect(next);
+        assertTrue(next.isEmpty());
+        assertEquals(1, find(PipelineLatency.getStages(), "Track.Processors").getCount());
+    }
+
+    @Test
+    public void settingsAreExposedThroughJmx() throws Exception {
+        PipelineLatency.setEnabled(true);
+        PipelineLatency.setSampleInterval(1);
+        client.track(new TraceTelemetry("message"));
+
+        ObjectName name = PipelineLatency.getObjectName();
+        assertEquals(Boolean.TRUE, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Enabled"));
+        assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Stages"));
+
+        ManagementFactory.getPlatformMBeanServer().setAttribute(name, new Attribute("Enabled", false));
+        assertFalse(PipelineLatency.isEnabled());
+    }
+
+    @Test
+    public void mbeanIsRegisteredPerClassLoaderOnceEnabledUntilShutdown() throws Exception {
+        PipelineLatency.setEnabled(true);
+        ObjectName name = PipelineLatency.getObjectName();
+        assertNotNull(name);
+        assertEquals("PipelineLatency", name.getKeyProperty("type"));
+        assertNotNull(name.getKeyProperty(PipelineLatency.LOADER_KEY));
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+        // as done by the SDK shutdown
+        PipelineLatency.unregisterMBean();
+        assertNull(PipelineLatency.getObjectName());
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+        PipelineLatency.setEnabled(true);
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(PipelineLatency.getObjectName()));
+    }
+
+    @Test
+    public void latenciesOfSecondsAreNotCapped() {
+        PipelineLatency.TRACK_PROCESSORS.record(TimeUnit.SECONDS.toNanos(5));
+
+        assertEquals(TimeUnit.SECONDS.toMicros(5), find(PipelineLatency.getStages(), "Track.Processors").getMaxInMicros(), 0.0);
+    }
+
+    private static StageLatency find(List<StageLatency> stages, String name) {
+        for (StageLatency stage : stages) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+}
@@ -1,8 +1,12 @@
 package com.microsoft.applicationinsights.telemetry;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.microsoft.applicationinsights.extensibility.context.ContextTagKeys;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.*;
@@ -55,4 +59,55 @@ public class ContextTagsMapTests {
         assertEquals(customValue, map.get(customKey));
     }
 
+
+    @Test
+    public void serializedTagsAreCachedUntilModified() {
+        map.put(ContextTagKeys.getKeys().getCloudRole(), "role");
+        ContextTagsMap.SerializedTags first = map.getSerializedTags();
+        assertSame(first, map.getSerializedTags());
+
+        map.put(ContextTagKeys.getKeys().getCloudRoleInstance(), "instance");
+        ContextTagsMap.SerializedTags second = map.getSerializedTags();
+        assertNotSame(first, second);
+        assertTrue(second.containsKey(ContextTagKeys.getKeys().getCloudRoleInstance()));
+    }
+
+    @Test
+    public void tagsInitializedFromSharedContextSerializeAllTags() throws IOException {
+        TelemetryContext shared = new TelemetryContext();
+        shared.getCloud().setRole("role \"quoted\"");
+        shared.getDevice().setOperatingSystem("Linux");
+
+        TraceTelemetry telemetry = new TraceTelemetry("message");
+        telemetry.getContext().getOperation().setId("operation-id");
+        telemetry.getContext().initialize(shared);
+
+        JsonObject tags = serializeTags(telemetry);
+        assertEquals(3, tags.size());
+        assertEquals("role \"quoted\"", tags.get(ContextTagKeys.getKeys().getCloudRole()).getAsString());
+        assertEquals("Linux", tags.get(ContextTagKeys.getKeys().getDeviceOS()).getAsString());
+        assertEquals("operation-id", tags.get(ContextTagKeys.getKeys().getOperationId()).getAsString());
+    }
+
+    @Test
+    public void itemOverridingSharedTagIsSerializedWithItsOwnValue() throws IOException {
+        TelemetryContext shared = new TelemetryContext();
+        shared.getCloud().setRole("shared-role");
+
+        TraceTelemetry telemetry = new TraceTelemetry("message");
+        telemetry.getContext().initialize(shared);
+        telemetry.getContext().getCloud().setRole("item-role");
+
+        JsonObject tags = serializeTags(telemetry);
+        assertEquals(1, tags.size());
+        assertEquals("item-role", tags.get(ContextTagKeys.getKeys().getCloudRole()).getAsString());
+    }
+
+    private static JsonObject serializeTags(Telemetry telemetry) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer serializer = new JsonTelemetryDataSerializer(writer);
+        telemetry.serialize(serializer);
+        serializer.close();
+        return new JsonParser().parse(writer.toString()).getAsJsonObject().getAsJsonObject("tags");
+    }
 }
@@ -22,7 +22,13 @@
 package com.microsoft.applicationinsights.telemetry;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.applicationinsights.internal.schemav2.StackFrame;
 import org.junit.Test;
 
 import static org.hamcrest.Matchers.hasSize;
@@ -31,6 +37,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
 
 public final class ExceptionTelemetryTest {
 
@@ -98,6 +105,62 @@ public final class ExceptionTelemetryTest {
         assertSame(error, telemetry.getThrowable());
     }
 
+    @Test
+    public void testSetExceptionReplacesExceptions() {
+        ExceptionTelemetry telemetry = new ExceptionTelemetry(new IOException("mocka", new IllegalArgumentException("mockb")));
+        telemetry.setException(new IllegalStateException("mockc"));
+
+        assertThat(telemetry.getExceptions(), hasSize(1));
+        assertEquals("mockc", telemetry.getExceptions().get(0).getMessage());
+    }
+
+    @Test
+    public void testExceptionsFromSameStackTraceShareFrames() {
+        ExceptionTelemetry[] telemetries = new ExceptionTelemetry[2];
+        for (int i = 0; i < telemetries.length; ++i) {
+            telemetries[i] = new ExceptionTelemetry(createException("mock" + i));
+        }
+
+        List<StackFrame> first = telemetries[0].getExceptions().get(0).getParsedStack();
+        List<StackFrame> second = telemetries[1].getExceptions().get(0).getParsedStack();
+        assertSame(first, second);
+        assertNotSame(telemetries[0].getExceptions().get(0), telemetries[1].getExceptions().get(0));
+        assertEquals("mock1", telemetries[1].getExceptions().get(0).getMessage());
+    }
+
+    @Test
+    public void testSerializedStackFrames() throws IOException {
+        Exception exception = createException("mock");
+        ExceptionTelemetry telemetry = new ExceptionTelemetry(exception);
+        telemetry.getContext().setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+        telemetry.serialize(jsonWriter);
+        jsonWriter.close();
+
+        JsonObject details = new JsonParser().parse(writer.toString()).getAsJsonObject()
+                .getAsJsonObject("data").getAsJsonObject("baseData")
+                .getAsJsonArray("exceptions").get(0).getAsJsonObject();
+        JsonArray parsedStack = details.getAsJsonArray("parsedStack");
+        StackTraceElement[] trace = exception.getStackTrace();
+        int nonNativeFrames = 0;
+        for (StackTraceElement element : trace) {
+            if (!element.isNativeMethod()) {
+                ++nonNativeFrames;
+            }
+        }
+        assertEquals(nonNativeFrames, parsedStack.size());
+        JsonObject frame = parsedStack.get(0).getAsJsonObject();
+        assertEquals(0, frame.get("level").getAsInt());
+        assertEquals(trace[0].getClassName() + "." + trace[0].getMethodName(), frame.get("method").getAsString());
+        assertEquals(trace[0].getLineNumber(), frame.get("line").getAsInt());
+    }
+
+    private static Exception createException(String message) {
+        return new IllegalStateException(message);
+    }
+
     private static void testSeverityLevel(SeverityLevel severityLevel) {
         ExceptionTelemetry telemetry = new ExceptionTelemetry(new IllegalArgumentException("mockb"));
 
@@ -279,6 +279,28 @@ public class JsonTelemetryDataSerializerTest {
         assertEquals("0x0021\t", recoveryMap.get("s2"));
     }
 
+    @Test
+    public void testEscapingOfControlCharacters() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("s1", "a\"b\u0001c\u007fd", 100);
+        tested.close();
+
+        assertEquals("{\"s1\":\"a\\\"b\\u0001c\\u007fd\"}", stringWriter.toString());
+    }
+
+    @Test
+    public void testTruncationOfStringsWithAndWithoutEscaping() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("s1", "abcdefghij", 7);
+        tested.write("s2", "ab\ncdefghij", 7);
+        tested.write("s3", "abc\u0001", 10);
+        tested.close();
+
+        assertEquals("{\"s1\":\"abcde\",\"s2\":\"ab\\nc\",\"s3\":\"abc\"}", stringWriter.toString());
+    }
+
     @Test
     public void testEmptyAndDefaultSanitization() throws IOException {
         TestClassWithStrings testClassWithStrings = new TestClassWithStrings();
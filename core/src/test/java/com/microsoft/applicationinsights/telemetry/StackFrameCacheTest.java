@@ -0,0 +1,76 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public final class StackFrameCacheTest {
+
+    @Test
+    public void testSameTraceIsConvertedOnce() {
+        StackFrameCache cache = new StackFrameCache(2);
+        StackTraceElement[] trace = createTrace("method1");
+
+        assertSame(cache.get(trace), cache.get(trace.clone()));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTraceIsEvicted() {
+        StackFrameCache cache = new StackFrameCache(2);
+        StackFrameCache.Frames first = cache.get(createTrace("method1"));
+        StackFrameCache.Frames second = cache.get(createTrace("method2"));
+        cache.get(createTrace("method1"));
+        cache.get(createTrace("method3"));
+
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get(createTrace("method1")));
+        assertNotSame(second, cache.get(createTrace("method2")));
+    }
+
+    @Test
+    public void testNativeFramesAreSkipped() {
+        StackTraceElement[] trace = new StackTraceElement[] {
+                new StackTraceElement("MockClass", "nativeMethod", null, -2),
+                new StackTraceElement("MockClass", "method", "MockClass.java", 10)
+        };
+
+        StackFrameCache.Frames frames = new StackFrameCache(2).get(trace);
+
+        assertEquals(1, frames.size());
+        assertEquals(1, frames.get(0).getLevel());
+        assertEquals("MockClass.method", frames.get(0).getMethod());
+        assertEquals("MockClass.java", frames.get(0).getFileName());
+        assertEquals(10, frames.get(0).getLine());
+    }
+
+    private static StackTraceElement[] createTrace(String methodName) {
+        return new StackTraceElement[] {
+                new StackTraceElement("MockClass", methodName, "MockClass.java", 10),
+                new StackTraceElement("MockCaller", "call", "MockCaller.java", 20)
+        };
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class TelemetryPoolTest {
+
+    private TelemetryPool<TraceTelemetry> pool;
+
+    @Before
+    public void setUp() {
+        TelemetryPool.setEnabled(true);
+        pool = new TelemetryPool<TraceTelemetry>(4) {
+            @Override
+            protected TraceTelemetry create() {
+                return new TraceTelemetry();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        TelemetryPool.setEnabled(false);
+    }
+
+    @Test
+    public void testRecycledInstanceIsReused() {
+        TraceTelemetry first = pool.acquire();
+        TelemetryPool.recycle(first);
+
+        assertEquals(1, pool.idleCount());
+        assertSame(first, pool.acquire());
+        assertEquals(0, pool.idleCount());
+    }
+
+    @Test
+    public void testRecycledInstanceIsReset() {
+        TraceTelemetry telemetry = pool.acquire();
+        telemetry.setMessage("MockMessage");
+        telemetry.setSeverityLevel(SeverityLevel.Error);
+        telemetry.setSamplingPercentage(50.0);
+        telemetry.getContext().getProperties().put("key", "value");
+        telemetry.getContext().getOperation().setId("MockOperationId");
+        telemetry.getContext().setInstrumentationKey("MockKey");
+
+        TelemetryPool.recycle(telemetry);
+
+        assertEquals("", telemetry.getMessage());
+        assertNull(telemetry.getSeverityLevel());
+        assertNull(telemetry.getSamplingPercentage());
+        assertNull(telemetry.getTimestamp());
+        assertNull(telemetry.getContext().getInstrumentationKey());
+        assertTrue(telemetry.getProperties().isEmpty());
+        assertTrue(telemetry.getContext().getTags().isEmpty());
+    }
+
+    @Test
+    public void testReacquiredInstancesHaveNoSamplingPercentage() {
+        TraceTelemetry trace = pool.acquire();
+        trace.setSamplingPercentage(25.0);
+        TelemetryPool.recycle(trace);
+        assertSame(trace, pool.acquire());
+        assertNull(trace.getSamplingPercentage());
+
+        TelemetryPool<RemoteDependencyTelemetry> dependencies = new TelemetryPool<RemoteDependencyTelemetry>(4) {
+            @Override
+            protected RemoteDependencyTelemetry create() {
+                return new RemoteDependencyTelemetry();
+            }
+        };
+        RemoteDependencyTelemetry dependency = dependencies.acquire();
+        dependency.setSamplingPercentage(25.0);
+        TelemetryPool.recycle(dependency);
+        assertSame(dependency, dependencies.acquire());
+        assertNull(dependency.getSamplingPercentage());
+    }
+
+    @Test
+    public void testInstanceIsRecycledOnlyOnce() {
+        TraceTelemetry telemetry = pool.acquire();
+        TelemetryPool.recycle(telemetry);
+        TelemetryPool.recycle(telemetry);
+
+        assertEquals(1, pool.idleCount());
+    }
+
+    @Test
+    public void testInstanceNotFromPoolIsNotTouched() {
+        TraceTelemetry telemetry = new TraceTelemetry("MockMessage");
+        TelemetryPool.recycle(telemetry);
+
+        assertEquals("MockMessage", telemetry.getMessage());
+        assertEquals(0, pool.idleCount());
+    }
+
+    @Test
+    public void testFullPoolDropsInstances() {
+        TraceTelemetry[] items = new TraceTelemetry[6];
+        for (int i = 0; i < items.length; ++i) {
+            items[i] = pool.acquire();
+        }
+        for (TraceTelemetry item : items) {
+            TelemetryPool.recycle(item);
+        }
+
+        assertEquals(4, pool.idleCount());
+    }
+
+    @Test
+    public void testDisabledPoolCreatesNewInstances() {
+        TelemetryPool.setEnabled(false);
+
+        TraceTelemetry first = pool.acquire();
+        TelemetryPool.recycle(first);
+
+        assertNotSame(first, pool.acquire());
+        assertEquals(0, pool.idleCount());
+    }
+}
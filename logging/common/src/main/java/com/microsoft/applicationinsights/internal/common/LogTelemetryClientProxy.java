@@ -24,8 +24,10 @@ package com.microsoft.applicationinsights.internal.common;
 import java.util.Map;
 
 import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.OperationSampling;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
 import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 
@@ -87,6 +89,11 @@ public class LogTelemetryClientProxy implements TelemetryClientProxy {
      */
     public void sendEvent(ApplicationInsightsEvent event) {
 
+        if (OperationSampling.isSampledOut(event.isException() ? ExceptionTelemetry.class : TraceTelemetry.class)) {
+            // the operation was sampled out when it started
+            return;
+        }
+
         String formattedMessage = event.getMessage();
 
         Map<String, String> customParameters = event.getCustomParameters();
@@ -97,7 +104,8 @@ public class LogTelemetryClientProxy implements TelemetryClientProxy {
             exceptionTelemetry.setSeverityLevel(event.getNormalizedSeverityLevel());
             telemetry = exceptionTelemetry;
         } else {
-            TraceTelemetry traceTelemetry = new TraceTelemetry(formattedMessage);
+            TraceTelemetry traceTelemetry = TelemetryPool.TRACES.acquire();
+            traceTelemetry.setMessage(formattedMessage);
             traceTelemetry.setSeverityLevel(event.getNormalizedSeverityLevel());
             telemetry = traceTelemetry;
         }
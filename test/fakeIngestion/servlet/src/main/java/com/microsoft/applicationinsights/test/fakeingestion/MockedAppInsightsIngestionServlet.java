@@ -38,6 +38,10 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
     public static final String ENDPOINT_HEALTH_CHECK_RESPONSE = "Fake AI Endpoint Online";
     public static final String PING = "PING";
     public static final String PONG = "PONG";
+    public static final String QUICK_PULSE_PING = "/QuickPulseService.svc/ping";
+    public static final String QUICK_PULSE_POST = "/QuickPulseService.svc/post";
+    public static final String QUICK_PULSE_SUBSCRIBED_HEADER = "x-ms-qps-subscribed";
+    public static final String QUICK_PULSE_CONFIGURATION_ETAG_HEADER = "x-ms-qps-configuration-etag";
 
     private final String appid = "DUMMYAPPID";
 
@@ -49,6 +53,15 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
 
     private final Object multimapLock = new Object();
 
+    private final Queue<String> quickPulsePostsReceived;
+    private volatile boolean quickPulseSubscribed = true;
+    @GuardedBy("quickPulseLock")
+    private String quickPulseConfigurationETag;
+    @GuardedBy("quickPulseLock")
+    private String quickPulseConfiguration;
+
+    private final Object quickPulseLock = new Object();
+
     private MockedIngestionServletConfig config;
 
     private final ExecutorService itemExecutor = Executors.newSingleThreadExecutor();
@@ -60,6 +73,7 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
         telemetryReceived = new ConcurrentLinkedDeque<Envelope>();
         type2envelope = MultimapBuilder.treeKeys().arrayListValues().build();
         filters = new ArrayList<>();
+        quickPulsePostsReceived = new ConcurrentLinkedDeque<String>();
         config = new MockedIngestionServletConfig();
     }
 
@@ -115,6 +129,7 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
         synchronized (multimapLock) {
             type2envelope.clear();
         }
+        quickPulsePostsReceived.clear();
     }
 
     public boolean hasData() {
@@ -136,6 +151,31 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
         }
     }
 
+    public void setQuickPulseSubscribed(boolean subscribed) {
+        this.quickPulseSubscribed = subscribed;
+    }
+
+    /**
+     * Sets the collection configuration returned to QuickPulse clients which do not already have the given ETag.
+     *
+     * @param etag the ETag of the configuration, or null to stop sending one
+     * @param configurationJson the configuration, as sent by the QuickPulse service
+     */
+    public void setQuickPulseConfiguration(String etag, String configurationJson) {
+        synchronized (quickPulseLock) {
+            this.quickPulseConfigurationETag = etag;
+            this.quickPulseConfiguration = configurationJson;
+        }
+    }
+
+    public String nextQuickPulsePost() {
+        return quickPulsePostsReceived.poll();
+    }
+
+    public int getQuickPulsePostCount() {
+        return quickPulsePostsReceived.size();
+    }
+
     public void awaitAnyItems(long timeout, TimeUnit timeUnit) throws InterruptedException, ExecutionException, TimeoutException {
         waitForItems(Predicates.<Envelope>alwaysTrue(), 1, timeout, timeUnit);
     }
@@ -226,12 +266,54 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
                     w.close();
                 }
                 break;
+            case QUICK_PULSE_PING:
+            case QUICK_PULSE_POST:
+                handleQuickPulse(req, resp);
+                break;
             default:
                 resp.sendError(404, "Unknown URI");
                 break;
         }
     }
 
+    private void handleQuickPulse(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        StringWriter w = new StringWriter();
+        try {
+            CharStreams.copy(req.getReader(), w);
+            String body = w.toString();
+            if (QUICK_PULSE_POST.equals(req.getPathInfo())) {
+                if (config.isLogPayloadsEnabled()) {
+                    logit("raw quick pulse payload:\n\n"+body+"\n");
+                }
+                if (config.isRetainPayloadsEnabled()) {
+                    quickPulsePostsReceived.offer(body);
+                }
+            }
+
+            resp.setHeader(QUICK_PULSE_SUBSCRIBED_HEADER, String.valueOf(quickPulseSubscribed));
+            final String etag;
+            final String configuration;
+            synchronized (quickPulseLock) {
+                etag = quickPulseConfigurationETag;
+                configuration = quickPulseConfiguration;
+            }
+            if (etag != null && !etag.equals(req.getHeader(QUICK_PULSE_CONFIGURATION_ETAG_HEADER))) {
+                logit("Sending quick pulse configuration "+etag);
+                resp.setHeader(QUICK_PULSE_CONFIGURATION_ETAG_HEADER, etag);
+                resp.setContentType("application/json");
+                resp.getWriter().append(configuration);
+            }
+            resp.setStatus(200);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            resp.sendError(500, e.getLocalizedMessage());
+        }
+        finally {
+            w.close();
+        }
+    }
+
     private boolean filtersAllowItem(Envelope item) {
         if (this.filters.isEmpty()) {
             return true;
@@ -93,6 +93,22 @@ public class MockedAppInsightsIngestionServer {
         return data.getBaseData();
     }
 
+    public void setQuickPulseSubscribed(boolean subscribed) {
+        this.servlet.setQuickPulseSubscribed(subscribed);
+    }
+
+    public void setQuickPulseConfiguration(String etag, String configurationJson) {
+        this.servlet.setQuickPulseConfiguration(etag, configurationJson);
+    }
+
+    public String nextQuickPulsePost() {
+        return this.servlet.nextQuickPulsePost();
+    }
+
+    public int getQuickPulsePostCount() {
+        return this.servlet.getQuickPulsePostCount();
+    }
+
     public void awaitAnyItems(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
         servlet.awaitAnyItems(timeout, unit);
     }
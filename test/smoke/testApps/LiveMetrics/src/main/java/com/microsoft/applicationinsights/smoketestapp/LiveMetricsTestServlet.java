@@ -0,0 +1,17 @@
+package com.microsoft.applicationinsights.smoketestapp;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+@WebServlet("/*")
+public class LiveMetricsTestServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        // the request itself is what live metrics picks up
+        resp.getWriter().println("ok");
+    }
+}
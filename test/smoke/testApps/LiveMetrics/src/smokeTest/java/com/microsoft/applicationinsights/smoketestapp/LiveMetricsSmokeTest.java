@@ -0,0 +1,101 @@
+package com.microsoft.applicationinsights.smoketestapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.applicationinsights.smoketest.AiSmokeTest;
+import com.microsoft.applicationinsights.smoketest.HttpHelper;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class LiveMetricsSmokeTest extends AiSmokeTest {
+
+    private static final String STREAM_ID = "streamed-requests";
+    private static final String ETAG = "smoke-etag";
+    private static final String CONFIGURATION = "{\"ETag\":\"" + ETAG + "\",\"Metrics\":[],\"DocumentStreams\":["
+            + "{\"Id\":\"" + STREAM_ID + "\",\"DocumentFilterGroups\":[{\"TelemetryType\":\"Request\",\"Filters\":{\"Filters\":["
+            + "{\"FieldName\":\"Name\",\"Predicate\":\"Contains\",\"Comparand\":\"/streamed\"}]}}]}"
+            + "]}";
+
+    private static final int QUICK_PULSE_TIMEOUT_SECONDS = 30;
+
+    @After
+    public void resetQuickPulse() {
+        mockedIngestion.setQuickPulseSubscribed(true);
+        mockedIngestion.setQuickPulseConfiguration(null, null);
+    }
+
+    @Test
+    public void requestsMatchingThePushedStreamArePosted() throws Exception {
+        mockedIngestion.setQuickPulseConfiguration(ETAG, CONFIGURATION);
+
+        // the configuration only reaches the application with the response to its next ping or post
+        List<JsonObject> documents = new ArrayList<>();
+        Stopwatch sw = Stopwatch.createStarted();
+        while (documents.isEmpty() && sw.elapsed(TimeUnit.SECONDS) < QUICK_PULSE_TIMEOUT_SECONDS) {
+            HttpHelper.get(getBaseUrl() + "/other");
+            HttpHelper.get(getBaseUrl() + "/streamed");
+            TimeUnit.SECONDS.sleep(1);
+            documents.addAll(drainDocumentsOfStream(STREAM_ID));
+        }
+
+        assertFalse("no document was posted for stream " + STREAM_ID, documents.isEmpty());
+        for (JsonObject document : documents) {
+            assertEquals("Request", document.get("DocumentType").getAsString());
+            assertThat(document.get("Name").getAsString(), endsWith("/streamed"));
+            assertTrue(document.get("Success").getAsBoolean());
+        }
+    }
+
+    @Test
+    public void nothingIsPostedUntilSubscribed() throws Exception {
+        mockedIngestion.setQuickPulseSubscribed(false);
+        // a post already on its way is answered as unsubscribed, which sends the application back to pinging
+        TimeUnit.SECONDS.sleep(2);
+        drainDocumentsOfStream(STREAM_ID);
+
+        HttpHelper.get(getBaseUrl() + "/streamed");
+        // longer than the interval between two pings
+        TimeUnit.SECONDS.sleep(7);
+        assertEquals(0, mockedIngestion.getQuickPulsePostCount());
+
+        mockedIngestion.setQuickPulseSubscribed(true);
+        Stopwatch sw = Stopwatch.createStarted();
+        while (mockedIngestion.getQuickPulsePostCount() == 0 && sw.elapsed(TimeUnit.SECONDS) < QUICK_PULSE_TIMEOUT_SECONDS) {
+            TimeUnit.MILLISECONDS.sleep(250);
+        }
+        assertThat(mockedIngestion.getQuickPulsePostCount(), greaterThan(0));
+    }
+
+    /**
+     * Consumes the posts received so far.
+     *
+     * @return the documents of those posts which were selected by the given stream
+     */
+    private static List<JsonObject> drainDocumentsOfStream(String streamId) {
+        List<JsonObject> documents = new ArrayList<>();
+        JsonParser parser = new JsonParser();
+        String post;
+        while ((post = mockedIngestion.nextQuickPulsePost()) != null) {
+            for (JsonElement sample : parser.parse(post).getAsJsonArray()) {
+                for (JsonElement document : sample.getAsJsonObject().getAsJsonArray("Documents")) {
+                    for (JsonElement id : document.getAsJsonObject().getAsJsonArray("DocumentStreamIds")) {
+                        if (streamId.equals(id.getAsString())) {
+                            documents.add(document.getAsJsonObject());
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return documents;
+    }
+}
@@ -63,7 +63,7 @@ public class WebOperationIdTelemetryInitializer extends WebTelemetryInitializerB
         }
 
         // set operation parentId to the request telemetry's ID
-        if (telemetry != requestTelemetry &&
+        if (!telemetryContext.isHttpRequestTelemetry(telemetry) &&
                 CommonUtils.isNullOrEmpty(telemetry.getContext().getOperation().getParentId())) {
             telemetry.getContext().getOperation().setParentId(requestTelemetry.getId());
         }
@@ -23,8 +23,6 @@ package com.microsoft.applicationinsights.web.extensibility.initializers;
 
 import java.util.concurrent.ConcurrentMap;
 
-import javax.servlet.http.HttpServletRequest;
-
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import com.microsoft.applicationinsights.web.internal.RequestTelemetryContext;
 import com.microsoft.applicationinsights.web.internal.ThreadContext;
@@ -52,21 +50,17 @@ public class WebSyntheticRequestTelemetryInitializer extends WebTelemetryInitial
             return;
         }
 
-        HttpServletRequest request = telemetryContext.getHttpServletRequest();
-        if (request == null) {
-            return;
-        }
-
-        String syntheticSourceHeader = request.getHeader(SYNTHETIC_TEST_SOURCE);
+        // the headers are read through the context, which may be a snapshot without the servlet request
+        String syntheticSourceHeader = telemetryContext.getRequestHeader(SYNTHETIC_TEST_SOURCE);
         if (CommonUtils.isNullOrEmpty(syntheticSourceHeader)) {
-            handlePossibleGSMSyntheticRequest(telemetry, request);
+            handlePossibleGSMSyntheticRequest(telemetry, telemetryContext);
         } else {
-            handleCommonSyntheticRequest(syntheticSourceHeader, telemetry, request);
+            handleCommonSyntheticRequest(syntheticSourceHeader, telemetry, telemetryContext);
         }
     }
 
-    private void handlePossibleGSMSyntheticRequest(Telemetry telemetry, HttpServletRequest request) {
-        String gsmSyntheticTestRunId = request.getHeader(SYNTHETIC_TEST_RUN_ID);
+    private void handlePossibleGSMSyntheticRequest(Telemetry telemetry, RequestTelemetryContext telemetryContext) {
+        String gsmSyntheticTestRunId = telemetryContext.getRequestHeader(SYNTHETIC_TEST_RUN_ID);
         if (CommonUtils.isNullOrEmpty(gsmSyntheticTestRunId)) {
             return;
         }
@@ -83,12 +77,12 @@ public class WebSyntheticRequestTelemetryInitializer extends WebTelemetryInitial
 
         String userId = telemetry.getContext().getUser().getId();
         if (CommonUtils.isNullOrEmpty(userId)) {
-            String header = request.getHeader(SYNTHETIC_TEST_LOCATION);
+            String header = telemetryContext.getRequestHeader(SYNTHETIC_TEST_LOCATION);
             telemetry.getContext().getUser().setId(header);
         }
     }
 
-    private void handleCommonSyntheticRequest(String syntheticSourceHeader, Telemetry telemetry, HttpServletRequest request) {
+    private void handleCommonSyntheticRequest(String syntheticSourceHeader, Telemetry telemetry, RequestTelemetryContext telemetryContext) {
         String syntheticSource = telemetry.getContext().getOperation().getSyntheticSource();
         if (CommonUtils.isNullOrEmpty(syntheticSource)) {
             telemetry.getContext().getOperation().setSyntheticSource(syntheticSourceHeader);
@@ -96,29 +90,29 @@ public class WebSyntheticRequestTelemetryInitializer extends WebTelemetryInitial
 
         String userId = telemetry.getContext().getUser().getId();
         if (CommonUtils.isNullOrEmpty(userId)) {
-            String header = request.getHeader(SYNTHETIC_TEST_USER_ID);
+            String header = telemetryContext.getRequestHeader(SYNTHETIC_TEST_USER_ID);
             telemetry.getContext().getUser().setId(header);
         }
 
         String sessionId = telemetry.getContext().getSession().getId();
         if (CommonUtils.isNullOrEmpty(sessionId)) {
-            String header = request.getHeader(SYNTHETIC_TEST_SESSION_ID);
+            String header = telemetryContext.getRequestHeader(SYNTHETIC_TEST_SESSION_ID);
             telemetry.getContext().getSession().setId(header);
         }
 
         String operationId = telemetry.getContext().getOperation().getId();
         if (CommonUtils.isNullOrEmpty(operationId)) {
-            String header = request.getHeader(SYNTHETIC_TEST_OPERATION_ID);
+            String header = telemetryContext.getRequestHeader(SYNTHETIC_TEST_OPERATION_ID);
             telemetry.getContext().getOperation().setId(header);
         }
 
-        putInProperties(telemetry, request, SYNTHETIC_TEST_TEST_NAME, SYNTHETIC_TEST_RUN_ID, SYNTHETIC_TEST_LOCATION);
+        putInProperties(telemetry, telemetryContext, SYNTHETIC_TEST_TEST_NAME, SYNTHETIC_TEST_RUN_ID, SYNTHETIC_TEST_LOCATION);
     }
 
-    private void putInProperties(Telemetry telemetry, HttpServletRequest request, String... headers) {
+    private void putInProperties(Telemetry telemetry, RequestTelemetryContext telemetryContext, String... headers) {
         ConcurrentMap<String, String> properties = telemetry.getContext().getProperties();
         for (String header : headers) {
-            String headerValue = request.getHeader(header);
+            String headerValue = telemetryContext.getRequestHeader(header);
             if (headerValue != null) {
                 properties.put(header, headerValue);
             }
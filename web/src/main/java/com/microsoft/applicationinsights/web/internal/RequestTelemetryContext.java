@@ -22,10 +22,16 @@
 package com.microsoft.applicationinsights.web.internal;
 
 import com.microsoft.applicationinsights.web.internal.correlation.tracecontext.Tracestate;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.http.HttpServletRequest;
 
+import com.microsoft.applicationinsights.internal.channel.samplingV2.OperationSampling;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
 import com.microsoft.applicationinsights.web.internal.cookies.SessionCookie;
 import com.microsoft.applicationinsights.web.internal.cookies.UserCookie;
 import com.microsoft.applicationinsights.web.internal.correlation.CorrelationContext;
@@ -34,6 +40,8 @@ import com.microsoft.applicationinsights.web.internal.correlation.CorrelationCon
  * Created by yonisha on 2/2/2015.
  */
 public class RequestTelemetryContext {
+    private static final String SYNTHETIC_TEST_HEADER_PREFIX = "SyntheticTest-";
+
     private RequestTelemetry requestTelemetry;
     private long requestStartTimeTicks;
     private SessionCookie sessionCookie;
@@ -44,6 +52,14 @@ public class RequestTelemetryContext {
     private Tracestate tracestate;
     private int traceflag;
     private final AtomicInteger currentChildId = new AtomicInteger();
+    private volatile OperationSampling.Decision samplingDecision;
+
+    // set on snapshots only, the request telemetry of the live context
+    private final RequestTelemetry sourceRequestTelemetry;
+    // read once from the servlet request, or captured by a snapshot
+    private volatile Map<String, String> syntheticTestHeaders;
+    // the last snapshot of this context, shared by the items tracked while the values it copied are unchanged
+    private volatile RequestTelemetryContext snapshot;
 
     /**
      * Constructs new RequestTelemetryContext object.
@@ -72,6 +88,58 @@ public class RequestTelemetryContext {
         requestStartTimeTicks = ticks;
         this.servletRequest = servletRequest;
         correlationContext = new CorrelationContext();
+        sourceRequestTelemetry = null;
+    }
+
+    private RequestTelemetryContext(RequestTelemetryContext source) {
+        requestTelemetry = new RequestTelemetry();
+        requestTelemetry.setId(source.requestTelemetry.getId());
+        requestTelemetry.setName(source.requestTelemetry.getName());
+        // the operation, user and session values of the request
+        requestTelemetry.getContext().getTags().putAll(source.requestTelemetry.getContext().getTags());
+        requestStartTimeTicks = source.requestStartTimeTicks;
+        sessionCookie = source.sessionCookie;
+        userCookie = source.userCookie;
+        isNewSession = source.isNewSession;
+        correlationContext = new CorrelationContext();
+        correlationContext.getMappings().putAll(source.correlationContext.getMappings());
+        correlationContext.append(source.correlationContext.toString());
+        tracestate = source.tracestate;
+        traceflag = source.traceflag;
+        samplingDecision = source.samplingDecision;
+        sourceRequestTelemetry = source.sourceRequestTelemetry == null ? source.requestTelemetry : source.sourceRequestTelemetry;
+        syntheticTestHeaders = source.getSyntheticTestHeaders();
+    }
+
+    /**
+     * Gets a copy of this context that other threads can read once the request completed: it holds the values
+     * read by the web telemetry initializers, and no reference to the servlet request, which the container reuses.
+     * The copy is made once, and again only when one of the values it holds was replaced, such as the request name
+     * set by the request name interceptors. It must not be modified.
+     * @return The snapshot.
+     */
+    RequestTelemetryContext snapshot() {
+        RequestTelemetryContext current = snapshot;
+        if (current == null || !current.isSnapshotOf(this)) {
+            current = new RequestTelemetryContext(this);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    private boolean isSnapshotOf(RequestTelemetryContext source) {
+        RequestTelemetry request = source.requestTelemetry;
+        // the values are replaced rather than modified in place, comparing the references is enough
+        return requestTelemetry.getName() == request.getName()
+                && requestTelemetry.getId() == request.getId()
+                && requestTelemetry.getContext().getTags().size() == request.getContext().getTags().size()
+                && correlationContext.getMappings().size() == source.correlationContext.getMappings().size()
+                && sessionCookie == source.sessionCookie
+                && userCookie == source.userCookie
+                && isNewSession == source.isNewSession
+                && tracestate == source.tracestate
+                && traceflag == source.traceflag
+                && samplingDecision == source.samplingDecision;
     }
 
     public int getTraceflag() {
@@ -154,14 +222,74 @@ public class RequestTelemetryContext {
         return isNewSession;
     }
 
+    /**
+     * Gets the servlet request.
+     * @return The servlet request, null for a snapshot of the context.
+     */
     public HttpServletRequest getHttpServletRequest() {
         return servletRequest;
     }
 
+    /**
+     * Gets a header of the servlet request. A snapshot of the context only has the synthetic test headers.
+     * @param name The header name.
+     * @return The header value, null if the request does not have it.
+     */
+    public String getRequestHeader(String name) {
+        if (servletRequest != null) {
+            return servletRequest.getHeader(name);
+        }
+        Map<String, String> headers = syntheticTestHeaders;
+        return headers == null ? null : headers.get(name);
+    }
+
+    /**
+     * Tells whether the item is the http request telemetry of this context, or of the context it is a snapshot of.
+     * @param telemetry The telemetry item.
+     * @return True if the item is the request telemetry.
+     */
+    public boolean isHttpRequestTelemetry(Telemetry telemetry) {
+        return telemetry == requestTelemetry || (sourceRequestTelemetry != null && telemetry == sourceRequestTelemetry);
+    }
+
+    /**
+     * Sets the sampling decision made when the request started.
+     * @param samplingDecision The sampling decision, null if none was made.
+     */
+    public void setSamplingDecision(OperationSampling.Decision samplingDecision) {
+        this.samplingDecision = samplingDecision;
+    }
+
+    /**
+     * Gets the sampling decision made when the request started.
+     * @return The sampling decision, null if none was made.
+     */
+    public OperationSampling.Decision getSamplingDecision() {
+        return samplingDecision;
+    }
+
     /**
      * @return the currentChildId
      */
     public int incrementChildId() {
         return this.currentChildId.addAndGet(1);
     }
+
+    private Map<String, String> getSyntheticTestHeaders() {
+        Map<String, String> headers = syntheticTestHeaders;
+        if (headers != null) {
+            return headers;
+        }
+        headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        Enumeration<String> names = servletRequest == null ? null : servletRequest.getHeaderNames();
+        while (names != null && names.hasMoreElements()) {
+            String name = names.nextElement();
+            if (name.regionMatches(true, 0, SYNTHETIC_TEST_HEADER_PREFIX, 0, SYNTHETIC_TEST_HEADER_PREFIX.length())) {
+                headers.put(name, servletRequest.getHeader(name));
+            }
+        }
+        headers = Collections.unmodifiableMap(headers);
+        syntheticTestHeaders = headers;
+        return headers;
+    }
 }
@@ -23,6 +23,7 @@ package com.microsoft.applicationinsights.web.internal;
 
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.internal.agent.AbstractSdkBridge;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.OperationSampling;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.web.internal.correlation.TelemetryCorrelationUtils;
 import com.microsoft.applicationinsights.web.internal.correlation.TraceContextCorrelation;
@@ -52,6 +53,11 @@ class SdkBridgeImpl extends AbstractSdkBridge<RequestTelemetryContext> {
         }
     }
 
+    @Override
+    public boolean isSampledOut(RequestTelemetryContext requestTelemetryContext, String telemetryType) {
+        return OperationSampling.isSampledOut(requestTelemetryContext.getSamplingDecision(), telemetryType);
+    }
+
     @Override
     public String generateChildDependencyTarget(String requestContext, boolean w3c) {
         if (w3c) {
@@ -21,6 +21,10 @@
 
 package com.microsoft.applicationinsights.web.internal;
 
+import com.microsoft.applicationinsights.AsyncTrackPipeline;
+import com.microsoft.applicationinsights.extensibility.ThreadStateCapture;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.OperationSampling;
+
 /**
  * Created by yonisha on 2/16/2015.
  */
@@ -31,12 +35,34 @@ public class ThreadContext {
 
     private static final InheritableThreadLocal<RequestTelemetryContext> threadLocal = new InheritableThreadLocal<>();
 
+    static {
+        // the web initializers read the request context of the tracking thread, from a snapshot as the servlet
+        // request may be recycled by the time the item is processed
+        AsyncTrackPipeline.addThreadStateCapture(new ThreadStateCapture() {
+            @Override
+            public Object capture() {
+                RequestTelemetryContext context = threadLocal.get();
+                return context == null ? null : context.snapshot();
+            }
+
+            @Override
+            public void restore(Object state) {
+                if (state == null) {
+                    remove();
+                } else {
+                    setRequestTelemetryContext((RequestTelemetryContext) state);
+                }
+            }
+        });
+    }
+
     /**
      * Set the context in ThreadLocal
      * @param telemetryContext
      */
     public static void setRequestTelemetryContext(RequestTelemetryContext telemetryContext) {
         threadLocal.set(telemetryContext);
+        OperationSampling.setCurrent(telemetryContext == null ? null : telemetryContext.getSamplingDecision());
     }
 
     /**
@@ -52,5 +78,6 @@ public class ThreadContext {
      */
     public static void remove() {
         threadLocal.remove();
+        OperationSampling.setCurrent(null);
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.microsoft.applicationinsights.web.internal.httputils;
 
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.common.CommonUtils;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.OperationSampling;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.ThreadLocalCleaner;
 import com.microsoft.applicationinsights.telemetry.Duration;
@@ -95,6 +96,14 @@ public final class HttpServerHandler {
         requestTelemetry.getContext().getUser().setUserAgent(userAgent);
         requestTelemetry.setTimestamp(new Date(context.getRequestStartTimeTicks()));
         webModulesContainer.invokeOnBeginRequest(request, response);
+
+        // the operation id is known once the correlation is done by the modules
+        OperationSampling.Decision samplingDecision =
+            OperationSampling.decide(requestTelemetry.getContext().getOperation().getId());
+        if (samplingDecision != null) {
+            context.setSamplingDecision(samplingDecision);
+            OperationSampling.setCurrent(samplingDecision);
+        }
         return context;
     }
 
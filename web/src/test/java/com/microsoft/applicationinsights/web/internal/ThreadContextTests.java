@@ -21,9 +21,15 @@
 
 package com.microsoft.applicationinsights.web.internal;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.web.utils.ThreadContextValidator;
 
 import java.util.ArrayList;
@@ -137,6 +143,54 @@ public class ThreadContextTests {
                             .getName());
     }
 
+    @Test
+    public void snapshotDoesNotReadTheServletRequest() {
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(Collections.enumeration(Arrays.asList("SyntheticTest-Source", "Host"))).when(request).getHeaderNames();
+        Mockito.doReturn("source").when(request).getHeader("SyntheticTest-Source");
+        Mockito.doReturn("host").when(request).getHeader("Host");
+
+        RequestTelemetryContext context = new RequestTelemetryContext(0, request);
+        RequestTelemetry requestTelemetry = context.getHttpRequestTelemetry();
+        requestTelemetry.setName("GET /a");
+        requestTelemetry.getContext().getOperation().setId("operation");
+        requestTelemetry.getContext().getUser().setId("user");
+        context.getCorrelationContext().getMappings().put("key", "value");
+
+        RequestTelemetryContext snapshot = context.snapshot();
+        // the container recycles the request, and the request context moves on
+        Mockito.reset(request);
+        requestTelemetry.getContext().getOperation().setId("other");
+
+        Assert.assertNull(snapshot.getHttpServletRequest());
+        Assert.assertEquals("source", snapshot.getRequestHeader("synthetictest-source"));
+        Assert.assertNull(snapshot.getRequestHeader("Host"));
+        Assert.assertEquals("GET /a", snapshot.getHttpRequestTelemetry().getName());
+        Assert.assertEquals("operation", snapshot.getHttpRequestTelemetry().getContext().getOperation().getId());
+        Assert.assertEquals("user", snapshot.getHttpRequestTelemetry().getContext().getUser().getId());
+        Assert.assertEquals(requestTelemetry.getId(), snapshot.getHttpRequestTelemetry().getId());
+        Assert.assertEquals("value", snapshot.getCorrelationContext().getMappings().get("key"));
+        Assert.assertTrue(snapshot.isHttpRequestTelemetry(requestTelemetry));
+        Mockito.verifyZeroInteractions(request);
+    }
+
+    @Test
+    public void snapshotIsReusedUntilTheRequestIsRenamed() {
+        RequestTelemetryContext context = new RequestTelemetryContext(0);
+        context.getHttpRequestTelemetry().setName("GET /a");
+
+        RequestTelemetryContext snapshot = context.snapshot();
+        Assert.assertSame(snapshot, context.snapshot());
+
+        // as done by the request name interceptors once the handler is known
+        context.getHttpRequestTelemetry().setName("GET /a/{id}");
+        RequestTelemetryContext renamed = context.snapshot();
+
+        Assert.assertNotSame(snapshot, renamed);
+        Assert.assertEquals("GET /a/{id}", renamed.getHttpRequestTelemetry().getName());
+        Assert.assertSame(renamed, context.snapshot());
+    }
+
     private static class MyRunnable implements Runnable {
         private final Runnable task;
         private final RequestTelemetryContext rtc;